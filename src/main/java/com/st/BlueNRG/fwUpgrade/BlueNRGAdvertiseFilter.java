@@ -36,20 +36,25 @@
  */
 package com.st.BlueNRG.fwUpgrade;
 
-import android.util.SparseArray;
-
 import androidx.annotation.Nullable;
 
 import com.st.BlueSTSDK.Node;
 import com.st.BlueSTSDK.Utils.advertise.AdvertiseFilter;
 import com.st.BlueSTSDK.Utils.advertise.AdvertiseParser;
 import com.st.BlueSTSDK.Utils.advertise.BleAdvertiseInfo;
+import com.st.BlueSTSDK.gui.NodeScanFilter;
 
-import java.util.Arrays;
 import java.util.UUID;
 
-import static com.st.BlueSTSDK.Utils.advertise.AdvertiseParser.split;
-
+/**
+ * Accept the advertise of the boards running the BlueNRG OTA service.
+ * <p>
+ * The filter runs for each advertise received by the scanner, so the advertise is parsed in place
+ * without allocations. The info of an accepted advertise is reused while the same board name is
+ * received again: the filter doesn't receive the device address, and the name is the only
+ * advertised data stored in the info.
+ * </p>
+ */
 public class BlueNRGAdvertiseFilter implements AdvertiseFilter {
 
     private static final String DEFAULT_NAME = "BlueNRG OTA";
@@ -58,6 +63,37 @@ public class BlueNRGAdvertiseFilter implements AdvertiseFilter {
                     (byte)0xe3,(byte)0xba,(byte)0xa7,(byte)0x08,(byte)0x00,(byte)0x20,(byte)0x0c,(byte)0x9a,
                     (byte)0x66};
 
+    /**
+     * uuid exported by the accepted advertise, computed once
+     */
+    private static final UUID OTA_SERVICE = UUID.nameUUIDFromBytes(OTA_SERVICE_UUID);
+
+    /**
+     * number of board names with their info kept by the filter
+     */
+    private static final int INFO_CACHE_SIZE = 16;
+
+    private static final byte[] NO_NAME = new byte[0];
+
+    /**
+     * @return scan filter that accepts only the advertise with the OTA service, the advertise
+     * accepted by this class
+     */
+    public static NodeScanFilter getScanFilter(){
+        return new NodeScanFilter()
+                .withServiceUuid(NodeScanFilter.uuidFromAdvertise(OTA_SERVICE_UUID));
+    }
+
+    /**
+     * raw name of the cached info, NO_NAME for the info with the default name
+     */
+    private final byte[][] mCachedNames = new byte[INFO_CACHE_SIZE][];
+    private final BlueNRGAdvertiseInfo[] mCachedInfo = new BlueNRGAdvertiseInfo[INFO_CACHE_SIZE];
+
+    /**
+     * next cache position to replace
+     */
+    private int mNextCacheSlot = 0;
 
     public class BlueNRGAdvertiseInfo implements BleAdvertiseInfo {
 
@@ -124,23 +160,88 @@ public class BlueNRGAdvertiseFilter implements AdvertiseFilter {
         }
     }
 
-    private String getDeviceName(SparseArray<byte[]>  advData){
-        byte nameData[] = advData.get(AdvertiseParser.DEVICE_NAME_TYPE);
-        if(nameData!=null && nameData.length>0)
-            return  new String(nameData);
-        return DEFAULT_NAME;
+    private static boolean isOtaServiceUuid(byte[] advData, int offset, int length){
+        if(length!=OTA_SERVICE_UUID.length)
+            return false;
+        for(int i = 0 ; i<length ; i++){
+            if(advData[offset+i]!=OTA_SERVICE_UUID[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean equals(byte[] name, byte[] advData, int offset, int length){
+        if(name==null || name.length!=length)
+            return false;
+        for(int i = 0 ; i<length ; i++){
+            if(advData[offset+i]!=name[i])
+                return false;
+        }
+        return true;
     }
 
+    /**
+     * find the info with the same name or create a new one
+     * @param advData advertise data
+     * @param nameOffset offset of the name in advData
+     * @param nameLength name length, 0 if the advertise doesn't contain the name
+     * @return info for the board name
+     */
+    private synchronized BlueNRGAdvertiseInfo getInfo(byte[] advData, int nameOffset,
+                                                      int nameLength){
+        for(int i = 0 ; i<INFO_CACHE_SIZE ; i++){
+            if(equals(mCachedNames[i],advData,nameOffset,nameLength))
+                return mCachedInfo[i];
+        }
+        String name;
+        byte[] rawName;
+        if(nameLength>0) {
+            name = new String(advData, nameOffset, nameLength);
+            rawName = new byte[nameLength];
+            System.arraycopy(advData,nameOffset,rawName,0,nameLength);
+        }else{
+            name = DEFAULT_NAME;
+            rawName = NO_NAME;
+        }
+        BlueNRGAdvertiseInfo info = new BlueNRGAdvertiseInfo(name,OTA_SERVICE);
+        mCachedNames[mNextCacheSlot] = rawName;
+        mCachedInfo[mNextCacheSlot] = info;
+        mNextCacheSlot = (mNextCacheSlot+1) % INFO_CACHE_SIZE;
+        return info;
+    }
+
+    /**
+     * scan the advertise fields in place, as {@link AdvertiseParser#split(byte[])}: when a field
+     * is repeated the last one is used
+     * @param advData advertise data
+     * @return the info if the advertise exports the OTA service, null otherwise
+     */
     @Nullable
     @Override
     public BleAdvertiseInfo filter(byte[] advData) {
-        SparseArray<byte[]> splitAdv = split(advData);
-        byte[] exportedService = splitAdv.get(AdvertiseParser.INCOMPLETE_LIST_OF_128_UUID);
-        if(exportedService!=null && Arrays.equals(OTA_SERVICE_UUID,exportedService)){
-            return new BlueNRGAdvertiseInfo(getDeviceName(splitAdv),
-                    UUID.nameUUIDFromBytes(OTA_SERVICE_UUID));
+        boolean isOtaNode = false;
+        int nameOffset = 0;
+        int nameLength = 0;
+        int ptr = 0;
+        while (ptr < advData.length - 2) {
+            int length = advData[ptr++] & 0xFF;
+            if (length == 0)
+                break;
+            int end = ptr + length;
+            if (end > advData.length)
+                break;
+            byte type = advData[ptr++];
+            int dataLength = end - ptr;
+            if (type == AdvertiseParser.INCOMPLETE_LIST_OF_128_UUID) {
+                isOtaNode = isOtaServiceUuid(advData, ptr, dataLength);
+            } else if (type == AdvertiseParser.DEVICE_NAME_TYPE) {
+                nameOffset = ptr;
+                nameLength = dataLength;
+            }
+            ptr = end;
         }
-        return null;
-
+        if(!isOtaNode)
+            return null;
+        return getInfo(advData,nameOffset,nameLength);
     }
-}
+}
\ No newline at end of file
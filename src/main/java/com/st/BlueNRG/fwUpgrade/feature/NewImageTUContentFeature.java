@@ -38,13 +38,16 @@ package com.st.BlueNRG.fwUpgrade.feature;
 import com.st.BlueSTSDK.Features.DeviceTimestampFeature;
 import com.st.BlueSTSDK.Features.Field;
 import com.st.BlueSTSDK.Node;
-
-import com.st.BlueSTSDK.Utils.NumberConversion;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
 
 public class NewImageTUContentFeature extends DeviceTimestampFeature {
 
     private static final String FEATURE_NAME = "Write byte sequence";
-    private static final int OTA_SUPPORT_INFO_SIZE = 4; // Sequence Number (2 bytes), NeedsAcks (1 byte), Checksum (1 byte)
+
+    /**
+     * pool of messages used for upload the image
+     */
+    private final OtaFrameBuilder mFrameBuilder = new OtaFrameBuilder();
 
     /**
      * build a new disabled feature, that doesn't need to be initialized in the node side
@@ -64,49 +67,16 @@ public class NewImageTUContentFeature extends DeviceTimestampFeature {
         return -1;
     }
 
-    private byte checkSum(byte message[], int start,int destPos){
-        byte checksum = 0;
-        for (int i=start; i<destPos;i++){
-            checksum ^= message[i];
-        }
-        return checksum;
-    }
-
-    public void upload(Runnable onLastWriteSequenceDone,byte imageToSend[] ,byte OTA_ACK_EVERY,byte lastOTA_ACK_EVERY, int fw_image_packet_size, short SeqNum){
-        int Write_Data_Len = fw_image_packet_size + OTA_SUPPORT_INFO_SIZE;// Set number of bytes sent on a single write without response
-        byte payload[] = new byte[fw_image_packet_size];
-        byte temp[];
+    public void upload(Runnable onLastWriteSequenceDone,FirmwareImage imageToSend ,byte OTA_ACK_EVERY,byte lastOTA_ACK_EVERY, int fw_image_packet_size, short SeqNum){
         int end = (lastOTA_ACK_EVERY-(SeqNum+1)%OTA_ACK_EVERY)%lastOTA_ACK_EVERY+1; // ok????
         for (int i=0; i<end;i++){
-            byte message[] = new byte[Write_Data_Len];
-            int destPos = 0;
-            byte needsAck;
-            System.arraycopy(imageToSend,SeqNum*fw_image_packet_size,payload,0,fw_image_packet_size);
-
-            // prepare message
-            // checksum:1 byte + payload:fw_image_packet_size byte +  needsAck:1 byte + SeqNum:2 byte
-            destPos +=1;//checksum
-            int start = destPos;
-            System.arraycopy(payload,0,message,destPos,payload.length);
-            destPos +=fw_image_packet_size;//payload
-            if(i==(end-1))
-                needsAck = 1;
-            else
-                needsAck = 0;
-            message[destPos] = needsAck;
-            destPos +=1;//needsAck
-            temp = NumberConversion.LittleEndian.uint16ToBytes(SeqNum);
-            System.arraycopy(temp,0,message,destPos,temp.length);
-            destPos +=2;//SeqNum
-            byte checksum = checkSum(message,start,destPos);
-            message[0] = checksum;
-
-            if(needsAck == 0) {
-                writeData(message);
+            boolean needsAck = i==(end-1);
+            OtaFrameBuilder.Frame message = mFrameBuilder.build(imageToSend,fw_image_packet_size,
+                    SeqNum,needsAck, needsAck ? onLastWriteSequenceDone : null);
+            // the message is released when it is written
+            writeData(message.data,message);
+            if(!needsAck)
                 SeqNum++;
-            }else{
-                writeData(message,onLastWriteSequenceDone);
-            }
         }
     }
 
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueNRG.fwUpgrade.feature;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+
+import java.util.ArrayDeque;
+
+/**
+ * Build the messages sent to the BlueNRG OTA service:
+ * checksum:1 byte + payload:packetSize byte + needsAck:1 byte + SeqNum:2 byte (little endian)
+ * <p>
+ * The messages are kept in a pool: the write is asynchronous so a message is reused only when
+ * the node notify that it was written.
+ * </p>
+ */
+class OtaFrameBuilder {
+
+    static final int OTA_SUPPORT_INFO_SIZE = 4; // Sequence Number (2 bytes), NeedsAcks (1 byte), Checksum (1 byte)
+
+    /**
+     * message to send, it is also the callback to use when the message is written
+     */
+    class Frame implements Runnable{
+        final byte[] data;
+        private @Nullable Runnable mOnWritten;
+
+        private Frame(int length){
+            data = new byte[length];
+        }
+
+        /**
+         * called when the message is written, it release the message and call the user callback
+         */
+        @Override
+        public void run() {
+            Runnable onWritten = mOnWritten;
+            mOnWritten = null;
+            release(this);
+            if(onWritten!=null)
+                onWritten.run();
+        }
+    }
+
+    private final ArrayDeque<Frame> mFreeFrames = new ArrayDeque<>();
+    private int mFrameLength = 0;
+    private int mNAllocatedFrame = 0;
+
+    private synchronized @NonNull Frame obtain(int frameLength){
+        if(frameLength!=mFrameLength){
+            //the packet size changed, the old messages are not useful anymore
+            mFreeFrames.clear();
+            mFrameLength = frameLength;
+        }
+        Frame frame = mFreeFrames.pollFirst();
+        if(frame==null){
+            mNAllocatedFrame++;
+            frame = new Frame(frameLength);
+        }
+        return frame;
+    }
+
+    private synchronized void release(@NonNull Frame frame){
+        if(frame.data.length==mFrameLength)
+            mFreeFrames.addFirst(frame);
+    }
+
+    /**
+     * @return number of message allocated by this builder
+     */
+    synchronized int getNAllocatedFrame(){
+        return mNAllocatedFrame;
+    }
+
+    /**
+     * build the message that contains a packet of the image
+     * @param image image to send
+     * @param packetSize number of image bytes in the message
+     * @param seqNum packet number
+     * @param needsAck true if the node has to answer to this message
+     * @param onWritten callback to run after that the message is written
+     * @return message to send, the message will return to the pool when its run method is called
+     */
+    @NonNull Frame build(@NonNull FirmwareImage image, int packetSize, short seqNum,
+                         boolean needsAck, @Nullable Runnable onWritten){
+        Frame frame = obtain(packetSize + OTA_SUPPORT_INFO_SIZE);
+        final byte[] message = frame.data;
+        int destPos = 1; // checksum
+        byte checksum = image.readWithXor((long)(seqNum & 0xFFFF)*packetSize,message,destPos,packetSize);
+        destPos += packetSize;
+        byte ack = (byte) (needsAck ? 1 : 0);
+        byte seqLow = (byte) (seqNum & 0xFF);
+        byte seqHigh = (byte) ((seqNum >> 8) & 0xFF);
+        message[destPos] = ack;
+        message[destPos+1] = seqLow;
+        message[destPos+2] = seqHigh;
+        message[0] = (byte) (checksum ^ ack ^ seqLow ^ seqHigh);
+        frame.mOnWritten = onWritten;
+        return frame;
+    }
+
+}
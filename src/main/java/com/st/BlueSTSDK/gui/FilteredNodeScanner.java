@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import com.st.BlueSTSDK.Manager;
+import com.st.BlueSTSDK.Node;
+import com.st.BlueSTSDK.Utils.advertise.AdvertiseFilter;
+import com.st.BlueSTSDK.Utils.advertise.BleAdvertiseInfo;
+import com.st.BlueSTSDK.Utils.advertise.BlueSTSDKAdvertiseFilter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Scan for the nodes with the criteria of a {@link NodeScanFilter} applied by the bluetooth
+ * controller.
+ * <p>
+ * The accepted advertise are parsed as the manager does and the new nodes are added to the
+ * manager, so its listeners are notified with
+ * {@link Manager.ManagerListener#onNodeDiscovered(Manager, Node)}.
+ * The manager doesn't know about this scan: it doesn't notify the discovery start/stop and the
+ * rssi of the nodes already in the manager is not updated.
+ * </p>
+ * <p>
+ * The platform can refuse the scan after it is started, in this case the
+ * {@link ScanFailedListener} is notified so the caller can use the manager discovery.
+ * </p>
+ */
+@RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+public class FilteredNodeScanner {
+
+    private static final String TAG = FilteredNodeScanner.class.getCanonicalName();
+
+    /**
+     * notified when the platform stops the scan with an error
+     */
+    public interface ScanFailedListener {
+        /**
+         * called in the main thread when the scan can not run
+         * @param scanner scanner that was stopped
+         * @param errorCode error reported by {@link ScanCallback#onScanFailed(int)}
+         */
+        void onScanFailed(@NonNull FilteredNodeScanner scanner, int errorCode);
+    }
+
+    private final Manager mManager;
+    private final NodeScanFilter mFilter;
+    private final List<AdvertiseFilter> mAdvertiseParsers;
+
+    private BluetoothLeScanner mScanner;
+    private boolean mIsScanning = false;
+    private int mScanMode;
+    private @Nullable ScanFailedListener mFailedListener;
+
+    private final ScanCallback mScanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            onAdvertise(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for(ScanResult result : results)
+                onAdvertise(result);
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.w(TAG,"Scan failed: "+errorCode);
+            mIsScanning = false;
+            ScanFailedListener listener = mFailedListener;
+            if(listener!=null)
+                listener.onScanFailed(FilteredNodeScanner.this,errorCode);
+        }
+    };
+
+    /**
+     * scanner for the BlueST nodes
+     * @param manager manager where add the discovered nodes
+     * @param filter criteria applied by the controller
+     */
+    public FilteredNodeScanner(@NonNull Manager manager, @NonNull NodeScanFilter filter){
+        this(manager,filter,
+                Collections.<AdvertiseFilter>singletonList(new BlueSTSDKAdvertiseFilter()));
+    }
+
+    /**
+     * @param manager manager where add the discovered nodes
+     * @param filter criteria applied by the controller
+     * @param advertiseParsers filters used for build the node advertise info, the first one that
+     *                         accepts the advertise is used
+     */
+    public FilteredNodeScanner(@NonNull Manager manager, @NonNull NodeScanFilter filter,
+                               @NonNull List<AdvertiseFilter> advertiseParsers){
+        mManager = manager;
+        mFilter = filter;
+        mAdvertiseParsers = advertiseParsers;
+    }
+
+    /**
+     * @param listener object to notify when the scan fails after it is started, null to remove it
+     */
+    public void setScanFailedListener(@Nullable ScanFailedListener listener){
+        mFailedListener = listener;
+    }
+
+    /**
+     * start a low latency scan
+     * @return false if the scan can not start, for example if the bluetooth is off or the
+     * location permission is missing
+     */
+    public boolean start(){
+        return start(ScanSettings.SCAN_MODE_LOW_LATENCY);
+    }
+
+    /**
+     * start the scan, a running scan is restarted only if the mode is different
+     * @param scanMode one of the ScanSettings.SCAN_MODE_* constants
+     * @return false if the scan can not start, for example if the bluetooth is off or the
+     * location permission is missing
+     */
+    public boolean start(int scanMode){
+        if(mIsScanning && mScanMode==scanMode)
+            return true;
+        stop();
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if(adapter==null || !adapter.isEnabled())
+            return false;
+        mScanner = adapter.getBluetoothLeScanner();
+        if(mScanner==null)
+            return false;
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(scanMode)
+                .build();
+        try {
+            mScanner.startScan(mFilter.toScanFilters(), settings, mScanCallback);
+        }catch (SecurityException | IllegalStateException e){
+            Log.w(TAG,"Impossible start the scan: "+e.getMessage());
+            return false;
+        }
+        mIsScanning = true;
+        mScanMode = scanMode;
+        return true;
+    }
+
+    /**
+     * stop the scan
+     */
+    public void stop(){
+        if(!mIsScanning)
+            return;
+        mIsScanning = false;
+        try {
+            mScanner.stopScan(mScanCallback);
+        }catch (IllegalStateException e){
+            //the bluetooth is turned off, the scan is already stopped
+            Log.w(TAG,"Impossible stop the scan: "+e.getMessage());
+        }
+    }
+
+    public boolean isScanning(){
+        return mIsScanning;
+    }
+
+    private void onAdvertise(ScanResult result){
+        ScanRecord record = result.getScanRecord();
+        if(record==null)
+            return;
+        byte[] advertise = record.getBytes();
+        //the controller can run out of filter slots and report all the advertise
+        if(advertise==null || !mFilter.matches(advertise))
+            return;
+        BluetoothDevice device = result.getDevice();
+        if(mManager.getNodeWithTag(device.getAddress())!=null)
+            return;
+        for(AdvertiseFilter parser : mAdvertiseParsers){
+            BleAdvertiseInfo info = parser.filter(advertise);
+            if(info!=null){
+                mManager.addNode(new Node(device,result.getRssi(),info));
+                return;
+            }
+        }
+    }
+}
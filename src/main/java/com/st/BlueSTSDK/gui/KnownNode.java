@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueSTSDK.Node;
+import com.st.BlueSTSDK.Utils.advertise.BleAdvertiseInfo;
+
+import java.util.Locale;
+
+/**
+ * Advertise data of a node seen in a previous scan, stored by {@link KnownNodeRegistry}.
+ * It can be used to build the node without waiting for a new advertise.
+ */
+public class KnownNode implements BleAdvertiseInfo {
+
+    private static final int RECORD_VERSION = 1;
+    private static final String SEPARATOR = ",";
+    private static final int N_FIELDS = 12;
+
+    private final String mTag;
+    private final long mLastSeen;
+    private final int mRssi;
+    private final String mName;
+    private final Node.Type mBoardType;
+    private final byte mDeviceId;
+    private final short mProtocolVersion;
+    private final byte mTxPower;
+    private final long mFeatureMap;
+    private final long mOptionBytes;
+    private final boolean mIsSleeping;
+    private final boolean mHasGeneralPurpose;
+
+    KnownNode(@NonNull String tag, long lastSeen, int rssi, @NonNull BleAdvertiseInfo info){
+        this(tag,lastSeen,rssi,info.getName(),info.getBoardType(),info.getDeviceId(),
+                info.getProtocolVersion(),info.getTxPower(),info.getFeatureMap(),
+                info.getOptionBytes(),info.isBoardSleeping(),info.isHasGeneralPurpose());
+    }
+
+    private KnownNode(String tag, long lastSeen, int rssi, String name, Node.Type boardType,
+                      byte deviceId, short protocolVersion, byte txPower, long featureMap,
+                      long optionBytes, boolean isSleeping, boolean hasGeneralPurpose) {
+        mTag = tag;
+        mLastSeen = lastSeen;
+        mRssi = rssi;
+        mName = name;
+        mBoardType = boardType;
+        mDeviceId = deviceId;
+        mProtocolVersion = protocolVersion;
+        mTxPower = txPower;
+        mFeatureMap = featureMap;
+        mOptionBytes = optionBytes;
+        mIsSleeping = isSleeping;
+        mHasGeneralPurpose = hasGeneralPurpose;
+    }
+
+    /**
+     * @return string with the advertise data, the tag is not included
+     */
+    @NonNull String toRecord(){
+        return String.format(Locale.US,"%d,%d,%d,%s,%d,%d,%d,%d,%d,%d,%d,%s",
+                RECORD_VERSION,mLastSeen,mRssi,mBoardType.name(),mDeviceId,mProtocolVersion,
+                mTxPower,mFeatureMap,mOptionBytes,mIsSleeping ? 1 : 0,mHasGeneralPurpose ? 1 : 0,
+                mName!=null ? mName : "");
+    }
+
+    /**
+     * @param tag node tag
+     * @param record string created by {@link #toRecord()}
+     * @return the known node, null if the record is not valid
+     */
+    static @Nullable KnownNode fromRecord(@NonNull String tag, @Nullable String record){
+        if(record==null)
+            return null;
+        //the name is the last field and can contain the separator
+        String[] fields = record.split(SEPARATOR,N_FIELDS);
+        if(fields.length!=N_FIELDS)
+            return null;
+        try {
+            if(Integer.parseInt(fields[0])!=RECORD_VERSION)
+                return null;
+            return new KnownNode(tag,
+                    Long.parseLong(fields[1]),
+                    Integer.parseInt(fields[2]),
+                    fields[11],
+                    Node.Type.valueOf(fields[3]),
+                    Byte.parseByte(fields[4]),
+                    Short.parseShort(fields[5]),
+                    Byte.parseByte(fields[6]),
+                    Long.parseLong(fields[7]),
+                    Long.parseLong(fields[8]),
+                    fields[9].equals("1"),
+                    fields[10].equals("1"));
+        }catch (IllegalArgumentException e){
+            //NumberFormatException or a board type removed from the sdk
+            return null;
+        }
+    }
+
+    /**
+     * @return node tag
+     */
+    public @NonNull String getTag(){
+        return mTag;
+    }
+
+    /**
+     * @return time in milliseconds of the last advertise received
+     */
+    public long getLastSeen(){
+        return mLastSeen;
+    }
+
+    /**
+     * @return rssi of the last advertise received
+     */
+    public int getRssi(){
+        return mRssi;
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public byte getTxPower() {
+        return mTxPower;
+    }
+
+    @Override
+    public String getAddress() {
+        return mTag;
+    }
+
+    @Override
+    public long getFeatureMap() {
+        return mFeatureMap;
+    }
+
+    @Override
+    public long getOptionBytes() {
+        return mOptionBytes;
+    }
+
+    @Override
+    public byte getDeviceId() {
+        return mDeviceId;
+    }
+
+    @Override
+    public short getProtocolVersion() {
+        return mProtocolVersion;
+    }
+
+    @Override
+    public Node.Type getBoardType() {
+        return mBoardType;
+    }
+
+    @Override
+    public boolean isBoardSleeping() {
+        return mIsSleeping;
+    }
+
+    @Override
+    public boolean isHasGeneralPurpose() {
+        return mHasGeneralPurpose;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueSTSDK.Manager;
+import com.st.BlueSTSDK.Node;
+import com.st.BlueSTSDK.Utils.advertise.BleAdvertiseInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persist the advertise data of the discovered nodes, so that they can be displayed and
+ * connected before a new scan finds them.
+ * The nodes are keyed by tag, only the most recently seen ones are kept.
+ * <p>
+ * The records are read once and updated in memory, {@link #flush()} writes them in the shared
+ * preferences: call it when the scan stops or the activity is paused. All the screens use the
+ * same instance, returned by {@link #getInstance(Context)}, so a flush never drops the nodes
+ * remembered by another screen.
+ * </p>
+ */
+public class KnownNodeRegistry {
+
+    private static final String SHARED_PREFS = KnownNodeRegistry.class.getCanonicalName();
+
+    /**
+     * max number of stored nodes
+     */
+    private static final int MAX_NODES = 32;
+
+    /**
+     * nodes not seen for this time are removed
+     */
+    private static final long MAX_AGE_MS = TimeUnit.DAYS.toMillis(30);
+
+    private static KnownNodeRegistry sInstance;
+
+    /**
+     * @param context context used to open the shared preferences
+     * @return registry shared by all the screens
+     */
+    public static synchronized @NonNull KnownNodeRegistry getInstance(@NonNull Context context){
+        if(sInstance==null)
+            sInstance = new KnownNodeRegistry(context.getApplicationContext());
+        return sInstance;
+    }
+
+    private final SharedPreferences mPrefs;
+
+    /**
+     * valid nodes, the least recently seen first. null until the records are read
+     */
+    private @Nullable LinkedHashMap<String,KnownNode> mNodes;
+
+    /**
+     * true if the nodes in memory are different from the stored ones
+     */
+    private boolean mChanged = false;
+
+    private KnownNodeRegistry(@NonNull Context context){
+        mPrefs = context.getSharedPreferences(SHARED_PREFS,Context.MODE_PRIVATE);
+    }
+
+    /**
+     * read the stored records the first time that they are needed
+     * @return valid nodes, the least recently seen first
+     */
+    private @NonNull LinkedHashMap<String,KnownNode> getLoadedNodes(){
+        if(mNodes!=null)
+            return mNodes;
+        long now = System.currentTimeMillis();
+        List<KnownNode> nodes = new ArrayList<>();
+        for(Map.Entry<String,?> entry : mPrefs.getAll().entrySet()){
+            Object value = entry.getValue();
+            KnownNode node = value instanceof String ?
+                    KnownNode.fromRecord(entry.getKey(),(String)value) : null;
+            if(node!=null && !isExpired(node,now))
+                nodes.add(node);
+            else //the invalid and expired records are removed at the next flush
+                mChanged = true;
+        }
+        Collections.sort(nodes,(a,b) -> Long.compare(a.getLastSeen(),b.getLastSeen()));
+        mNodes = new LinkedHashMap<>();
+        for(KnownNode node : nodes)
+            mNodes.put(node.getTag(),node);
+        return mNodes;
+    }
+
+    /**
+     * store the node advertise data in memory, it is saved by {@link #flush()}
+     * @param node discovered node
+     */
+    public synchronized void remember(@NonNull Node node){
+        BleAdvertiseInfo info = node.getAdvertiseInfo();
+        if(info==null || info.getBoardType()==null)
+            return;
+        KnownNode knownNode = new KnownNode(node.getTag(),System.currentTimeMillis(),
+                node.getLastRssi(),info);
+        LinkedHashMap<String,KnownNode> nodes = getLoadedNodes();
+        //move the node at the end
+        nodes.remove(knownNode.getTag());
+        nodes.put(knownNode.getTag(),knownNode);
+        Iterator<String> oldest = nodes.keySet().iterator();
+        while (nodes.size()>MAX_NODES){
+            oldest.next();
+            oldest.remove();
+        }
+        mChanged = true;
+    }
+
+    /**
+     * write the nodes in the shared preferences if they are changed
+     */
+    public synchronized void flush(){
+        if(!mChanged || mNodes==null)
+            return;
+        SharedPreferences.Editor editor = mPrefs.edit().clear();
+        for(KnownNode node : mNodes.values())
+            editor.putString(node.getTag(),node.toRecord());
+        editor.apply();
+        mChanged = false;
+    }
+
+    /**
+     * @param tag node tag
+     * @return the stored node data, null if the node is unknown
+     */
+    public synchronized @Nullable KnownNode get(@NonNull String tag){
+        KnownNode node = getLoadedNodes().get(tag);
+        if(node==null || isExpired(node,System.currentTimeMillis()))
+            return null;
+        return node;
+    }
+
+    /**
+     * @return stored nodes, the most recently seen first
+     */
+    public synchronized @NonNull List<KnownNode> getNodes(){
+        long now = System.currentTimeMillis();
+        List<KnownNode> nodes = new ArrayList<>();
+        for(KnownNode node : getLoadedNodes().values()){
+            if(!isExpired(node,now))
+                nodes.add(node);
+        }
+        Collections.reverse(nodes);
+        return nodes;
+    }
+
+    /**
+     * remove all the stored nodes
+     */
+    public synchronized void clear(){
+        mNodes = new LinkedHashMap<>();
+        mChanged = false;
+        mPrefs.edit().clear().apply();
+    }
+
+    private static boolean isExpired(@NonNull KnownNode node, long now){
+        return now-node.getLastSeen()>MAX_AGE_MS;
+    }
+
+    /**
+     * get the node from the manager or build it from the stored data and add it to the manager.
+     * A node built from the stored data can be connected as a discovered one, the connection
+     * fails if the board is not in range.
+     * @param manager manager where search/add the node
+     * @param knownNode stored node data
+     * @return the node, null if the bluetooth is not available
+     */
+    public static @Nullable Node getNode(@NonNull Manager manager, @NonNull KnownNode knownNode){
+        Node node = manager.getNodeWithTag(knownNode.getTag());
+        if(node!=null)
+            return node;
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if(adapter==null || !BluetoothAdapter.checkBluetoothAddress(knownNode.getTag()))
+            return null;
+        BluetoothDevice device = adapter.getRemoteDevice(knownNode.getTag());
+        manager.addNode(new Node(device,knownNode.getRssi(),knownNode));
+        //if the node is added in the meantime the manager keeps the first one
+        return manager.getNodeWithTag(knownNode.getTag());
+    }
+
+    /**
+     * build the stored nodes that are not in the manager
+     * @param manager manager where add the nodes
+     * @return the stored nodes, the most recently seen first
+     */
+    public @NonNull List<Node> getNodes(@NonNull Manager manager){
+        List<Node> nodes = new ArrayList<>();
+        for(KnownNode knownNode : getNodes()){
+            Node node = getNode(manager,knownNode);
+            if(node!=null)
+                nodes.add(node);
+        }
+        return nodes;
+    }
+}
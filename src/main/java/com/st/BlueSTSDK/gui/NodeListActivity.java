@@ -36,8 +36,15 @@
  */
 package com.st.BlueSTSDK.gui;
 
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 import androidx.recyclerview.widget.GridLayoutManager;
@@ -55,6 +62,9 @@ import com.st.BlueSTSDK.Manager;
 import com.st.BlueSTSDK.Node;
 import com.st.BlueSTSDK.Utils.NodeScanActivity;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Activity that will show the list of discovered nodes
  */
@@ -65,7 +75,8 @@ public abstract class NodeListActivity extends NodeScanActivity implements NodeR
     private Manager.ManagerListener mUpdateDiscoverGui = new Manager.ManagerListener() {
 
         /**
-         * call the stopNodeDiscovery for update the gui state
+         * call the stopNodeDiscovery for update the gui state, if the scan is stopped by the
+         * scheduler the discovery continues
          * @param m manager that start/stop the process
          * @param enabled true if a new discovery start, false otherwise
          */
@@ -74,7 +85,10 @@ public abstract class NodeListActivity extends NodeScanActivity implements NodeR
             Log.d(TAG, "onDiscoveryChange " + enabled);
             if (!enabled)
                 //run
-                runOnUiThread(() -> stopNodeDiscovery());
+                runOnUiThread(() -> {
+                    if(!mScanScheduler.isRunning())
+                        stopNodeDiscovery();
+                });
         }//onDiscoveryChange
 
         /**
@@ -85,14 +99,63 @@ public abstract class NodeListActivity extends NodeScanActivity implements NodeR
         @Override
         public void onNodeDiscovered(@NonNull Manager m, Node node) {
             Log.d(TAG, "onNodeDiscovered " + node.getTag());
+            //remember only the nodes that this screen displays
+            if(displayNode(node))
+                mKnownNodes.remember(node);
+            notifyNewNode();
             runOnUiThread(() -> mSwipeLayout.setRefreshing(false));
         }//onNodeDiscovered
     };
 
     /**
-     * number of millisecond that we spend looking for a new node
+     * the manager doesn't notify a node restored from the registry when its advertise is
+     * received, the first rssi update is used for refresh the stored data
+     */
+    private Node.BleConnectionParamUpdateListener mUpdateKnownNode =
+            new Node.BleConnectionParamUpdateListener() {
+        @Override
+        public void onRSSIChanged(@NonNull Node node, int newRSSIValue) {
+            node.removeBleConnectionParamListener(this);
+            mKnownNodes.remember(node);
+            notifyNewNode();
+        }
+
+        @Override
+        public void onMtuChange(@NonNull Node node, int mtu) { }
+    };
+
+    /**
+     * policy used for the discovery
+     */
+    private ScanPolicy mScanPolicy;
+
+    /**
+     * decide when scan and when stop the discovery
+     */
+    private ScanScheduler mScanScheduler;
+
+    /**
+     * scanner used when the activity declares a scan filter, null to use the manager discovery
      */
-    private final static int SCAN_TIME_MS = 10 * 1000; //10sec
+    private FilteredNodeScanner mFilteredScanner;
+
+    /**
+     * true if the filtered scan failed in this discovery, the manager discovery is used instead
+     */
+    private boolean mFilteredScanFailed = false;
+
+    private final Handler mScanHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mNextScanStep = this::runNextScanStep;
+
+    /**
+     * the platform stopped the filtered scan: continue the discovery with the manager
+     */
+    private final FilteredNodeScanner.ScanFailedListener mOnFilteredScanFailed =
+            (scanner, errorCode) -> mScanHandler.post(() -> {
+                mFilteredScanFailed = true;
+                if(mScanScheduler.isRunning() && !mManager.isDiscovering())
+                    super.startNodeDiscovery((int)mScanPolicy.maxScanMs);
+            });
 
     /**
      * adapter used for build the view that will contain the node
@@ -133,10 +196,21 @@ public abstract class NodeListActivity extends NodeScanActivity implements NodeR
      */
     private Manager mManager;
 
+    /**
+     * nodes discovered in the previous scans
+     */
+    private KnownNodeRegistry mKnownNodes;
+
+    /**
+     * nodes restored from the registry and not yet seen by the current scan
+     */
+    private final List<Node> mRestoredNodes = new ArrayList<>();
+
     /**
      * clear the adapter and the manager list of nodes
      */
     private void resetNodeList(){
+        removeRestoredNodeListener();
         mManager.resetDiscovery();
         mManager.removeNodes();
         mAdapter.clear();
@@ -144,6 +218,47 @@ public abstract class NodeListActivity extends NodeScanActivity implements NodeR
         //mAdapter.addAll(mManager.getNodes());
     }
 
+    /**
+     * display the nodes found in the previous scans, they can be selected before the scan
+     * finds them again
+     */
+    private void showKnownNodes(){
+        List<Node> nodes = mKnownNodes.getNodes(mManager);
+        for(Node node : nodes){
+            node.addBleConnectionParamListener(mUpdateKnownNode);
+            mRestoredNodes.add(node);
+        }
+        mAdapter.addAll(nodes);
+    }
+
+    private void removeRestoredNodeListener(){
+        for(Node node : mRestoredNodes){
+            node.removeBleConnectionParamListener(mUpdateKnownNode);
+        }
+        mRestoredNodes.clear();
+    }
+
+    /**
+     * Return the policy used for the node discovery
+     * you can overwrite this method for use a different policy, ScanPolicy.FIXED_WINDOW scans
+     * continuously for 10s.
+     * @return policy used for schedule the scan
+     */
+    protected ScanPolicy getScanPolicy(){
+        return ScanPolicy.ADAPTIVE;
+    }
+
+    /**
+     * Return the criteria that the bluetooth controller uses for drop the advertise of the nodes
+     * that will not be displayed, it is used only from Android 5.0
+     * you can overwrite this method for avoid to receive the not interesting advertise, the nodes
+     * are still filtered by {@link #displayNode(Node)}.
+     * @return criteria for the displayed nodes, null to receive all the advertise
+     */
+    protected @Nullable NodeScanFilter getScanFilter(){
+        return null;
+    }
+
     /**
      * Return the adapter view used for display the node
      * you can overwrite this method for use a custom adapter.
@@ -161,6 +276,15 @@ public abstract class NodeListActivity extends NodeScanActivity implements NodeR
         super.onCreate(savedInstanceState);
 
         mManager = Manager.getSharedInstance();
+        mKnownNodes = KnownNodeRegistry.getInstance(this);
+        mScanPolicy = getScanPolicy();
+        mScanScheduler = new ScanScheduler(mScanPolicy);
+        NodeScanFilter scanFilter = getScanFilter();
+        if(scanFilter!=null && !scanFilter.isEmpty() &&
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            mFilteredScanner = new FilteredNodeScanner(mManager, scanFilter);
+            mFilteredScanner.setScanFailedListener(mOnFilteredScanFailed);
+        }
 
         mAdapter = getNodeAdapter();
 
@@ -208,12 +332,14 @@ public abstract class NodeListActivity extends NodeScanActivity implements NodeR
     }
 
     /**
-     * disconnect all the node and connect our adapter with the node manager for update the list
-     * with new discover nodes and start the node discovery
+     * disconnect all the node, show the nodes found in the previous scans and connect our adapter
+     * with the node manager for update the list with new discover nodes and start the node
+     * discovery
      */
     @Override
     protected void onResume() {
         resetNodeList();
+        showKnownNodes();
         startNodeDiscovery();
         super.onResume();
     }//onListViewIsDisplayed
@@ -225,6 +351,9 @@ public abstract class NodeListActivity extends NodeScanActivity implements NodeR
     protected void onPause() {
         //remove the listener add by this class
         stopNodeDiscovery();
+        removeRestoredNodeListener();
+        //the restored nodes can be updated after the discovery stop
+        mKnownNodes.flush();
         super.onPause();
     }
 
@@ -299,7 +428,9 @@ public abstract class NodeListActivity extends NodeScanActivity implements NodeR
         NodeConnectionService.disconnectAllNodes(this);
         //add as listener for the new nodes
         mManager.addListener(mAdapter);
-        super.startNodeDiscovery(SCAN_TIME_MS);
+        mScanScheduler.start(SystemClock.elapsedRealtime());
+        mFilteredScanFailed = false;
+        runNextScanStep();
         mStartStopButton.setImageResource(R.drawable.ic_close_24dp);
         mStartStopButton.startAnimation(animRotateButton);
         mTextView.setVisibility(View.GONE);
@@ -311,7 +442,11 @@ public abstract class NodeListActivity extends NodeScanActivity implements NodeR
      */
     @Override
     public void stopNodeDiscovery() {
+        mScanScheduler.stop();
+        mScanHandler.removeCallbacks(mNextScanStep);
+        stopFilteredScan();
         super.stopNodeDiscovery();
+        mKnownNodes.flush();
         mManager.removeListener(mUpdateDiscoverGui);
         mManager.removeListener(mAdapter);
         mStartStopButton.setImageResource(R.drawable.ic_search_24dp);
@@ -320,12 +455,66 @@ public abstract class NodeListActivity extends NodeScanActivity implements NodeR
         setRefreshing(mSwipeLayout, false);
     }
 
+    /**
+     * start or stop the scan as requested by the scheduler, a running scan is not restarted since
+     * the number of scans that an app can start is limited
+     */
+    private void runNextScanStep(){
+        mScanHandler.removeCallbacks(mNextScanStep);
+        ScanScheduler.Step step = mScanScheduler.next(SystemClock.elapsedRealtime());
+        switch (step.action){
+            case ScanScheduler.Step.SCAN:
+                //if the filtered scan can not start, the manager asks to enable the bluetooth
+                //or the missing permissions
+                if(mFilteredScanner!=null && !mFilteredScanFailed &&
+                        mFilteredScanner.start(getFilteredScanMode(step.scanMode)))
+                    break;
+                //the scheduler stops the scan, the manager timeout is only a safety net
+                if(!mManager.isDiscovering())
+                    super.startNodeDiscovery((int)mScanPolicy.maxScanMs);
+                break;
+            case ScanScheduler.Step.IDLE:
+                stopFilteredScan();
+                super.stopNodeDiscovery();
+                break;
+            case ScanScheduler.Step.STOP:
+                stopNodeDiscovery();
+                return;
+        }
+        mScanHandler.postDelayed(mNextScanStep,step.durationMs);
+    }
+
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    private static int getFilteredScanMode(int scanMode){
+        switch (scanMode){
+            case ScanScheduler.Step.MODE_BALANCED:
+                return ScanSettings.SCAN_MODE_BALANCED;
+            case ScanScheduler.Step.MODE_LOW_POWER:
+                return ScanSettings.SCAN_MODE_LOW_POWER;
+            default:
+                return ScanSettings.SCAN_MODE_LOW_LATENCY;
+        }
+    }
+
+    private void stopFilteredScan(){
+        if(mFilteredScanner!=null)
+            mFilteredScanner.stop();
+    }
+
+    /**
+     * notify the scheduler that a node is found for the first time in this discovery
+     */
+    private void notifyNewNode(){
+        long now = SystemClock.elapsedRealtime();
+        mScanHandler.post(() -> mScanScheduler.onNewNode(now));
+    }
+
     public static void setRefreshing(final SwipeRefreshLayout swipeRefreshLayout, final boolean isRefreshing) {
         swipeRefreshLayout.post(() -> swipeRefreshLayout.setRefreshing(isRefreshing));
     }
 
     public void onClick(View view) {
-        if(mManager.isDiscovering()){
+        if(mScanScheduler.isRunning()){
             stopNodeDiscovery();
         }else{
             startNodeDiscovery();
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueSTSDK.Node;
+
+/**
+ * Snapshot of the node data displayed in the node list.
+ * <p>
+ * The node object is updated by each advertise, comparing two snapshots of the same node tells
+ * which part of the row has to be bound again. The rssi is not displayed, so an advertise that
+ * changes only the rssi doesn't change the snapshot.
+ * </p>
+ */
+class NodeListItem {
+
+    static final int CHANGE_NAME = 1;
+    static final int CHANGE_TYPE = 1<<1;
+    static final int CHANGE_ADVERTISE_OPTIONS = 1<<2;
+    static final int CHANGE_STATUS = 1<<3;
+
+    /**
+     * @param node node to display
+     * @return snapshot of the node data displayed in the list
+     */
+    static @NonNull NodeListItem of(@NonNull Node node){
+        return new NodeListItem(node,node.getTag(),node.getName(),node.getType(),
+                node.getAdvertiseInfo().getProtocolVersion(),node.getAdvertiseOptionBytes(),
+                node.isSleeping(),node.hasGeneralPurpose());
+    }
+
+    private static boolean equals(@Nullable Object a, @Nullable Object b){
+        return a==null ? b==null : a.equals(b);
+    }
+
+    final Node node;
+    final String tag;
+    final String name;
+    final Node.Type type;
+    final int protocolVersion;
+    final long optionBytes;
+    final boolean isSleeping;
+    final boolean hasGeneralPurpose;
+
+    NodeListItem(Node node, @NonNull String tag, String name, Node.Type type, int protocolVersion,
+                 long optionBytes, boolean isSleeping, boolean hasGeneralPurpose) {
+        this.node = node;
+        this.tag = tag;
+        this.name = name;
+        this.type = type;
+        this.protocolVersion = protocolVersion;
+        this.optionBytes = optionBytes;
+        this.isSleeping = isSleeping;
+        this.hasGeneralPurpose = hasGeneralPurpose;
+    }
+
+    /**
+     * @param other other snapshot
+     * @return true if the snapshots are of the same node
+     */
+    boolean isSameNode(@NonNull NodeListItem other){
+        return tag.equals(other.tag);
+    }
+
+    /**
+     * @param other newer snapshot of the same node
+     * @return mask of the CHANGE_* flags of the data that are different, 0 if the row doesn't
+     * need to be bound again
+     */
+    int getChanges(@NonNull NodeListItem other){
+        int changes = 0;
+        if(!equals(name,other.name))
+            changes |= CHANGE_NAME;
+        if(type!=other.type)
+            changes |= CHANGE_TYPE;
+        if(protocolVersion!=other.protocolVersion || optionBytes!=other.optionBytes)
+            changes |= CHANGE_ADVERTISE_OPTIONS;
+        if(isSleeping!=other.isSleeping || hasGeneralPurpose!=other.hasGeneralPurpose)
+            changes |= CHANGE_STATUS;
+        return changes;
+    }
+}
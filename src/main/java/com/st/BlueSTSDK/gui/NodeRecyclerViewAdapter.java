@@ -36,8 +36,6 @@
  */
 package com.st.BlueSTSDK.gui;
 
-import android.content.Context;
-import android.content.DialogInterface;
 import android.graphics.drawable.Drawable;
 import android.os.Handler;
 import android.os.Looper;
@@ -45,10 +43,12 @@ import android.os.Looper;
 import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
-import androidx.appcompat.widget.LinearLayoutCompat;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -60,16 +60,68 @@ import com.st.BlueSTSDK.Node;
 import com.st.BlueSTSDK.Utils.NumberConversion;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Adapter view for a list of discovered nodes
+ * <p>
+ * The discovered nodes and the advertise updates are collected and applied once per frame: the
+ * new list is compared with the displayed one in a background thread by {@link AsyncListDiffer},
+ * using the node tag as key, and only the changed part of the rows are bound again.
+ * </p>
  */
 public class NodeRecyclerViewAdapter extends RecyclerView.Adapter<NodeRecyclerViewAdapter.ViewHolder>
-        implements Manager.ManagerListener{
+        implements Manager.ManagerListener, Node.BleConnectionParamUpdateListener{
+
+    private static final DiffUtil.ItemCallback<NodeListItem> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<NodeListItem>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull NodeListItem oldItem,
+                                       @NonNull NodeListItem newItem) {
+            return oldItem.isSameNode(newItem);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull NodeListItem oldItem,
+                                          @NonNull NodeListItem newItem) {
+            return oldItem.getChanges(newItem)==0;
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull NodeListItem oldItem,
+                                       @NonNull NodeListItem newItem) {
+            return oldItem.getChanges(newItem);
+        }
+    };
+
+    private final AsyncListDiffer<NodeListItem> mDiffer = new AsyncListDiffer<>(this,DIFF_CALLBACK);
+
+    /**
+     * last list passed to the differ, the differ list is older while a diff is running.
+     * Used only in the main thread
+     */
+    private List<NodeListItem> mSubmittedItems = Collections.emptyList();
 
-    private final List<Node> mValues = new ArrayList<>();
-    private Context context;
+    /**
+     * tag of the nodes in mSubmittedItems, used only in the main thread
+     */
+    private final Set<String> mDisplayedTags = new HashSet<>();
+
+    /**
+     * nodes discovered or updated since the last frame, in discovery order
+     */
+    private final Map<String,Node> mPendingNodes = new LinkedHashMap<>();
+
+    /**
+     * true if a frame callback will apply the pending nodes, guarded by mPendingNodes
+     */
+    private boolean mUpdateScheduled = false;
 
     /**
      * Interface to use when a node is selected by the user
@@ -109,79 +161,101 @@ public class NodeRecyclerViewAdapter extends RecyclerView.Adapter<NodeRecyclerVi
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext())
                 .inflate(R.layout.node_list_item, parent, false);
-        context = parent.getContext();
         return new ViewHolder(view);
     }
 
     @Override
     public void onBindViewHolder(@NonNull final ViewHolder holder, int position) {
-        final Node n = mValues.get(position);
-        holder.mItem = n;
-        holder.mNodeNameLabel.setText(n.getName());
-        holder.mNodeTagLabel.setText(n.getTag());
-
-        @DrawableRes int boardImageRes = NodeGui.getBoardTypeImage(n.getType());
-        Drawable boardImage = ContextCompat.getDrawable(holder.mNodeHasExtension.getContext(),boardImageRes);
-        holder.mNodeImage.setImageDrawable(boardImage);
-
-        if(n.getAdvertiseInfo().getProtocolVersion()==1) {
-            holder.mNodeRunningCodeDemo.setVisibility(View.GONE);
-            holder.mNodeAdvertiseImage.setVisibility(View.GONE);
-        } else {
-            //For SDK protocol v2 we have the option bytes instead of feature Mask
-            holder.mNodeRunningCodeDemo.setVisibility(View.VISIBLE);
-
-            //Take the four Option bytes
-            byte [] optBytes = NumberConversion.BigEndian.uint32ToBytes(n.getAdvertiseOptionBytes());
+        holder.mItem = mDiffer.getCurrentList().get(position);
+        holder.mNodeTagLabel.setText(holder.mItem.tag);
+        bind(holder,NodeListItem.CHANGE_NAME | NodeListItem.CHANGE_TYPE |
+                NodeListItem.CHANGE_ADVERTISE_OPTIONS | NodeListItem.CHANGE_STATUS);
+    }
 
-            holder.mNodeAdvertiseImage.setVisibility(View.VISIBLE);
-            setBatteryImage(holder.mNodeAdvertiseImage,(optBytes[1]&0xF));
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if(payloads.isEmpty()){
+            onBindViewHolder(holder,position);
+            return;
+        }
+        holder.mItem = mDiffer.getCurrentList().get(position);
+        int changes = 0;
+        for(Object payload : payloads){
+            changes |= (Integer) payload;
+        }
+        bind(holder,changes);
+    }
 
-            setRunningCodeDemo(holder.mNodeRunningCodeDemo,optBytes[0]);
+    /**
+     * update the part of the row that are changed
+     * @param holder row to update, with the new item
+     * @param changes mask of NodeListItem.CHANGE_* flags
+     */
+    private void bind(@NonNull ViewHolder holder, int changes){
+        final NodeListItem n = holder.mItem;
+        if((changes & NodeListItem.CHANGE_NAME)!=0)
+            holder.mNodeNameLabel.setText(n.name);
+
+        if((changes & NodeListItem.CHANGE_TYPE)!=0) {
+            @DrawableRes int boardImageRes = NodeGui.getBoardTypeImage(n.type);
+            Drawable boardImage = ContextCompat.getDrawable(holder.mNodeImage.getContext(), boardImageRes);
+            holder.mNodeImage.setImageDrawable(boardImage);
         }
 
+        if((changes & NodeListItem.CHANGE_ADVERTISE_OPTIONS)!=0) {
+            if (n.protocolVersion == 1) {
+                holder.mNodeRunningCodeDemo.setVisibility(View.GONE);
+                holder.mNodeAdvertiseImage.setVisibility(View.GONE);
+            } else {
+                //For SDK protocol v2 we have the option bytes instead of feature Mask
+                holder.mNodeRunningCodeDemo.setVisibility(View.VISIBLE);
+
+                //Take the four Option bytes
+                byte[] optBytes = NumberConversion.BigEndian.uint32ToBytes(n.optionBytes);
 
-        //On Press Item
-        holder.mView.setOnClickListener(v -> {
-            if (null != mListener) {
-                // Notify the active callbacks interface (the activity, if the
-                // fragment is attached to one) that an item has been selected.
-                mListener.onNodeSelected(holder.mItem);
+                holder.mNodeAdvertiseImage.setVisibility(View.VISIBLE);
+                setBatteryImage(holder.mNodeAdvertiseImage, (optBytes[1] & 0xF));
+
+                setRunningCodeDemo(holder.mNodeRunningCodeDemo, optBytes[0]);
             }
-        });
-
-        // On Long Press Item
-        if(n.getAdvertiseInfo().getProtocolVersion()==2) {
-            holder.mView.setOnLongClickListener(v -> {
-                byte[] optBytes = NumberConversion.BigEndian.uint32ToBytes(n.getAdvertiseOptionBytes());
-                AlertDialog alertDialog = new AlertDialog.Builder(context).create();
-                alertDialog.setTitle("Node Advertise Option Bytes");
-                alertDialog.setMessage(String.format("Byte1 = 0x%02X\nByte2 = 0x%02X\nByte3 = 0x%02X\nByte4 = 0x%02X\n",
-                        optBytes[0], optBytes[1], optBytes[2], optBytes[3]));
-                alertDialog.setButton(AlertDialog.BUTTON_NEUTRAL, "Close",
-                        new DialogInterface.OnClickListener() {
-                            public void onClick(DialogInterface dialog, int which) {
-                                dialog.dismiss();
-                            }
-                        });
-                alertDialog.show();
-                return true;
-            });
         }
 
-        if(n.isSleeping()){
-            holder.mNodeIsSleeping.setVisibility(View.VISIBLE);
-        } else {
-            holder.mNodeIsSleeping.setVisibility(View.GONE);
-        }
+        if((changes & NodeListItem.CHANGE_STATUS)!=0) {
+            if (n.isSleeping) {
+                holder.mNodeIsSleeping.setVisibility(View.VISIBLE);
+            } else {
+                holder.mNodeIsSleeping.setVisibility(View.GONE);
+            }
 
-        if(n.hasGeneralPurpose()){
-            holder.mNodeHasExtension.setVisibility(View.VISIBLE);
-        } else {
-            holder.mNodeHasExtension.setVisibility(View.GONE);
+            if (n.hasGeneralPurpose) {
+                holder.mNodeHasExtension.setVisibility(View.VISIBLE);
+            } else {
+                holder.mNodeHasExtension.setVisibility(View.GONE);
+            }
         }
     }
 
+    /**
+     * show the advertise option bytes of the node
+     * @param v view long pressed
+     * @param n node displayed in the view
+     * @return true if the node has the option bytes
+     */
+    private static boolean showOptionBytes(View v, NodeListItem n){
+        if(n==null || n.protocolVersion!=2)
+            return false;
+        byte[] optBytes = NumberConversion.BigEndian.uint32ToBytes(n.optionBytes);
+        AlertDialog alertDialog = new AlertDialog.Builder(v.getContext()).create();
+        alertDialog.setTitle("Node Advertise Option Bytes");
+        alertDialog.setMessage(String.format("Byte1 = 0x%02X\nByte2 = 0x%02X\nByte3 = 0x%02X\nByte4 = 0x%02X\n",
+                optBytes[0], optBytes[1], optBytes[2], optBytes[3]));
+        alertDialog.setButton(AlertDialog.BUTTON_NEUTRAL, "Close",
+                (dialog, which) -> dialog.dismiss());
+        alertDialog.show();
+        return true;
+    }
+
     /**
      * Set the Functional pack name for the running code
      * @param mNodeRunningCodeDemo
@@ -221,7 +295,7 @@ public class NodeRecyclerViewAdapter extends RecyclerView.Adapter<NodeRecyclerVi
 
     @Override
     public int getItemCount() {
-        return mValues.size();
+        return mDiffer.getCurrentList().size();
     }
 
     @Override
@@ -229,32 +303,106 @@ public class NodeRecyclerViewAdapter extends RecyclerView.Adapter<NodeRecyclerVi
 
     }
 
+    /**
+     * remove all the nodes, it must be called in the main thread
+     */
     public void clear(){
-        mValues.clear();
-        notifyDataSetChanged();
+        synchronized (mPendingNodes){
+            mPendingNodes.clear();
+        }
+        for(NodeListItem item : mSubmittedItems){
+            item.node.removeBleConnectionParamListener(this);
+        }
+        mDisplayedTags.clear();
+        submitItems(Collections.emptyList());
     }
 
     public void addAll(List<Node> items){
         for(Node n: items){
             if(mFilterNode.displayNode(n)){
-                mValues.add(n);
+                enqueueUpdate(n);
             }//if
         }//for
-        notifyDataSetChanged();
     }
 
     private Handler mUIThread = new Handler(Looper.getMainLooper());
 
+    private final Choreographer.FrameCallback mOnFrame = frameTimeNanos -> applyPendingNodes();
+
+    private final Runnable mRequestFrame = () ->
+            Choreographer.getInstance().postFrameCallback(mOnFrame);
+
+    /**
+     * add or update the node in the next frame
+     * @param node node discovered or updated
+     */
+    private void enqueueUpdate(@NonNull Node node){
+        synchronized (mPendingNodes){
+            mPendingNodes.put(node.getTag(),node);
+            if(mUpdateScheduled)
+                return;
+            mUpdateScheduled = true;
+        }
+        mUIThread.post(mRequestFrame);
+    }
+
+    /**
+     * build the new list with the nodes collected since the last frame and compute the changes
+     * in background
+     */
+    private void applyPendingNodes(){
+        List<Node> pendingNodes;
+        synchronized (mPendingNodes){
+            pendingNodes = new ArrayList<>(mPendingNodes.values());
+            mPendingNodes.clear();
+            mUpdateScheduled = false;
+        }
+        if(pendingNodes.isEmpty())
+            return;
+
+        Map<String,NodeListItem> updatedItems = new HashMap<>();
+        for(Node n : pendingNodes){
+            if(mDisplayedTags.contains(n.getTag()))
+                updatedItems.put(n.getTag(),NodeListItem.of(n));
+        }
+        List<NodeListItem> newItems = new ArrayList<>(mSubmittedItems.size()+pendingNodes.size());
+        for(NodeListItem item : mSubmittedItems){
+            NodeListItem updated = updatedItems.get(item.tag);
+            newItems.add(updated!=null ? updated : item);
+        }
+        for(Node n : pendingNodes){
+            if(mDisplayedTags.add(n.getTag())){
+                newItems.add(NodeListItem.of(n));
+                n.addBleConnectionParamListener(this);
+            }
+        }
+        submitItems(newItems);
+    }
+
+    private void submitItems(@NonNull List<NodeListItem> items){
+        mSubmittedItems = items;
+        mDiffer.submitList(items);
+    }
+
     @Override
     public void onNodeDiscovered(@NonNull Manager m, @NonNull final Node node) {
         if(mFilterNode.displayNode(node)){
-            mUIThread.post(() -> {
-                mValues.add(node);
-                notifyItemInserted(mValues.size() - 1);
-            });
+            enqueueUpdate(node);
         }//if
     }//onNodeDiscovered
 
+    /**
+     * called for each advertise of a displayed node, the row is updated if the advertise changes
+     * the displayed data
+     */
+    @Override
+    public void onRSSIChanged(@NonNull Node node, int newRSSIValue) {
+        enqueueUpdate(node);
+    }
+
+    @Override
+    public void onMtuChange(@NonNull Node node, int mtu) { }
+
     class ViewHolder extends RecyclerView.ViewHolder {
         final View mView;
         final TextView mNodeNameLabel;
@@ -264,7 +412,7 @@ public class NodeRecyclerViewAdapter extends RecyclerView.Adapter<NodeRecyclerVi
         final ImageView mNodeHasExtension;
         final ImageView mNodeAdvertiseImage;
         final TextView mNodeRunningCodeDemo;
-        Node mItem;
+        NodeListItem mItem;
 
         ViewHolder(View view) {
             super(view);
@@ -276,6 +424,18 @@ public class NodeRecyclerViewAdapter extends RecyclerView.Adapter<NodeRecyclerVi
             mNodeIsSleeping = view.findViewById(R.id.isSleepingIcon);
             mNodeAdvertiseImage = view.findViewById(R.id.hasAdvertiseIcon);
             mNodeRunningCodeDemo = view.findViewById(R.id.nodeRunningCodeName);
+
+            //On Press Item
+            mView.setOnClickListener(v -> {
+                if (null != mListener && mItem!=null) {
+                    // Notify the active callbacks interface (the activity, if the
+                    // fragment is attached to one) that an item has been selected.
+                    mListener.onNodeSelected(mItem.node);
+                }
+            });
+
+            // On Long Press Item
+            mView.setOnLongClickListener(v -> showOptionBytes(v,mItem));
         }
     }
 }
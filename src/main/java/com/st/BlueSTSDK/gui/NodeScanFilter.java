@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui;
+
+import android.bluetooth.le.ScanFilter;
+import android.os.Build;
+import android.os.ParcelUuid;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Criteria used for select the advertise during the node discovery.
+ * <p>
+ * The criteria are converted in platform {@link ScanFilter}, so that the bluetooth controller
+ * drops the other advertise before they reach the app. An advertise is accepted if it matches at
+ * least one criterion.
+ * </p>
+ */
+public class NodeScanFilter {
+
+    private static final int BLUEST_V1_PROTOCOL = 0x01;
+    private static final int BLUEST_V2_PROTOCOL = 0x02;
+    private static final int STM_COMPANY_ID = 0x0030;
+
+    private static final byte UUID_16_INCOMPLETE = 0x02;
+    private static final byte UUID_16_COMPLETE = 0x03;
+    private static final byte UUID_32_INCOMPLETE = 0x04;
+    private static final byte UUID_32_COMPLETE = 0x05;
+    private static final byte UUID_128_INCOMPLETE = 0x06;
+    private static final byte UUID_128_COMPLETE = 0x07;
+    private static final byte MANUFACTURER_SPECIFIC_DATA = (byte)0xFF;
+
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+    private static final class Criterion {
+        final @Nullable UUID serviceUuid;
+        final int manufacturerId;
+        final @NonNull byte[] manufacturerData;
+
+        private Criterion(@Nullable UUID serviceUuid, int manufacturerId,
+                          @NonNull byte[] manufacturerData) {
+            this.serviceUuid = serviceUuid;
+            this.manufacturerId = manufacturerId;
+            this.manufacturerData = manufacturerData;
+        }
+    }
+
+    private final List<Criterion> mCriteria = new ArrayList<>();
+
+    /**
+     * build the uuid in the same way as the platform, from the little endian advertise bytes
+     * @param advertiseData 16 bytes of a 128 bit uuid, as they are in the advertise
+     * @return uuid
+     */
+    public static @NonNull UUID uuidFromAdvertise(@NonNull byte[] advertiseData){
+        if(advertiseData.length!=16)
+            throw new IllegalArgumentException("A 128 bit uuid has 16 bytes");
+        return readUuid(advertiseData,0,advertiseData.length);
+    }
+
+    /**
+     * accept the advertise that export the service
+     * @param service service uuid
+     * @return this
+     */
+    public NodeScanFilter withServiceUuid(@NonNull UUID service){
+        mCriteria.add(new Criterion(service,-1,new byte[0]));
+        return this;
+    }
+
+    /**
+     * accept the advertise with manufacturer data that starts with the prefix
+     * @param manufacturerId manufacturer id, the first 2 bytes of the manufacturer data, little
+     *                       endian
+     * @param dataPrefix data following the manufacturer id
+     * @return this
+     */
+    public NodeScanFilter withManufacturerData(int manufacturerId, @NonNull byte[] dataPrefix){
+        mCriteria.add(new Criterion(null,manufacturerId & 0xFFFF,dataPrefix.clone()));
+        return this;
+    }
+
+    /**
+     * accept the BlueST advertise, version 1 and 2, of the node with the device id
+     * @param deviceId node device id
+     * @return this
+     */
+    public NodeScanFilter withDeviceId(byte deviceId){
+        //version 1: protocol version and device id are read as the manufacturer id
+        withManufacturerData(BLUEST_V1_PROTOCOL | ((deviceId & 0xFF)<<8),new byte[0]);
+        return withManufacturerData(STM_COMPANY_ID,new byte[]{BLUEST_V2_PROTOCOL,deviceId});
+    }
+
+    /**
+     * @return true if the filter accepts all the advertise
+     */
+    public boolean isEmpty(){
+        return mCriteria.isEmpty();
+    }
+
+    /**
+     * @return platform filters with the same criteria
+     */
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    public @NonNull List<ScanFilter> toScanFilters(){
+        List<ScanFilter> filters = new ArrayList<>(mCriteria.size());
+        for(Criterion criterion : mCriteria){
+            ScanFilter.Builder builder = new ScanFilter.Builder();
+            if(criterion.serviceUuid!=null)
+                builder.setServiceUuid(new ParcelUuid(criterion.serviceUuid));
+            else
+                builder.setManufacturerData(criterion.manufacturerId,criterion.manufacturerData);
+            filters.add(builder.build());
+        }
+        return filters;
+    }
+
+    /**
+     * check the advertise as the platform filters do, it is used for discard the advertise when
+     * the controller can not apply the filters
+     * @param advertise advertise data
+     * @return true if the advertise matches at least one criterion
+     */
+    public boolean matches(@NonNull byte[] advertise){
+        if(mCriteria.isEmpty())
+            return true;
+        for(Criterion criterion : mCriteria){
+            if(matches(criterion,advertise))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean matches(Criterion criterion, byte[] advertise){
+        int ptr = 0;
+        while (ptr < advertise.length - 1) {
+            int length = advertise[ptr++] & 0xFF;
+            if (length == 0)
+                break;
+            int end = ptr + length;
+            if (end > advertise.length)
+                break;
+            byte type = advertise[ptr++];
+            if(criterion.serviceUuid!=null) {
+                if (containsUuid(criterion.serviceUuid, type, advertise, ptr, end))
+                    return true;
+            }else if(type==MANUFACTURER_SPECIFIC_DATA && end-ptr>=2){
+                int id = (advertise[ptr] & 0xFF) | ((advertise[ptr+1] & 0xFF) << 8);
+                if(id==criterion.manufacturerId &&
+                        startsWith(advertise,ptr+2,end,criterion.manufacturerData))
+                    return true;
+            }
+            ptr = end;
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] advertise, int start, int end, byte[] prefix){
+        if(end-start<prefix.length)
+            return false;
+        return Arrays.equals(prefix,Arrays.copyOfRange(advertise,start,start+prefix.length));
+    }
+
+    private static boolean containsUuid(UUID uuid, byte type, byte[] advertise, int start, int end){
+        int uuidLength;
+        switch (type){
+            case UUID_16_INCOMPLETE:
+            case UUID_16_COMPLETE:
+                uuidLength = 2;
+                break;
+            case UUID_32_INCOMPLETE:
+            case UUID_32_COMPLETE:
+                uuidLength = 4;
+                break;
+            case UUID_128_INCOMPLETE:
+            case UUID_128_COMPLETE:
+                uuidLength = 16;
+                break;
+            default:
+                return false;
+        }
+        for(int i = start ; i+uuidLength<=end ; i+=uuidLength){
+            if(uuid.equals(readUuid(advertise,i,uuidLength)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * read a little endian uuid, 16 and 32 bit uuid are expanded with the bluetooth base uuid
+     */
+    private static UUID readUuid(byte[] data, int offset, int length){
+        if(length==16){
+            long lsb = 0;
+            long msb = 0;
+            for(int i = 7 ; i>=0 ; i--)
+                lsb = (lsb<<8) | (data[offset+i] & 0xFF);
+            for(int i = 15 ; i>=8 ; i--)
+                msb = (msb<<8) | (data[offset+i] & 0xFF);
+            return new UUID(msb,lsb);
+        }
+        long shortUuid = 0;
+        for(int i = length-1 ; i>=0 ; i--)
+            shortUuid = (shortUuid<<8) | (data[offset+i] & 0xFF);
+        return new UUID((shortUuid<<32) | 0x1000L,BASE_UUID_LSB);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui;
+
+/**
+ * Describe how the node discovery is run.
+ * <p>
+ * The discovery starts with a continuous scan (burst), that continues while new nodes are found.
+ * When the new nodes stop arriving the scan runs only for a window every interval, to save
+ * battery. The discovery stops when no new nodes are found for a while or when it runs for the
+ * max time.
+ * </p>
+ */
+public class ScanPolicy {
+
+    /**
+     * single continuous scan of 10s
+     */
+    public static final ScanPolicy FIXED_WINDOW = new ScanPolicy(10*1000,0,0,0,0,10*1000);
+
+    /**
+     * 3s burst, 1.5s scan every 10s when no new nodes are found for 1.5s, stop after 15s without
+     * new nodes or after 2 minutes.
+     * Android blocks the apps that start more than 5 scans in 30s, the 10s interval starts at
+     * most 4 scans in 30s, so the discovery can be restarted by the user
+     */
+    public static final ScanPolicy ADAPTIVE = new ScanPolicy(3*1000,1500,1500,10*1000,15*1000,
+            120*1000);
+
+    final long burstMs;
+    final long burstQuietMs;
+    final long powerSaveWindowMs;
+    final long powerSaveIntervalMs;
+    final long stopAfterQuietMs;
+    final long maxScanMs;
+
+    /**
+     * @param burstMs minimum time of the initial continuous scan
+     * @param burstQuietMs the continuous scan continues until no new nodes are found for this time
+     * @param powerSaveWindowMs scan time in each power saving interval, 0 to stop the discovery
+     *                          after the continuous scan
+     * @param powerSaveIntervalMs duration of a power saving interval, scan window included
+     * @param stopAfterQuietMs stop the discovery when no new nodes are found for this time, 0 to
+     *                         run the discovery for the max time
+     * @param maxScanMs max discovery time
+     */
+    public ScanPolicy(long burstMs, long burstQuietMs, long powerSaveWindowMs,
+                      long powerSaveIntervalMs, long stopAfterQuietMs, long maxScanMs) {
+        if(powerSaveWindowMs>powerSaveIntervalMs)
+            throw new IllegalArgumentException("The scan window must be inside the interval");
+        this.burstMs = burstMs;
+        this.burstQuietMs = burstQuietMs;
+        this.powerSaveWindowMs = powerSaveWindowMs;
+        this.powerSaveIntervalMs = powerSaveIntervalMs;
+        this.stopAfterQuietMs = stopAfterQuietMs;
+        this.maxScanMs = maxScanMs;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Decide when scan and when stop the node discovery following a {@link ScanPolicy}.
+ * The times are in milliseconds from a monotonic clock.
+ */
+class ScanScheduler {
+
+    static final class Step {
+        static final int SCAN = 0;
+        static final int IDLE = 1;
+        static final int STOP = 2;
+
+        /**
+         * scan continuously, used while the nodes are arriving
+         */
+        static final int MODE_LOW_LATENCY = 0;
+        /**
+         * scan in the power saving windows
+         */
+        static final int MODE_BALANCED = 1;
+        /**
+         * scan in a power saving window that covers all the interval
+         */
+        static final int MODE_LOW_POWER = 2;
+
+        private static final Step STOP_STEP = new Step(STOP,0,MODE_LOW_LATENCY);
+
+        /**
+         * SCAN, IDLE or STOP
+         */
+        final int action;
+
+        /**
+         * time after that the next step is requested
+         */
+        final long durationMs;
+
+        /**
+         * radio duty cycle requested for a SCAN step
+         */
+        final int scanMode;
+
+        private Step(int action, long durationMs, int scanMode) {
+            this.action = action;
+            this.durationMs = durationMs;
+            this.scanMode = scanMode;
+        }
+    }
+
+    private final ScanPolicy mPolicy;
+
+    private boolean mIsRunning = false;
+    private long mStartTime;
+    private long mLastNewNodeTime;
+    private boolean mLastStepIsScan;
+
+    ScanScheduler(@NonNull ScanPolicy policy){
+        mPolicy = policy;
+    }
+
+    /**
+     * start a new discovery
+     * @param now current time
+     */
+    void start(long now){
+        mIsRunning = true;
+        mStartTime = now;
+        mLastNewNodeTime = now;
+        mLastStepIsScan = false;
+    }
+
+    void stop(){
+        mIsRunning = false;
+    }
+
+    boolean isRunning(){
+        return mIsRunning;
+    }
+
+    /**
+     * a node not seen before in this discovery is found
+     * @param now current time
+     */
+    void onNewNode(long now){
+        mLastNewNodeTime = Math.max(mLastNewNodeTime,now);
+    }
+
+    private Step scan(long durationMs, int scanMode){
+        mLastStepIsScan = true;
+        return new Step(Step.SCAN,durationMs,scanMode);
+    }
+
+    private Step stopStep(){
+        mIsRunning = false;
+        return Step.STOP_STEP;
+    }
+
+    /**
+     * @param now current time
+     * @return what to do until the next step
+     */
+    @NonNull Step next(long now){
+        if(!mIsRunning)
+            return Step.STOP_STEP;
+        long elapsed = now - mStartTime;
+        long quiet = now - mLastNewNodeTime;
+        long remaining = mPolicy.maxScanMs - elapsed;
+        if(mPolicy.stopAfterQuietMs>0)
+            remaining = Math.min(remaining, mPolicy.stopAfterQuietMs - quiet);
+        if(remaining<=0)
+            return stopStep();
+
+        if(elapsed<mPolicy.burstMs)
+            return scan(Math.min(mPolicy.burstMs - elapsed, remaining),Step.MODE_LOW_LATENCY);
+        //the nodes are still arriving
+        if(quiet<mPolicy.burstQuietMs)
+            return scan(Math.min(mPolicy.burstQuietMs - quiet, remaining),
+                    Step.MODE_LOW_LATENCY);
+
+        if(mPolicy.powerSaveWindowMs<=0)
+            return stopStep();
+        long idleMs = mPolicy.powerSaveIntervalMs - mPolicy.powerSaveWindowMs;
+        if(mLastStepIsScan && idleMs>0){
+            mLastStepIsScan = false;
+            return new Step(Step.IDLE,Math.min(idleMs,remaining),Step.MODE_LOW_LATENCY);
+        }
+        return scan(Math.min(mPolicy.powerSaveWindowMs,remaining),
+                idleMs>0 ? Step.MODE_BALANCED : Step.MODE_LOW_POWER);
+    }
+}
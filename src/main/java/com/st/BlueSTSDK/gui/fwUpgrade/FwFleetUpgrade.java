@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueSTSDK.Node;
+import com.st.BlueSTSDK.Utils.FwVersion;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.FwUpgradeConsole;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImageCache;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FwFileDescriptor;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Upload the same firmware into many nodes, running at most a fixed number of uploads at the
+ * same time to share the radio between the nodes.
+ * <p>
+ * The firmware file is read once in the {@link FirmwareImageCache} and the image is passed to
+ * the console of each node, returned by
+ * {@link FwUpgradeConsole#getFwUpgradeConsole(Node, FwVersion)}, until all the uploads end.
+ * </p>
+ */
+public class FwFleetUpgrade implements FwUpgradeConsole.FwUpgradeCallback {
+
+    /**
+     * Interface used to notify the fleet upgrade status, the methods can be called by different
+     * threads
+     */
+    public interface FwFleetUpgradeListener{
+
+        /**
+         * the upload to a node progressed
+         * @param fleet object that is doing the upload
+         * @param node upload status of the node
+         */
+        void onNodeUploadProgress(FwFleetUpgrade fleet, NodeUploadStatus node);
+
+        /**
+         * the upload to a node finished, correctly or with an error
+         * @param fleet object that is doing the upload
+         * @param node upload status of the node
+         */
+        void onNodeUploadFinished(FwFleetUpgrade fleet, NodeUploadStatus node);
+
+        /**
+         * all the uploads finished
+         * @param fleet object that did the uploads
+         */
+        void onFleetUploadFinished(FwFleetUpgrade fleet);
+    }
+
+    /**
+     * upload progress and timing of a single node
+     */
+    public static class NodeUploadStatus {
+
+        /**
+         * value of the error code while the upload is running or if it finished correctly
+         */
+        public static final int NO_ERROR = -1;
+
+        private final Node mNode;
+        private long mStartTime = -1;
+        private long mEndTime = -1;
+        private long mTotalBytes = -1;
+        private long mSentBytes = 0;
+        private int mError = NO_ERROR;
+
+        private NodeUploadStatus(Node node){
+            mNode = node;
+        }
+
+        public Node getNode(){
+            return mNode;
+        }
+
+        /**
+         * @return number of bytes to upload, -1 if the upload is not started. It is the image
+         * length until the console prepares the upload, then the number of bytes sent to the node
+         */
+        public long getTotalBytes(){
+            return mTotalBytes;
+        }
+
+        /**
+         * @return number of bytes uploaded
+         */
+        public long getSentBytes(){
+            return mSentBytes;
+        }
+
+        /**
+         * @return true if the upload is finished, correctly or with an error
+         */
+        public boolean isFinished(){
+            return mEndTime>=0;
+        }
+
+        /**
+         * @return error code of a failed upload or {@link NodeUploadStatus#NO_ERROR}
+         */
+        public int getError(){
+            return mError;
+        }
+
+        /**
+         * @return upload duration in milliseconds, until now if the upload is running
+         */
+        public long getDurationMs(){
+            if(mStartTime<0)
+                return 0;
+            long end = mEndTime>=0 ? mEndTime : SystemClock.elapsedRealtime();
+            return end - mStartTime;
+        }
+    }
+
+    private final FwFileDescriptor mFile;
+    private final @FirmwareType int mFwType;
+    private final @Nullable Long mAddress;
+    private final @Nullable FwVersion mVersion;
+    private final int mMaxConcurrentUpload;
+    private final FwFleetUpgradeListener mListener;
+
+    private final ArrayDeque<Node> mWaitingNodes = new ArrayDeque<>();
+    private final Map<FwUpgradeConsole,NodeUploadStatus> mRunningUploads = new HashMap<>();
+    private final List<NodeUploadStatus> mNodeStatus = new ArrayList<>();
+    private @Nullable FirmwareImage mImage;
+    private long mStartTime = -1;
+
+    /**
+     * @param file firmware to upload
+     * @param fwType type of firmware to upload
+     * @param address address where load the firmware, null to use the default one
+     * @param version firmware version running on the nodes
+     * @param maxConcurrentUpload max number of nodes that receive the firmware at the same time
+     * @param listener object where notify the upload status
+     */
+    public FwFleetUpgrade(@NonNull FwFileDescriptor file, @FirmwareType int fwType,
+                          @Nullable Long address, @Nullable FwVersion version,
+                          int maxConcurrentUpload, @NonNull FwFleetUpgradeListener listener){
+        if(maxConcurrentUpload<1)
+            throw new IllegalArgumentException("maxConcurrentUpload must be at least 1");
+        mFile = file;
+        mFwType = fwType;
+        mAddress = address;
+        mVersion = version;
+        mMaxConcurrentUpload = maxConcurrentUpload;
+        mListener = listener;
+    }
+
+    /**
+     * read the firmware file and start the uploads, the file is read in the caller thread
+     * @param nodes nodes to upgrade
+     * @return false if the file can not be read
+     */
+    public boolean start(@NonNull List<Node> nodes){
+        synchronized (this) {
+            if (mStartTime >= 0)
+                throw new IllegalStateException("The upload is already started");
+            try {
+                mImage = FirmwareImageCache.getInstance().open(mFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            mStartTime = SystemClock.elapsedRealtime();
+            for (Node node : nodes) {
+                mWaitingNodes.add(node);
+                mNodeStatus.add(new NodeUploadStatus(node));
+            }
+        }
+        startNextUploads();
+        return true;
+    }
+
+    /**
+     * @return upload status of each node
+     */
+    public synchronized List<NodeUploadStatus> getNodeStatus(){
+        return Collections.unmodifiableList(new ArrayList<>(mNodeStatus));
+    }
+
+    /**
+     * @return bytes uploaded by all the nodes per second since the fleet upload start
+     */
+    public synchronized float getThroughput(){
+        if(mStartTime<0)
+            return 0;
+        long sentBytes = 0;
+        for(NodeUploadStatus status : mNodeStatus)
+            sentBytes+=status.mSentBytes;
+        long durationMs = SystemClock.elapsedRealtime() - mStartTime;
+        return durationMs>0 ? sentBytes * 1000.0f / durationMs : 0;
+    }
+
+    private @Nullable NodeUploadStatus getStatus(Node node){
+        for(NodeUploadStatus status : mNodeStatus){
+            if(status.mNode == node)
+                return status;
+        }
+        return null;
+    }
+
+    /**
+     * start the uploads of the waiting nodes until the max number of concurrent uploads is
+     * reached
+     */
+    private void startNextUploads(){
+        List<NodeUploadStatus> failedNodes = new ArrayList<>();
+        List<FwUpgradeConsole> startedConsoles = new ArrayList<>();
+        boolean fleetFinished;
+        FirmwareImage image;
+        synchronized (this){
+            image = mImage;
+            while(mRunningUploads.size()<mMaxConcurrentUpload && !mWaitingNodes.isEmpty()){
+                Node node = mWaitingNodes.poll();
+                NodeUploadStatus status = getStatus(node);
+                FwUpgradeConsole console = FwUpgradeConsole.getFwUpgradeConsole(node,mVersion);
+                status.mStartTime = SystemClock.elapsedRealtime();
+                if(console==null){
+                    status.mEndTime = status.mStartTime;
+                    status.mError = ERROR_UNKNOWN;
+                    failedNodes.add(status);
+                    continue;
+                }
+                if(image!=null)
+                    status.mTotalBytes = image.getLength();
+                mRunningUploads.put(console,status);
+                console.setLicenseConsoleListener(this);
+                startedConsoles.add(console);
+            }
+            fleetFinished = mRunningUploads.isEmpty() && mWaitingNodes.isEmpty() && mImage!=null;
+            if(fleetFinished)
+                closeImage();
+        }
+        for(NodeUploadStatus status : failedNodes)
+            mListener.onNodeUploadFinished(this,status);
+        //the console can notify the result before returning, so they are started without lock,
+        //the image is not closed while there are running uploads
+        for(FwUpgradeConsole console : startedConsoles) {
+            if(!console.loadFw(mFwType,mFile,image,mAddress!=null ? mAddress : 0))
+                onUploadFinished(console,ERROR_UNKNOWN);
+        }
+        if(fleetFinished)
+            mListener.onFleetUploadFinished(this);
+    }
+
+    private void closeImage(){
+        if(mImage!=null){
+            mImage.close();
+            mImage = null;
+        }
+    }
+
+    private void onUploadFinished(FwUpgradeConsole console, int error){
+        NodeUploadStatus status;
+        synchronized (this){
+            status = mRunningUploads.remove(console);
+            if(status==null)
+                return;
+            status.mEndTime = SystemClock.elapsedRealtime();
+            status.mError = error;
+            if(error==NodeUploadStatus.NO_ERROR && status.mTotalBytes>=0)
+                status.mSentBytes = status.mTotalBytes;
+        }
+        mListener.onNodeUploadFinished(this,status);
+        startNextUploads();
+    }
+
+    @Override
+    public void onLoadFwComplete(FwUpgradeConsole console, FwFileDescriptor fwFile) {
+        onUploadFinished(console,NodeUploadStatus.NO_ERROR);
+    }
+
+    @Override
+    public void onLoadFwError(FwUpgradeConsole console, FwFileDescriptor fwFile,
+                              @UpgradeErrorType int error) {
+        onUploadFinished(console,error);
+    }
+
+    @Override
+    public void onLoadFwProgressUpdate(FwUpgradeConsole console, FwFileDescriptor fwFile,
+                                       long remainingBytes) {
+        NodeUploadStatus status;
+        synchronized (this){
+            status = mRunningUploads.get(console);
+            if(status==null)
+                return;
+            //the progress counts down from the bytes sent to the node, less than the image
+            //length if the console compresses it
+            long streamLength = console.getUploadedStreamLength();
+            if(streamLength>0)
+                status.mTotalBytes = streamLength;
+            status.mSentBytes = Math.min(status.mTotalBytes,
+                    Math.max(0,status.mTotalBytes - remainingBytes));
+        }
+        mListener.onNodeUploadProgress(this,status);
+    }
+}
@@ -44,6 +44,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.Uri;
 import android.os.Build;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -55,7 +56,14 @@ import com.st.BlueSTSDK.Node;
 import com.st.BlueSTSDK.Utils.FwVersion;
 import com.st.BlueSTSDK.gui.R;
 import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.FwUpgradeConsole;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImageCache;
 import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FwFileDescriptor;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.UploadCheckpointStore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Service that will upload the file as a background task, it will notify to the user the progres
@@ -85,6 +93,23 @@ public class FwUpgradeService extends IntentService implements FwUpgradeConsole.
     public static final String FW_UPLOAD_STATUS_UPGRADE_SEND_BYTE_EXTRA = FwUpgradeService.class
             .getCanonicalName() + "extra.FW_UPLOAD_STATUS_UPGRADE_SEND_BYTE";
 
+    /**
+     * key used in the upload status intent for store the current upload speed, in bytes/s
+     */
+    public static final String FW_UPLOAD_STATUS_UPGRADE_RATE_EXTRA = FwUpgradeService.class
+            .getCanonicalName() + "extra.FW_UPLOAD_STATUS_UPGRADE_RATE";
+    /**
+     * key used in the upload status intent for store the average upload speed, in bytes/s
+     */
+    public static final String FW_UPLOAD_STATUS_UPGRADE_AVERAGE_RATE_EXTRA = FwUpgradeService.class
+            .getCanonicalName() + "extra.FW_UPLOAD_STATUS_UPGRADE_AVERAGE_RATE";
+    /**
+     * key used in the upload status intent for store the estimated time to finish the upload,
+     * in seconds. -1 if it is unknown
+     */
+    public static final String FW_UPLOAD_STATUS_UPGRADE_ETA_S_EXTRA = FwUpgradeService.class
+            .getCanonicalName() + "extra.FW_UPLOAD_STATUS_UPGRADE_ETA_S";
+
     /**
      * action send when the upload end correctly
      */
@@ -95,6 +120,18 @@ public class FwUpgradeService extends IntentService implements FwUpgradeConsole.
      */
     public static final String FW_UPLOAD_FINISHED_TIME_S_EXTRA = FwUpgradeService.class
             .getCanonicalName() + "extra.FW_UPLOAD_FINISHED_TIME_S";
+    /**
+     * key used in the upload finished intent for store the ratio between the image size and the
+     * bytes sent to the node, 1 if the image was sent uncompressed
+     */
+    public static final String FW_UPLOAD_FINISHED_COMPRESSION_RATIO_EXTRA = FwUpgradeService.class
+            .getCanonicalName() + "extra.FW_UPLOAD_FINISHED_COMPRESSION_RATIO";
+    /**
+     * key used in the upload finished intent for store the image bytes uploaded each second,
+     * compression included
+     */
+    public static final String FW_UPLOAD_FINISHED_EFFECTIVE_RATE_EXTRA = FwUpgradeService.class
+            .getCanonicalName() + "extra.FW_UPLOAD_FINISHED_EFFECTIVE_RATE";
 
     /**
      * action send when an error happen
@@ -107,6 +144,31 @@ public class FwUpgradeService extends IntentService implements FwUpgradeConsole.
     public static final String FW_UPLOAD_ERROR_MESSAGE_EXTRA = FwUpgradeService.class
             .getCanonicalName() + "extra.FW_UPLOAD_ERROR_MESSAGE";
 
+    /**
+     * key used in the status, finished and error intents of a fleet upload for store the tag of
+     * the node
+     */
+    public static final String FW_UPLOAD_NODE_TAG_EXTRA = FwUpgradeService.class
+            .getCanonicalName() + "extra.FW_UPLOAD_NODE_TAG";
+
+    /**
+     * key used in the status intent of a fleet upload for store the bytes per second uploaded by
+     * all the nodes
+     */
+    public static final String FW_UPLOAD_FLEET_THROUGHPUT_EXTRA = FwUpgradeService.class
+            .getCanonicalName() + "extra.FW_UPLOAD_FLEET_THROUGHPUT";
+
+    /**
+     * action send when all the uploads of a fleet upload end
+     */
+    public static final String FW_UPLOAD_FLEET_FINISHED_ACTION = FwUpgradeService.class
+            .getCanonicalName() + "action.FW_UPLOAD_FLEET_FINISHED_ACTION";
+
+    /**
+     * default number of nodes that receive the firmware at the same time
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_UPLOAD = 4;
+
     /**
      * id used for display the notification from this service
      */
@@ -119,6 +181,24 @@ public class FwUpgradeService extends IntentService implements FwUpgradeConsole.
      */
     private static final String UPLOAD_FW =
             FwUpgradeService.class.getCanonicalName() + "action.uploadFw";
+    /**
+     * action used in the intent for create this service and upload the file in many nodes
+     */
+    private static final String UPLOAD_FW_FLEET =
+            FwUpgradeService.class.getCanonicalName() + "action.uploadFwFleet";
+
+    /**
+     * key used in the intent for create this service, to store the nodes where upload the file
+     */
+    private static final String NODE_TAGS =
+            FwUpgradeService.class.getCanonicalName() + "extra.nodeTags";
+
+    /**
+     * key used in the intent for create this service, to store the number of concurrent uploads
+     */
+    private static final String MAX_CONCURRENT_UPLOAD =
+            FwUpgradeService.class.getCanonicalName() + "extra.maxConcurrentUpload";
+
     /**
      * key used in the intent for create this service, to store the file to upload
      */
@@ -174,6 +254,11 @@ public class FwUpgradeService extends IntentService implements FwUpgradeConsole.
      */
     private long mFileLength = Long.MAX_VALUE;
 
+    /**
+     * object used for reduce the number of progress notifications, created for each upload
+     */
+    private UploadProgressAggregator mProgress;
+
     public FwUpgradeService() {
         super(FwUpgradeService.class.getSimpleName());
     }
@@ -223,6 +308,36 @@ public class FwUpgradeService extends IntentService implements FwUpgradeConsole.
         context.startService(intent);
     }
 
+    /**
+     * start this service for upload the same file in many nodes
+     * @param context context used for start the service
+     * @param nodes nodes where upload the file
+     * @param fwFile file to upload
+     * @param maxConcurrentUpload max number of nodes that receive the file at the same time
+     */
+    public static void startFleetUploadService(@NonNull Context context, @NonNull List<Node> nodes,
+                                               @NonNull Uri fwFile, @FirmwareType int fwType,
+                                               @Nullable Long address,
+                                               @Nullable FwVersion currentVersion,
+                                               int maxConcurrentUpload) {
+        String[] tags = new String[nodes.size()];
+        for(int i = 0; i<tags.length ; i++)
+            tags[i] = nodes.get(i).getTag();
+        Intent intent = new Intent(context, FwUpgradeService.class);
+        intent.setAction(UPLOAD_FW_FLEET);
+        intent.putExtra(FW_FILE_URI, fwFile);
+        intent.putExtra(NODE_TAGS, tags);
+        intent.putExtra(FW_TYPE,fwType);
+        intent.putExtra(MAX_CONCURRENT_UPLOAD,maxConcurrentUpload);
+        if(currentVersion!=null) {
+            intent.putExtra(FW_VERSION_TAG, currentVersion);
+        }
+        if(address!=null){
+            intent.putExtra(FW_ADDRESS_DESTINATION,address);
+        }
+        context.startService(intent);
+    }
+
     /**
      * create an intent filter that will select all the action send by this service
      * @return IntentFilter for select all the intent send by this service
@@ -232,6 +347,7 @@ public class FwUpgradeService extends IntentService implements FwUpgradeConsole.
         filter.addAction(FW_UPLOAD_STATUS_UPGRADE_ACTION);
         filter.addAction(FW_UPLOAD_STARTED_ACTION);
         filter.addAction(FW_UPLOAD_ERROR_ACTION);
+        filter.addAction(FW_UPLOAD_FLEET_FINISHED_ACTION);
         return filter;
     }
 
@@ -250,10 +366,14 @@ public class FwUpgradeService extends IntentService implements FwUpgradeConsole.
                 .putExtra(FW_UPLOAD_ERROR_MESSAGE_EXTRA, errorMessage);
     }
 
-    private static Intent getFwUpgradeStatusIntent(long uploadBytes, long totalBytes) {
+    private static Intent getFwUpgradeStatusIntent(UploadProgressAggregator progress) {
+        long etaMs = progress.getEtaMs();
         return new Intent(FW_UPLOAD_STATUS_UPGRADE_ACTION)
-                .putExtra(FW_UPLOAD_STATUS_UPGRADE_TOTAL_BYTE_EXTRA, totalBytes)
-                .putExtra(FW_UPLOAD_STATUS_UPGRADE_SEND_BYTE_EXTRA, uploadBytes);
+                .putExtra(FW_UPLOAD_STATUS_UPGRADE_TOTAL_BYTE_EXTRA, progress.getTotalBytes())
+                .putExtra(FW_UPLOAD_STATUS_UPGRADE_SEND_BYTE_EXTRA, progress.getSentBytes())
+                .putExtra(FW_UPLOAD_STATUS_UPGRADE_RATE_EXTRA, progress.getInstantRate())
+                .putExtra(FW_UPLOAD_STATUS_UPGRADE_AVERAGE_RATE_EXTRA, progress.getAverageRate())
+                .putExtra(FW_UPLOAD_STATUS_UPGRADE_ETA_S_EXTRA, etaMs<0 ? -1 : etaMs/1000);
     }
 
     private static Intent getFwUpgradeStartIntent() {
@@ -314,7 +434,13 @@ public class FwUpgradeService extends IntentService implements FwUpgradeConsole.
     public void onLoadFwComplete(FwUpgradeConsole console, FwFileDescriptor fwFile) {
         long totalTimeMs = System.currentTimeMillis() - mStartUploadTime;
         float totalTimeS = totalTimeMs / 1000.0f;
-        mBroadcastManager.sendBroadcast(getFwUpgradeCompleteIntent(totalTimeS));
+        long imageLength = console.getUploadedImageLength();
+        if(imageLength==0)
+            imageLength = mFileLength;
+        float effectiveRate = totalTimeS>0 ? imageLength/totalTimeS : 0.0f;
+        mBroadcastManager.sendBroadcast(getFwUpgradeCompleteIntent(totalTimeS)
+                .putExtra(FW_UPLOAD_FINISHED_COMPRESSION_RATIO_EXTRA,console.getCompressionRatio())
+                .putExtra(FW_UPLOAD_FINISHED_EFFECTIVE_RATE_EXTRA,effectiveRate));
         mNotification.setContentTitle(getString(R.string.fwUpgrade_upgradeCompleteNotificationTitle))
                 .setContentText(getString(R.string.fwUpgrade_upgradeCompleteNotificationContent));
         mNotificationManager.notify(NOTIFICATION_ID, mNotification.build());
@@ -326,10 +452,11 @@ public class FwUpgradeService extends IntentService implements FwUpgradeConsole.
             mStartUploadTime = System.currentTimeMillis();
             mFileLength = remainingBytes;
         }
+        if(!mProgress.update(mFileLength - remainingBytes, mFileLength, SystemClock.elapsedRealtime()))
+            return;
         mNotification.setProgress((int) mFileLength, (int) (mFileLength - remainingBytes), false);
         mNotificationManager.notify(NOTIFICATION_ID, mNotification.build());
-        mBroadcastManager.sendBroadcast(
-                getFwUpgradeStatusIntent(mFileLength - remainingBytes, mFileLength));
+        mBroadcastManager.sendBroadcast(getFwUpgradeStatusIntent(mProgress));
     }
 
     private static @Nullable Long extractAddress(Intent intent){
@@ -345,6 +472,7 @@ public class FwUpgradeService extends IntentService implements FwUpgradeConsole.
      */
     @Override
     protected void onHandleIntent(Intent intent) {
+        FirmwareImageCache.register(this);
         if (intent != null) {
             final String action = intent.getAction();
             if (UPLOAD_FW.equals(action)) {
@@ -354,6 +482,27 @@ public class FwUpgradeService extends IntentService implements FwUpgradeConsole.
                 final FwVersion currentVersion = extractCurrentFwVersion(intent);
                 final @FirmwareType int fwType = intent.getIntExtra(FW_TYPE,FirmwareType.BOARD_FW);
                 handleActionUpload(file, node,fwType,address,currentVersion);
+            }else if (UPLOAD_FW_FLEET.equals(action)) {
+                final Uri file = intent.getParcelableExtra(FW_FILE_URI);
+                final String[] tags = intent.getStringArrayExtra(NODE_TAGS);
+                final Long address = extractAddress(intent);
+                final FwVersion currentVersion = extractCurrentFwVersion(intent);
+                final @FirmwareType int fwType = intent.getIntExtra(FW_TYPE,FirmwareType.BOARD_FW);
+                final int maxConcurrentUpload = intent.getIntExtra(MAX_CONCURRENT_UPLOAD,
+                        DEFAULT_MAX_CONCURRENT_UPLOAD);
+                List<Node> nodes = new ArrayList<>();
+                List<String> missingTags = new ArrayList<>();
+                if(tags!=null) {
+                    for (String tag : tags) {
+                        Node node = getNode(tag);
+                        if (node != null)
+                            nodes.add(node);
+                        else
+                            missingTags.add(tag);
+                    }
+                }
+                handleActionFleetUpload(file,nodes,missingTags,fwType,address,currentVersion,
+                        maxConcurrentUpload);
             }
         }
     }
@@ -390,7 +539,11 @@ public class FwUpgradeService extends IntentService implements FwUpgradeConsole.
         mNotification = buildUploadNotification(mNotificationManager);
         FwUpgradeConsole console = FwUpgradeConsole.getFwUpgradeConsole(node,currentVersion);
         if (console != null) {
+            mStartUploadTime = -1;
+            mFileLength = Long.MAX_VALUE;
+            mProgress = new UploadProgressAggregator();
             console.setLicenseConsoleListener(this);
+            console.setCheckpointStore(new UploadCheckpointStore(this));
             mBroadcastManager.sendBroadcast(getFwUpgradeStartIntent());
             mNotificationManager.notify(NOTIFICATION_ID, mNotification.build());
             if(address!=null) {
@@ -403,5 +556,138 @@ public class FwUpgradeService extends IntentService implements FwUpgradeConsole.
         }//if console
     }
 
+    /**
+     * upload the file in all the nodes
+     * @param file file to upload
+     * @param nodes nodes where upload the file
+     * @param missingTags tags of the nodes that are not found, they are reported as failed
+     * @param fwType type of fw to load into the nodes
+     * @param maxConcurrentUpload max number of nodes that receive the file at the same time
+     */
+    void handleActionFleetUpload(Uri file, List<Node> nodes, List<String> missingTags,
+                                 @FirmwareType int fwType,
+                                 @Nullable Long address, @Nullable FwVersion currentVersion,
+                                 int maxConcurrentUpload) {
+        if(nodes.isEmpty() && missingTags.isEmpty())
+            return;
+        mNotificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        mBroadcastManager = LocalBroadcastManager.getInstance(this);
+        mNotification = buildUploadNotification(mNotificationManager);
+        FleetUploadListener listener = new FleetUploadListener(missingTags.size());
+        FwFleetUpgrade fleet = new FwFleetUpgrade(new FwFileDescriptor(getContentResolver(),file),
+                fwType,address,currentVersion,maxConcurrentUpload,listener);
+        mBroadcastManager.sendBroadcast(getFwUpgradeStartIntent());
+        mNotificationManager.notify(NOTIFICATION_ID, mNotification.build());
+        for(String tag : missingTags)
+            listener.onNodeNotFound(tag);
+        if(!fleet.start(nodes)){
+            onLoadFwError(null,null,FwUpgradeConsole.FwUpgradeCallback.ERROR_INVALID_FW_FILE);
+        }
+    }
+
+    /**
+     * notify the progress of each node with a broadcast message and the progress of all the
+     * nodes in the notification
+     */
+    private class FleetUploadListener implements FwFleetUpgrade.FwFleetUpgradeListener {
+
+        /**
+         * progress of each node, used for reduce the number of broadcast messages
+         */
+        private final Map<String,UploadProgressAggregator> mNodeProgress = new HashMap<>();
+
+        /**
+         * progress of all the nodes, used for reduce the number of notification updates
+         */
+        private final UploadProgressAggregator mFleetProgress = new UploadProgressAggregator();
+
+        /**
+         * number of nodes that are not found when the upload starts
+         */
+        private final int mNMissingNodes;
+
+        /**
+         * @param nMissingNodes number of nodes that are not found, they count as failed uploads
+         */
+        FleetUploadListener(int nMissingNodes){
+            mNMissingNodes = nMissingNodes;
+        }
+
+        /**
+         * report as failed the upload to a node that is not found
+         * @param tag node tag
+         */
+        void onNodeNotFound(String tag){
+            mBroadcastManager.sendBroadcast(
+                    getFwUpgradeErrorIntent(getErrorMessage(FwUpgradeConsole.FwUpgradeCallback.ERROR_UNKNOWN))
+                            .putExtra(FW_UPLOAD_NODE_TAG_EXTRA,tag));
+        }
+
+        private void updateNotification(FwFleetUpgrade fleet, long now){
+            long totalBytes = 0;
+            long sentBytes = 0;
+            for(FwFleetUpgrade.NodeUploadStatus status : fleet.getNodeStatus()){
+                if(status.getTotalBytes()>0) {
+                    totalBytes += status.getTotalBytes();
+                    sentBytes += status.getSentBytes();
+                }
+            }
+            if(!mFleetProgress.update(sentBytes,totalBytes,now))
+                return;
+            //the notification progress is an int: use kB
+            mNotification.setProgress((int)(totalBytes/1024),(int)(sentBytes/1024),false);
+            mNotificationManager.notify(NOTIFICATION_ID, mNotification.build());
+        }
+
+        @Override
+        public synchronized void onNodeUploadProgress(FwFleetUpgrade fleet, FwFleetUpgrade.NodeUploadStatus node) {
+            long now = SystemClock.elapsedRealtime();
+            updateNotification(fleet,now);
+            String tag = node.getNode().getTag();
+            UploadProgressAggregator nodeProgress = mNodeProgress.get(tag);
+            if(nodeProgress==null){
+                nodeProgress = new UploadProgressAggregator();
+                mNodeProgress.put(tag,nodeProgress);
+            }
+            if(!nodeProgress.update(node.getSentBytes(),node.getTotalBytes(),now))
+                return;
+            mBroadcastManager.sendBroadcast(
+                    getFwUpgradeStatusIntent(nodeProgress)
+                            .putExtra(FW_UPLOAD_NODE_TAG_EXTRA,tag)
+                            .putExtra(FW_UPLOAD_FLEET_THROUGHPUT_EXTRA,fleet.getThroughput()));
+        }
+
+        @Override
+        public void onNodeUploadFinished(FwFleetUpgrade fleet, FwFleetUpgrade.NodeUploadStatus node) {
+            Intent intent;
+            if(node.getError()==FwFleetUpgrade.NodeUploadStatus.NO_ERROR)
+                intent = getFwUpgradeCompleteIntent(node.getDurationMs()/1000.0f);
+            else
+                intent = getFwUpgradeErrorIntent(getErrorMessage(node.getError()));
+            mBroadcastManager.sendBroadcast(
+                    intent.putExtra(FW_UPLOAD_NODE_TAG_EXTRA,node.getNode().getTag()));
+        }
+
+        @Override
+        public synchronized void onFleetUploadFinished(FwFleetUpgrade fleet) {
+            int nError = mNMissingNodes;
+            for(FwFleetUpgrade.NodeUploadStatus status : fleet.getNodeStatus()){
+                if(status.getError()!=FwFleetUpgrade.NodeUploadStatus.NO_ERROR)
+                    nError++;
+            }
+            mBroadcastManager.sendBroadcast(new Intent(FW_UPLOAD_FLEET_FINISHED_ACTION)
+                    .putExtra(FW_UPLOAD_FLEET_THROUGHPUT_EXTRA,fleet.getThroughput()));
+            if(nError==0) {
+                mNotification.setContentTitle(getString(R.string.fwUpgrade_upgradeCompleteNotificationTitle))
+                        .setContentText(getString(R.string.fwUpgrade_upgradeCompleteNotificationContent));
+            }else{
+                mNotification.setContentTitle(getString(R.string.fwUpgrade_errorNotificationTitle))
+                        .setContentText(getErrorMessage(FwUpgradeConsole.FwUpgradeCallback.ERROR_TRANSMISSION));
+            }
+            mNotification.setProgress(0,0,false);
+            mNotificationManager.notify(NOTIFICATION_ID, mNotification.build());
+        }
+    }
+
 
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade;
+
+/**
+ * Coalesce the upload progress notified by the consoles, an update is reported only if enough
+ * time is passed or enough data is sent since the last report. The first and the final updates
+ * are always reported.
+ * <p>
+ * The class computes also the upload speed and the time needed to finish the upload.
+ * The time is passed by the caller, in milliseconds.
+ * </p>
+ */
+public class UploadProgressAggregator {
+
+    /**
+     * default min time between two reports: 4Hz
+     */
+    public static final long DEFAULT_MIN_INTERVAL_MS = 250;
+
+    /**
+     * default min progress between two reports: 1%
+     */
+    public static final float DEFAULT_MIN_STEP = 0.01f;
+
+    /**
+     * weight of the last measure in the instantaneous speed
+     */
+    private static final float RATE_WEIGHT = 0.3f;
+
+    private final long mMinIntervalMs;
+    private final float mMinStep;
+
+    private long mStartTime = -1;
+    private long mLastReportTime;
+    private long mLastReportBytes;
+    private long mSentBytes;
+    private long mTotalBytes;
+    private float mInstantRate = -1;
+    private float mAverageRate;
+
+    public UploadProgressAggregator(){
+        this(DEFAULT_MIN_INTERVAL_MS,DEFAULT_MIN_STEP);
+    }
+
+    /**
+     * an update is reported if at least minIntervalMs are passed or at least minStep of the
+     * file is sent since the last report
+     * @param minIntervalMs min time between two reports
+     * @param minStep min fraction of the total bytes sent between two reports, in [0,1]
+     */
+    public UploadProgressAggregator(long minIntervalMs, float minStep){
+        mMinIntervalMs = minIntervalMs;
+        mMinStep = minStep;
+    }
+
+    /**
+     * add a new progress value
+     * @param sentBytes number of bytes sent
+     * @param totalBytes number of bytes to send
+     * @param nowMs current time
+     * @return true if the progress has to be reported
+     */
+    public synchronized boolean update(long sentBytes, long totalBytes, long nowMs){
+        mSentBytes = sentBytes;
+        mTotalBytes = totalBytes;
+        if(mStartTime<0){
+            mStartTime = nowMs;
+            mLastReportTime = nowMs;
+            mLastReportBytes = sentBytes;
+            return true;
+        }
+        long elapsed = nowMs - mLastReportTime;
+        long step = sentBytes - mLastReportBytes;
+        boolean isLast = sentBytes>=totalBytes;
+        if(!isLast && elapsed<mMinIntervalMs && step<mMinStep*totalBytes)
+            return false;
+
+        if(elapsed>0) {
+            float rate = step * 1000.0f / elapsed;
+            mInstantRate = mInstantRate < 0 ? rate :
+                    (1 - RATE_WEIGHT) * mInstantRate + RATE_WEIGHT * rate;
+        }
+        long totalTime = nowMs - mStartTime;
+        if(totalTime>0)
+            mAverageRate = sentBytes * 1000.0f / totalTime;
+        mLastReportTime = nowMs;
+        mLastReportBytes = sentBytes;
+        return true;
+    }
+
+    /**
+     * @return number of bytes sent at the last update
+     */
+    public synchronized long getSentBytes(){
+        return mSentBytes;
+    }
+
+    /**
+     * @return number of bytes to send at the last update
+     */
+    public synchronized long getTotalBytes(){
+        return mTotalBytes;
+    }
+
+    /**
+     * @return speed in the last reports, in bytes/s
+     */
+    public synchronized float getInstantRate(){
+        return Math.max(0,mInstantRate);
+    }
+
+    /**
+     * @return speed from the first update, in bytes/s
+     */
+    public synchronized float getAverageRate(){
+        return mAverageRate;
+    }
+
+    /**
+     * @return estimated time to finish the upload in milliseconds, -1 if it is unknown
+     */
+    public synchronized long getEtaMs(){
+        float rate = mInstantRate > 0 ? mInstantRate : mAverageRate;
+        if(rate<=0)
+            return -1;
+        long remaining = Math.max(0, mTotalBytes - mSentBytes);
+        return (long) (remaining * 1000.0f / rate);
+    }
+}
@@ -46,7 +46,9 @@ import com.st.BlueSTSDK.Debug;
 import com.st.BlueSTSDK.Node;
 import com.st.BlueSTSDK.Utils.FwVersion;
 import com.st.BlueSTSDK.gui.fwUpgrade.FirmwareType;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
 import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FwFileDescriptor;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.UploadCheckpointStore;
 
 import com.st.BlueSTSDK.gui.fwUpgrade.fwVersionConsole.FwVersionBoard;
 import com.st.STM32WB.fwUpgrade.FwUpgradeConsoleSTM32WB;
@@ -70,13 +72,34 @@ public abstract class FwUpgradeConsole {
         return false;
     }
 
+    /**
+     * @param version firmware running on the node
+     * @return true if the firmware advertises that it accept packages sized on the negotiated
+     * mtu, false if only 16 bytes packages are supported
+     */
+    private static boolean hasLargePackageSupport(@Nullable FwVersion version){
+        return version instanceof FwVersionBoard &&
+                ((FwVersionBoard) version).hasFeature(FwVersionBoard.LARGE_PACKAGE_FEATURE);
+    }
+
+    /**
+     * @param version firmware running on the node
+     * @return true if the firmware advertises that it can receive the file compressed, it is used
+     * only by the boards that already run the {@link FwUpgradeConsoleNucleo2} protocol
+     */
+    private static boolean hasCompressedUploadSupport(@Nullable FwVersion version){
+        return version instanceof FwVersionBoard &&
+                ((FwVersionBoard) version).hasFeature(FwVersionBoard.COMPRESSED_UPLOAD_FEATURE);
+    }
+
     /**
      * get an instance of this class that works with the node
      * @param node node where upload the firmware
      * @return null if isn't possible upload the firmware in the node, or a class for do it
      */
     static public @Nullable FwUpgradeConsole getFwUpgradeConsole(@NonNull Node node,@Nullable FwVersion version){
-        FwUpgradeConsoleSTM32WB stm32wbConsole = FwUpgradeConsoleSTM32WB.buildForNode(node);
+        FwUpgradeConsoleSTM32WB stm32wbConsole = FwUpgradeConsoleSTM32WB.buildForNode(node,
+                hasLargePackageSupport(version));
         if( stm32wbConsole!=null)
             return stm32wbConsole;
 
@@ -87,12 +110,14 @@ public abstract class FwUpgradeConsole {
         Debug debug = node.getDebug();
 
         if(debug !=null) {
+            boolean useLargePackage = hasLargePackageSupport(version);
             switch (node.getType()) {
                 case SENSOR_TILE_BOX:
                     if(stBoxHasNewFwUpgradeProtocol(version)){
-                        return new FwUpgradeConsoleNucleo2(debug);
+                        return new FwUpgradeConsoleNucleo2(debug,useLargePackage,
+                                hasCompressedUploadSupport(version));
                     }else{
-                        return new FwUpgradeConsoleNucleo(debug);
+                        return new FwUpgradeConsoleNucleo(debug,useLargePackage);
                     }
                 case NUCLEO:
                 case SENSOR_TILE:
@@ -100,7 +125,7 @@ public abstract class FwUpgradeConsole {
                 case STEVAL_BCN002V1:
                 case STEVAL_STWINKIT1:
                 case DISCOVERY_IOT01A:
-                    return new FwUpgradeConsoleNucleo(debug);
+                    return new FwUpgradeConsoleNucleo(debug,useLargePackage);
             }
         }
         return  null;
@@ -112,6 +137,21 @@ public abstract class FwUpgradeConsole {
      */
     protected FwUpgradeCallback mCallback;
 
+    /**
+     * object where store the upload progress, null if the upload can't be resumed
+     */
+    protected @Nullable UploadCheckpointStore mCheckpointStore;
+
+    /**
+     * number of bytes of the last uploaded image, 0 if the console doesn't track it
+     */
+    private long mUploadedImageLength;
+
+    /**
+     * number of bytes sent to the node for the last uploaded image
+     */
+    private long mUploadedStreamLength;
+
     /**
      *
      * @param callback object where notify the command answer
@@ -127,7 +167,20 @@ public abstract class FwUpgradeConsole {
      * @param startingAddress memory address where load the firmware file
      * @return true if the command is correctly start
      */
-    abstract public boolean loadFw(@FirmwareType int type, FwFileDescriptor fwFile, long startingAddress);
+    public boolean loadFw(@FirmwareType int type, FwFileDescriptor fwFile, long startingAddress){
+        return loadFw(type,fwFile,null,startingAddress);
+    }
+
+    /**
+     * upload an image already read by the caller, used for upload the same file into many nodes
+     * @param type type of firmware that we are going to upload
+     * @param fwFile file path
+     * @param image content of fwFile, null to read the file
+     * @param startingAddress memory address where load the firmware file
+     * @return true if the command is correctly start
+     */
+    abstract public boolean loadFw(@FirmwareType int type, FwFileDescriptor fwFile,
+                                   @Nullable FirmwareImage image, long startingAddress);
 
     public boolean loadFw(@FirmwareType int type, FwFileDescriptor fwFile){
         return loadFw(type,fwFile,0);
@@ -141,6 +194,53 @@ public abstract class FwUpgradeConsole {
         mCallback = callback;
     }
 
+    /**
+     * set the object where store the upload progress, if the protocol allows it and the board
+     * confirms that it still holds the data, an interrupted upload started again will send only
+     * the remaining part of the image
+     * @param store object where store the upload progress, null to always upload the full image
+     */
+    public void setCheckpointStore(@Nullable UploadCheckpointStore store){
+        mCheckpointStore = store;
+    }
+
+    /**
+     * store the size of the image that is uploaded
+     * @param imageLength number of bytes of the image
+     * @param streamLength number of bytes sent to the node, less than imageLength if the image is
+     *                     compressed
+     */
+    protected void setUploadSize(long imageLength, long streamLength){
+        mUploadedImageLength = imageLength;
+        mUploadedStreamLength = streamLength;
+    }
+
+    /**
+     * @return number of bytes of the last uploaded image, 0 if it is unknown
+     */
+    public long getUploadedImageLength(){
+        return mUploadedImageLength;
+    }
+
+    /**
+     * @return number of bytes sent to the node for the last uploaded image, the progress
+     * notified by {@link FwUpgradeCallback#onLoadFwProgressUpdate} counts down from this value,
+     * 0 if it is unknown
+     */
+    public long getUploadedStreamLength(){
+        return mUploadedStreamLength;
+    }
+
+    /**
+     * @return ratio between the image size and the bytes sent to the node for the last upload,
+     * 1 if the image was not compressed
+     */
+    public float getCompressionRatio(){
+        if(mUploadedStreamLength==0)
+            return 1.0f;
+        return mUploadedImageLength/(float)mUploadedStreamLength;
+    }
+
     /**
      * Interface with the callback for the  command send by this class
      */
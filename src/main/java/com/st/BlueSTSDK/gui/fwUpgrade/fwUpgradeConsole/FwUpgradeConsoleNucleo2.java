@@ -36,430 +36,205 @@
  */
 package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole;
 
-import android.os.Handler;
-import android.os.Looper;
-import android.util.Log;
-
-import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.st.BlueSTSDK.Debug;
-import com.st.BlueSTSDK.Utils.NumberConversion;
 import com.st.BlueSTSDK.gui.fwUpgrade.FirmwareType;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol.ConsoleTransport;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol.DebugConsoleTransport;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol.HandlerScheduler;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol.Nucleo2UploadProtocol;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol.NucleoUploadProtocol;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol.Scheduler;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
 import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FwFileDescriptor;
-import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.STM32Crc32;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.LinkTuningPolicy;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.Lz4BlockCompressor;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.PreparedFirmware;
 
-import java.io.BufferedInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.Charset;
-import java.util.Arrays;
-import java.util.zip.Checksum;
 
 /**
  * Implement the FwUpgradeConsole for a board running the BlueMs firmware.
  * In this case the protocol is:
  * mobile:upgrade[Ble|Fw]+length+fileCrc
  * node:fileCrc
- * mobile: file data, the file is spited in message of 16bytes
+ * mobile: file data, the file is spited in message of 16bytes, or of the biggest multiple of 8
+ * bytes that fits in the MTU if the firmware support it
  * node: when all the byte are write return 1 if the crc is ok, -1 otherwise
+ * <p>
+ * The protocol is implemented by {@link Nucleo2UploadProtocol}, this class prepares the link and
+ * the file.
+ * </p>
+ * <p>
+ * If the firmware supports it the file is compressed with {@link Lz4BlockCompressor} while the
+ * link is tuned, the progress is notified in bytes of the compressed stream.
+ * </p>
  */
 public class FwUpgradeConsoleNucleo2 extends FwUpgradeConsole {
 
     /**
-     *to avoid to stress the BLE Stack the message are send each 13ms that corrisponding to a connection
-     * inteval of 12.5 ms.
+     * package size supported by all the firmware
      */
-    private static final int FW_PACKAGE_DELAY_MS = 13; // connection interval 12.5
-    //every time there is a fail we decease the number of block to send
-
-    static private final byte[] UPLOAD_BOARD_FW={'u','p','g','r','a','d','e','F','w'};
-    static private final byte[] UPLOAD_BLE_FW={'u','p','g','r','a','d','e','B','l','e'};
-
-    static private final String ACK_MSG="\u0001";
+    static private final int DEFAULT_PACKAGE_SIZE = 16;
 
     /**
-     * the Stm32 L4 can write only 8bytes at time, so sending a multiple of 8 simplify the fw code
+     * scheduler used by the protocol
      */
-    static private final int MAX_MSG_SIZE=16;
+    private final Scheduler mScheduler;
 
     /**
-     * if all the messages are not send in 1s an error is fired
+     * console where send the command
      */
-    static private final int LOST_MSG_TIMEOUT_MS=1000;
+    private final ConsoleTransport mConsole;
 
     /**
-     * object that will receive the console data
+     * true if the firmware accept package bigger than 16 bytes
      */
-    private Debug.DebugOutputListener mCurrentListener;
+    private final boolean mUseLargePackage;
 
     /**
-     * Buffer where store the command response
+     * true if the firmware accept the file compressed
      */
-    private StringBuilder mBuffer;
+    private final boolean mUseCompression;
 
     /**
-     * console where send the command
+     * prepare the connection for the upload
      */
-    private Debug mConsole;
+    private final LinkTuningPolicy mLink;
 
     /**
-     * class that manage the file upload
+     * file that we are uploading, null if there isn't an upload running
      */
-    private class UploadFileProtocol implements  Debug.DebugOutputListener{
-
-        /**
-         * since the traffic is high, we use a bigger timeout for give time to the system to notify
-         * that sent a message
-         */
-        static private final int FW_UPLOAD_MSG_TIMEOUT_MS=4*LOST_MSG_TIMEOUT_MS;
-
-        /**
-         * file that we are uploading
-         */
-        private FwFileDescriptor mFile;
-
-        /**
-         * buffer where we are reading the file
-         */
-        private byte[] mFileData;
-
-        /**
-         * number of byte send to the node
-         */
-        private long mByteSend;
-
-        /**
-         * total number of byte to send
-         */
-        private long mByteToSend;
-
-        /**
-         * file crc
-         */
-        private long mCrc;
-
-        /**
-         * true if the handshake with the node is finished
-         */
-        private boolean mNodeReadyToReceiveFile;
-
-        /**
-         * counter of package that are sent
-         */
-        private long mNPackageReceived;
-
-        private long nSentPackage;
-
-        /**
-         * size of the last package send
-         */
-        private byte[] mLastPackageSend = new byte[MAX_MSG_SIZE+4];
-
-        static private final int NOTIFY_EACH_PACKAGE = 10;
-
-        private Runnable mNextPackageSentTask;
-
-        /**
-         * if the timeout is rise, fire an error of type
-         * {@link FwUpgradeCallback#ERROR_TRANSMISSION}
-         */
-        private Runnable onTimeout = () -> {
-            onLoadFail(FwUpgradeCallback.ERROR_TRANSMISSION);
-            if(mNextPackageSentTask!=null){
-                mTimeout.removeCallbacks(mNextPackageSentTask);
-            }
-        };
-
-
-        /**
-         * Notify to the used that an error happen
-         * @param errorCode type of error
-         */
-        private void onLoadFail(@FwUpgradeCallback.UpgradeErrorType int errorCode){
-            if(mCallback!=null)
-                mCallback.onLoadFwError(FwUpgradeConsoleNucleo2.this,mFile,errorCode);
-            setConsoleListener(null);
-        }
-
-        /**
-         * notify to the user that the upload is correctly finished
-         */
-        private void onLoadComplete(){
-            if(mCallback!=null)
-                mCallback.onLoadFwComplete(FwUpgradeConsoleNucleo2.this,mFile);
-            setConsoleListener(null);
-        }
-
-        private long computeCrc32(FwFileDescriptor file) throws FileNotFoundException {
-            Checksum crc = new STM32Crc32();
-            byte[] buffer = new byte[4];
-            BufferedInputStream inputStream = new BufferedInputStream(file.openFile());
-            //the file must be multiple of 32bit,
-            long fileSize = file.getLength() - file.getLength()%4;
-            try {
-                for(long i=0;i<fileSize;i+=4){
-                    if(inputStream.read(buffer)==buffer.length)
-                        crc.update(buffer,0,buffer.length);
-                }//for i
-            } catch (IOException e) {
-                e.printStackTrace();
-                return -1;
-            }
-            return crc.getValue();
-        }
-
-        /**
-         * merge the file size and crc for create the command that will start the upload on the
-         * board
-         * @param fwType firmware to update
-         * @param fileSize number of file to send
-         * @param fileCrc file crc
-         * @return command to send to the board
-         */
-        private byte[] prepareLoadCommand(@FirmwareType int fwType, long fileSize, long
-                fileCrc){
-            byte[] command;
-            int offset;
-            if(fwType==FirmwareType.BLE_FW){
-                offset = UPLOAD_BLE_FW.length;
-                command =new byte[offset+8];
-                System.arraycopy(UPLOAD_BLE_FW,0,command,0,offset);
-            }else{
-                offset = UPLOAD_BOARD_FW.length;
-                command =new byte[offset+8];
-                System.arraycopy(UPLOAD_BOARD_FW,0,command,0,offset);
-            }
-            byte[] temp = NumberConversion.LittleEndian.uint32ToBytes(fileSize);
-            System.arraycopy(temp,0,command,offset,temp.length);
-            offset+=temp.length;
-            temp = NumberConversion.LittleEndian.uint32ToBytes(fileCrc);
-            System.arraycopy(temp,0,command,offset,temp.length);
-
-            return command;
-        }
-
-        /**
-         * start to upload the file
-         * @param fwType firmware that we are uploading
-         * @param file file to upload
-         */
-        void loadFile(@FirmwareType int fwType,FwFileDescriptor file){
-
-            mFile=file;
-            mNodeReadyToReceiveFile =false;
-            mByteToSend = file.getLength();
-            nSentPackage = 0;
-            try {
-                mCrc = computeCrc32(file);
-                InputStream fileStream = file.openFile();
-                mFileData = new byte[(int)mByteToSend];
-                if(mByteToSend!= fileStream.read(mFileData)){
-                    onLoadFail(FwUpgradeCallback.ERROR_INVALID_FW_FILE);
-                }
-            } catch (FileNotFoundException e) {
-                onLoadFail(FwUpgradeCallback.ERROR_INVALID_FW_FILE);
-                return;
-            }catch (IOException e){
-                onLoadFail(FwUpgradeCallback.ERROR_INVALID_FW_FILE);
-                return;
-            }
-
-            mConsole.write(prepareLoadCommand(fwType,mByteToSend,mCrc));
-        }
-
-        /**
-         * @param message message received from the node
-         * @return true if the message contain the crc code that we have send
-         */
-        private boolean checkCrc(String message){
-            byte[] rcvCrc = Debug.stringToByte(message);
-            byte[] myCrc = NumberConversion.LittleEndian.uint32ToBytes(mCrc);
-            return Arrays.equals(rcvCrc,myCrc);
-        }
-
-        boolean firtTime = true;
-
-        /**
-         * read the data from the file and send it to the node
-         * @return true if the package is correctly sent
-         */
-        private void sendFwPackage(){
-            mByteSend = nSentPackage * MAX_MSG_SIZE;
-            int lastPackageSize = (int) Math.min(mByteToSend - mByteSend, MAX_MSG_SIZE);
-
-            Log.d("fwUpgrade", "send: "+nSentPackage + " size: "+lastPackageSize + "sent: "+mByteSend+"/"+mByteToSend );
-            if(lastPackageSize<0){
-                return;
-
-            }
-            System.arraycopy(mFileData,(int)mByteSend,mLastPackageSend,0,lastPackageSize);
-
-            byte[] packageId = NumberConversion.LittleEndian.uint32ToBytes(nSentPackage);
-            System.arraycopy(packageId,0,mLastPackageSend,lastPackageSize,packageId.length);
-            lastPackageSize += packageId.length;
-            nSentPackage += 1;
-            mConsole.write(mLastPackageSend, 0, lastPackageSize);
-
-        }//sendFwPackage
-
-        private boolean transferIsComplete(){
-            return (mByteToSend-mByteSend) == 0;
-        }
-
-        /**
-         * send a block of message, the function will stop at the first error
-         */
-        private void sendPackageBlock(){
-            sendFwPackage();
-            final long nPackageSent2 = mNPackageReceived;
-            mNextPackageSentTask = () -> {
-                if(transferIsComplete())
-                    return;
-                //if the message was sent
-                if (mNPackageReceived > nPackageSent2) {
-                    sendPackageBlock(); //send the next one
-                } else { // wait a bit an try again
-                    mTimeout.postDelayed(mNextPackageSentTask, FW_PACKAGE_DELAY_MS);
-                }
-            };
-            mTimeout.postDelayed(mNextPackageSentTask, FW_PACKAGE_DELAY_MS);
-
-        }//sendPackageBlock
-
-
-        @Override
-        public void onStdOutReceived(@NonNull Debug debug, @NonNull String message) {
-            if(!mNodeReadyToReceiveFile){
-                if(checkCrc(message)) {
-                    mNodeReadyToReceiveFile = true;
-                    mNPackageReceived=0;
-                    //wait update of the connection interval
-                    mTimeout.postDelayed(this::sendPackageBlock,500);
-
-                }else
-                    onLoadFail(FwUpgradeCallback.ERROR_TRANSMISSION);
-            }else { //transfer complete
-                mTimeout.removeCallbacks(onTimeout);
-                if(message.equalsIgnoreCase(ACK_MSG))
-                    onLoadComplete();
-                else
-                    onLoadFail(FwUpgradeCallback.ERROR_CORRUPTED_FILE);
-            }
-        }//onStdOutReceived
-
-        /**
-         * notify to the user that a block of data is correctly send and send a new one
-         */
-        private void notifyNodeReceivedFwMessage(){
-            mNPackageReceived++;
-            //if we finish to send all the message
-            if(mNPackageReceived % NOTIFY_EACH_PACKAGE ==0){
-                if(mCallback!=null)
-                    mCallback.onLoadFwProgressUpdate(FwUpgradeConsoleNucleo2.this,mFile,
-                            mByteToSend-mByteSend);
-            }//if
-        }
-
-        @Override
-        public void onStdInSent(@NonNull Debug debug, @NonNull String message, boolean writeResult) {
-            if(writeResult){
-                if(mNodeReadyToReceiveFile){
-                    //reset the timeout
-                    mTimeout.removeCallbacks(onTimeout);
-                    notifyNodeReceivedFwMessage();
-                    mTimeout.postDelayed(onTimeout,FW_UPLOAD_MSG_TIMEOUT_MS);
-                }
-            }else{
-                onLoadFail(FwUpgradeCallback.ERROR_TRANSMISSION);
-            }
-        }
-
-        @Override
-        public void onStdErrReceived(@NonNull Debug debug, @NonNull String message) {
-            byte[] msgData = Debug.stringToByte(message);
-            if( msgData[0]!= 0x01){
-                return;
-            }
-            mTimeout.removeCallbacks(onTimeout);
-            final  long requestPackage = NumberConversion.LittleEndian.bytesToUInt32(msgData,1);
-            Log.d("fwUpgrade","request: "+requestPackage);
-            mTimeout.post(() ->{
-                Log.d("fwUpgrade","Set request: "+requestPackage);
-                nSentPackage = requestPackage+1;
-
-            });
+    private FwFileDescriptor mFile;
 
+    /**
+     * file content, read in a background thread while the link is tuned
+     */
+    private PreparedFirmware mFirmware;
 
-        }
-    }
+    /**
+     * upload running
+     */
+    private Nucleo2UploadProtocol mUpload;
 
     /**
-     * object used for manage the get board id command
+     * build a debug console without a callback
+     * @param console console to use for send the command
      */
-    private UploadFileProtocol mConsoleUpgradeFw = new UploadFileProtocol();
+    FwUpgradeConsoleNucleo2(Debug console){
+        this(console,false);
+    }
 
     /**
-     * handler used for the command timeout
+     * build a debug console without a callback
+     * @param console console to use for send the command
+     * @param useLargePackage true if the firmware accept package bigger than 16 bytes
      */
-    private Handler mTimeout;
+    FwUpgradeConsoleNucleo2(Debug console, boolean useLargePackage){
+        this(console,useLargePackage,false);
+    }
 
     /**
      * build a debug console without a callback
      * @param console console to use for send the command
+     * @param useLargePackage true if the firmware accept package bigger than 16 bytes
+     * @param useCompression true if the firmware accept the file compressed
      */
-    FwUpgradeConsoleNucleo2(Debug console){
-        this(console,null);
+    FwUpgradeConsoleNucleo2(Debug console, boolean useLargePackage, boolean useCompression){
+        this(console,useLargePackage,useCompression,null);
     }
 
     /**
      *
      * @param console console where send the command
+     * @param useLargePackage true if the firmware accept package bigger than 16 bytes
+     * @param useCompression true if the firmware accept the file compressed
      * @param callback object where notify the command answer
      */
-    private FwUpgradeConsoleNucleo2(Debug console, FwUpgradeCallback callback) {
+    private FwUpgradeConsoleNucleo2(Debug console, boolean useLargePackage, boolean useCompression,
+                                    FwUpgradeCallback callback) {
         super(callback);
-        mConsole = console;
-        mTimeout = new Handler(Looper.getMainLooper());
-        mBuffer = new StringBuilder();
-
+        mScheduler = new HandlerScheduler();
+        mConsole = new DebugConsoleTransport(console,mScheduler);
+        mUseLargePackage = useLargePackage;
+        mUseCompression = useCompression;
+        mLink = new LinkTuningPolicy(console.getNode());
     }
 
     /**
-     * change the listener to use for receive the debug console message, null will close the
-     * debug console
-     *
-     * @param listener object to use for notify the console messages
+     * release the link and the file used by the upload
+     * @return file that was uploaded
      */
-    private void setConsoleListener(Debug.DebugOutputListener listener) {
-        synchronized (this) {
-            mConsole.removeDebugOutputListener(mCurrentListener);
-            mConsole.addDebugOutputListener(listener);
-            mCurrentListener = listener;
-        }//synchronized
+    private FwFileDescriptor endUpload(){
+        mLink.end();
+        mUpload = null;
+        if(mFirmware!=null){
+            mFirmware.close();
+            mFirmware=null;
+        }
+        FwFileDescriptor file = mFile;
+        mFile = null;
+        return file;
     }
 
-    private boolean isWaitingAnswer() {
-        return mCurrentListener != null;
-    }
+    private final NucleoUploadProtocol.UploadListener mUploadListener = new NucleoUploadProtocol.UploadListener() {
+        @Override
+        public void onUploadProgress(long bytesToSend) {
+            if(mCallback!=null)
+                mCallback.onLoadFwProgressUpdate(FwUpgradeConsoleNucleo2.this,mFile,bytesToSend);
+        }
+
+        @Override
+        public void onUploadComplete() {
+            FwFileDescriptor file = endUpload();
+            if(mCallback!=null)
+                mCallback.onLoadFwComplete(FwUpgradeConsoleNucleo2.this,file);
+        }
 
+        @Override
+        public void onUploadError(@FwUpgradeCallback.UpgradeErrorType int errorCode) {
+            FwFileDescriptor file = endUpload();
+            if(mCallback!=null)
+                mCallback.onLoadFwError(FwUpgradeConsoleNucleo2.this,file,errorCode);
+        }
+    };
 
     /**
      *
      * @param fwType type of the firmware to load, only board fw is supported
      * @param fwFile file path
+     * @param image content of fwFile, null to read the file
      * @param startingAddress not used the firmware will always be loaded in the address 0x0804000
      * @return true if the upload starts correctly
      */
     @Override
-    public boolean loadFw(@FirmwareType int fwType,final FwFileDescriptor fwFile, long startingAddress) {
-        if (isWaitingAnswer())
+    public boolean loadFw(@FirmwareType int fwType, final FwFileDescriptor fwFile,
+                          @Nullable FirmwareImage image, long startingAddress) {
+        if (mFile!=null)
             return false;
 
-        mBuffer.setLength(0); //reset the buffer
-
-        setConsoleListener(mConsoleUpgradeFw);
-        mConsoleUpgradeFw.loadFile(fwType,fwFile);
+        mFile = fwFile;
+        mFirmware = PreparedFirmware.prepare(fwFile,image,mUseCompression);
+        mFirmware.whenReady(mLink, firmware -> {
+            if(firmware.getError()!=PreparedFirmware.NO_ERROR){
+                mUploadListener.onUploadError(firmware.getError());
+                return;
+            }
+            int packageSize = mUseLargePackage ?
+                    mLink.getPackageSize(Nucleo2UploadProtocol.PACKAGE_ID_SIZE,
+                            DEFAULT_PACKAGE_SIZE) :
+                    DEFAULT_PACKAGE_SIZE;
+            FirmwareImage fwImage = firmware.getImage();
+            FirmwareImage compressedImage = firmware.getCompressedImage();
+            //send the compressed stream only if it is smaller than the image
+            if(compressedImage!=null && compressedImage.getLength()>=fwImage.getLength())
+                compressedImage = null;
+            setUploadSize(fwImage.getLength(), compressedImage!=null ?
+                    compressedImage.getLength() : fwImage.getLength());
+            mUpload = new Nucleo2UploadProtocol(mScheduler,mConsole,fwImage,firmware.getCrc32(),
+                    compressedImage,fwType,packageSize,mUploadListener);
+            mUpload.start();
+        });
         return  true;
     }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueNRG.fwUpgrade.feature.ExpectedImageTUSeqNumberFeature;
+import com.st.BlueNRG.fwUpgrade.feature.ImageFeature;
+import com.st.BlueNRG.fwUpgrade.feature.NewImageFeature;
+import com.st.BlueNRG.fwUpgrade.feature.NewImageTUContentFeature;
+import com.st.BlueSTSDK.Feature;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+
+/**
+ * Transport that uses the features of the BlueNRG OTA service, the SDK notifies the feature
+ * updates and the write completions on its own thread, they are moved on the scheduler thread.
+ * <p>
+ * The service erases all the image area at each upload and can't report the flash content, so
+ * the image is always written in full.
+ * </p>
+ */
+public class BlueNRGFeatureTransport implements BlueNRGOtaTransport {
+
+    private final ImageFeature mRangeMem;
+    private final NewImageFeature mParamMem;
+    private final NewImageTUContentFeature mChunkData;
+    private final ExpectedImageTUSeqNumberFeature mAckNotification;
+    private final Scheduler mScheduler;
+    private @Nullable Listener mListener;
+
+    private final Feature.FeatureListener onImageFeature = (f, sample) -> {
+        final long flashLB = ImageFeature.getFlashLowerBound(sample);
+        final long flashUB = ImageFeature.getFlashUpperBound(sample);
+        post(listener -> listener.onMemoryInfoRead(flashLB,flashUB));
+    };
+
+    private final Feature.FeatureListener onNewImageFeature = (f, sample) -> {
+        final byte otaAckEvery = NewImageFeature.getOtaAckEvery(sample);
+        final long imageSize = NewImageFeature.getImageSize(sample);
+        final long baseAddress = NewImageFeature.getBaseAddress(sample);
+        post(listener -> listener.onUploadParamRead(otaAckEvery,imageSize,baseAddress));
+    };
+
+    private final Feature.FeatureListener onNewImageTUContentFeature = (f, sample) -> {
+        final int writeLength = NewImageTUContentFeature.getExpectedWriteLength(sample);
+        post(listener -> listener.onExpectedWriteLengthRead(writeLength));
+    };
+
+    private final Feature.FeatureListener onAckNotification = (f, sample) -> {
+        final short nextExpected = ExpectedImageTUSeqNumberFeature.getNextExpectedCharBlock(sample);
+        final ExpectedImageTUSeqNumberFeature.ErrorCode ack =
+                ExpectedImageTUSeqNumberFeature.getAck(sample);
+        post(listener -> listener.onAckReceived(nextExpected,ack));
+    };
+
+    private interface Notification {
+        void notify(@NonNull Listener listener);
+    }
+
+    /**
+     * @param rangeMem feature with the flash range
+     * @param paramMem feature with the upload parameters
+     * @param chunkData feature used to send the image
+     * @param ackNotification feature that notifies the ack
+     * @param scheduler scheduler where notify the node answers
+     */
+    public BlueNRGFeatureTransport(@NonNull ImageFeature rangeMem,
+                                   @NonNull NewImageFeature paramMem,
+                                   @NonNull NewImageTUContentFeature chunkData,
+                                   @NonNull ExpectedImageTUSeqNumberFeature ackNotification,
+                                   @NonNull Scheduler scheduler){
+        mRangeMem = rangeMem;
+        mParamMem = paramMem;
+        mChunkData = chunkData;
+        mAckNotification = ackNotification;
+        mScheduler = scheduler;
+    }
+
+    private void post(@NonNull Notification notification){
+        mScheduler.post(() -> {
+            Listener listener = getListener();
+            if(listener!=null)
+                notification.notify(listener);
+        });
+    }
+
+    private synchronized @Nullable Listener getListener(){
+        return mListener;
+    }
+
+    @Override
+    public void setListener(@Nullable Listener listener) {
+        synchronized (this) {
+            if (mListener == null && listener != null) {
+                mRangeMem.addFeatureListener(onImageFeature);
+                mParamMem.addFeatureListener(onNewImageFeature);
+                mChunkData.addFeatureListener(onNewImageTUContentFeature);
+                mAckNotification.addFeatureListener(onAckNotification);
+            } else if (mListener != null && listener == null) {
+                mRangeMem.removeFeatureListener(onImageFeature);
+                mParamMem.removeFeatureListener(onNewImageFeature);
+                mChunkData.removeFeatureListener(onNewImageTUContentFeature);
+                mAckNotification.removeFeatureListener(onAckNotification);
+            }
+            mListener = listener;
+        }
+    }
+
+    @Override
+    public void readMemoryInfo() {
+        mRangeMem.getParentNode().readFeature(mRangeMem);
+    }
+
+    @Override
+    public void readUploadParam() {
+        mParamMem.getParentNode().readFeature(mParamMem);
+    }
+
+    @Override
+    public void readExpectedWriteLength() {
+        mChunkData.getParentNode().readFeature(mChunkData);
+    }
+
+    @Override
+    public void writeUploadParam(byte otaAckEvery, long imageSize, long baseAddress,
+                                 @NonNull Runnable onWritten) {
+        mParamMem.writeParamMem(otaAckEvery,imageSize,baseAddress,() -> mScheduler.post(onWritten));
+    }
+
+    @Override
+    public void enableAckNotification() {
+        mAckNotification.getParentNode().enableNotification(mAckNotification);
+    }
+
+    @Override
+    public void disableAckNotification() {
+        mAckNotification.getParentNode().disableNotification(mAckNotification);
+    }
+
+    @Override
+    public void writeImageBlocks(@NonNull FirmwareImage image, byte ackEvery, byte lastAckEvery,
+                                 int packetSize, short seqNum, @NonNull Runnable onLastWritten) {
+        mChunkData.upload(() -> mScheduler.post(onLastWritten),image,ackEvery,lastAckEvery,
+                packetSize,seqNum);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueNRG.fwUpgrade.feature.ExpectedImageTUSeqNumberFeature;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+
+/**
+ * Characteristics of the BlueNRG OTA service used by {@link BlueNRGUploadProtocol}.
+ * The listener is always called on the {@link Scheduler} thread.
+ */
+public interface BlueNRGOtaTransport {
+
+    interface Listener {
+
+        /**
+         * answer to {@link #readMemoryInfo()}
+         * @param flashLowerBound first flash address where the image can be written
+         * @param flashUpperBound last flash address where the image can be written
+         */
+        void onMemoryInfoRead(long flashLowerBound, long flashUpperBound);
+
+        /**
+         * answer to {@link #readUploadParam()}
+         * @param otaAckEvery number of blocks between two acks
+         * @param imageSize number of bytes that the node will receive
+         * @param baseAddress flash address where the image is written
+         */
+        void onUploadParamRead(byte otaAckEvery, long imageSize, long baseAddress);
+
+        /**
+         * answer to {@link #readExpectedWriteLength()}
+         * @param writeLength write length supported by the node
+         */
+        void onExpectedWriteLengthRead(int writeLength);
+
+        /**
+         * notification sent by the node when it receives a block that needs an ack
+         * @param nextExpectedBlock sequence number of the next block to send
+         * @param ack result of the last write
+         */
+        void onAckReceived(short nextExpectedBlock,
+                           @NonNull ExpectedImageTUSeqNumberFeature.ErrorCode ack);
+    }
+
+    /**
+     * @param listener object to notify with the node answers, null to stop listening
+     */
+    void setListener(@Nullable Listener listener);
+
+    void readMemoryInfo();
+
+    void readUploadParam();
+
+    void readExpectedWriteLength();
+
+    /**
+     * @param otaAckEvery number of blocks between two acks
+     * @param imageSize number of bytes to send
+     * @param baseAddress flash address where write the image
+     * @param onWritten called when the parameters are written
+     */
+    void writeUploadParam(byte otaAckEvery, long imageSize, long baseAddress,
+                          @NonNull Runnable onWritten);
+
+    void enableAckNotification();
+
+    void disableAckNotification();
+
+    /**
+     * send a sequence of image blocks, only the last one needs an ack
+     * @param image image to send
+     * @param ackEvery number of blocks between two acks
+     * @param lastAckEvery number of blocks between two acks at the end of the image
+     * @param packetSize number of image bytes in each block
+     * @param seqNum sequence number of the first block
+     * @param onLastWritten called when the last block is written
+     */
+    void writeImageBlocks(@NonNull FirmwareImage image, byte ackEvery, byte lastAckEvery,
+                          int packetSize, short seqNum, @NonNull Runnable onLastWritten);
+}
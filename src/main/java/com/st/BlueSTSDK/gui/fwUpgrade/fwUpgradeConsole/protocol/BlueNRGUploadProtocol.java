@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueNRG.fwUpgrade.feature.ExpectedImageTUSeqNumberFeature;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.FwUpgradeConsole.FwUpgradeCallback;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+
+/**
+ * Upload protocol of the BlueNRG OTA service:
+ * mobile: read the OTA server version and the write length supported by the node
+ * mobile: read the flash range where the image can be written
+ * mobile: write the ack period, the image size and the base address, and read them back
+ * mobile: enable the ack notification, the node notifies when it is ready
+ * mobile: send a sequence of image blocks, the last one needs an ack
+ * node: notify the next expected block or the error
+ */
+public class BlueNRGUploadProtocol implements BlueNRGOtaTransport.Listener {
+
+    /**
+     * mtu to use when the node didn't answer to the mtu request
+     */
+    public static final int UNKNOWN_MTU = 0;
+
+    private static final int DEFAULT_ATT_MTU_SIZE = 23;
+    private static final int ATT_MTU_SUPPORT_INFO_SIZE = 3;
+    private static final int DEFAULT_WRITE_DATA_LEN = (DEFAULT_ATT_MTU_SIZE - ATT_MTU_SUPPORT_INFO_SIZE); // 20 bytes
+    private static final int OTA_SUPPORT_INFO_SIZE = 4; // Sequence Number (2 bytes), NeedsAcks (1 byte), Checksum (1 byte)
+    private static final int RETRIES_MAX = 1000; // typical 80 times
+    private static final short RETRIES_FOR_CHECKSUM_ERROR_MAX = 4;
+    private static final short RETRIES_FOR_SEQUENCE_ERROR_MAX = 4;
+    private static final short RETRIES_FOR_MISSED_NOTIFICATION_MAX = 400;
+    private static final int FW_IMAGE_PACKET_SIZE_DEFAULT = 16;
+    private static final byte OTA_ACK_EVERY = 8;
+    private static final int FW_UPLOAD_MSG_TIMEOUT_MS = 8000; //8 msec instead of 7.5
+
+    /**
+     * value of mErrorCode while the upload has no errors
+     */
+    private static final int NO_ERROR = -1;
+
+    private enum ProtocolStatePhase {
+        READ_PARAM_SDK_SERVER_VERSION,
+        READ_BLUENRG_SERVER_TYPE,
+        RANGE_FLASH_MEM,
+        WAIT_IMAGE,
+        PARAM_FLASH_MEM,
+        READ_PARAM_FLASH_MEM,
+        START_ACK_NOTIFICATION,
+        FIRST_RECEIVED_NOTIFICATION,
+        WRITE_CHUNK_DATA,
+        CLOSURE
+    }//ProtocolStatePhase
+
+    private final Scheduler mScheduler;
+    private final BlueNRGOtaTransport mTransport;
+    private final int mMtu;
+    private final NucleoUploadProtocol.UploadListener mListener;
+
+    private int mPacketSize = FW_IMAGE_PACKET_SIZE_DEFAULT;
+    private short mRetriesForMissedNotification = 0;
+    private short mRetriesForChecksumError = 0;
+    private short mRetriesForSequenceError = 0;
+    private int mParamReadRetries = 0;
+    private byte mLastOtaAckEvery = OTA_ACK_EVERY;
+
+    private long mBaseAddress;
+    private long mCntExtended;
+    private long mFlashLB;
+    private long mFlashUB;
+    private short mSeqNum = 0;
+    private ProtocolStatePhase mProtocolState;
+    private @Nullable FirmwareImage mImage = null;
+
+    private byte mClientType = 1; // BLUENRG 1 or 2 (client or mart phone)
+    private boolean mClientTypeForce1 = false;
+    private boolean mSDKVersion310higher = false;
+
+    private boolean mIsRunning;
+    private int mErrorCode;
+
+    /**
+     * if the node doesn't notify the ack, the last blocks are sent again
+     */
+    private final Runnable onTimeout = () -> {
+        if(mRetriesForMissedNotification < RETRIES_FOR_MISSED_NOTIFICATION_MAX) {
+            mRetriesForMissedNotification++;
+            engineProtocolState();
+        }else{
+            onLoadFail(FwUpgradeCallback.ERROR_TRANSMISSION);
+        }
+    };
+
+    private final Runnable onWriteParamFlashMemDone = () -> {
+        if(!mIsRunning)
+            return;
+        mProtocolState = ProtocolStatePhase.READ_PARAM_FLASH_MEM;
+        engineProtocolState();
+    };
+
+    private final Runnable onLastWriteSequenceDone = new Runnable() {
+        @Override
+        public void run() {
+            if(mIsRunning)
+                mScheduler.postDelayed(onTimeout,FW_UPLOAD_MSG_TIMEOUT_MS);
+        }
+    };
+
+    /**
+     * @param scheduler scheduler used for the timeouts
+     * @param transport characteristics of the node OTA service
+     * @param mtu ATT MTU accepted by the node, {@link #UNKNOWN_MTU} if the node didn't answer
+     * @param listener object where notify the upload status
+     */
+    public BlueNRGUploadProtocol(@NonNull Scheduler scheduler,
+                                 @NonNull BlueNRGOtaTransport transport, int mtu,
+                                 @NonNull NucleoUploadProtocol.UploadListener listener){
+        mScheduler = scheduler;
+        mTransport = transport;
+        mMtu = mtu;
+        mListener = listener;
+    }
+
+    /**
+     * start the handshake with the node, the image can be set later with {@link #setImage}
+     */
+    public void start(){
+        mIsRunning = true;
+        mErrorCode = NO_ERROR;
+        mClientType = 1;
+        mClientTypeForce1 = false;
+        mPacketSize = FW_IMAGE_PACKET_SIZE_DEFAULT;
+        mRetriesForMissedNotification = 0;
+        mRetriesForChecksumError = 0;
+        mRetriesForSequenceError = 0;
+        mParamReadRetries = 0;
+        mTransport.setListener(this);
+        if(mMtu!=UNKNOWN_MTU)
+            onMtuChanged(mMtu);
+        else
+            mProtocolState = ProtocolStatePhase.READ_PARAM_SDK_SERVER_VERSION;
+        engineProtocolState();
+    }
+
+    /**
+     * set the image to upload, the upload waits for it after the handshake
+     * @param image image to upload, it is not closed by the protocol
+     */
+    public void setImage(@NonNull FirmwareImage image){
+        mImage = image;
+        if(mIsRunning && mProtocolState==ProtocolStatePhase.WAIT_IMAGE)
+            engineProtocolState();
+    }
+
+    /**
+     * stop the upload without notify the listener
+     */
+    public void cancel(){
+        if(!mIsRunning)
+            return;
+        mTransport.disableAckNotification();
+        stop();
+    }
+
+    private void stop(){
+        mIsRunning = false;
+        mScheduler.cancel(onTimeout);
+        mTransport.setListener(null);
+    }
+
+    private void onLoadFail(@FwUpgradeCallback.UpgradeErrorType int errorCode){
+        mErrorCode = errorCode;
+        mProtocolState = ProtocolStatePhase.CLOSURE;
+        engineProtocolState();
+    }
+
+    /**
+     * choose the package size and the client type from the negotiated mtu
+     * @param mtu ATT MTU accepted by the node
+     */
+    private void onMtuChanged(int mtu) {
+        if((mtu-OTA_SUPPORT_INFO_SIZE)> FW_IMAGE_PACKET_SIZE_DEFAULT) {
+            mClientType = 2;
+            // Set number of 16-bytes blocks to be sent on a single OTA Client packet
+            int number_blocks_x_packet = ((mtu - OTA_SUPPORT_INFO_SIZE) / FW_IMAGE_PACKET_SIZE_DEFAULT);
+            // Increase single OTA packet ATT_MTU payload size within mtu size allowed range (BlueNRG-2, BLE stack >= 2.1)
+            mPacketSize = FW_IMAGE_PACKET_SIZE_DEFAULT * number_blocks_x_packet;
+            mProtocolState = ProtocolStatePhase.READ_BLUENRG_SERVER_TYPE;
+        }else {
+            mProtocolState = ProtocolStatePhase.READ_PARAM_SDK_SERVER_VERSION;
+        }
+    }
+
+    private boolean checkRangeFlashMemAddress(){
+        return (mBaseAddress >= mFlashLB) && ((mBaseAddress + mCntExtended) <= mFlashUB) && ((mBaseAddress % 512) == 0);
+    }
+
+    private boolean ackResult(short nextExpectedCharBlock,ExpectedImageTUSeqNumberFeature.ErrorCode ack){
+
+        boolean result = false;
+        switch (ack) {
+            case FLASH_WRITE_FAILED:
+                //ERROR('FLASH WRITE FAILED ON TARGET DEVICE: Repeat FW upgrade procedure')
+                break;
+            case FLASH_VERIFY_FAILED:
+                //ERROR('FLASH VERIFY FAILED ON TARGET DEVICE: Repeat FW upgrade procedure')
+                break;
+            case CHECK_SUM_ERROR:
+                if(mRetriesForChecksumError < RETRIES_FOR_CHECKSUM_ERROR_MAX) {
+                    mSeqNum = nextExpectedCharBlock;
+                    result = true;
+                    mRetriesForChecksumError++;
+                }
+                break;
+            case SEQUENCE_ERROR:
+                if(mRetriesForSequenceError < RETRIES_FOR_SEQUENCE_ERROR_MAX) {
+                    mSeqNum = nextExpectedCharBlock;
+                    result = true;
+                    mRetriesForSequenceError++;
+                }else{
+                    if((nextExpectedCharBlock == 0)&&(mPacketSize > FW_IMAGE_PACKET_SIZE_DEFAULT)){
+                        //we try with the extended mtu but we had an error, use a smaller
+                        //package length, the connection interval is already lowered by the console
+                        mPacketSize = FW_IMAGE_PACKET_SIZE_DEFAULT;
+                        mRetriesForSequenceError = 0;
+                        mSeqNum = nextExpectedCharBlock;
+                        mClientTypeForce1 = true;
+                    }
+                }
+                break;
+            case NO_ERROR:
+                mSeqNum = nextExpectedCharBlock;
+                mRetriesForChecksumError = 0;
+                mRetriesForSequenceError = 0;
+                result = true;
+                break;
+            case UNKNOWN_ERROR:
+                //ERROR('UNKNOWN ERROR ON TARGET DEVICE: Repeat FW upgrade procedure')
+                break;
+        }
+
+        return result;
+    }
+
+    @Override
+    public void onMemoryInfoRead(long flashLowerBound, long flashUpperBound) {
+        if(!mIsRunning || mProtocolState!=ProtocolStatePhase.RANGE_FLASH_MEM)
+            return;
+        mFlashLB = flashLowerBound;
+        mFlashUB = flashUpperBound;
+        // Set base address
+        mBaseAddress = mFlashLB;
+        mProtocolState = ProtocolStatePhase.WAIT_IMAGE;
+        engineProtocolState();
+    }
+
+    @Override
+    public void onUploadParamRead(byte otaAckEvery, long imageSize, long baseAddress) {
+        if(!mIsRunning)
+            return;
+        if(mProtocolState == ProtocolStatePhase.READ_PARAM_SDK_SERVER_VERSION) {
+            mSDKVersion310higher = otaAckEvery >= 2;
+            mProtocolState = ProtocolStatePhase.READ_BLUENRG_SERVER_TYPE;
+            engineProtocolState();
+        }else if(mProtocolState == ProtocolStatePhase.READ_PARAM_FLASH_MEM) {
+            if ((otaAckEvery != OTA_ACK_EVERY) || (imageSize != mCntExtended) || (baseAddress != mBaseAddress)) {
+                mParamReadRetries++;
+                if (mParamReadRetries >= RETRIES_MAX) {
+                    mParamReadRetries = 0;
+                    onLoadFail(FwUpgradeCallback.ERROR_TRANSMISSION);
+                } else {
+                    engineProtocolState();
+                }
+            } else {
+                mParamReadRetries = 0;
+                mProtocolState = ProtocolStatePhase.START_ACK_NOTIFICATION;
+                engineProtocolState();
+            }
+        }
+    }
+
+    @Override
+    public void onExpectedWriteLengthRead(int writeLength) {
+        if(!mIsRunning || mProtocolState!=ProtocolStatePhase.READ_BLUENRG_SERVER_TYPE)
+            return;
+        if(mClientType == 1) {
+            if (mSDKVersion310higher || writeLength <= DEFAULT_WRITE_DATA_LEN) { // 20 byte
+                mProtocolState = ProtocolStatePhase.RANGE_FLASH_MEM;
+                engineProtocolState();
+            } else {
+                // OTA server is from SDK 3.0.0 and it supports extended packet len (BlueNRG-2 SDK 3.0.0). OTA Client (not BlueNRG-2) cannot upgrade it.
+                onLoadFail(FwUpgradeCallback.ERROR_WRONG_SDK_VERSION);
+            }
+        }else{
+            if(writeLength <= DEFAULT_WRITE_DATA_LEN) // server is BlueNRG1 (client is BlueNRG2 extension)
+                mPacketSize = FW_IMAGE_PACKET_SIZE_DEFAULT; // force BlueNRG1 protocol size
+            mProtocolState = ProtocolStatePhase.RANGE_FLASH_MEM;
+            engineProtocolState();
+        }
+    }
+
+    @Override
+    public void onAckReceived(short nextExpectedBlock,
+                              @NonNull ExpectedImageTUSeqNumberFeature.ErrorCode ack) {
+        if(!mIsRunning)
+            return;
+        if(mProtocolState == ProtocolStatePhase.START_ACK_NOTIFICATION) {
+            mScheduler.cancel(onTimeout);
+            mRetriesForMissedNotification = 0;
+            mProtocolState = ProtocolStatePhase.FIRST_RECEIVED_NOTIFICATION;
+            engineProtocolState();
+            return;
+        }
+        if(mProtocolState != ProtocolStatePhase.WRITE_CHUNK_DATA)
+            return;
+        //reset the timeout
+        mScheduler.cancel(onTimeout);
+        mRetriesForMissedNotification = 0;
+        boolean good = ackResult(nextExpectedBlock, ack); // check ack answer
+        if (good) {
+            long sendData = mCntExtended - mSeqNum * mPacketSize;
+            mListener.onUploadProgress(Math.max(0,sendData));
+            if (sendData <= 0) {
+                mProtocolState = ProtocolStatePhase.CLOSURE;
+            } else if ((mCntExtended - (mSeqNum + OTA_ACK_EVERY) * mPacketSize) < 0) { // if next sequence is the last one with residue size
+                // residue of (OTA_ACK_EVERY * fw_image_packet_size)
+                mLastOtaAckEvery = (byte) (mCntExtended / mPacketSize - mSeqNum); // to have sendData=0; cntExtended is multiple of fw_image_packet_size
+            }
+            engineProtocolState();
+        } else {
+            if(!mClientTypeForce1)
+                onLoadFail(FwUpgradeCallback.ERROR_WRONG_SDK_VERSION_OR_ERROR_TRANSMISSION);
+            else {
+                mProtocolState = ProtocolStatePhase.CLOSURE;
+                engineProtocolState();
+            }
+        }
+    }
+
+    private void engineProtocolState(){
+        switch (mProtocolState){
+            case READ_PARAM_SDK_SERVER_VERSION:
+                mTransport.readUploadParam();
+                break;
+            case READ_BLUENRG_SERVER_TYPE:
+                mTransport.readExpectedWriteLength();
+                break;
+            case RANGE_FLASH_MEM:
+                mTransport.readMemoryInfo();
+                break;
+            case WAIT_IMAGE:
+                //the image is read in background during the handshake
+                if(mImage==null)
+                    return;
+                mSeqNum = 0;
+                mLastOtaAckEvery = OTA_ACK_EVERY;
+                mProtocolState = ProtocolStatePhase.PARAM_FLASH_MEM;
+                engineProtocolState();
+                break;
+            case PARAM_FLASH_MEM:
+                long cnt = mImage.getLength();
+                mCntExtended = cnt;
+                if(cnt%mPacketSize != 0) // // residue of fw_image_packet_size
+                    mCntExtended = (cnt/mPacketSize+1)*mPacketSize; // to have always cntExtended as multiple of fw_image_packet_size
+                if(!checkRangeFlashMemAddress()) {
+                    onLoadFail(FwUpgradeCallback.ERROR_TRANSMISSION);
+                }else {
+                    // the image is read as zero after cnt, up to cntExtended
+                    mTransport.writeUploadParam(OTA_ACK_EVERY,mCntExtended,mBaseAddress,
+                            onWriteParamFlashMemDone);
+                }
+                break;
+            case READ_PARAM_FLASH_MEM:
+                mTransport.readUploadParam();
+                break;
+            case START_ACK_NOTIFICATION:
+                mTransport.enableAckNotification();
+                break;
+            case FIRST_RECEIVED_NOTIFICATION:
+                mProtocolState = ProtocolStatePhase.WRITE_CHUNK_DATA;
+                engineProtocolState();
+                break;
+            case WRITE_CHUNK_DATA:
+                mTransport.writeImageBlocks(mImage,OTA_ACK_EVERY,mLastOtaAckEvery,
+                        mPacketSize,mSeqNum,onLastWriteSequenceDone);
+                break;
+            case CLOSURE:
+                //reset the timeout
+                mScheduler.cancel(onTimeout);
+                mTransport.disableAckNotification();
+                if(mClientTypeForce1) {
+                    mClientType = 1; // repeat all as blueNRG 1
+                    mClientTypeForce1 = false;
+                    mProtocolState = ProtocolStatePhase.READ_PARAM_SDK_SERVER_VERSION;
+                    engineProtocolState();
+                }else {
+                    stop();
+                    if (mErrorCode==NO_ERROR)
+                        mListener.onUploadComplete();
+                    else
+                        mListener.onUploadError(mErrorCode);
+                }
+                break;
+        }//switch
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueSTSDK.Debug;
+
+/**
+ * Transport that uses the node debug console, the SDK notifies the console messages on its own
+ * thread, they are moved on the scheduler thread.
+ */
+public class DebugConsoleTransport implements ConsoleTransport, Debug.DebugOutputListener {
+
+    private final Debug mConsole;
+    private final Scheduler mScheduler;
+    private @Nullable Listener mListener;
+
+    /**
+     * @param console node console
+     * @param scheduler scheduler where notify the console messages
+     */
+    public DebugConsoleTransport(@NonNull Debug console, @NonNull Scheduler scheduler){
+        mConsole = console;
+        mScheduler = scheduler;
+    }
+
+    @Override
+    public void setListener(@Nullable Listener listener) {
+        synchronized (this) {
+            if (mListener == null && listener != null)
+                mConsole.addDebugOutputListener(this);
+            else if (mListener != null && listener == null)
+                mConsole.removeDebugOutputListener(this);
+            mListener = listener;
+        }
+    }
+
+    @Override
+    public int write(@NonNull byte[] data, int offset, int length) {
+        return mConsole.write(data,offset,length);
+    }
+
+    private @Nullable Listener getListener(){
+        synchronized (this){
+            return mListener;
+        }
+    }
+
+    @Override
+    public void onStdOutReceived(@NonNull Debug debug, @NonNull String message) {
+        final byte[] data = Debug.stringToByte(message);
+        mScheduler.post(() -> {
+            Listener listener = getListener();
+            if(listener!=null)
+                listener.onStdOutReceived(data);
+        });
+    }
+
+    @Override
+    public void onStdErrReceived(@NonNull Debug debug, @NonNull String message) {
+        final byte[] data = Debug.stringToByte(message);
+        mScheduler.post(() -> {
+            Listener listener = getListener();
+            if(listener!=null)
+                listener.onStdErrReceived(data);
+        });
+    }
+
+    @Override
+    public void onStdInSent(@NonNull Debug debug, @NonNull String message, boolean writeResult) {
+        mScheduler.post(() -> {
+            Listener listener = getListener();
+            if(listener!=null)
+                listener.onStdInSent(writeResult);
+        });
+    }
+}
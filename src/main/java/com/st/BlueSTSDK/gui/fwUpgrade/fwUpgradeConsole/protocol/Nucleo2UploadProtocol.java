@@ -0,0 +1,449 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueSTSDK.Utils.NumberConversion;
+import com.st.BlueSTSDK.gui.fwUpgrade.FirmwareType;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.FwUpgradeConsole.FwUpgradeCallback;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.Lz4BlockCompressor;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Upload protocol of the BlueMs firmware with the package number:
+ * mobile:upgrade[Ble|Fw]+length+fileCrc
+ * node:fileCrc
+ * mobile: file data, each message contains packageSize bytes of the file and the package number
+ * node: on the stderr, 0x01 + last package received in order when a package is lost
+ * node: when all the byte are write return 1 if the crc is ok, -1 otherwise
+ * <p>
+ * If the node supports it, the file can be sent compressed with {@link Lz4BlockCompressor}: the
+ * command becomes upgrade[Ble|Fw]Lz+length+fileCrc, the packages contain the compressed stream
+ * and the node checks the crc of the uncompressed file.
+ * </p>
+ */
+public class Nucleo2UploadProtocol implements ConsoleTransport.Listener {
+
+    /**
+     *to avoid to stress the BLE Stack the message are send each 13ms that corrisponding to a connection
+     * inteval of 12.5 ms.
+     */
+    private static final int FW_PACKAGE_DELAY_MS = 13; // connection interval 12.5
+
+    /**
+     * each message ends with the package number
+     */
+    public static final int PACKAGE_ID_SIZE = 4;
+
+    /**
+     * number of times that a lost package is sent alone, after that all the packages after it
+     * are sent again
+     */
+    static private final int MAX_SELECTIVE_RESEND = 2;
+
+    /**
+     * since the traffic is high, we use a bigger timeout for give time to the system to notify
+     * that sent a message
+     */
+    static private final int FW_UPLOAD_MSG_TIMEOUT_MS = 4000;
+
+    static private final int NOTIFY_EACH_PACKAGE = 10;
+
+    /**
+     * first byte of the stderr message that the node sends when a package is lost
+     */
+    static private final byte PACKAGE_LOST_MSG = 0x01;
+
+    private final Scheduler mScheduler;
+    private final ConsoleTransport mTransport;
+    private final long mImageLength;
+
+    /**
+     * data sent to the node: the image or its compressed stream
+     */
+    private final FirmwareImage mStream;
+    private final boolean mIsCompressed;
+    private final @FirmwareType int mFwType;
+    private final int mPackageSize;
+    private final NucleoUploadProtocol.UploadListener mListener;
+    private final long mByteToSend;
+    private final long mCrc;
+
+    /**
+     * number of package needed to send the file
+     */
+    private final int mNPackage;
+
+    /**
+     * buffer used for build the message
+     */
+    private final byte[] mLastPackageSend;
+
+    /**
+     * number of byte send to the node
+     */
+    private long mByteSend;
+
+    /**
+     * true if the handshake with the node is finished
+     */
+    private boolean mNodeReadyToReceiveFile;
+
+    /**
+     * counter of package that are sent
+     */
+    private long mNPackageReceived;
+
+    /**
+     * id of the next new package to send
+     */
+    private int nSentPackage;
+
+    /**
+     * package received in order by the node
+     */
+    private final BitSet mAckedPackage = new BitSet();
+
+    /**
+     * package lost by the node that will be sent before the new ones
+     */
+    private final BitSet mPackageToResend = new BitSet();
+
+    /**
+     * last package requested by the node and how many times it was requested
+     */
+    private int mLastRequestedPackage = -1;
+    private int mNRequestSamePackage;
+
+    /**
+     * last lost package sent again alone, -1 if none
+     */
+    private int mResentPackage = -1;
+
+    /**
+     * true if the node discards the packages received after a lost one
+     */
+    private boolean mNodeDiscardsPackages;
+
+    /**
+     * true if the package sending loop is running
+     */
+    private boolean mSendingPackage;
+
+    private boolean mIsRunning;
+
+    private Runnable mNextPackageSentTask;
+
+    /**
+     * if the timeout is rise, fire an error of type {@link FwUpgradeCallback#ERROR_TRANSMISSION}
+     */
+    private final Runnable onTimeout = () -> onLoadFail(FwUpgradeCallback.ERROR_TRANSMISSION);
+
+    /**
+     * @param scheduler scheduler used for the timeouts and for pace the messages
+     * @param transport channel with the node console
+     * @param image file to upload, it is not closed by the protocol
+     * @param fwType firmware that we are uploading
+     * @param packageSize number of file bytes sent in each message
+     * @param listener object where notify the upload status
+     */
+    public Nucleo2UploadProtocol(@NonNull Scheduler scheduler, @NonNull ConsoleTransport transport,
+                                 @NonNull FirmwareImage image, @FirmwareType int fwType,
+                                 int packageSize,
+                                 @NonNull NucleoUploadProtocol.UploadListener listener){
+        this(scheduler,transport,image,image.computeCrc32(),fwType,packageSize,listener);
+    }
+
+    /**
+     * @param scheduler scheduler used for the timeouts and for pace the messages
+     * @param transport channel with the node console
+     * @param image file to upload, it is not closed by the protocol
+     * @param crc image crc, already computed
+     * @param fwType firmware that we are uploading
+     * @param packageSize number of file bytes sent in each message
+     * @param listener object where notify the upload status
+     */
+    public Nucleo2UploadProtocol(@NonNull Scheduler scheduler, @NonNull ConsoleTransport transport,
+                                 @NonNull FirmwareImage image, long crc, @FirmwareType int fwType,
+                                 int packageSize,
+                                 @NonNull NucleoUploadProtocol.UploadListener listener){
+        this(scheduler,transport,image,crc,null,fwType,packageSize,listener);
+    }
+
+    /**
+     * @param scheduler scheduler used for the timeouts and for pace the messages
+     * @param transport channel with the node console
+     * @param image file to upload, it is not closed by the protocol
+     * @param crc image crc, already computed
+     * @param compressedImage image compressed with {@link Lz4BlockCompressor}, it is sent in
+     *                        place of the image. Null to send the image uncompressed
+     * @param fwType firmware that we are uploading
+     * @param packageSize number of file bytes sent in each message
+     * @param listener object where notify the upload status, the progress is in bytes of the
+     *                 sent stream
+     */
+    public Nucleo2UploadProtocol(@NonNull Scheduler scheduler, @NonNull ConsoleTransport transport,
+                                 @NonNull FirmwareImage image, long crc,
+                                 @Nullable FirmwareImage compressedImage,
+                                 @FirmwareType int fwType, int packageSize,
+                                 @NonNull NucleoUploadProtocol.UploadListener listener){
+        mScheduler = scheduler;
+        mTransport = transport;
+        mImageLength = image.getLength();
+        mIsCompressed = compressedImage!=null;
+        mStream = compressedImage!=null ? compressedImage : image;
+        mFwType = fwType;
+        mPackageSize = packageSize;
+        mListener = listener;
+        mLastPackageSend = new byte[packageSize+PACKAGE_ID_SIZE];
+        mByteToSend = mStream.getLength();
+        mNPackage = (int) ((mByteToSend + packageSize - 1) / packageSize);
+        mCrc = crc;
+    }
+
+    /**
+     * send the upload command, the file is sent when the node answers with the file crc
+     */
+    public void start(){
+        mNodeReadyToReceiveFile =false;
+        nSentPackage = 0;
+        mByteSend = 0;
+        mAckedPackage.clear();
+        mPackageToResend.clear();
+        mLastRequestedPackage = -1;
+        mNRequestSamePackage = 0;
+        mResentPackage = -1;
+        mNodeDiscardsPackages = false;
+        mSendingPackage = false;
+        mIsRunning = true;
+        mTransport.setListener(this);
+        byte[] command = mIsCompressed ?
+                NucleoUploadProtocol.prepareCompressedLoadCommand(mFwType,mImageLength,mCrc) :
+                NucleoUploadProtocol.prepareLoadCommand(mFwType,mByteToSend,mCrc);
+        mTransport.write(command,0,command.length);
+    }
+
+    /**
+     * stop the upload without notify the listener
+     */
+    public void cancel(){
+        stop();
+    }
+
+    private void stop(){
+        mIsRunning = false;
+        mSendingPackage = false;
+        mScheduler.cancel(onTimeout);
+        if(mNextPackageSentTask!=null)
+            mScheduler.cancel(mNextPackageSentTask);
+        mTransport.setListener(null);
+    }
+
+    private void onLoadFail(@FwUpgradeCallback.UpgradeErrorType int errorCode){
+        if(!mIsRunning)
+            return;
+        stop();
+        mListener.onUploadError(errorCode);
+    }
+
+    private void onLoadComplete(){
+        stop();
+        mListener.onUploadComplete();
+    }
+
+    /**
+     * @param message message received from the node
+     * @return true if the message contain the crc code that we have send
+     */
+    private boolean checkCrc(byte[] message){
+        byte[] myCrc = NumberConversion.LittleEndian.uint32ToBytes(mCrc);
+        return Arrays.equals(message,myCrc);
+    }
+
+    /**
+     * read the data from the file and send it to the node, the package lost by the node are
+     * sent before the new ones
+     */
+    private void sendFwPackage(){
+        int packageId = mPackageToResend.nextSetBit(0);
+        if(packageId>=0){
+            mPackageToResend.clear(packageId);
+            mResentPackage = packageId;
+        }else if(nSentPackage<mNPackage){
+            packageId = nSentPackage++;
+            mByteSend = Math.min(mByteToSend,(long)nSentPackage * mPackageSize);
+        }else{
+            return;
+        }
+        long offset = (long)packageId * mPackageSize;
+        int packageSize = (int) Math.min(mByteToSend - offset, mPackageSize);
+
+        mStream.read(offset,mLastPackageSend,0,packageSize);
+
+        byte[] packageIdData = NumberConversion.LittleEndian.uint32ToBytes(packageId);
+        System.arraycopy(packageIdData,0,mLastPackageSend,packageSize,packageIdData.length);
+        packageSize += packageIdData.length;
+        mTransport.write(mLastPackageSend, 0, packageSize);
+
+    }//sendFwPackage
+
+    private boolean transferIsComplete(){
+        return nSentPackage == mNPackage && mPackageToResend.isEmpty();
+    }
+
+    /**
+     * send a block of message, the function will stop at the first error
+     */
+    private void sendPackageBlock(){
+        if(!mIsRunning)
+            return;
+        mSendingPackage = true;
+        sendFwPackage();
+        final long nPackageSent2 = mNPackageReceived;
+        mNextPackageSentTask = () -> {
+            if(transferIsComplete()) {
+                mSendingPackage = false;
+                return;
+            }
+            //if the message was sent
+            if (mNPackageReceived > nPackageSent2) {
+                sendPackageBlock(); //send the next one
+            } else { // wait a bit an try again
+                mScheduler.postDelayed(mNextPackageSentTask, FW_PACKAGE_DELAY_MS);
+            }
+        };
+        mScheduler.postDelayed(mNextPackageSentTask, FW_PACKAGE_DELAY_MS);
+
+    }//sendPackageBlock
+
+    /**
+     * the node received all the package until lastReceived, the next one is lost:
+     * send it again before the new packages.
+     * If the node keeps asking the same package, or after that the lost package is sent again it
+     * asks the following one, it is discarding the data after the lost one, so all the following
+     * packages are sent again.
+     * @param lastReceived last package received in order by the node
+     */
+    private void onPackageLost(int lastReceived){
+        int lostPackage = lastReceived+1;
+        mAckedPackage.set(0,lostPackage);
+        mPackageToResend.andNot(mAckedPackage);
+        if(lostPackage>=nSentPackage)
+            return;
+
+        if(lostPackage == mLastRequestedPackage) {
+            mNRequestSamePackage++;
+        }else{
+            //the node received the resent package and discarded the next one, that was sent
+            //before it. Two requests before the resend are two packages lost in the same burst
+            if(mResentPackage>=0 && lostPackage == mResentPackage+1)
+                mNodeDiscardsPackages = true;
+            mLastRequestedPackage = lostPackage;
+            mNRequestSamePackage = 1;
+        }
+
+        if(mNodeDiscardsPackages || mNRequestSamePackage > MAX_SELECTIVE_RESEND){
+            mPackageToResend.set(lostPackage,nSentPackage);
+            mPackageToResend.andNot(mAckedPackage);
+        }else{
+            mPackageToResend.set(lostPackage);
+        }
+
+        if(!mSendingPackage)
+            sendPackageBlock();
+    }
+
+    @Override
+    public void onStdOutReceived(@NonNull byte[] message) {
+        if(!mIsRunning)
+            return;
+        if(!mNodeReadyToReceiveFile){
+            if(checkCrc(message)) {
+                mNodeReadyToReceiveFile = true;
+                mNPackageReceived=0;
+                sendPackageBlock();
+            }else
+                onLoadFail(FwUpgradeCallback.ERROR_TRANSMISSION);
+        }else { //transfer complete
+            mScheduler.cancel(onTimeout);
+            if(NucleoUploadProtocol.isAck(message))
+                onLoadComplete();
+            else
+                onLoadFail(FwUpgradeCallback.ERROR_CORRUPTED_FILE);
+        }
+    }//onStdOutReceived
+
+    /**
+     * notify to the user that a block of data is correctly send
+     */
+    private void notifyNodeReceivedFwMessage(){
+        mNPackageReceived++;
+        if(mNPackageReceived % NOTIFY_EACH_PACKAGE ==0){
+            mListener.onUploadProgress(mByteToSend-mByteSend);
+        }//if
+    }
+
+    @Override
+    public void onStdInSent(boolean writeResult) {
+        if(!mIsRunning)
+            return;
+        if(writeResult){
+            if(mNodeReadyToReceiveFile){
+                //reset the timeout
+                mScheduler.cancel(onTimeout);
+                notifyNodeReceivedFwMessage();
+                mScheduler.postDelayed(onTimeout,FW_UPLOAD_MSG_TIMEOUT_MS);
+            }
+        }else{
+            onLoadFail(FwUpgradeCallback.ERROR_TRANSMISSION);
+        }
+    }
+
+    @Override
+    public void onStdErrReceived(@NonNull byte[] msgData) {
+        if(!mIsRunning || msgData.length<5 || msgData[0]!=PACKAGE_LOST_MSG)
+            return;
+        mScheduler.cancel(onTimeout);
+        long requestPackage = NumberConversion.LittleEndian.bytesToUInt32(msgData,1);
+        onPackageLost((int)requestPackage);
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import androidx.annotation.NonNull;
+
+import com.st.BlueSTSDK.Utils.NumberConversion;
+import com.st.BlueSTSDK.gui.fwUpgrade.FirmwareType;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.FwUpgradeConsole.FwUpgradeCallback;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.WriteWindow;
+
+import java.util.Arrays;
+
+/**
+ * Upload protocol of the BlueMs firmware:
+ * mobile:upgrade[Ble|Fw]+length+fileCrc
+ * node:fileCrc
+ * mobile: file data, the file is spited in message of packageSize bytes
+ * node: when all the byte are write return 1 if the crc is ok, -1 otherwise
+ * <p>
+ * The messages are sent with a {@link WriteWindow}: a new message is sent when the BLE stack
+ * confirms one of the previous ones.
+ * </p>
+ */
+public class NucleoUploadProtocol implements ConsoleTransport.Listener {
+
+    public interface UploadListener {
+
+        /**
+         * @param bytesToSend number of bytes not yet sent
+         */
+        void onUploadProgress(long bytesToSend);
+
+        /**
+         * the node received the file and the crc is correct
+         */
+        void onUploadComplete();
+
+        /**
+         * the upload is stopped by an error
+         * @param errorCode type of error
+         */
+        void onUploadError(@FwUpgradeCallback.UpgradeErrorType int errorCode);
+    }
+
+    static private final byte[] UPLOAD_BOARD_FW={'u','p','g','r','a','d','e','F','w'};
+    static private final byte[] UPLOAD_BLE_FW={'u','p','g','r','a','d','e','B','l','e'};
+    static private final byte[] UPLOAD_BOARD_FW_LZ4={'u','p','g','r','a','d','e','F','w','L','z'};
+    static private final byte[] UPLOAD_BLE_FW_LZ4={'u','p','g','r','a','d','e','B','l','e','L','z'};
+
+    static private final byte[] ACK_MSG={0x01};
+
+    /**
+     * max number of bytes that are waiting to be written, to avoid to stress the BLE stack
+     */
+    private static final int MAX_BYTES_IN_FLIGHT = 1024;
+
+    /**
+     * since the traffic is high, we use a bigger timeout for give time to the system to notify
+     * that sent a message
+     */
+    static private final int FW_UPLOAD_MSG_TIMEOUT_MS = 4000;
+
+    static private final int NOTIFY_EACH_PACKAGE = 10;
+
+    /**
+     * merge the file size and crc for create the command that will start the upload on the
+     * board
+     * @param fwType firmware to update
+     * @param fileSize number of file to send
+     * @param fileCrc file crc
+     * @return command to send to the board
+     */
+    static byte[] prepareLoadCommand(@FirmwareType int fwType, long fileSize, long fileCrc){
+        byte[] name = fwType==FirmwareType.BLE_FW ? UPLOAD_BLE_FW : UPLOAD_BOARD_FW;
+        return buildCommand(name,fileSize,fileCrc);
+    }
+
+    /**
+     * create the command that starts the upload of a file compressed with
+     * {@link com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.Lz4BlockCompressor}:
+     * upgrade[Ble|Fw]Lz+length+fileCrc, the node decodes the blocks until it has length bytes.
+     * As the uncompressed one, the command fits in a single message with the default MTU.
+     * @param fwType firmware to update
+     * @param fileSize number of bytes of the uncompressed file
+     * @param fileCrc crc of the uncompressed file
+     * @return command to send to the board
+     */
+    static byte[] prepareCompressedLoadCommand(@FirmwareType int fwType, long fileSize,
+                                               long fileCrc){
+        byte[] name = fwType==FirmwareType.BLE_FW ? UPLOAD_BLE_FW_LZ4 : UPLOAD_BOARD_FW_LZ4;
+        return buildCommand(name,fileSize,fileCrc);
+    }
+
+    private static byte[] buildCommand(byte[] name, long fileSize, long fileCrc){
+        int offset = name.length;
+        byte[] command = Arrays.copyOf(name,offset+8);
+        byte[] temp = NumberConversion.LittleEndian.uint32ToBytes(fileSize);
+        System.arraycopy(temp,0,command,offset,temp.length);
+        offset+=temp.length;
+        temp = NumberConversion.LittleEndian.uint32ToBytes(fileCrc);
+        System.arraycopy(temp,0,command,offset,temp.length);
+        return command;
+    }
+
+    /**
+     * @param message message received from the node
+     * @return true if the message is the node ack
+     */
+    static boolean isAck(@NonNull byte[] message){
+        return Arrays.equals(ACK_MSG,message);
+    }
+
+    private final Scheduler mScheduler;
+    private final ConsoleTransport mTransport;
+    private final FirmwareImage mImage;
+    private final @FirmwareType int mFwType;
+    private final int mPackageSize;
+    private final byte[] mPackage;
+    private final UploadListener mListener;
+    private final long mByteToSend;
+    private final long mCrc;
+
+    private long mByteSend;
+    private boolean mNodeReadyToReceiveFile;
+    private boolean mCommandSentAgain;
+    private int mNPackageReceived;
+    private boolean mIsRunning;
+
+    /**
+     * messages sent and not yet confirmed by the BLE stack
+     */
+    private final WriteWindow mWindow;
+
+    /**
+     * if the timeout is rise, fire an error of type {@link FwUpgradeCallback#ERROR_TRANSMISSION}
+     */
+    private final Runnable onTimeout = () -> onLoadFail(FwUpgradeCallback.ERROR_TRANSMISSION);
+
+    /**
+     * @param scheduler scheduler used for the timeouts
+     * @param transport channel with the node console
+     * @param image file to upload, it is not closed by the protocol
+     * @param fwType firmware that we are uploading
+     * @param packageSize number of file bytes sent in each message
+     * @param initialWindowSize number of messages that can be in flight at the beginning
+     * @param listener object where notify the upload status
+     */
+    public NucleoUploadProtocol(@NonNull Scheduler scheduler, @NonNull ConsoleTransport transport,
+                                @NonNull FirmwareImage image, @FirmwareType int fwType,
+                                int packageSize, int initialWindowSize,
+                                @NonNull UploadListener listener){
+        this(scheduler,transport,image,image.computeCrc32(),fwType,packageSize,initialWindowSize,
+                listener);
+    }
+
+    /**
+     * @param scheduler scheduler used for the timeouts
+     * @param transport channel with the node console
+     * @param image file to upload, it is not closed by the protocol
+     * @param crc image crc, already computed
+     * @param fwType firmware that we are uploading
+     * @param packageSize number of file bytes sent in each message
+     * @param initialWindowSize number of messages that can be in flight at the beginning
+     * @param listener object where notify the upload status
+     */
+    public NucleoUploadProtocol(@NonNull Scheduler scheduler, @NonNull ConsoleTransport transport,
+                                @NonNull FirmwareImage image, long crc, @FirmwareType int fwType,
+                                int packageSize, int initialWindowSize,
+                                @NonNull UploadListener listener){
+        mScheduler = scheduler;
+        mTransport = transport;
+        mImage = image;
+        mFwType = fwType;
+        mPackageSize = packageSize;
+        mPackage = new byte[packageSize];
+        mListener = listener;
+        mByteToSend = image.getLength();
+        mCrc = crc;
+        int maxWindowSize = Math.max(1, MAX_BYTES_IN_FLIGHT / packageSize);
+        mWindow = new WriteWindow(initialWindowSize,maxWindowSize);
+    }
+
+    /**
+     * send the upload command, the file is sent when the node answers with the file crc
+     */
+    public void start(){
+        mByteSend = 0;
+        mNodeReadyToReceiveFile = false;
+        mCommandSentAgain = false;
+        mIsRunning = true;
+        mTransport.setListener(this);
+        sendLoadCommand();
+    }
+
+    /**
+     * stop the upload without notify the listener
+     */
+    public void cancel(){
+        stop();
+    }
+
+    /**
+     * @return number of messages that can be in flight, it can be used for the next upload
+     * to the same node
+     */
+    public int getWindowSize(){
+        return mWindow.getSize();
+    }
+
+    private void sendLoadCommand(){
+        byte[] command = prepareLoadCommand(mFwType,mByteToSend,mCrc);
+        mTransport.write(command,0,command.length);
+    }
+
+    private void stop(){
+        mIsRunning = false;
+        mScheduler.cancel(onTimeout);
+        mWindow.reset();
+        mTransport.setListener(null);
+    }
+
+    private void onLoadFail(@FwUpgradeCallback.UpgradeErrorType int errorCode){
+        if(!mIsRunning)
+            return;
+        mWindow.onFailure(mScheduler.now());
+        stop();
+        mListener.onUploadError(errorCode);
+    }
+
+    private void onLoadComplete(){
+        stop();
+        mListener.onUploadComplete();
+    }
+
+    /**
+     * @param message message received from the node
+     * @return true if the message contain the crc code that we have send
+     */
+    private boolean checkCrc(byte[] message){
+        byte[] myCrc = NumberConversion.LittleEndian.uint32ToBytes(mCrc);
+        return Arrays.equals(message,myCrc);
+    }
+
+    /**
+     * read the data from the file and send it to the node
+     * @return true if the package is correctly sent
+     */
+    private boolean sendFwPackage(){
+        int lastPackageSize = (int) Math.min(mByteToSend - mByteSend, mPackageSize);
+        mImage.read(mByteSend, mPackage, 0, lastPackageSize);
+        mByteSend += lastPackageSize;
+        return mTransport.write(mPackage, 0, lastPackageSize)==lastPackageSize;
+    }//sendFwPackage
+
+    private boolean transferIsComplete(){
+        return (mByteToSend-mByteSend) == 0;
+    }
+
+    /**
+     * send messages until the window is full, the function will stop at the first error
+     */
+    private void fillWindow(){
+        while (mIsRunning && mWindow.canSend() && !transferIsComplete()){
+            mWindow.onSent(mScheduler.now());
+            if(!sendFwPackage()){
+                onLoadFail(FwUpgradeCallback.ERROR_TRANSMISSION);
+                return;
+            }
+        }
+    }//fillWindow
+
+    /**
+     * notify to the user that a block of data is correctly send
+     */
+    private void notifyNodeReceivedFwMessage(){
+        mNPackageReceived++;
+        if(mNPackageReceived % NOTIFY_EACH_PACKAGE ==0){
+            mListener.onUploadProgress(mByteToSend-mByteSend);
+        }//if
+    }
+
+    @Override
+    public void onStdOutReceived(@NonNull byte[] message) {
+        if(!mIsRunning)
+            return;
+        if(!mNodeReadyToReceiveFile){
+            if(checkCrc(message)) {
+                mNodeReadyToReceiveFile = true;
+                mNPackageReceived=0;
+                fillWindow();
+            }else if(!mCommandSentAgain){
+                //the answer can be corrupted, try again once
+                mCommandSentAgain = true;
+                sendLoadCommand();
+            }else
+                onLoadFail(FwUpgradeCallback.ERROR_TRANSMISSION);
+        }else { //transfer complete
+            mScheduler.cancel(onTimeout);
+            if(isAck(message))
+                onLoadComplete();
+            else
+                onLoadFail(FwUpgradeCallback.ERROR_CORRUPTED_FILE);
+        }
+    }//onStdOutReceived
+
+    @Override
+    public void onStdErrReceived(@NonNull byte[] data) { }
+
+    @Override
+    public void onStdInSent(boolean writeResult) {
+        if(!mIsRunning)
+            return;
+        if(writeResult){
+            if(mNodeReadyToReceiveFile){
+                //reset the timeout
+                mScheduler.cancel(onTimeout);
+                mWindow.onConfirmed(mScheduler.now());
+                notifyNodeReceivedFwMessage();
+                fillWindow();
+                if(mIsRunning)
+                    mScheduler.postDelayed(onTimeout,FW_UPLOAD_MSG_TIMEOUT_MS);
+            }
+        }else{
+            onLoadFail(FwUpgradeCallback.ERROR_TRANSMISSION);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueSTSDK.Feature;
+import com.st.BlueSTSDK.gui.fwUpgrade.FirmwareType;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+import com.st.STM32WB.fwUpgrade.feature.OTABoardWillRebootFeature;
+import com.st.STM32WB.fwUpgrade.feature.OTAControlFeature;
+import com.st.STM32WB.fwUpgrade.feature.OTAFileUpload;
+
+/**
+ * Transport that uses the features of the STM32WB OTA service, the SDK notifies the feature
+ * updates and the write completions on its own thread, they are moved on the scheduler thread.
+ * <p>
+ * The service can't report the data written in the flash, so an upload is never resumed.
+ * </p>
+ */
+public class STM32WBFeatureTransport implements STM32WBOtaTransport {
+
+    private final OTAControlFeature mControl;
+    private final OTAFileUpload mUpload;
+    private final OTABoardWillRebootFeature mReboot;
+    private final Scheduler mScheduler;
+    private @Nullable Listener mListener;
+
+    private final Feature.FeatureListener onBoardWillReboot = new Feature.FeatureListener() {
+        @Override
+        public void onUpdate(@NonNull Feature f, @NonNull Feature.Sample sample) {
+            final boolean isRebooting = OTABoardWillRebootFeature.boardIsRebooting(sample);
+            mScheduler.post(() -> {
+                Listener listener = getListener();
+                if(listener!=null)
+                    listener.onBoardWillReboot(isRebooting);
+            });
+        }
+    };
+
+    private final OTAFileUpload.UploadListener onUploadProgress = new OTAFileUpload.UploadListener() {
+        @Override
+        public void onUploadProgress(long sentBytes) {
+            mScheduler.post(() -> {
+                Listener listener = getListener();
+                if(listener!=null)
+                    listener.onUploadProgress(sentBytes);
+            });
+        }
+
+        @Override
+        public void onUploadComplete() {
+            mScheduler.post(() -> {
+                Listener listener = getListener();
+                if(listener!=null)
+                    listener.onUploadComplete();
+            });
+        }
+    };
+
+    /**
+     * @param control feature used to send the commands
+     * @param upload feature used to send the image
+     * @param reboot feature that notifies the upload end
+     * @param scheduler scheduler where notify the node answers
+     */
+    public STM32WBFeatureTransport(@NonNull OTAControlFeature control,
+                                   @NonNull OTAFileUpload upload,
+                                   @NonNull OTABoardWillRebootFeature reboot,
+                                   @NonNull Scheduler scheduler){
+        mControl = control;
+        mUpload = upload;
+        mReboot = reboot;
+        mScheduler = scheduler;
+    }
+
+    private synchronized @Nullable Listener getListener(){
+        return mListener;
+    }
+
+    @Override
+    public void setListener(@Nullable Listener listener) {
+        synchronized (this) {
+            if (mListener == null && listener != null) {
+                mReboot.addFeatureListener(onBoardWillReboot);
+                mReboot.enableNotification();
+            } else if (mListener != null && listener == null) {
+                mReboot.removeFeatureListener(onBoardWillReboot);
+            }
+            mListener = listener;
+        }
+    }
+
+    @Override
+    public boolean isResumeSupported() {
+        return false;
+    }
+
+    @Override
+    public void readUploadedLength(@FirmwareType int type, long address) {
+        mScheduler.post(() -> {
+            Listener listener = getListener();
+            if(listener!=null)
+                listener.onUploadedLengthRead(0);
+        });
+    }
+
+    @Override
+    public void startUpload(@FirmwareType int type, long address) {
+        mControl.startUpload(type,address);
+    }
+
+    @Override
+    public void upload(@NonNull FirmwareImage image, long startOffset, int chunkLength) {
+        mUpload.upload(image,startOffset,chunkLength,onUploadProgress);
+    }
+
+    @Override
+    public void uploadFinished() {
+        mControl.uploadFinished(() -> { });
+    }
+
+    @Override
+    public void cancelUpload() {
+        mControl.cancelUpload();
+    }
+}
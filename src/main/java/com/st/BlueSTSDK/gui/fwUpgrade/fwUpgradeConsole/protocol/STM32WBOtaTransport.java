@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueSTSDK.gui.fwUpgrade.FirmwareType;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+
+/**
+ * Characteristics of the STM32WB OTA service used by {@link STM32WBUploadProtocol}.
+ * The listener is always called on the {@link Scheduler} thread.
+ */
+public interface STM32WBOtaTransport {
+
+    interface Listener {
+
+        /**
+         * a chunk of the image is written
+         * @param sentBytes number of image bytes written since the {@link #upload} call
+         */
+        void onUploadProgress(long sentBytes);
+
+        /**
+         * all the image chunks are written
+         */
+        void onUploadComplete();
+
+        /**
+         * notification sent by the node at the end of the upload
+         * @param isRebooting true if the node is rebooting to run the new firmware, false if
+         *                    the node refused the image
+         */
+        void onBoardWillReboot(boolean isRebooting);
+
+        /**
+         * answer to {@link #readUploadedLength}
+         * @param length number of bytes, from the requested address, that the board holds from
+         *               an interrupted upload and keeps when the upload restarts after them,
+         *               0 if the board can't tell it
+         */
+        void onUploadedLengthRead(long length);
+    }
+
+    /**
+     * @param listener object to notify with the node answers, null to stop listening
+     */
+    void setListener(@Nullable Listener listener);
+
+    /**
+     * @return true if the board can report how much of an interrupted upload it holds
+     */
+    boolean isResumeSupported();
+
+    /**
+     * ask the board how much of an interrupted upload it holds
+     * @param type firmware that was uploaded
+     * @param address flash address where the upload started
+     */
+    void readUploadedLength(@FirmwareType int type, long address);
+
+    /**
+     * tell the node to erase the flash and wait for the image
+     * @param type firmware to upload
+     * @param address flash address where write the first byte
+     */
+    void startUpload(@FirmwareType int type, long address);
+
+    /**
+     * send the image data, a new chunk is sent when a previous one is written
+     * @param image image to send
+     * @param startOffset first byte to send
+     * @param chunkLength number of bytes in each write
+     */
+    void upload(@NonNull FirmwareImage image, long startOffset, int chunkLength);
+
+    /**
+     * tell the node that all the image is sent
+     */
+    void uploadFinished();
+
+    /**
+     * tell the node that the upload is stopped
+     */
+    void cancelUpload();
+}
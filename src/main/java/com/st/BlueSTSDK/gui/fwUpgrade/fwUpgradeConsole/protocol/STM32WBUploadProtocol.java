@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueSTSDK.gui.fwUpgrade.FirmwareType;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.FwUpgradeConsole.FwUpgradeCallback;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.UploadCheckpointStore;
+
+/**
+ * Upload protocol of the STM32WB OTA service:
+ * mobile: start command with the firmware type and the flash address
+ * mobile: image data, chunkLength bytes for each write
+ * mobile: upload finished command
+ * node: notify if it is rebooting with the new firmware
+ * <p>
+ * If a checkpoint of a previous upload of the same image is given and the board reports that it
+ * still holds part of that upload, only the remaining data is sent. The checkpoint is ignored if
+ * the transport can not read the data held by the board.
+ * </p>
+ */
+public class STM32WBUploadProtocol implements STM32WBOtaTransport.Listener {
+
+    /**
+     * the checkpoint is saved each time this number of bytes is sent
+     */
+    static final int CHECKPOINT_PERIOD = 4096;
+
+    /**
+     * the upload restarts from the data held by the board, only if the phone sent at least that
+     * data of the same image
+     * @param sentBytes number of bytes sent by the previous upload of the image
+     * @param boardLength number of bytes reported by the board
+     * @param imageLength image length
+     * @return offset of the first byte to send
+     */
+    static long getResumeOffset(long sentBytes, long boardLength, long imageLength){
+        if(boardLength<=0 || boardLength>sentBytes || boardLength>=imageLength)
+            return 0;
+        return boardLength;
+    }
+
+    private final STM32WBOtaTransport mTransport;
+    private final FirmwareImage mImage;
+    private final @FirmwareType int mFwType;
+    private final long mStartAddress;
+    private final int mChunkLength;
+    private final @Nullable UploadCheckpointStore.Checkpoint mCheckpoint;
+    private final NucleoUploadProtocol.UploadListener mListener;
+
+    private long mStartOffset;
+    private long mLastCheckpoint;
+    private boolean mIsRunning;
+    private boolean mWaitingUploadedLength;
+
+    /**
+     * @param transport characteristics of the node OTA service
+     * @param image file to upload, it is not closed by the protocol
+     * @param fwType firmware that we are uploading
+     * @param startAddress flash address where write the image
+     * @param chunkLength number of bytes in each write
+     * @param checkpoint progress of a previous upload of the same image, null to upload all the
+     *                   image. It is not used if the transport can not resume an upload
+     * @param listener object where notify the upload status
+     */
+    public STM32WBUploadProtocol(@NonNull STM32WBOtaTransport transport,
+                                 @NonNull FirmwareImage image, @FirmwareType int fwType,
+                                 long startAddress, int chunkLength,
+                                 @Nullable UploadCheckpointStore.Checkpoint checkpoint,
+                                 @NonNull NucleoUploadProtocol.UploadListener listener){
+        mTransport = transport;
+        mImage = image;
+        mFwType = fwType;
+        mStartAddress = startAddress;
+        mChunkLength = chunkLength;
+        mCheckpoint = transport.isResumeSupported() ? checkpoint : null;
+        mListener = listener;
+    }
+
+    public void start(){
+        mIsRunning = true;
+        mTransport.setListener(this);
+        if(mCheckpoint!=null && mCheckpoint.getSentBytes()>0){
+            mWaitingUploadedLength = true;
+            mTransport.readUploadedLength(mFwType,mStartAddress);
+        }else {
+            startFrom(0);
+        }
+    }
+
+    private void startFrom(long offset){
+        mStartOffset = offset;
+        mLastCheckpoint = offset;
+        mTransport.startUpload(mFwType,mStartAddress+mStartOffset);
+        mTransport.upload(mImage,mStartOffset,mChunkLength);
+    }
+
+    /**
+     * stop the upload without notify the listener
+     */
+    public void cancel(){
+        if(!mIsRunning)
+            return;
+        stop();
+        mTransport.cancelUpload();
+    }
+
+    private void stop(){
+        mIsRunning = false;
+        mWaitingUploadedLength = false;
+        mTransport.setListener(null);
+    }
+
+    @Override
+    public void onUploadProgress(long sentBytes) {
+        if(!mIsRunning)
+            return;
+        mListener.onUploadProgress(mImage.getLength() - mStartOffset - sentBytes);
+        long imageSentBytes = mStartOffset + sentBytes;
+        if(mCheckpoint!=null && imageSentBytes - mLastCheckpoint >= CHECKPOINT_PERIOD){
+            mLastCheckpoint = imageSentBytes;
+            mCheckpoint.setSentBytes(imageSentBytes);
+        }
+    }
+
+    @Override
+    public void onUploadedLengthRead(long length) {
+        if(!mIsRunning || !mWaitingUploadedLength)
+            return;
+        mWaitingUploadedLength = false;
+        long sentBytes = mCheckpoint!=null ? mCheckpoint.getSentBytes() : 0;
+        startFrom(getResumeOffset(sentBytes,length,mImage.getLength()));
+    }
+
+    @Override
+    public void onUploadComplete() {
+        if(mIsRunning)
+            mTransport.uploadFinished();
+    }
+
+    @Override
+    public void onBoardWillReboot(boolean isRebooting) {
+        if(!mIsRunning)
+            return;
+        stop();
+        if(isRebooting) {
+            if(mCheckpoint!=null)
+                mCheckpoint.clear();
+            mListener.onUploadComplete();
+        }else
+            mListener.onUploadError(FwUpgradeCallback.ERROR_TRANSMISSION);
+    }
+}
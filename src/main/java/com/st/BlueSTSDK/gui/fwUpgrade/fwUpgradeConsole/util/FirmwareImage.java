@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
+
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Read only firmware content shared by all the upgrade consoles.
+ * <p>
+ * When the file is seekable its content is memory mapped, otherwise the file is decoded once in a
+ * direct buffer taken from a small pool, the pool is emptied by {@link FirmwareImageCache} when
+ * the application has to trim its memory. The consoles copy the data directly in the packet that
+ * they are building, reading after the end of the image returns zeros, so the image can be padded
+ * to the protocol block size without allocating a new array.
+ * </p>
+ * <p>
+ * The same content can be used by many uploads at the same time with {@link #share()}, the
+ * buffer is released when all the shared images are closed.
+ * </p>
+ */
+public class FirmwareImage implements Closeable {
+
+    /**
+     * max number of released buffer to keep for the next image
+     */
+    private static final int POOL_SIZE = 2;
+
+    /**
+     * size of the block read from the file
+     */
+    private static final int READ_BUFFER_SIZE = 8*1024;
+
+    private static final ArrayDeque<ByteBuffer> sBufferPool = new ArrayDeque<>(POOL_SIZE);
+
+    private static @NonNull ByteBuffer obtainBuffer(int capacity){
+        synchronized (sBufferPool){
+            Iterator<ByteBuffer> it = sBufferPool.iterator();
+            while (it.hasNext()){
+                ByteBuffer buffer = it.next();
+                if(buffer.capacity()>=capacity){
+                    it.remove();
+                    buffer.clear();
+                    return buffer;
+                }
+            }
+        }
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    static void releaseBuffer(@NonNull ByteBuffer buffer){
+        synchronized (sBufferPool){
+            if(sBufferPool.size()>=POOL_SIZE)
+                sBufferPool.removeFirst();
+            sBufferPool.addLast(buffer);
+        }
+    }
+
+    /**
+     * drop the buffers kept for the next images, the buffers used by the open images are
+     * released when the images are closed
+     */
+    static void releaseBufferPool(){
+        synchronized (sBufferPool){
+            sBufferPool.clear();
+        }
+    }
+
+    /**
+     * @return number of buffers kept for the next images
+     */
+    static int getNPooledBuffer(){
+        synchronized (sBufferPool){
+            return sBufferPool.size();
+        }
+    }
+
+    /**
+     * load the firmware file
+     * @param file file to load
+     * @return image with the file content
+     * @throws IOException if the file can not be read
+     */
+    public static @NonNull FirmwareImage open(@NonNull FwFileDescriptor file) throws IOException {
+        if(file.getType()!=FwFileDescriptor.IMG) {
+            FirmwareImage image = mapFile(file);
+            if (image != null)
+                return image;
+        }
+        //else
+        return readFile(file);
+    }
+
+    /**
+     * build an image with data already in memory, the array must not be changed while the image
+     * is used
+     * @param data image content
+     * @return image with the data content
+     */
+    public static @NonNull FirmwareImage wrap(@NonNull byte[] data){
+        return new FirmwareImage(ByteBuffer.wrap(data),null);
+    }
+
+    private static @Nullable FirmwareImage mapFile(@NonNull FwFileDescriptor file){
+        try {
+            ParcelFileDescriptor fd = file.openFileDescriptor();
+            if(fd==null)
+                return null;
+            //the stream owns the file descriptor and close it
+            try (FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(fd);
+                 FileChannel channel = in.getChannel()){
+                if(fd.getStatSize()<0)
+                    return null;
+                ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+                return new FirmwareImage(data,null);
+            }
+        } catch (IOException | RuntimeException e) {
+            //not a regular file, read it as a stream
+            return null;
+        }
+    }
+
+    private static @NonNull FirmwareImage readFile(@NonNull FwFileDescriptor file) throws IOException {
+        //for a img file the length is the encoded one, so it is an upper bound of the image size
+        ByteBuffer buffer = obtainBuffer((int)file.getLength());
+        byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+        try (InputStream in = file.openFile()){
+            int nRead;
+            while(buffer.hasRemaining() &&
+                    (nRead = in.read(readBuffer,0,Math.min(readBuffer.length,buffer.remaining())))>=0){
+                buffer.put(readBuffer,0,nRead);
+            }
+        } catch (IOException e){
+            releaseBuffer(buffer);
+            throw e;
+        }
+        buffer.flip();
+        return new FirmwareImage(buffer,buffer);
+    }
+
+    private final ByteBuffer mData;
+    private final ByteBuffer mReader;
+    private final long mLength;
+    private @Nullable ByteBuffer mPooledBuffer;
+
+    /**
+     * image that owns the data, null if this image owns it
+     */
+    private final @Nullable FirmwareImage mOwner;
+
+    /**
+     * number of images not closed that use the data, valid only in the owner
+     */
+    private int mNReference = 1;
+    private volatile boolean mClosed = false;
+
+    /**
+     * @param data image content, from position 0 to the limit
+     * @param pooledBuffer buffer to release when the image is closed
+     */
+    private FirmwareImage(@NonNull ByteBuffer data, @Nullable ByteBuffer pooledBuffer){
+        mData = data.asReadOnlyBuffer();
+        mReader = mData.duplicate();
+        mLength = mData.limit();
+        mPooledBuffer = pooledBuffer;
+        mOwner = null;
+    }
+
+    /**
+     * build an image that read the owner data
+     * @param owner image that owns the data
+     * @param data image content, from position 0 to the limit
+     */
+    private FirmwareImage(@NonNull FirmwareImage owner, @NonNull ByteBuffer data){
+        mData = data;
+        mReader = mData.duplicate();
+        mLength = mData.limit();
+        mPooledBuffer = null;
+        mOwner = owner;
+    }
+
+    /**
+     * get a new image with the same content, it can be used and closed independently from this
+     * one. Each image has its own reader, so the uploads don't wait each other.
+     * @return image with the same content
+     * @throws IllegalStateException if all the images with this content are closed
+     */
+    public @NonNull FirmwareImage share(){
+        return new FirmwareImage(acquireOwner(),mData.duplicate());
+    }
+
+    private @NonNull FirmwareImage acquireOwner(){
+        FirmwareImage owner = mOwner!=null ? mOwner : this;
+        synchronized (owner){
+            if(owner.mNReference==0)
+                throw new IllegalStateException("The image is closed");
+            owner.mNReference++;
+        }
+        return owner;
+    }
+
+    /**
+     * @return number of bytes in the image, without padding
+     */
+    public long getLength(){
+        return mLength;
+    }
+
+    /**
+     * length of the image with the padding
+     * @param blockSize size of the protocol block
+     * @return smallest multiple of blockSize that contains all the image
+     */
+    public long getPaddedLength(int blockSize){
+        long nBlock = (mLength + blockSize - 1) / blockSize;
+        return nBlock * blockSize;
+    }
+
+    /**
+     * get a view of the image, the view is limited to the image content, without padding
+     * @param offset first byte of the view
+     * @param length number of bytes
+     * @return read only buffer with the image content
+     * @throws IllegalStateException if the image is closed
+     */
+    public @NonNull ByteBuffer slice(long offset, int length){
+        checkOpen();
+        if(offset<0 || length<0 || offset+length>mLength)
+            throw new IndexOutOfBoundsException("slice out of the image: "+offset+"+"+length);
+        ByteBuffer slice = mData.duplicate();
+        slice.position((int)offset);
+        slice.limit((int)offset+length);
+        return slice.slice();
+    }
+
+    /**
+     * copy part of the image in a buffer, the bytes after the end of the image are set to 0
+     * @param offset first image byte to copy
+     * @param dest buffer where copy the data
+     * @param destOffset first buffer position to write
+     * @param length number of bytes to copy
+     * @throws IllegalStateException if the image is closed
+     */
+    public void read(long offset, @NonNull byte[] dest, int destOffset, int length){
+        checkOpen();
+        int available = (int) Math.max(0, Math.min(length, mLength - offset));
+        if(available>0) {
+            synchronized (mReader) {
+                mReader.limit((int) (offset + available));
+                mReader.position((int) offset);
+                mReader.get(dest, destOffset, available);
+            }
+        }
+        Arrays.fill(dest,destOffset+available,destOffset+length,(byte)0);
+    }
+
+    /**
+     * copy part of the image like {@link FirmwareImage#read(long, byte[], int, int)} and compute
+     * the xor of the copied bytes while copying them
+     * @param offset first image byte to copy
+     * @param dest buffer where copy the data
+     * @param destOffset first buffer position to write
+     * @param length number of bytes to copy
+     * @return xor of the copied bytes
+     * @throws IllegalStateException if the image is closed
+     */
+    public byte readWithXor(long offset, @NonNull byte[] dest, int destOffset, int length){
+        checkOpen();
+        int available = (int) Math.max(0, Math.min(length, mLength - offset));
+        byte xor = 0;
+        if(available>0) {
+            synchronized (mReader) {
+                mReader.limit((int) mLength);
+                int src = (int) offset;
+                for (int i = 0; i < available; i++) {
+                    byte b = mReader.get(src + i);
+                    dest[destOffset + i] = b;
+                    xor ^= b;
+                }
+            }
+        }
+        Arrays.fill(dest,destOffset+available,destOffset+length,(byte)0);
+        return xor;
+    }
+
+    /**
+     * compute the STM32 crc of the image, the trailing bytes that are not a multiple of 4 are
+     * not used
+     * @return image crc
+     * @throws IllegalStateException if the image is closed
+     */
+    public long computeCrc32(){
+        STM32Crc32 crc = new STM32Crc32();
+        crc.update(slice(0, (int)(mLength - mLength % 4)));
+        return crc.getValue();
+    }
+
+    /**
+     * the buffer of a closed image can be already used by another image
+     * @throws IllegalStateException if the image is closed
+     */
+    private void checkOpen(){
+        if(mClosed)
+            throw new IllegalStateException("The image is closed");
+    }
+
+    /**
+     * release the image, the image can not be used anymore. The buffer is released when all the
+     * images that share it are closed
+     */
+    @Override
+    public void close(){
+        synchronized (this) {
+            if(mClosed)
+                return;
+            mClosed = true;
+        }
+        (mOwner!=null ? mOwner : this).releaseReference();
+    }
+
+    private void releaseReference(){
+        ByteBuffer buffer;
+        synchronized (this) {
+            mNReference--;
+            if(mNReference>0)
+                return;
+            buffer = mPooledBuffer;
+            mPooledBuffer = null;
+        }
+        if(buffer!=null)
+            releaseBuffer(buffer);
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keep the last prepared firmware images, their crc and their compressed stream, so uploading
+ * the same file to many boards reads, decodes and compresses it only once.
+ * <p>
+ * The images are identified by {@link FwFileDescriptor#getCacheKey()}, the least recently used
+ * images are released when the total size is bigger than the limit, and all the images are
+ * released when the system is running low on memory or the application is in background.
+ * </p>
+ */
+public class FirmwareImageCache implements ComponentCallbacks2 {
+
+    /**
+     * max number of image bytes kept in memory
+     */
+    private static final long DEFAULT_MAX_SIZE = 4*1024*1024;
+
+    /**
+     * image stored in the cache
+     */
+    static class CachedImage {
+        final @NonNull FirmwareImage image;
+        final long crc;
+        final @Nullable FirmwareImage compressedImage;
+
+        CachedImage(@NonNull FirmwareImage image, long crc,
+                    @Nullable FirmwareImage compressedImage) {
+            this.image = image;
+            this.crc = crc;
+            this.compressedImage = compressedImage;
+        }
+
+        long getSize(){
+            return image.getLength() + (compressedImage!=null ? compressedImage.getLength() : 0);
+        }
+    }
+
+    private static FirmwareImageCache sInstance;
+    private static boolean sRegistered = false;
+
+    /**
+     * @return cache used by the upgrade consoles
+     */
+    public static synchronized @NonNull FirmwareImageCache getInstance(){
+        if(sInstance==null)
+            sInstance = new FirmwareImageCache(DEFAULT_MAX_SIZE);
+        return sInstance;
+    }
+
+    /**
+     * release the cached images when the application has to trim its memory
+     * @param context context used to register the memory callbacks
+     */
+    public static synchronized void register(@NonNull Context context){
+        if(sRegistered)
+            return;
+        context.getApplicationContext().registerComponentCallbacks(getInstance());
+        sRegistered = true;
+    }
+
+    private final long mMaxSize;
+    private long mSize = 0;
+
+    /**
+     * images in access order, the first is the least recently used
+     */
+    private final LinkedHashMap<String,CachedImage> mImages =
+            new LinkedHashMap<>(4,0.75f,true);
+
+    /**
+     * @param maxSize max number of image bytes to keep
+     */
+    FirmwareImageCache(long maxSize){
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * search an image
+     * @param key file key
+     * @return a new share of the images that the caller has to close, null if the image is not
+     * in the cache
+     */
+    synchronized @Nullable CachedImage get(@NonNull String key){
+        CachedImage cached = mImages.get(key);
+        if(cached==null)
+            return null;
+        return new CachedImage(cached.image.share(),cached.crc,
+                cached.compressedImage!=null ? cached.compressedImage.share() : null);
+    }
+
+    /**
+     * read the file or take it from the cache
+     * @param file file to load
+     * @return a new share of the image that the caller has to close
+     * @throws IOException if the file can not be read
+     */
+    public @NonNull FirmwareImage open(@NonNull FwFileDescriptor file) throws IOException {
+        CachedImage cached = load(file);
+        if(cached.compressedImage!=null)
+            cached.compressedImage.close();
+        return cached.image;
+    }
+
+    /**
+     * read the file and compute its crc, or take them from the cache
+     * @param file file to load
+     * @return a new share of the images that the caller has to close
+     * @throws IOException if the file can not be read
+     */
+    @NonNull CachedImage load(@NonNull FwFileDescriptor file) throws IOException {
+        return load(file,null);
+    }
+
+    /**
+     * compute the crc of an image already read, or take it from the cache
+     * @param file file that contains the image
+     * @param image content of the file, null to read the file
+     * @return a new share of the images that the caller has to close, the image is always a
+     * share of the one passed as parameter
+     * @throws IOException if the file can not be read
+     */
+    @NonNull CachedImage load(@NonNull FwFileDescriptor file, @Nullable FirmwareImage image)
+            throws IOException {
+        String key = file.getCacheKey();
+        CachedImage cached = key!=null ? get(key) : null;
+        if(cached!=null){
+            if(image==null)
+                return cached;
+            cached.image.close();
+            return new CachedImage(image.share(),cached.crc,cached.compressedImage);
+        }
+        image = image!=null ? image.share() : FirmwareImage.open(file);
+        long crc = image.computeCrc32();
+        if(key!=null)
+            put(key,image,crc);
+        return new CachedImage(image,crc,null);
+    }
+
+    /**
+     * add an image to the cache, the cache keeps its own share of the image
+     * @param key file key
+     * @param image image to store, the caller can close it
+     * @param crc image crc
+     */
+    synchronized void put(@NonNull String key, @NonNull FirmwareImage image, long crc){
+        if(image.getLength()>mMaxSize)
+            return;
+        CachedImage old = mImages.put(key,new CachedImage(image.share(),crc,null));
+        mSize+=image.getLength();
+        if(old!=null)
+            release(old);
+        trimToSize();
+    }
+
+    /**
+     * add the compressed stream of an image already in the cache
+     * @param key file key
+     * @param compressedImage image compressed with {@link Lz4BlockCompressor}, the caller can
+     *                        close it
+     */
+    synchronized void putCompressed(@NonNull String key, @NonNull FirmwareImage compressedImage){
+        CachedImage cached = mImages.get(key);
+        if(cached==null || cached.compressedImage!=null)
+            return;
+        if(cached.getSize()+compressedImage.getLength()>mMaxSize)
+            return;
+        mImages.put(key,new CachedImage(cached.image,cached.crc,compressedImage.share()));
+        mSize+=compressedImage.getLength();
+        trimToSize();
+    }
+
+    /**
+     * release the least recently used images until the size is under the limit
+     */
+    private void trimToSize(){
+        Iterator<Map.Entry<String,CachedImage>> it = mImages.entrySet().iterator();
+        while (mSize>mMaxSize && it.hasNext()){
+            CachedImage eldest = it.next().getValue();
+            it.remove();
+            release(eldest);
+        }
+    }
+
+    /**
+     * release all the images and the buffers kept for the next images
+     */
+    private void releaseMemory(){
+        clear();
+        FirmwareImage.releaseBufferPool();
+    }
+
+    /**
+     * release all the images
+     */
+    public synchronized void clear(){
+        for(CachedImage cached : mImages.values())
+            release(cached);
+        mImages.clear();
+    }
+
+    private void release(@NonNull CachedImage cached){
+        mSize-=cached.getSize();
+        cached.image.close();
+        if(cached.compressedImage!=null)
+            cached.compressedImage.close();
+    }
+
+    /**
+     * the images are released when the system is short of memory or when the application is
+     * in the background list, hiding the ui is not enough since an upload can still be running
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        if(level==TRIM_MEMORY_RUNNING_LOW || level==TRIM_MEMORY_RUNNING_CRITICAL ||
+                level>=TRIM_MEMORY_BACKGROUND)
+            releaseMemory();
+    }
+
+    @Override
+    public void onLowMemory() {
+        releaseMemory();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) { }
+}
@@ -37,15 +37,23 @@
 package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
 
 import android.content.ContentResolver;
+import android.database.Cursor;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
 
 import androidx.annotation.IntDef;
+import androidx.annotation.Nullable;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class FwFileDescriptor {
 
@@ -70,18 +78,55 @@ public class FwFileDescriptor {
 
     }
 
+    /**
+     * value used when the file length or fingerprint is not available
+     */
+    private static final long UNKNOWN_VALUE = -1;
+
+    /**
+     * number of file length to remember
+     */
+    private static final int LENGTH_CACHE_SIZE = 16;
+
+    /**
+     * size of the buffer used for count the file bytes
+     */
+    private static final int COUNT_BUFFER_SIZE = 8*1024;
+
+    /**
+     * length of the file that can be known only reading all the file
+     */
+    private static class CachedLength{
+        /**
+         * last modification time of the file when its length was counted
+         */
+        final long fingerprint;
+        final long length;
+
+        CachedLength(long fingerprint, long length) {
+            this.fingerprint = fingerprint;
+            this.length = length;
+        }
+    }
+
+    /**
+     * last counted files length, keep in access order for remove the least recently used
+     */
+    private static final Map<Uri,CachedLength> sLengthCache =
+            new LinkedHashMap<Uri,CachedLength>(LENGTH_CACHE_SIZE,0.75f,true){
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Uri, CachedLength> eldest) {
+                    return size() > LENGTH_CACHE_SIZE;
+                }
+            };
+
     private @FirmwareFileType int mType;
     private ContentResolver mContentResolver;
     private Uri mFile;
     private long mFileLength;
 
     private void setFileLength(){
-        try {
-            InputStream in = mContentResolver.openInputStream(mFile);
-            mFileLength=getFileLength(in);
-        } catch (FileNotFoundException e) {
-            mFileLength=0;
-        }
+        mFileLength = resolveFileLength(mContentResolver,mFile);
     }
 
     public FwFileDescriptor(ContentResolver resolver, Uri file) {
@@ -99,6 +144,17 @@ public class FwFileDescriptor {
         return mFileLength;
     }
 
+    /**
+     * key that identifies the file content: the file uri, length and last modification time
+     * @return the key or null if the modification time is not available
+     */
+    public @Nullable String getCacheKey(){
+        long lastModified = getLastModified(mContentResolver,mFile);
+        if(lastModified==UNKNOWN_VALUE)
+            return null;
+        return mFile.toString()+'|'+mFileLength+'|'+lastModified;
+    }
+
     public InputStream openFile() throws FileNotFoundException {
         InputStream in = mContentResolver.openInputStream(mFile);
         if(mType==IMG)
@@ -106,11 +162,121 @@ public class FwFileDescriptor {
         return in;
     }
 
-    private static long getFileLength(InputStream input) {
-        long nBytes = 0;
+    /**
+     * open the raw file, without decoding it
+     * @return file descriptor or null if the provider can not open it
+     * @throws FileNotFoundException if the file doesn't exist
+     */
+    public @Nullable ParcelFileDescriptor openFileDescriptor() throws FileNotFoundException {
+        return mContentResolver.openFileDescriptor(mFile,"r");
+    }
+
+    /**
+     * get the file length without reading its content when possible: the length is asked to the
+     * content provider, then to the file descriptor. If both are not available the file bytes are
+     * counted and the result is cached until the file modification time changes
+     * @param resolver object used to open the file
+     * @param file file to measure
+     * @return number of bytes in the file, 0 if the file can not be read
+     */
+    static long resolveFileLength(ContentResolver resolver, Uri file){
+        if(ContentResolver.SCHEME_FILE.equals(file.getScheme()) && file.getPath()!=null){
+            File localFile = new File(file.getPath());
+            if(localFile.isFile())
+                return localFile.length();
+        }
+
+        long length = queryLongColumn(resolver,file,OpenableColumns.SIZE);
+        if(length>=0)
+            return length;
+
+        length = getStatSize(resolver,file);
+        if(length>=0)
+            return length;
+
+        long fingerprint = queryLongColumn(resolver,file,
+                DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+        if(fingerprint!=UNKNOWN_VALUE){
+            synchronized (sLengthCache){
+                CachedLength cached = sLengthCache.get(file);
+                if(cached!=null && cached.fingerprint==fingerprint)
+                    return cached.length;
+            }
+        }
+
         try {
-            while(input.read()>=0){
-                nBytes++;
+            length = getFileLength(resolver.openInputStream(file));
+        } catch (FileNotFoundException e) {
+            return 0;
+        }
+
+        if(fingerprint!=UNKNOWN_VALUE && length>0){
+            synchronized (sLengthCache){
+                sLengthCache.put(file,new CachedLength(fingerprint,length));
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return last modification time of the file or {@link FwFileDescriptor#UNKNOWN_VALUE} if it
+     * is not available
+     */
+    private static long getLastModified(ContentResolver resolver, Uri file){
+        if(ContentResolver.SCHEME_FILE.equals(file.getScheme()) && file.getPath()!=null){
+            long lastModified = new File(file.getPath()).lastModified();
+            return lastModified!=0 ? lastModified : UNKNOWN_VALUE;
+        }
+        return queryLongColumn(resolver,file,DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+    }
+
+    /**
+     * read a numeric column from the content provider
+     * @return the column value or {@link FwFileDescriptor#UNKNOWN_VALUE} if it is not available
+     */
+    private static long queryLongColumn(ContentResolver resolver, Uri file, String column){
+        if(!ContentResolver.SCHEME_CONTENT.equals(file.getScheme()))
+            return UNKNOWN_VALUE;
+        try (Cursor cursor = resolver.query(file, new String[]{column}, null, null, null)){
+            if(cursor!=null && cursor.moveToFirst()){
+                int index = cursor.getColumnIndex(column);
+                if(index>=0 && !cursor.isNull(index))
+                    return cursor.getLong(index);
+            }
+        } catch (RuntimeException e){
+            //the provider doesn't support the column
+        }
+        return UNKNOWN_VALUE;
+    }
+
+    /**
+     * @return the file size reported by the file descriptor, or
+     * {@link FwFileDescriptor#UNKNOWN_VALUE} if the file is a stream
+     */
+    private static long getStatSize(ContentResolver resolver, Uri file){
+        try (ParcelFileDescriptor fd = resolver.openFileDescriptor(file,"r")){
+            if(fd!=null)
+                return fd.getStatSize();
+        } catch (IOException | RuntimeException e) {
+            //the file is not seekable
+        }
+        return UNKNOWN_VALUE;
+    }
+
+    /**
+     * count the number of bytes in the stream reading it in blocks
+     * @param input stream to read, it will be closed
+     * @return number of bytes in the stream, 0 if there is an error
+     */
+    static long getFileLength(@Nullable InputStream input) {
+        if(input==null)
+            return 0;
+        long nBytes = 0;
+        byte[] buffer = new byte[COUNT_BUFFER_SIZE];
+        try (InputStream in = input){
+            int nRead;
+            while((nRead = in.read(buffer))>=0){
+                nBytes+=nRead;
             }//while
         } catch (IOException e) {
             nBytes=0;
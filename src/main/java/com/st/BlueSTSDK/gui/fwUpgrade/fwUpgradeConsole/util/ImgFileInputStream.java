@@ -36,58 +36,152 @@
  */
 package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
 
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayDeque;
-import java.util.Scanner;
+import java.util.Arrays;
 
 /**
  * Utility class that read a img file converting the char data into byte.
  * the file is read as block of uint32(8char) and it will invert the byte order
  * it the file as the string "01020304" a sequence of read will return the bytes: 0x04,0x03,0x02,
  * 0x01
+ * <p>
+ * The chars are read in blocks and decoded with a lookup table, the bulk read decodes the words
+ * directly in the caller buffer.
+ * </p>
  */
 public class ImgFileInputStream extends InputStream {
 
+    private static final int CHARS_PER_WORD = 8;
+    private static final int BYTES_PER_WORD = 4;
+    private static final int READ_BUFFER_SIZE = 8*1024;
+
     /**
-     * utility class used for read a line from the file
+     * value of each hex char, -1 for the other chars
      */
-    private Scanner mScanner;
+    private static final byte[] HEX_VALUE = new byte[256];
+    static {
+        Arrays.fill(HEX_VALUE,(byte)-1);
+        for(int i=0;i<10;i++)
+            HEX_VALUE['0'+i]=(byte)i;
+        for(int i=0;i<6;i++){
+            HEX_VALUE['a'+i]=(byte)(10+i);
+            HEX_VALUE['A'+i]=(byte)(10+i);
+        }
+    }
+
+    private final InputStream mInput;
 
     /**
-     * stack used for keep the line content
+     * chars read from the file and not yet decoded
      */
-    private ArrayDeque<Integer> mBuffer= new ArrayDeque<>(4);
+    private final byte[] mChars = new byte[READ_BUFFER_SIZE];
+    private int mCharsPos = 0;
+    private int mCharsLength = 0;
+
+    /**
+     * last decoded word, used when the caller reads less than a word
+     */
+    private final byte[] mWord = new byte[BYTES_PER_WORD];
+    private int mWordPos = BYTES_PER_WORD;
 
     private long mFileSize;
 
     ImgFileInputStream(InputStream input, long streamByteLength){
         long nLine = streamByteLength/10;
         mFileSize=(streamByteLength-2*nLine)/2;
-        mScanner=new Scanner(input);
+        mInput=input;
+    }
+
+    /**
+     * @return next char of the file, -1 if the file ended
+     */
+    private int nextChar() throws IOException {
+        if(mCharsPos==mCharsLength){
+            mCharsLength = mInput.read(mChars,0,mChars.length);
+            mCharsPos = 0;
+            if(mCharsLength<=0) {
+                mCharsLength = 0;
+                return -1;
+            }
+        }
+        return mChars[mCharsPos++] & 0xFF;
+    }
+
+    private static boolean isLineEnd(int c){
+        return c=='\n' || c=='\r';
+    }
+
+    private static int hexValue(int c) throws IOException {
+        int value = HEX_VALUE[c];
+        if(value<0)
+            throw new IOException("Invalid char in the img file: "+(char)c);
+        return value;
     }
 
     /**
-     * fill the buffer stack with the line
-     * @return true if the read is ok, false if it reach the EOF
+     * decode the next line and write its bytes in the inverted order
+     * @param dest buffer where write the 4 bytes
+     * @param offset first position to write
+     * @return false if the file ended
      */
-    private boolean readLine(){
-        if(!mScanner.hasNextLine())
+    private boolean decodeWord(@NonNull byte[] dest, int offset) throws IOException {
+        int c = nextChar();
+        while (isLineEnd(c))
+            c = nextChar();
+        if(c<0)
             return false;
         //else
-        String line = mScanner.nextLine();
-        for(int i=0;i<4;i++){
-            String value = line.substring(2*i,2*i+2);
-            mBuffer.add(Integer.parseInt(value,16));
+        int word = hexValue(c);
+        for(int i=1;i<CHARS_PER_WORD;i++){
+            c = nextChar();
+            if(c<0 || isLineEnd(c))
+                throw new EOFException("Truncated line in the img file");
+            word = (word<<4) | hexValue(c);
         }
+        //skip the rest of the line
+        do {
+            c = nextChar();
+        }while (c>=0 && !isLineEnd(c));
+        dest[offset] = (byte) word;
+        dest[offset+1] = (byte) (word>>8);
+        dest[offset+2] = (byte) (word>>16);
+        dest[offset+3] = (byte) (word>>24);
         return true;
     }
 
     @Override
-    public int read() {
-        if(mBuffer.isEmpty())
-            if(!readLine()) // if the read fail, the file ended
+    public int read() throws IOException {
+        if(mWordPos==BYTES_PER_WORD) {
+            if (!decodeWord(mWord, 0)) // if the read fail, the file ended
                 return -1;
-        return mBuffer.removeLast();
+            mWordPos = 0;
+        }
+        return mWord[mWordPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+        if(offset<0 || length<0 || length>buffer.length-offset)
+            throw new IndexOutOfBoundsException();
+        if(length==0)
+            return 0;
+        int nRead = 0;
+        //bytes left from a previous read
+        while(mWordPos<BYTES_PER_WORD && nRead<length)
+            buffer[offset+nRead++] = mWord[mWordPos++];
+        //full words are decoded directly in the buffer
+        while(length-nRead>=BYTES_PER_WORD && decodeWord(buffer,offset+nRead))
+            nRead+=BYTES_PER_WORD;
+        if(nRead<length && length-nRead<BYTES_PER_WORD && decodeWord(mWord,0)){
+            mWordPos=0;
+            while(nRead<length)
+                buffer[offset+nRead++] = mWord[mWordPos++];
+        }
+        return nRead==0 ? -1 : nRead;
     }
 
     @Override
@@ -95,6 +189,11 @@ public class ImgFileInputStream extends InputStream {
         return false;
     }
 
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+
     public long length(){
        return mFileSize;
     }
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import com.st.BlueSTSDK.Node;
+
+/**
+ * Prepare the BLE link for a firmware upload and release it when the upload ends.
+ * <p>
+ * At the session start a lower connection interval and a bigger ATT MTU are requested, the
+ * session can start when the node confirms the new MTU with
+ * {@link Node.BleConnectionParamUpdateListener#onMtuChange(Node, int)} or when the request can not
+ * be done or is not answered in time. In that case the default MTU is used.
+ * </p>
+ * <p>
+ * The sdk doesn't expose the PHY selection and a way to go back to the default connection
+ * interval: the stack restores them when the node is connected again. At the session end the
+ * policy stops listening the link changes.
+ * </p>
+ */
+public class LinkTuningPolicy implements Node.BleConnectionParamUpdateListener {
+
+    public interface LinkReadyCallback {
+        /**
+         * called on the main thread when the link is ready for the upload
+         * @param link policy with the link parameters
+         */
+        void onLinkReady(@NonNull LinkTuningPolicy link);
+    }
+
+    /**
+     * ATT MTU used if the node doesn't accept a bigger one
+     */
+    public static final int DEFAULT_ATT_MTU = 23;
+
+    /**
+     * biggest ATT MTU supported by the BLE 4.2 data length extension
+     */
+    public static final int MAX_ATT_MTU = 247;
+
+    private static final int ATT_MTU_SUPPORT_INFO_SIZE = 3;
+    private static final int FLASH_WRITE_SIZE = 8;
+
+    /**
+     * time to wait for the MTU change notification
+     */
+    private static final int MTU_REQUEST_TIMEOUT_MS = 1000;
+
+    /**
+     * compute the package size that can be sent with a single write
+     * @param mtu negotiated ATT MTU
+     * @param extraDataSize byte added to the data in each message
+     * @param defaultPackageSize minimum package size
+     * @return the biggest multiple of 8 that fits in the message, the stm32 writes the flash
+     * 8 bytes at time, at least defaultPackageSize
+     */
+    public static int packageSizeForMtu(int mtu, int extraDataSize, int defaultPackageSize){
+        int available = mtu - ATT_MTU_SUPPORT_INFO_SIZE - extraDataSize;
+        int packageSize = (available / FLASH_WRITE_SIZE) * FLASH_WRITE_SIZE;
+        return Math.max(defaultPackageSize,packageSize);
+    }
+
+    private final Node mNode;
+    private final int mRequestedMtu;
+    private final Handler mTimeout = new Handler(Looper.getMainLooper());
+    private final Runnable onTimeout = this::notifyLinkReady;
+
+    private LinkReadyCallback mCallback;
+    private int mMtu = DEFAULT_ATT_MTU;
+    private boolean mMtuChanged = false;
+    private boolean mIsRunning = false;
+
+    /**
+     * @param node node where the firmware will be sent
+     */
+    public LinkTuningPolicy(@NonNull Node node){
+        this(node,MAX_ATT_MTU);
+    }
+
+    /**
+     * @param node node where the firmware will be sent
+     * @param requestedMtu ATT MTU to request
+     */
+    public LinkTuningPolicy(@NonNull Node node, int requestedMtu){
+        mNode = node;
+        mRequestedMtu = requestedMtu;
+    }
+
+    /**
+     * tune the link and notify when the upload can start
+     * @param callback object to notify when the link is ready
+     */
+    public void start(@NonNull LinkReadyCallback callback){
+        if(mIsRunning)
+            end();
+        mIsRunning = true;
+        mCallback = callback;
+        mMtuChanged = false;
+        mNode.addBleConnectionParamListener(this);
+        mNode.requestLowerConnectionInterval();
+        if(!mNode.requestNewMtu(mRequestedMtu)){
+            mTimeout.post(onTimeout);
+            return;
+        }
+        mTimeout.postDelayed(onTimeout,MTU_REQUEST_TIMEOUT_MS);
+    }
+
+    /**
+     * stop tuning the link, the ready callback is not called anymore
+     */
+    public void end(){
+        mIsRunning = false;
+        mCallback = null;
+        mTimeout.removeCallbacks(onTimeout);
+        mNode.removeBleConnectionParamListener(this);
+    }
+
+    /**
+     * @return current ATT MTU
+     */
+    public int getMtu(){
+        return mMtu;
+    }
+
+    /**
+     * @return true if the node accepted a new MTU
+     */
+    public boolean isMtuChanged(){
+        return mMtuChanged;
+    }
+
+    /**
+     * @param extraDataSize byte added to the data in each message
+     * @param defaultPackageSize package size to use if the mtu is not changed
+     * @return number of data bytes to send in each message
+     */
+    public int getPackageSize(int extraDataSize, int defaultPackageSize){
+        return packageSizeForMtu(mMtu,extraDataSize,defaultPackageSize);
+    }
+
+    private void notifyLinkReady(){
+        mTimeout.removeCallbacks(onTimeout);
+        LinkReadyCallback callback = mCallback;
+        mCallback = null;
+        if(callback!=null)
+            callback.onLinkReady(this);
+    }
+
+    @Override
+    public void onRSSIChanged(@NonNull Node node, int newRSSIValue) { }
+
+    @Override
+    public void onMtuChange(@NonNull Node node, final int mtu) {
+        mTimeout.post(() -> {
+            if(!mIsRunning)
+                return;
+            mMtu = mtu;
+            mMtuChanged = true;
+            notifyLinkReady();
+        });
+    }
+}
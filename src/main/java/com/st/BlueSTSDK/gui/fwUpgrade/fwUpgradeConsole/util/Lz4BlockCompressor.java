@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
+
+import androidx.annotation.NonNull;
+
+import com.st.BlueSTSDK.Utils.NumberConversion;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Compress a firmware image in a stream of independent LZ4 blocks.
+ * <p>
+ * The image is split in blocks of {@link #BLOCK_SIZE} bytes, the last one can be shorter. Each
+ * block is sent as a 4 bytes little endian header followed by the block data: the lower 31 bits
+ * of the header are the data length, the highest bit is set when the data is stored
+ * uncompressed because the compression doesn't reduce its size, as in the LZ4 frame format.
+ * The compressed data uses the LZ4 block format and references only the data of the same
+ * block, so the node can decode a block at time with a buffer of BLOCK_SIZE bytes.
+ * </p>
+ */
+public class Lz4BlockCompressor {
+
+    /**
+     * number of image bytes in each block
+     */
+    public static final int BLOCK_SIZE = 4096;
+
+    /**
+     * number of bytes before the data of each block
+     */
+    public static final int BLOCK_HEADER_SIZE = 4;
+
+    /**
+     * flag set in the block header when the block data is not compressed
+     */
+    public static final long UNCOMPRESSED_BLOCK_FLAG = 0x80000000L;
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 0xFFFF;
+    private static final int RUN_MASK = 0x0F;
+
+    private static final int HASH_LOG = 12;
+
+    private static int hash(int sequence){
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] data, int offset){
+        return (data[offset] & 0xFF) |
+                (data[offset+1] & 0xFF) << 8 |
+                (data[offset+2] & 0xFF) << 16 |
+                (data[offset+3] & 0xFF) << 24;
+    }
+
+    /**
+     * @param inputLength number of bytes to compress
+     * @return max size of the compressed data
+     */
+    static int maxCompressedLength(int inputLength){
+        return inputLength + inputLength/255 + 16;
+    }
+
+    private static int writeLength(byte[] dst, int offset, int length){
+        length -= RUN_MASK;
+        while (length>=255){
+            dst[offset++] = (byte)0xFF;
+            length -= 255;
+        }
+        dst[offset++] = (byte) length;
+        return offset;
+    }
+
+    private static int writeLiterals(byte[] src, int literalOffset, int literalLength,
+                                     int matchToken, byte[] dst, int offset){
+        int tokenOffset = offset++;
+        int token = Math.min(literalLength,RUN_MASK) << 4 | matchToken;
+        if(literalLength>=RUN_MASK)
+            offset = writeLength(dst,offset,literalLength);
+        System.arraycopy(src,literalOffset,dst,offset,literalLength);
+        dst[tokenOffset] = (byte) token;
+        return offset + literalLength;
+    }
+
+    /**
+     * compress a block of data in the LZ4 block format
+     * @param src data to compress
+     * @param srcOffset first byte to compress
+     * @param srcLength number of bytes to compress
+     * @param dst buffer where write the compressed data, it must have at least
+     * {@link #maxCompressedLength(int)} bytes after dstOffset
+     * @param dstOffset where start writing the compressed data
+     * @param hashTable table with 2^HASH_LOG elements, it is reset at each block
+     * @return number of bytes written in dst
+     */
+    static int compressBlock(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset,
+                             int[] hashTable){
+        Arrays.fill(hashTable,-1);
+        final int end = srcOffset+srcLength;
+        final int matchLimit = end - LAST_LITERALS;
+        final int mfLimit = end - MF_LIMIT;
+        int anchor = srcOffset;
+        int in = srcOffset;
+        int out = dstOffset;
+
+        while (in<mfLimit){
+            int sequence = readInt(src,in);
+            int h = hash(sequence);
+            int ref = hashTable[h];
+            hashTable[h] = in;
+            if(ref<0 || in-ref>MAX_DISTANCE || readInt(src,ref)!=sequence){
+                in++;
+                continue;
+            }
+            //extend the match backward in the literals
+            while (in>anchor && ref>srcOffset && src[in-1]==src[ref-1]){
+                in--;
+                ref--;
+            }
+            int matchLength = MIN_MATCH;
+            while (in+matchLength<matchLimit && src[in+matchLength]==src[ref+matchLength])
+                matchLength++;
+
+            int matchToken = Math.min(matchLength-MIN_MATCH,RUN_MASK);
+            out = writeLiterals(src,anchor,in-anchor,matchToken,dst,out);
+            int distance = in-ref;
+            dst[out++] = (byte) distance;
+            dst[out++] = (byte) (distance >>> 8);
+            if(matchLength-MIN_MATCH>=RUN_MASK)
+                out = writeLength(dst,out,matchLength-MIN_MATCH);
+
+            in += matchLength;
+            anchor = in;
+        }
+        //the last bytes are always literals
+        out = writeLiterals(src,anchor,end-anchor,0,dst,out);
+        return out-dstOffset;
+    }
+
+    /**
+     * compress the image
+     * @param image data to compress, it is not closed
+     * @return stream of blocks to send to the node
+     */
+    public static @NonNull FirmwareImage compress(@NonNull FirmwareImage image){
+        long length = image.getLength();
+        byte[] block = new byte[BLOCK_SIZE];
+        byte[] compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+        int[] hashTable = new int[1<<HASH_LOG];
+        ByteArrayOutputStream stream = new ByteArrayOutputStream((int)(length/2));
+
+        for(long offset = 0 ; offset<length ; offset+=BLOCK_SIZE){
+            int blockLength = (int) Math.min(BLOCK_SIZE,length-offset);
+            image.read(offset,block,0,blockLength);
+            int compressedLength = compressBlock(block,0,blockLength,compressed,0,hashTable);
+            byte[] header;
+            if(compressedLength<blockLength) {
+                header = NumberConversion.LittleEndian.uint32ToBytes(compressedLength);
+                stream.write(header,0,header.length);
+                stream.write(compressed,0,compressedLength);
+            }else{
+                header = NumberConversion.LittleEndian.uint32ToBytes(
+                        blockLength | UNCOMPRESSED_BLOCK_FLAG);
+                stream.write(header,0,header.length);
+                stream.write(block,0,blockLength);
+            }
+        }
+        return FirmwareImage.wrap(stream.toByteArray());
+    }
+
+    private Lz4BlockCompressor(){ }
+}
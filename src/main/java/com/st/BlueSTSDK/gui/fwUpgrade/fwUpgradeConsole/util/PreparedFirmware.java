@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.FwUpgradeConsole.FwUpgradeCallback;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Firmware image decoded and checked in a background thread.
+ * <p>
+ * Reading and decoding the file and computing its crc can take a while for big images, so they
+ * run in a dedicated thread while the console tunes the link and discovers the node features.
+ * The console receives the firmware in the main thread when both the preparation and the link
+ * are ready.
+ * </p>
+ * <p>
+ * The prepared images are kept in {@link FirmwareImageCache}, so the same file is prepared only
+ * once. If requested, the image is also compressed with {@link Lz4BlockCompressor} in the same
+ * thread and the compressed stream is cached next to the image.
+ * </p>
+ */
+public class PreparedFirmware implements Closeable {
+
+    public interface ReadyCallback {
+        /**
+         * called on the main thread when the firmware is prepared, check
+         * {@link PreparedFirmware#getError()} before using it
+         * @param firmware prepared firmware
+         */
+        void onFirmwareReady(@NonNull PreparedFirmware firmware);
+    }
+
+    /**
+     * value returned by {@link #getError()} when the firmware is ready
+     */
+    public static final int NO_ERROR = -1;
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task,"FirmwarePreparation");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * start reading the file in the background
+     * @param file firmware to prepare
+     * @return firmware that will be ready when the file is read
+     */
+    public static @NonNull PreparedFirmware prepare(@NonNull FwFileDescriptor file){
+        return prepare(file,false);
+    }
+
+    /**
+     * start reading the file in the background
+     * @param file firmware to prepare
+     * @param compress true to compress the image after reading it
+     * @return firmware that will be ready when the file is read
+     */
+    public static @NonNull PreparedFirmware prepare(@NonNull FwFileDescriptor file,
+                                                    boolean compress){
+        return prepare(file,null,compress);
+    }
+
+    /**
+     * start preparing an image already read by the caller
+     * @param file firmware to prepare
+     * @param image content of the file, null to read the file
+     * @param compress true to compress the image after reading it
+     * @return firmware that will be ready when the crc is computed
+     */
+    public static @NonNull PreparedFirmware prepare(@NonNull FwFileDescriptor file,
+                                                    @Nullable FirmwareImage image,
+                                                    boolean compress){
+        PreparedFirmware firmware = new PreparedFirmware();
+        //the caller can close its image before the preparation starts
+        FirmwareImage share = image!=null ? image.share() : null;
+        sExecutor.execute(() -> firmware.load(file,share,compress));
+        return firmware;
+    }
+
+    private final Handler mMainThread = new Handler(Looper.getMainLooper());
+
+    //written by the preparation thread before setting mPrepared
+    private @Nullable FirmwareImage mImage;
+    private @Nullable FirmwareImage mCompressedImage;
+    private long mCrc;
+    private int mError = NO_ERROR;
+
+    //used only in the main thread
+    private boolean mPrepared = false;
+    private boolean mLinkReady = true;
+    private @Nullable ReadyCallback mCallback;
+
+    private boolean mClosed = false;
+
+    private PreparedFirmware(){ }
+
+    private void load(@NonNull FwFileDescriptor file, @Nullable FirmwareImage fileImage,
+                      boolean compress){
+        FirmwareImage image = null;
+        FirmwareImage compressedImage = null;
+        long crc = 0;
+        int error = NO_ERROR;
+        try {
+            FirmwareImageCache cache = FirmwareImageCache.getInstance();
+            FirmwareImageCache.CachedImage cached = cache.load(file,fileImage);
+            image = cached.image;
+            crc = cached.crc;
+            //keep the compressed stream only if it is requested
+            if(compress)
+                compressedImage = cached.compressedImage;
+            else if(cached.compressedImage!=null)
+                cached.compressedImage.close();
+            if(compress && compressedImage==null) {
+                compressedImage = Lz4BlockCompressor.compress(image);
+                String key = file.getCacheKey();
+                if (key != null)
+                    cache.putCompressed(key, compressedImage);
+            }
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+            error = FwUpgradeCallback.ERROR_INVALID_FW_FILE;
+        } catch (IOException e) {
+            e.printStackTrace();
+            error = FwUpgradeCallback.ERROR_TRANSMISSION;
+        } finally {
+            if(fileImage!=null)
+                fileImage.close();
+        }
+        synchronized (this){
+            if(mClosed){
+                if(image!=null)
+                    image.close();
+                if(compressedImage!=null)
+                    compressedImage.close();
+                return;
+            }
+            mImage = image;
+            mCompressedImage = compressedImage;
+            mCrc = crc;
+            mError = error;
+        }
+        mMainThread.post(() -> {
+            mPrepared = true;
+            notifyIfReady();
+        });
+    }
+
+    /**
+     * call the callback when the firmware is prepared
+     * @param callback object to notify, the previous one is removed
+     */
+    public void whenReady(@NonNull ReadyCallback callback){
+        mCallback = callback;
+        mLinkReady = true;
+        notifyIfReady();
+    }
+
+    /**
+     * start tuning the link and call the callback when both the firmware and the link are ready
+     * @param link link to tune
+     * @param callback object to notify, the previous one is removed
+     */
+    public void whenReady(@NonNull LinkTuningPolicy link, @NonNull ReadyCallback callback){
+        mCallback = callback;
+        mLinkReady = false;
+        link.start(l -> {
+            mLinkReady = true;
+            notifyIfReady();
+        });
+    }
+
+    private void notifyIfReady(){
+        if(!mPrepared || !mLinkReady || mCallback==null)
+            return;
+        ReadyCallback callback = mCallback;
+        mCallback = null;
+        callback.onFirmwareReady(this);
+    }
+
+    /**
+     * @return error code of {@link FwUpgradeCallback} if the file can not be read, NO_ERROR
+     * otherwise
+     */
+    public synchronized int getError(){
+        return mError;
+    }
+
+    /**
+     * @return file content, null if the file can not be read
+     */
+    public synchronized @Nullable FirmwareImage getImage(){
+        return mImage;
+    }
+
+    /**
+     * @return image compressed with {@link Lz4BlockCompressor}, null if the compression was not
+     * requested or the file can not be read
+     */
+    public synchronized @Nullable FirmwareImage getCompressedImage(){
+        return mCompressedImage;
+    }
+
+    /**
+     * @return STM32 crc of the image
+     */
+    public synchronized long getCrc32(){
+        return mCrc;
+    }
+
+    /**
+     * release the image, if the preparation is running the image is released when it ends
+     */
+    @Override
+    public void close(){
+        FirmwareImage image;
+        FirmwareImage compressedImage;
+        synchronized (this){
+            mClosed = true;
+            image = mImage;
+            compressedImage = mCompressedImage;
+            mImage = null;
+            mCompressedImage = null;
+        }
+        mCallback = null;
+        if(image!=null)
+            image.close();
+        if(compressedImage!=null)
+            compressedImage.close();
+    }
+}
@@ -37,24 +37,59 @@
 
 package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
 
-import com.st.BlueSTSDK.Utils.NumberConversion;
-
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.zip.Checksum;
 
 /**
  * Class that compute the crc32 using the same algorithm used by the stm32 chip,
  * The algorithm work on uint32 so the buffer must have a length multiple of 4.
+ * <p>
+ * The words are read in little endian order and processed with a slicing by 8 table:
+ * 2 words are consumed with 8 table lookup instead of the 16 rounds of the nibble algorithm.
+ * </p>
  */
 public class STM32Crc32 implements Checksum {
 
     private static final int INITIAL_VALUE = 0xffffffff;
+    private static final int POLYNOMIAL = 0x04C11DB7;
     private static final int CRC_TABLE[] = { // Nibble lookup table for 0x04C11DB7 polynomial
             0x00000000, 0x04C11DB7, 0x09823B6E, 0x0D4326D9, 0x130476DC, 0x17C56B6B, 0x1A864DB2, 0x1E475005,
             0x2608EDB8, 0x22C9F00F, 0x2F8AD6D6, 0x2B4BCB61, 0x350C9B64, 0x31CD86D3, 0x3C8EA00A, 0x384FBDBD};
 
+    /**
+     * SLICE_TABLE[k][b] is the crc register obtained shifting the value b&lt;&lt;(8*k) for 32 bits,
+     * for k in [4,7] the value is shifted for 64 bits.
+     * Since the crc is linear the crc of a word is the xor of the crc of its 4 bytes
+     */
+    private static final int SLICE_TABLE[][] = buildSliceTable();
+
+    private static int shift32(int crc){
+        for(int i=0;i<32;i++){
+            crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ POLYNOMIAL : crc << 1;
+        }
+        return crc;
+    }
+
+    private static int[][] buildSliceTable(){
+        int table[][] = new int[8][256];
+        for(int k=0;k<4;k++){
+            for(int b=0;b<256;b++){
+                int crc = shift32(b << (8*k));
+                table[k][b] = crc;
+                table[k+4][b] = shift32(crc);
+            }
+        }
+        return table;
+    }
+
     private int mCurrentCrc = INITIAL_VALUE;
 
-    private static int Crc32Fast(int Crc, int Data) {
+    /**
+     * reference implementation, it process the word with 8 lookup in the nibble table
+     */
+    static int Crc32Fast(int Crc, int Data) {
         Crc = Crc ^ Data; // Apply all 32-bits
 
         // Process 32-bits, 4 at a time, or 8 rounds
@@ -71,6 +106,35 @@ public class STM32Crc32 implements Checksum {
         return (Crc);
     }
 
+    /**
+     * update the crc with one word
+     */
+    private static int crc32Word(int crc, int data){
+        final int t[][] = SLICE_TABLE;
+        crc ^= data;
+        return t[3][crc >>> 24] ^ t[2][(crc >>> 16) & 0xFF] ^
+                t[1][(crc >>> 8) & 0xFF] ^ t[0][crc & 0xFF];
+    }
+
+    /**
+     * update the crc with two consecutive words
+     */
+    private static int crc32DoubleWord(int crc, int first, int second){
+        final int t[][] = SLICE_TABLE;
+        crc ^= first;
+        return t[7][crc >>> 24] ^ t[6][(crc >>> 16) & 0xFF] ^
+                t[5][(crc >>> 8) & 0xFF] ^ t[4][crc & 0xFF] ^
+                t[3][second >>> 24] ^ t[2][(second >>> 16) & 0xFF] ^
+                t[1][(second >>> 8) & 0xFF] ^ t[0][second & 0xFF];
+    }
+
+    private static int readLittleEndianInt(byte[] bytes, int offset){
+        return (bytes[offset] & 0xFF) |
+                (bytes[offset+1] & 0xFF) << 8 |
+                (bytes[offset+2] & 0xFF) << 16 |
+                (bytes[offset+3] & 0xFF) << 24;
+    }
+
     @Override
     public long getValue() {
         return mCurrentCrc;
@@ -86,14 +150,64 @@ public class STM32Crc32 implements Checksum {
         if (length % 4 != 0)
             throw new IllegalArgumentException("length must be multiple of 4");
         //else
-        for (int i = 0; i < length; i += 4) {
-            int val = NumberConversion.LittleEndian.bytesToInt32(bytes, offset + i * 4);
-            mCurrentCrc = Crc32Fast(mCurrentCrc, val);
+        int crc = mCurrentCrc;
+        final int end = offset + length;
+        int i = offset;
+        for (; i + 8 <= end; i += 8) {
+            crc = crc32DoubleWord(crc, readLittleEndianInt(bytes, i),
+                    readLittleEndianInt(bytes, i + 4));
         }//for
+        if (i < end)
+            crc = crc32Word(crc, readLittleEndianInt(bytes, i));
+        mCurrentCrc = crc;
+    }
+
+    /**
+     * update the crc with all the remaining bytes of the buffer, the bytes are read as little
+     * endian words.
+     * The buffer position is moved to its limit.
+     * @param buffer data to add to the crc, the remaining bytes must be a multiple of 4
+     */
+    public void update(ByteBuffer buffer){
+        if (buffer.remaining() % 4 != 0)
+            throw new IllegalArgumentException("length must be multiple of 4");
+        //else
+        if (buffer.hasArray()){
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        //else
+        ByteOrder prevOrder = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int crc = mCurrentCrc;
+        while (buffer.remaining() >= 8) {
+            crc = crc32DoubleWord(crc, buffer.getInt(), buffer.getInt());
+        }
+        if (buffer.hasRemaining())
+            crc = crc32Word(crc, buffer.getInt());
+        mCurrentCrc = crc;
+        buffer.order(prevOrder);
+    }
+
+    /**
+     * update the crc with all the remaining words of the buffer.
+     * The buffer position is moved to its limit.
+     * @param buffer words to add to the crc
+     */
+    public void update(IntBuffer buffer){
+        int crc = mCurrentCrc;
+        while (buffer.remaining() >= 2) {
+            crc = crc32DoubleWord(crc, buffer.get(), buffer.get());
+        }
+        if (buffer.hasRemaining())
+            crc = crc32Word(crc, buffer.get());
+        mCurrentCrc = crc;
     }
 
     @Override
     public void update(int i) {
-        update(NumberConversion.BigEndian.uint32ToBytes(i), 0, 4);
+        //the value is serialized as big endian and read back as little endian
+        mCurrentCrc = crc32Word(mCurrentCrc, Integer.reverseBytes(i));
     }
 }
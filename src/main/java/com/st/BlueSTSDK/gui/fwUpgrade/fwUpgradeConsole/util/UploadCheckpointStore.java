@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+
+import com.st.BlueSTSDK.gui.fwUpgrade.FirmwareType;
+
+import java.util.Locale;
+
+/**
+ * Persist how much of a firmware image the phone has sent to a node.
+ * The checkpoints are keyed by node tag, firmware type, flash address and image hash (crc and
+ * length), a node keeps only the checkpoint of the last upload.
+ * <p>
+ * The sent bytes are counted by the phone and the board can be rewritten by someone else: when
+ * the same upload is started again, the console can skip the data only if the board confirms
+ * that it still holds it.
+ * </p>
+ */
+public class UploadCheckpointStore {
+
+    private static final String SHARED_PREFS = UploadCheckpointStore.class.getCanonicalName();
+    private static final String KEY_SEPARATOR = "/";
+
+    /**
+     * data sent for an image upload
+     */
+    public interface Checkpoint {
+
+        /**
+         * @return number of bytes, from the image start, that the phone has sent
+         */
+        long getSentBytes();
+
+        /**
+         * @param sentBytes number of bytes, from the image start, that the phone has sent
+         */
+        void setSentBytes(long sentBytes);
+
+        /**
+         * the upload is complete, remove the checkpoint
+         */
+        void clear();
+    }
+
+    private final SharedPreferences mPrefs;
+
+    public UploadCheckpointStore(@NonNull Context context){
+        mPrefs = context.getSharedPreferences(SHARED_PREFS,Context.MODE_PRIVATE);
+    }
+
+    /**
+     * get the checkpoint for the upload of an image into a node, the checkpoints of other uploads
+     * for the same node are removed
+     * @param nodeTag node where the image is uploaded
+     * @param fwType firmware that is uploaded
+     * @param startAddress flash address where the image is written
+     * @param imageCrc image crc
+     * @param imageLength image length
+     * @return checkpoint for the upload
+     */
+    public @NonNull Checkpoint open(@NonNull String nodeTag, @FirmwareType int fwType,
+                                    long startAddress, long imageCrc, long imageLength){
+        String nodePrefix = nodeTag + KEY_SEPARATOR;
+        String key = nodePrefix + String.format(Locale.US,"%d%s%08X%s%08X%s%d",
+                fwType,KEY_SEPARATOR,startAddress,KEY_SEPARATOR,imageCrc & 0xFFFFFFFFL,
+                KEY_SEPARATOR,imageLength);
+        SharedPreferences.Editor editor = null;
+        for(String storedKey : mPrefs.getAll().keySet()){
+            if(storedKey.startsWith(nodePrefix) && !storedKey.equals(key)){
+                if(editor==null)
+                    editor = mPrefs.edit();
+                editor.remove(storedKey);
+            }
+        }
+        if(editor!=null)
+            editor.apply();
+        return new PrefsCheckpoint(key,imageLength);
+    }
+
+    private class PrefsCheckpoint implements Checkpoint {
+        private final String mKey;
+        private final long mImageLength;
+
+        private PrefsCheckpoint(String key, long imageLength){
+            mKey = key;
+            mImageLength = imageLength;
+        }
+
+        @Override
+        public long getSentBytes(){
+            long sentBytes = mPrefs.getLong(mKey,0);
+            return Math.max(0, Math.min(sentBytes,mImageLength));
+        }
+
+        @Override
+        public void setSentBytes(long sentBytes){
+            mPrefs.edit().putLong(mKey,sentBytes).apply();
+        }
+
+        @Override
+        public void clear(){
+            mPrefs.edit().remove(mKey).apply();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
+
+/**
+ * Keep track of the writes sent to the node and not yet confirmed, and decide how many writes can
+ * be in flight at the same time.
+ * <p>
+ * The window grows by one write each time a full window is confirmed (additive increase) and it
+ * is halved (multiplicative decrease) when the confirm latency becomes much bigger than the best
+ * one: the writes are waiting in the BLE stack queue instead of going on air.
+ * The writes are confirmed in the same order they are sent.
+ * </p>
+ * the time unit is decided by the caller, usually milliseconds.
+ */
+public class WriteWindow {
+
+    /**
+     * a write is considered late if its latency is bigger than LATENCY_TOLERANCE times the best one
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * latency variation that is always accepted, to avoid to shrink the window due to the timer
+     * resolution
+     */
+    private static final long LATENCY_SLACK = 5;
+
+    /**
+     * weight of the last sample in the average latency
+     */
+    private static final double AVERAGE_WEIGHT = 0.125;
+
+    private final int mMaxSize;
+    private double mSize;
+
+    /**
+     * circular buffer with the sending time of the writes in flight
+     */
+    private final long[] mSentTime;
+    private int mFirstInFlight;
+    private int mNInFlight;
+
+    private long mMinLatency = Long.MAX_VALUE;
+    private double mAverageLatency = -1;
+    private long mLastDecreaseTime;
+    private boolean mDecreased = false;
+
+    /**
+     * @param initialSize number of writes that can be in flight at the beginning
+     * @param maxSize max number of writes in flight
+     */
+    public WriteWindow(int initialSize, int maxSize){
+        if(maxSize<1)
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        mMaxSize = maxSize;
+        mSize = Math.max(1, Math.min(initialSize, maxSize));
+        mSentTime = new long[maxSize];
+    }
+
+    /**
+     * @return true if a new write can be sent
+     */
+    public boolean canSend(){
+        return mNInFlight < getSize();
+    }
+
+    /**
+     * @return current number of writes that can be in flight
+     */
+    public int getSize(){
+        return (int) mSize;
+    }
+
+    /**
+     * @return number of writes sent and not yet confirmed
+     */
+    public int getInFlight(){
+        return mNInFlight;
+    }
+
+    /**
+     * @return average time needed to confirm a write, -1 if no write is confirmed
+     */
+    public double getAverageLatency(){
+        return mAverageLatency;
+    }
+
+    /**
+     * register a new write
+     * @param now current time
+     */
+    public void onSent(long now){
+        if(mNInFlight == mSentTime.length)
+            throw new IllegalStateException("Too many writes in flight");
+        mSentTime[(mFirstInFlight + mNInFlight) % mSentTime.length] = now;
+        mNInFlight++;
+    }
+
+    /**
+     * the oldest write in flight is confirmed
+     * @param now current time
+     */
+    public void onConfirmed(long now){
+        if(mNInFlight==0)
+            return;
+        long latency = now - mSentTime[mFirstInFlight];
+        mFirstInFlight = (mFirstInFlight+1) % mSentTime.length;
+        mNInFlight--;
+
+        mMinLatency = Math.min(mMinLatency,latency);
+        if(mAverageLatency<0)
+            mAverageLatency = latency;
+        else
+            mAverageLatency = (1-AVERAGE_WEIGHT)*mAverageLatency + AVERAGE_WEIGHT*latency;
+
+        if(latency > mMinLatency*LATENCY_TOLERANCE + LATENCY_SLACK)
+            decrease(now);
+        else
+            mSize = Math.min(mMaxSize, mSize + 1.0/mSize);
+    }
+
+    /**
+     * a write failed, the window is halved
+     * @param now current time
+     */
+    public void onFailure(long now){
+        decrease(now);
+    }
+
+    /**
+     * remove all the writes in flight
+     */
+    public void reset(){
+        mNInFlight = 0;
+        mFirstInFlight = 0;
+    }
+
+    private void decrease(long now){
+        //decrease only once for each round trip, the next writes are late for the same reason
+        if(mDecreased && (now - mLastDecreaseTime) < mAverageLatency)
+            return;
+        mDecreased = true;
+        mLastDecreaseTime = now;
+        mSize = Math.max(1, mSize/2);
+    }
+
+}
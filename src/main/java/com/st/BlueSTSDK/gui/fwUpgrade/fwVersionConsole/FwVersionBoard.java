@@ -51,10 +51,29 @@ import java.util.regex.Pattern;
 public class FwVersionBoard extends FwVersion implements Parcelable{
 
 
-    private static final Pattern PARSE_FW_VERSION=Pattern.compile("(.*)_(.*)_(\\d+)\\.(\\d+)\\.(\\d+)");
+    /**
+     * the version can be followed by the list of the optional features supported by the
+     * firmware: mcu_name_x.y.z+feature1,feature2
+     */
+    private static final Pattern PARSE_FW_VERSION=Pattern.compile("(.*)_(.*)_(\\d+)\\.(\\d+)\\.(\\d+)(?:\\+([\\w,]+))?");
+
+    /**
+     * feature advertised by the firmware that can receive the file compressed with
+     * {@link com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.Lz4BlockCompressor}
+     */
+    public static final String COMPRESSED_UPLOAD_FEATURE = "lz4";
+
+    /**
+     * feature advertised by the firmware that accept packages sized on the negotiated mtu
+     * instead of 16 bytes
+     */
+    public static final String LARGE_PACKAGE_FEATURE = "mtu";
+
+    private static final String[] NO_FEATURES = new String[0];
 
     private String name;
     private String mcuType;
+    private String[] features = NO_FEATURES;
 
     public FwVersionBoard(CharSequence version) throws IllegalVersionFormatException {
         Matcher matcher = PARSE_FW_VERSION.matcher(version);
@@ -65,6 +84,8 @@ public class FwVersionBoard extends FwVersion implements Parcelable{
         majorVersion = Integer.parseInt(matcher.group(3));
         minorVersion = Integer.parseInt(matcher.group(4));
         patchVersion = Integer.parseInt(matcher.group(5));
+        if(matcher.group(6)!=null)
+            features = matcher.group(6).split(",");
     }
 
     public FwVersionBoard(@NonNull String boardName, @Nullable String mcuType, int major, int minor, int path) {
@@ -83,6 +104,18 @@ public class FwVersionBoard extends FwVersion implements Parcelable{
         return name;
     }
 
+    /**
+     * @param feature feature name
+     * @return true if the firmware advertises the feature after its version
+     */
+    public boolean hasFeature(@NonNull String feature){
+        for(String f : features){
+            if(f.equalsIgnoreCase(feature))
+                return true;
+        }
+        return false;
+    }
+
     ///////////////////////Parcelable implementation//////////////////
 
     public static final Creator<FwVersionBoard> CREATOR = new Creator<FwVersionBoard>() {
@@ -101,6 +134,7 @@ public class FwVersionBoard extends FwVersion implements Parcelable{
         super(in);
         mcuType = in.readString();
         name = in.readString();
+        features = in.createStringArray();
     }
 
     @Override
@@ -108,6 +142,7 @@ public class FwVersionBoard extends FwVersion implements Parcelable{
         super.writeToParcel(parcel,i);
         parcel.writeString(mcuType);
         parcel.writeString(name);
+        parcel.writeStringArray(features);
     }
 
 }
@@ -36,140 +36,21 @@
  */
 package com.st.BlueSTSDK.gui.fwUpgrade.fwVersionConsole;
 
-import android.os.Handler;
-import android.os.Looper;
-import androidx.annotation.NonNull;
-
 import com.st.BlueSTSDK.Debug;
-import com.st.BlueSTSDK.Utils.FwVersion;
 import com.st.BlueSTSDK.gui.fwUpgrade.FirmwareType;
-import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.IllegalVersionFormatException;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol.DebugConsoleTransport;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol.HandlerScheduler;
 
 /**
- * Implement the FwUpgradeConsole for a board running the BlueMs firmware.
- * In this case the protocol is:
- * mobile:upgrade[Ble|Fw]+length+fileCrc
- * node:fileCrc
- * mobile: file data, the file is spited in message of 16bytes
- * node: when all the byte are write return 1 if the crc is ok, -1 otherwise
+ * Implement the FwVersionConsole for a board running the BlueMs firmware, the protocol is
+ * implemented by {@link NucleoVersionProtocol}
  */
 public class FwVersionConsoleNucleo extends FwVersionConsole {
 
-
-    static private final String GET_VERSION_BOARD_FW="versionFw\n";
-    static private final String GET_VERSION_BLE_FW="versionBle\n";
-
-    /**
-     * if all the messages are not send in 1s an error is fired
-     */
-    static private final int LOST_MSG_TIMEOUT_MS=1000;
-
-    private Debug mConsole;
-
-    /**
-     * object that will receive the console data
-     */
-    private Debug.DebugOutputListener mCurrentListener;
-
-    /**
-     * Buffer where store the command response
-     */
-    private StringBuilder mBuffer;
-
     /**
      * object used for manage the get board id command
      */
-    private GetVersionProtocol mConsoleGetFwVersion= new GetVersionProtocol();
-
-    private static boolean isCompleteLine(StringBuilder buffer) {
-        if(buffer.length()>2){
-            String endLine = buffer.substring(buffer.length()-2);
-            return endLine.equals("\r\n") || endLine.equals("\n\r");
-        }
-
-        return false;
-    }
-
-    /**
-     * class used for wait/parse the fw version response
-     */
-    private class GetVersionProtocol implements Debug.DebugOutputListener {
-
-        private @FirmwareType int mRequestFwType;
-        private  int mNInvalidLine=0;
-
-        /**
-         * if the timeout is rise, fire an error of type
-         * */
-        private Runnable onTimeout = () -> notifyVersionRead(null);
-
-        private void notifyVersionRead(FwVersion version){
-            setConsoleListener(null);
-            if (mCallback != null)
-                mCallback.onVersionRead(FwVersionConsoleNucleo.this,mRequestFwType,version);
-        }
-
-        private void requestVersion(@FirmwareType int fwType){
-            mRequestFwType=fwType;
-            switch (fwType) {
-                case FirmwareType.BLE_FW:
-                    mConsole.write(GET_VERSION_BLE_FW);
-                    break;
-                case FirmwareType.BOARD_FW:
-                    mConsole.write(GET_VERSION_BOARD_FW);
-                    break;
-                default:
-                    notifyVersionRead(null);
-                    break;
-            }
-        }
-
-        @Override
-        public void onStdOutReceived(@NonNull Debug debug, @NonNull String message) {
-            mBuffer.append(message);
-            if (isCompleteLine(mBuffer)) {
-                //remove time out
-                mTimeout.removeCallbacks(onTimeout);
-                mBuffer.delete(mBuffer.length()-2,mBuffer.length());
-                //check if it a valid fwVersion
-                FwVersion version=null;
-                try {
-                    switch (mRequestFwType) {
-                        case FirmwareType.BLE_FW:
-                            version = new FwVersionBle(mBuffer.toString());
-                            break;
-                        case FirmwareType.BOARD_FW:
-                            version = new FwVersionBoard(mBuffer.toString());
-                            break;
-                    }
-                }catch (IllegalVersionFormatException e){
-                    //remove invalid data and wait another timeout
-                    mBuffer.delete(0,mBuffer.length());
-                    if(++mNInvalidLine % 10 ==0) {
-                        //send again the request message, the message get lost
-                        requestVersion(mRequestFwType);
-                    }
-                    mTimeout.postDelayed(onTimeout,LOST_MSG_TIMEOUT_MS);
-                    return;
-                }//try-catch
-                notifyVersionRead(version);
-            }//else wait another package
-        }
-
-        @Override
-        public void onStdErrReceived(@NonNull Debug debug, @NonNull String message) { }
-
-        @Override
-        public void onStdInSent(@NonNull Debug debug, @NonNull String message, boolean writeResult) {
-            mTimeout.postDelayed(onTimeout,LOST_MSG_TIMEOUT_MS);
-        }
-    }
-
-
-    /**
-     * handler used for the command timeout
-     */
-    private Handler mTimeout;
+    private final NucleoVersionProtocol mConsoleGetFwVersion;
 
     /**
      * build a debug console without a callback
@@ -186,39 +67,17 @@ public class FwVersionConsoleNucleo extends FwVersionConsole {
      */
     private FwVersionConsoleNucleo(Debug console, FwVersionConsole.FwVersionCallback callback) {
         super(callback);
-        mConsole = console;
-        mTimeout = new Handler(Looper.getMainLooper());
-        mBuffer = new StringBuilder();
-
-    }
-
-    /**
-     * change the listener to use for receive the debug console message, null will close the
-     * debug console
-     *
-     * @param listener object to use for notify the console messages
-     */
-    private void setConsoleListener(Debug.DebugOutputListener listener) {
-        synchronized (this) {
-            mConsole.removeDebugOutputListener(mCurrentListener);
-            mConsole.addDebugOutputListener(listener);
-            mCurrentListener = listener;
-        }//synchronized
-    }
-
-
-    private boolean isWaitingAnswer() {
-        return mCurrentListener != null;
+        HandlerScheduler scheduler = new HandlerScheduler();
+        mConsoleGetFwVersion = new NucleoVersionProtocol(scheduler,
+                new DebugConsoleTransport(console,scheduler),
+                (fwType, version) -> {
+                    if (mCallback != null)
+                        mCallback.onVersionRead(FwVersionConsoleNucleo.this,fwType,version);
+                });
     }
 
     @Override
     public boolean readVersion(@FirmwareType int fwType) {
-        if (isWaitingAnswer())
-            return false;
-
-        mBuffer.setLength(0); //reset the buffer
-        setConsoleListener(mConsoleGetFwVersion);
-        mConsoleGetFwVersion.requestVersion(fwType);
-        return true;
+        return mConsoleGetFwVersion.readVersion(fwType);
     }
 }
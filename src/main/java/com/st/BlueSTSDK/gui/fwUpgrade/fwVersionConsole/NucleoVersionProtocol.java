@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwVersionConsole;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueSTSDK.Utils.FwVersion;
+import com.st.BlueSTSDK.gui.fwUpgrade.FirmwareType;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol.ConsoleTransport;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol.Scheduler;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.IllegalVersionFormatException;
+
+import java.nio.charset.Charset;
+
+/**
+ * Read the firmware version from a board running the BlueMs firmware:
+ * mobile: version[Fw|Ble]
+ * node: version string, terminated by \r\n
+ */
+public class NucleoVersionProtocol implements ConsoleTransport.Listener {
+
+    public interface VersionListener {
+        /**
+         * @param fwType firmware requested
+         * @param version firmware version, null if it is not possible read it
+         */
+        void onVersionRead(@FirmwareType int fwType, @Nullable FwVersion version);
+    }
+
+    static private final byte[] GET_VERSION_BOARD_FW="versionFw\n".getBytes(Charset.forName("ISO-8859-1"));
+    static private final byte[] GET_VERSION_BLE_FW="versionBle\n".getBytes(Charset.forName("ISO-8859-1"));
+
+    /**
+     * if all the messages are not send in 1s an error is fired
+     */
+    static private final int LOST_MSG_TIMEOUT_MS=1000;
+
+    private static boolean isCompleteLine(StringBuilder buffer) {
+        if(buffer.length()>2){
+            String endLine = buffer.substring(buffer.length()-2);
+            return endLine.equals("\r\n") || endLine.equals("\n\r");
+        }
+
+        return false;
+    }
+
+    private final Scheduler mScheduler;
+    private final ConsoleTransport mTransport;
+    private final VersionListener mListener;
+
+    /**
+     * Buffer where store the command response
+     */
+    private final StringBuilder mBuffer = new StringBuilder();
+
+    private @FirmwareType int mRequestFwType;
+    private int mNInvalidLine=0;
+    private boolean mIsRunning = false;
+
+    /**
+     * if the timeout is rise, the version is not available
+     */
+    private final Runnable onTimeout = () -> notifyVersionRead(null);
+
+    /**
+     * @param scheduler scheduler used for the timeouts
+     * @param transport channel with the node console
+     * @param listener object where notify the version
+     */
+    public NucleoVersionProtocol(@NonNull Scheduler scheduler, @NonNull ConsoleTransport transport,
+                                 @NonNull VersionListener listener){
+        mScheduler = scheduler;
+        mTransport = transport;
+        mListener = listener;
+    }
+
+    /**
+     * @return true if a request is waiting the node answer
+     */
+    public boolean isWaitingAnswer(){
+        return mIsRunning;
+    }
+
+    /**
+     * send the version request
+     * @param fwType firmware to read
+     * @return false if another request is waiting the answer
+     */
+    public boolean readVersion(@FirmwareType int fwType){
+        if(mIsRunning)
+            return false;
+        mIsRunning = true;
+        mNInvalidLine = 0;
+        mBuffer.setLength(0);
+        mTransport.setListener(this);
+        requestVersion(fwType);
+        return true;
+    }
+
+    private void notifyVersionRead(@Nullable FwVersion version){
+        mScheduler.cancel(onTimeout);
+        mTransport.setListener(null);
+        mIsRunning = false;
+        mListener.onVersionRead(mRequestFwType,version);
+    }
+
+    private void requestVersion(@FirmwareType int fwType){
+        mRequestFwType=fwType;
+        switch (fwType) {
+            case FirmwareType.BLE_FW:
+                mTransport.write(GET_VERSION_BLE_FW,0,GET_VERSION_BLE_FW.length);
+                break;
+            case FirmwareType.BOARD_FW:
+                mTransport.write(GET_VERSION_BOARD_FW,0,GET_VERSION_BOARD_FW.length);
+                break;
+            default:
+                notifyVersionRead(null);
+                break;
+        }
+    }
+
+    @Override
+    public void onStdOutReceived(@NonNull byte[] data) {
+        if(!mIsRunning)
+            return;
+        mBuffer.append(new String(data,Charset.forName("ISO-8859-1")));
+        if (isCompleteLine(mBuffer)) {
+            //remove time out
+            mScheduler.cancel(onTimeout);
+            mBuffer.delete(mBuffer.length()-2,mBuffer.length());
+            //check if it a valid fwVersion
+            FwVersion version=null;
+            try {
+                switch (mRequestFwType) {
+                    case FirmwareType.BLE_FW:
+                        version = new FwVersionBle(mBuffer.toString());
+                        break;
+                    case FirmwareType.BOARD_FW:
+                        version = new FwVersionBoard(mBuffer.toString());
+                        break;
+                }
+            }catch (IllegalVersionFormatException e){
+                //remove invalid data and wait another timeout
+                mBuffer.delete(0,mBuffer.length());
+                if(++mNInvalidLine % 10 ==0) {
+                    //send again the request message, the message get lost
+                    requestVersion(mRequestFwType);
+                }
+                mScheduler.postDelayed(onTimeout,LOST_MSG_TIMEOUT_MS);
+                return;
+            }//try-catch
+            notifyVersionRead(version);
+        }//else wait another package
+    }
+
+    @Override
+    public void onStdErrReceived(@NonNull byte[] data) { }
+
+    @Override
+    public void onStdInSent(boolean writeResult) {
+        if(mIsRunning)
+            mScheduler.postDelayed(onTimeout,LOST_MSG_TIMEOUT_MS);
+    }
+}
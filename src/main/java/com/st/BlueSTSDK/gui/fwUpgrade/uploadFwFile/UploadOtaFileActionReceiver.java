@@ -85,6 +85,12 @@ public class UploadOtaFileActionReceiver extends BroadcastReceiver {
         }else if(action.equals(FwUpgradeService.FW_UPLOAD_FINISHED_ACTION)){
             float timeS = intent.getFloatExtra(FwUpgradeService
                     .FW_UPLOAD_FINISHED_TIME_S_EXTRA,0.0f);
+            float compressionRatio = intent.getFloatExtra(FwUpgradeService
+                    .FW_UPLOAD_FINISHED_COMPRESSION_RATIO_EXTRA,1.0f);
+            float effectiveRate = intent.getFloatExtra(FwUpgradeService
+                    .FW_UPLOAD_FINISHED_EFFECTIVE_RATE_EXTRA,0.0f);
+            if(compressionRatio>1.0f)
+                onCompressedUploadFinished(compressionRatio,effectiveRate);
             onUploadFinished(timeS);
         }else if(action.equals(FwUpgradeService.FW_UPLOAD_ERROR_ACTION)){
             String message = intent.getStringExtra(FwUpgradeService
@@ -106,6 +112,11 @@ public class UploadOtaFileActionReceiver extends BroadcastReceiver {
         mTextView.setText(mRes.getString(R.string.otaUpload_status,uploadBytes));
     }
 
+    protected void onCompressedUploadFinished(float compressionRatio, float effectiveRate){
+        mTextView.setText(mRes.getString(R.string.otaUpload_compressedUpload,
+                compressionRatio,effectiveRate));
+    }
+
     protected void onUploadFinished(float timeS) {
         mListener.onUploadFinished(timeS);
     }
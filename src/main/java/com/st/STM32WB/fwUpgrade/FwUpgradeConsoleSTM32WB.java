@@ -37,95 +37,145 @@
 package com.st.STM32WB.fwUpgrade;
 
 import androidx.annotation.Nullable;
-import android.util.Log;
 import androidx.annotation.NonNull;
 
-import com.st.BlueSTSDK.Feature;
 import com.st.BlueSTSDK.Node;
 import com.st.BlueSTSDK.gui.fwUpgrade.FirmwareType;
 import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.FwUpgradeConsole;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol.HandlerScheduler;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol.NucleoUploadProtocol;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol.STM32WBFeatureTransport;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol.STM32WBOtaTransport;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol.STM32WBUploadProtocol;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
 import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FwFileDescriptor;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.LinkTuningPolicy;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.PreparedFirmware;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.UploadCheckpointStore;
 import com.st.STM32WB.fwUpgrade.feature.OTABoardWillRebootFeature;
 import com.st.STM32WB.fwUpgrade.feature.OTAControlFeature;
 import com.st.STM32WB.fwUpgrade.feature.OTAFileUpload;
 
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.util.concurrent.atomic.AtomicLong;
-
+/**
+ * Implement the FwUpgradeConsole for a node with the STM32WB OTA service.
+ * <p>
+ * The protocol is implemented by {@link STM32WBUploadProtocol}, this class prepares the link and
+ * the file.
+ * </p>
+ */
 public class FwUpgradeConsoleSTM32WB extends FwUpgradeConsole {
 
     public static @Nullable
     FwUpgradeConsoleSTM32WB buildForNode(Node node){
+        return buildForNode(node,false);
+    }
+
+    /**
+     * @param node node where upload the firmware
+     * @param useLargeChunk true if the firmware accept chunks sized on the negotiated mtu, false
+     *                      to send chunks of {@link OTAFileUpload#CHUNK_LENGTH} bytes
+     * @return null if the node doesn't have the STM32WB OTA service
+     */
+    public static @Nullable
+    FwUpgradeConsoleSTM32WB buildForNode(Node node, boolean useLargeChunk){
         OTAControlFeature control = node.getFeature(OTAControlFeature.class);
         OTAFileUpload upload = node.getFeature(OTAFileUpload.class);
         OTABoardWillRebootFeature reboot = node.getFeature(OTABoardWillRebootFeature.class);
         if(control!=null && upload!=null && reboot!=null){
-            return new FwUpgradeConsoleSTM32WB(control,upload,reboot);
+            return new FwUpgradeConsoleSTM32WB(control,upload,reboot,useLargeChunk);
         }else{
             return null;
         }
     }
 
-    private OTAControlFeature mControl;
-    private OTAFileUpload mUpload;
-    private OTABoardWillRebootFeature mReset;
+    private final STM32WBOtaTransport mTransport;
+    private final LinkTuningPolicy mLink;
+    private final String mNodeTag;
+    private final boolean mUseLargeChunk;
+
+    /**
+     * file that we are uploading, null if there isn't an upload running
+     */
+    private FwFileDescriptor mFile;
+
+    /**
+     * file content, read in a background thread while the link is tuned
+     */
+    private PreparedFirmware mFirmware;
 
     private FwUpgradeConsoleSTM32WB(@NonNull OTAControlFeature control,
                                     @NonNull OTAFileUpload upload,
-                                    @NonNull OTABoardWillRebootFeature reset){
+                                    @NonNull OTABoardWillRebootFeature reset,
+                                    boolean useLargeChunk){
         super(null);
-        mControl = control;
-        mUpload = upload;
-        mReset = reset;
+        mTransport = new STM32WBFeatureTransport(control,upload,reset,new HandlerScheduler());
+        mLink = new LinkTuningPolicy(control.getParentNode());
+        mNodeTag = control.getParentNode().getTag();
+        mUseLargeChunk = useLargeChunk;
     }
 
-    @Override
-    public boolean loadFw(@FirmwareType int type, FwFileDescriptor fwFile,long startAddress) {
-        Feature.FeatureListener onBoardWillReboot = new Feature.FeatureListener(){
-            @Override
-            public void onUpdate(@NonNull Feature f, @NonNull Feature.Sample sample) {
-                if(OTABoardWillRebootFeature.boardIsRebooting(sample))
-                    mCallback.onLoadFwComplete(FwUpgradeConsoleSTM32WB.this,fwFile);
-                else
-                    mCallback.onLoadFwError(FwUpgradeConsoleSTM32WB.this,fwFile, FwUpgradeCallback.ERROR_TRANSMISSION);
-                f.removeFeatureListener(this);
-            }
-        };
+    /**
+     * release the link and the file used by the upload
+     * @return file that was uploaded
+     */
+    private FwFileDescriptor endUpload(){
+        mLink.end();
+        if(mFirmware!=null){
+            mFirmware.close();
+            mFirmware=null;
+        }
+        FwFileDescriptor file = mFile;
+        mFile = null;
+        return file;
+    }
 
-        mReset.addFeatureListener(onBoardWillReboot);
-        mReset.enableNotification();
-        mControl.startUpload(type,startAddress);
-        try {
+    private final NucleoUploadProtocol.UploadListener mUploadListener = new NucleoUploadProtocol.UploadListener() {
+        @Override
+        public void onUploadProgress(long bytesToSend) {
+            if(mCallback!=null)
+                mCallback.onLoadFwProgressUpdate(FwUpgradeConsoleSTM32WB.this,mFile,bytesToSend);
+        }
 
-            Runnable onProgress = new Runnable() {
-                    private AtomicLong sendData = new AtomicLong(fwFile.getLength());
-                    @Override
-                    public void run() {
-                        long dataSent = sendData.addAndGet(-OTAFileUpload.CHUNK_LENGTH);
-                        mCallback.onLoadFwProgressUpdate(FwUpgradeConsoleSTM32WB.this,fwFile,dataSent);
-                        if(dataSent<=0){
-                            mControl.uploadFinished(() -> {
-                            //    mCallback.onLoadFwComplete(FwUpgradeConsoleSTM32WB.this,fwFile);
-                            //    mReset.removeFeatureListener(onBoardWillReboot);
-                            });
-                        }
-                    }
-            };
+        @Override
+        public void onUploadComplete() {
+            FwFileDescriptor file = endUpload();
+            if(mCallback!=null)
+                mCallback.onLoadFwComplete(FwUpgradeConsoleSTM32WB.this,file);
+        }
 
-            mUpload.upload(fwFile.openFile(),onProgress);
+        @Override
+        public void onUploadError(@FwUpgradeCallback.UpgradeErrorType int errorCode) {
+            FwFileDescriptor file = endUpload();
+            if(mCallback!=null)
+                mCallback.onLoadFwError(FwUpgradeConsoleSTM32WB.this,file,errorCode);
+        }
+    };
 
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            mControl.cancelUpload();
-            mCallback.onLoadFwError(this,fwFile,FwUpgradeCallback.ERROR_INVALID_FW_FILE);
-            return false;
-        } catch (IOException e) {
-            e.printStackTrace();
-            mControl.cancelUpload();
-            mCallback.onLoadFwError(this,fwFile,FwUpgradeCallback.ERROR_TRANSMISSION);
+    @Override
+    public boolean loadFw(@FirmwareType int type, FwFileDescriptor fwFile,
+                          @Nullable FirmwareImage image, long startAddress) {
+        if (mFile!=null)
             return false;
-        }
+
+        mFile = fwFile;
+        mFirmware = PreparedFirmware.prepare(fwFile,image,false);
+        mFirmware.whenReady(mLink, firmware -> {
+            if(firmware.getError()!=PreparedFirmware.NO_ERROR){
+                mTransport.cancelUpload();
+                mUploadListener.onUploadError(firmware.getError());
+                return;
+            }
+            FirmwareImage fwImage = firmware.getImage();
+            setUploadSize(fwImage.getLength(),fwImage.getLength());
+            UploadCheckpointStore.Checkpoint checkpoint =
+                    mCheckpointStore!=null && mTransport.isResumeSupported() ?
+                    mCheckpointStore.open(mNodeTag,type,startAddress,firmware.getCrc32(),
+                            fwImage.getLength()) : null;
+            int chunkLength = mUseLargeChunk ?
+                    mLink.getPackageSize(0,OTAFileUpload.CHUNK_LENGTH) : OTAFileUpload.CHUNK_LENGTH;
+            new STM32WBUploadProtocol(mTransport,fwImage,type,startAddress,chunkLength,checkpoint,
+                    mUploadListener).start();
+        });
         return true;
     }
 }
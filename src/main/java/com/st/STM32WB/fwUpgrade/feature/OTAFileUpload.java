@@ -35,19 +35,39 @@
  */
 package com.st.STM32WB.fwUpgrade.feature;
 
+import androidx.annotation.NonNull;
+
 import com.st.BlueSTSDK.Feature;
 import com.st.BlueSTSDK.Features.Field;
 import com.st.BlueSTSDK.Node;
-
-import java.io.IOException;
-import java.io.InputStream;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
 
 public class OTAFileUpload extends Feature {
 
+    /**
+     * chunk length that fits in a write with the default MTU
+     */
     public static final int CHUNK_LENGTH = 20;
     private static final String FEATURE_NAME = "OTA File Upload";
     private static final Field[] DATA_DESC = new Field[0];
 
+    /**
+     * Interface used to notify the upload progress, the methods are called by the thread that
+     * notify the write completion
+     */
+    public interface UploadListener {
+        /**
+         * a chunk is written
+         * @param sentBytes number of file bytes written since the upload start
+         */
+        void onUploadProgress(long sentBytes);
+
+        /**
+         * all the chunks are written
+         */
+        void onUploadComplete();
+    }
+
     /**
      * build a new disabled feature, that doesn't need to be initialized in the node side
      *
@@ -57,15 +77,17 @@ public class OTAFileUpload extends Feature {
         super(FEATURE_NAME, n, DATA_DESC);
     }
 
-
-    public void upload(InputStream file , Runnable onUpload) throws IOException {
-        byte buffer[] = new byte[CHUNK_LENGTH];
-        int nReadByte;
-        while ( (nReadByte = file.read(buffer))>0){
-            //todo what if nReadByte!=20?
-            writeData(buffer,onUpload);
-            buffer = new byte[CHUNK_LENGTH];
-        }
+    /**
+     * send the image data starting from startOffset, a new chunk is sent when a previous one is
+     * written, so only few chunks are waiting in the sdk queue
+     * @param file image to send
+     * @param startOffset first byte to send
+     * @param chunkLength number of bytes in each write
+     * @param listener object where notify the upload progress
+     */
+    public void upload(@NonNull FirmwareImage file, long startOffset, int chunkLength,
+                       @NonNull UploadListener listener) {
+        new OtaChunkStreamer(file,startOffset,chunkLength,this::writeData,listener).start();
     }
 
     @Override
@@ -0,0 +1,191 @@
+/* Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.STM32WB.fwUpgrade.feature;
+
+import androidx.annotation.NonNull;
+
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Send an image to the STM32WB OTA service: a new chunk is written when a previous one is
+ * done, so only few chunks are waiting in the sdk queue and their buffers are reused.
+ * The last chunk is padded with the erased flash value to end at the flash write size.
+ */
+class OtaChunkStreamer {
+
+    /**
+     * the board writes the flash by double word, the last chunk is padded to a multiple of it
+     */
+    static final int FLASH_WRITE_SIZE = 8;
+    static final byte ERASED_FLASH_VALUE = (byte)0xFF;
+
+    /**
+     * max number of chunks queued in the sdk and not yet written
+     */
+    static final int MAX_CHUNK_IN_FLIGHT = 8;
+
+    /**
+     * object that sends a chunk to the node
+     */
+    interface ChunkWriter {
+        /**
+         * @param data chunk to send, the buffer is reused after the onWritten call
+         * @param onWritten callback to run when the chunk is written
+         */
+        void writeChunk(@NonNull byte[] data, @NonNull Runnable onWritten);
+    }
+
+    /**
+     * buffer used for a write, it is reused when the write is done
+     */
+    private static class Chunk implements Runnable{
+        private final OtaChunkStreamer mStreamer;
+        private byte[] mData;
+        private int mFileBytes;
+
+        private Chunk(OtaChunkStreamer streamer, int length){
+            mStreamer = streamer;
+            mData = new byte[length];
+        }
+
+        @Override
+        public void run() {
+            mStreamer.onChunkWritten(this);
+        }
+    }
+
+    private final FirmwareImage mFile;
+    private final long mStartOffset;
+    private final int mChunkLength;
+    private final ChunkWriter mWriter;
+    private final OTAFileUpload.UploadListener mListener;
+    private final ArrayDeque<Chunk> mFreeChunks = new ArrayDeque<>(MAX_CHUNK_IN_FLIGHT);
+    private long mNextOffset;
+    private long mSentBytes;
+    private int mNAllocatedChunk;
+
+    /**
+     * @param file image to send
+     * @param startOffset first byte to send
+     * @param chunkLength number of bytes in each write
+     * @param writer object used to send the chunks
+     * @param listener object where notify the upload progress
+     */
+    OtaChunkStreamer(@NonNull FirmwareImage file, long startOffset, int chunkLength,
+                     @NonNull ChunkWriter writer, @NonNull OTAFileUpload.UploadListener listener){
+        mFile = file;
+        mStartOffset = startOffset;
+        mNextOffset = startOffset;
+        mChunkLength = chunkLength;
+        mWriter = writer;
+        mListener = listener;
+    }
+
+    void start(){
+        if(mStartOffset>=mFile.getLength()){
+            mListener.onUploadComplete();
+            return;
+        }
+        synchronized (this){
+            for(int i = 0; i<MAX_CHUNK_IN_FLIGHT; i++) {
+                mFreeChunks.add(new Chunk(this, mChunkLength));
+                mNAllocatedChunk++;
+            }
+        }
+        sendChunks();
+    }
+
+    /**
+     * @return number of buffers allocated by this streamer
+     */
+    synchronized int getNAllocatedChunk(){
+        return mNAllocatedChunk;
+    }
+
+    /**
+     * fill the free chunks with the next file data and write them
+     */
+    private void sendChunks(){
+        while(true){
+            Chunk chunk;
+            synchronized (this){
+                if(mFreeChunks.isEmpty() || mNextOffset>=mFile.getLength())
+                    return;
+                chunk = mFreeChunks.poll();
+                fillChunk(chunk,mNextOffset);
+                mNextOffset+=chunk.mFileBytes;
+            }
+            //write outside the lock, the sdk can call the callback immediately
+            mWriter.writeChunk(chunk.mData,chunk);
+        }
+    }
+
+    private void fillChunk(Chunk chunk, long offset){
+        int fileBytes = (int) Math.min(mChunkLength, mFile.getLength() - offset);
+        if(fileBytes<mChunkLength){
+            //last chunk: send only the data, padded to end the file at the flash write size
+            long end = offset + fileBytes;
+            long paddedEnd = ((end + FLASH_WRITE_SIZE - 1) / FLASH_WRITE_SIZE) * FLASH_WRITE_SIZE;
+            int length = (int) Math.min(mChunkLength, paddedEnd - offset);
+            if(chunk.mData.length != length) {
+                chunk.mData = new byte[length];
+                mNAllocatedChunk++;
+            }
+        }
+        mFile.read(offset,chunk.mData,0,fileBytes);
+        Arrays.fill(chunk.mData,fileBytes,chunk.mData.length,ERASED_FLASH_VALUE);
+        chunk.mFileBytes = fileBytes;
+    }
+
+    private void onChunkWritten(Chunk chunk){
+        long sentBytes;
+        boolean isComplete;
+        synchronized (this){
+            mSentBytes += chunk.mFileBytes;
+            sentBytes = mSentBytes;
+            isComplete = mStartOffset + sentBytes >= mFile.getLength();
+            mFreeChunks.add(chunk);
+        }
+        mListener.onUploadProgress(sentBytes);
+        if(isComplete)
+            mListener.onUploadComplete();
+        else
+            sendChunks();
+    }
+}
@@ -40,6 +40,7 @@ import androidx.annotation.NonNull;
 
 import com.st.BlueSTSDK.Node;
 import com.st.BlueSTSDK.Utils.UUIDToFeatureMap;
+import com.st.BlueSTSDK.gui.NodeScanFilter;
 
 import java.util.UUID;
 
@@ -51,6 +52,13 @@ public class STM32OTASupport{
         return n.getTypeId() ==  OTA_NODE_ID;
     }
 
+    /**
+     * @return scan filter that accepts only the nodes in ota mode
+     */
+    public static NodeScanFilter getOTAScanFilter(){
+        return new NodeScanFilter().withDeviceId(OTA_NODE_ID);
+    }
+
     public static UUIDToFeatureMap getOTAFeatures(){
         UUIDToFeatureMap featureMap = new UUIDToFeatureMap();
         featureMap.put(UUID.fromString("0000fe11-8e22-4541-9d4c-21edae82ed19"), RebootOTAModeFeature.class);
@@ -37,6 +37,7 @@
 package com.st.STM32WB.fwUpgrade.searchOtaNode;
 
 import android.content.Context;
+import android.os.Build;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -50,8 +51,11 @@ import androidx.fragment.app.Fragment;
 
 import com.st.BlueSTSDK.Manager;
 import com.st.BlueSTSDK.Node;
+import com.st.BlueSTSDK.gui.FilteredNodeScanner;
+import com.st.BlueSTSDK.gui.KnownNodeRegistry;
 import com.st.BlueSTSDK.gui.R;
 import com.st.BlueSTSDK.gui.util.FragmentUtil;
+import com.st.STM32WB.fwUpgrade.feature.STM32OTASupport;
 
 /**
  * A simple {@link Fragment} subclass.
@@ -124,7 +128,12 @@ public class SearchOtaNodeFragment extends Fragment implements SearchOtaNodeCont
 
         String address = getSearchNodeAddress();
 
-        mPresenter = new SearchOtaNodePresenter(this, Manager.getSharedInstance());
+        Manager manager = Manager.getSharedInstance();
+        FilteredNodeScanner scanner = null;
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            scanner = new FilteredNodeScanner(manager, STM32OTASupport.getOTAScanFilter());
+        mPresenter = new SearchOtaNodePresenter(this, manager,
+                KnownNodeRegistry.getInstance(requireContext()), scanner);
         mPresenter.startScan(address);
     }
 
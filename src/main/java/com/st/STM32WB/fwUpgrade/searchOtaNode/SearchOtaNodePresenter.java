@@ -36,11 +36,17 @@
  */
 package com.st.STM32WB.fwUpgrade.searchOtaNode;
 
+import android.os.Handler;
+import android.os.Looper;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.st.BlueSTSDK.Manager;
 import com.st.BlueSTSDK.Node;
+import com.st.BlueSTSDK.gui.FilteredNodeScanner;
+import com.st.BlueSTSDK.gui.KnownNode;
+import com.st.BlueSTSDK.gui.KnownNodeRegistry;
 import com.st.STM32WB.fwUpgrade.feature.STM32OTASupport;
 
 public class SearchOtaNodePresenter implements SearchOtaNodeContract.Presenter{
@@ -50,13 +56,33 @@ public class SearchOtaNodePresenter implements SearchOtaNodeContract.Presenter{
 
     private SearchOtaNodeContract.View mView;
     private Manager mManager;
+    private @Nullable KnownNodeRegistry mKnownNodes;
+    private @Nullable FilteredNodeScanner mFilteredScanner;
     private @Nullable String mAddress;
 
+    private final Handler mTimeout = new Handler(Looper.getMainLooper());
+    private final Runnable mOnFilteredScanTimeout = () -> {
+        stopFilteredScan();
+        flushKnownNodes();
+        mView.nodeNodeFound();
+    };
+
+    /**
+     * the platform stopped the filtered scan: the manager listener is still registered, search
+     * the node with the manager discovery
+     */
+    private final FilteredNodeScanner.ScanFailedListener mOnFilteredScanFailed =
+            (scanner, errorCode) -> {
+                mTimeout.removeCallbacks(mOnFilteredScanTimeout);
+                mManager.startDiscovery(SCANNER_TIMEOUT_MS);
+            };
+
     private Manager.ManagerListener mManagerListener = new Manager.ManagerListener() {
         @Override
         public void onDiscoveryChange(@NonNull Manager m, boolean enabled) {
             if(!enabled){
                 mManager.removeListener(this);
+                flushKnownNodes();
                 mView.nodeNodeFound();
             }else{
                 mView.startScan();
@@ -66,31 +92,99 @@ public class SearchOtaNodePresenter implements SearchOtaNodeContract.Presenter{
         @Override
         public void onNodeDiscovered(@NonNull Manager m,@NonNull  Node node) {
             if(STM32OTASupport.isOTANode(node)){
+                if(mKnownNodes!=null)
+                    mKnownNodes.remember(node);
                 if(node.getTag().equals(mAddress) || mAddress==null) {
                     mManager.removeListener(this);
+                    flushKnownNodes();
                     mView.foundNode(node);
                     mManager.stopDiscovery();
+                    stopFilteredScan();
                 }
             }
         }
     };
 
     public SearchOtaNodePresenter(SearchOtaNodeContract.View view, Manager manager){
+        this(view,manager,null);
+    }
+
+    /**
+     * @param knownNodes registry where search the node before starting the scan, if the node
+     *                   with the requested address is known it is connected without a scan
+     */
+    public SearchOtaNodePresenter(SearchOtaNodeContract.View view, Manager manager,
+                                  @Nullable KnownNodeRegistry knownNodes){
+        this(view,manager,knownNodes,null);
+    }
+
+    /**
+     * @param knownNodes registry where search the node before starting the scan, if the node
+     *                   with the requested address is known it is connected without a scan
+     * @param filteredScanner scanner that reports only the ota nodes, if it can not start the
+     *                        manager discovery is used
+     */
+    public SearchOtaNodePresenter(SearchOtaNodeContract.View view, Manager manager,
+                                  @Nullable KnownNodeRegistry knownNodes,
+                                  @Nullable FilteredNodeScanner filteredScanner){
         mView = view;
         mManager = manager;
+        mKnownNodes = knownNodes;
+        mFilteredScanner = filteredScanner;
+        if(mFilteredScanner!=null)
+            mFilteredScanner.setScanFailedListener(mOnFilteredScanFailed);
         mAddress = null;
     }
 
+    private void flushKnownNodes(){
+        if(mKnownNodes!=null)
+            mKnownNodes.flush();
+    }
+
+    private void stopFilteredScan(){
+        mTimeout.removeCallbacks(mOnFilteredScanTimeout);
+        if(mFilteredScanner!=null && mFilteredScanner.isScanning()) {
+            mFilteredScanner.stop();
+            mManager.removeListener(mManagerListener);
+        }
+    }
+
+    /**
+     * @param address node address
+     * @return the ota node with that address built from the registry, null if it is unknown
+     */
+    private @Nullable Node getKnownOtaNode(@Nullable String address){
+        if(address==null || mKnownNodes==null)
+            return null;
+        KnownNode knownNode = mKnownNodes.get(address);
+        if(knownNode==null || knownNode.getDeviceId()!=STM32OTASupport.OTA_NODE_ID)
+            return null;
+        return KnownNodeRegistry.getNode(mManager,knownNode);
+    }
+
     @Override
     public void startScan(@Nullable String address) {
         mAddress = address;
+        Node knownNode = getKnownOtaNode(address);
+        if(knownNode!=null && STM32OTASupport.isOTANode(knownNode)){
+            mView.foundNode(knownNode);
+            return;
+        }
         mManager.resetDiscovery();
         mManager.addListener(mManagerListener);
+        if(mFilteredScanner!=null && mFilteredScanner.start()){
+            //the manager is not scanning, it doesn't notify the discovery start/stop
+            mView.startScan();
+            mTimeout.postDelayed(mOnFilteredScanTimeout,SCANNER_TIMEOUT_MS);
+            return;
+        }
         mManager.startDiscovery(SCANNER_TIMEOUT_MS);
     }
 
     @Override
     public void stopScan() {
+        stopFilteredScan();
         mManager.stopDiscovery();
+        flushKnownNodes();
     }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueNRG.fwUpgrade;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replay the advertise captured in bluenrg-advertise-capture.txt through the filter and check
+ * that, once the names are cached, the filter doesn't allocate memory.
+ */
+public class BlueNRGAdvertiseFilterBenchmarkTest {
+
+    private static final int WARM_UP_ROUNDS = 200;
+    private static final int ROUNDS = 500;
+    /** OTA advertise inside the capture, see BlueNRGAdvertiseFilterTest */
+    private static final int CAPTURED_OTA_ADVERTISE = 32+19+22+14+25;
+
+    private static int replay(BlueNRGAdvertiseFilter filter, byte[][] capture, int rounds){
+        int accepted = 0;
+        for(int i = 0 ; i<rounds ; i++){
+            for(byte[] advertise : capture){
+                if(filter.filter(advertise)!=null)
+                    accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    private static long allocatedBytes(ThreadMXBean threadBean){
+        if(threadBean instanceof com.sun.management.ThreadMXBean){
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+            if(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled())
+                return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * the allocated memory depends on the jvm, it is too slow for the normal test run
+     */
+    @Test
+    @Ignore
+    public void benchmarkCapturedAdvertise() throws IOException {
+        byte[][] capture = BlueNRGAdvertiseFilterTest.loadCapture().toArray(new byte[0][]);
+        BlueNRGAdvertiseFilter filter = new BlueNRGAdvertiseFilter();
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        int warmUpAccepted = replay(filter,capture,WARM_UP_ROUNDS);
+        assertEquals(WARM_UP_ROUNDS*CAPTURED_OTA_ADVERTISE,warmUpAccepted);
+
+        long startAllocation = allocatedBytes(threadBean);
+        int accepted = replay(filter,capture,ROUNDS);
+        long endAllocation = allocatedBytes(threadBean);
+
+        assertEquals(ROUNDS*CAPTURED_OTA_ADVERTISE,accepted);
+        if(startAllocation>=0 && endAllocation>=0){
+            long nAdvertise = (long)capture.length*ROUNDS;
+            assertTrue("allocated: "+(endAllocation-startAllocation),
+                    endAllocation-startAllocation<nAdvertise);
+        }
+    }
+}
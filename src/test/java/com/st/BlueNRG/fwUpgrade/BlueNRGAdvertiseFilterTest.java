@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueNRG.fwUpgrade;
+
+import com.st.BlueSTSDK.Utils.advertise.AdvertiseParser;
+import com.st.BlueSTSDK.Utils.advertise.BleAdvertiseInfo;
+import com.st.BlueSTSDK.gui.NodeScanFilter;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BlueNRGAdvertiseFilterTest {
+
+    private static final byte[] OTA_SERVICE_UUID =
+            new byte[] {(byte)0x8a,(byte)0x97,(byte)0xf7,(byte)0xc0,(byte)0x85,(byte)0x06,(byte)0x11,
+                    (byte)0xe3,(byte)0xba,(byte)0xa7,(byte)0x08,(byte)0x00,(byte)0x20,(byte)0x0c,(byte)0x9a,
+                    (byte)0x66};
+
+    private static final byte[] FLAGS = {0x02,0x01,0x06};
+
+    /**
+     * advertise received during a scan, one hex payload per line
+     */
+    private static final String CAPTURE_FILE = "/bluenrg-advertise-capture.txt";
+
+    private static byte[] parseHex(String line){
+        byte[] data = new byte[line.length()/2];
+        for(int i = 0 ; i<data.length ; i++){
+            data[i] = (byte)Integer.parseInt(line.substring(2*i,2*i+2),16);
+        }
+        return data;
+    }
+
+    static List<byte[]> loadCapture() throws IOException {
+        List<byte[]> capture = new ArrayList<>();
+        InputStream in = BlueNRGAdvertiseFilterTest.class.getResourceAsStream(CAPTURE_FILE);
+        assertNotNull(in);
+        try(BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in,Charset.forName("UTF-8")))){
+            String line;
+            while ((line = reader.readLine())!=null){
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#"))
+                    continue;
+                capture.add(parseHex(line));
+            }
+        }
+        return capture;
+    }
+
+    private static byte[] field(byte type, byte[] data){
+        byte[] field = new byte[data.length+2];
+        field[0] = (byte)(data.length+1);
+        field[1] = type;
+        System.arraycopy(data,0,field,2,data.length);
+        return field;
+    }
+
+    private static byte[] name(String name){
+        return field(AdvertiseParser.DEVICE_NAME_TYPE,name.getBytes(Charset.forName("UTF-8")));
+    }
+
+    private static byte[] otaService(){
+        return field(AdvertiseParser.INCOMPLETE_LIST_OF_128_UUID,OTA_SERVICE_UUID);
+    }
+
+    private static byte[] advertise(byte[]... fields){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for(byte[] field : fields)
+            out.write(field,0,field.length);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void theOtaServiceIsAccepted(){
+        BlueNRGAdvertiseFilter filter = new BlueNRGAdvertiseFilter();
+        BleAdvertiseInfo info = filter.filter(advertise(FLAGS,otaService(),name("BNRG2_OTA")));
+        assertNotNull(info);
+        assertEquals("BNRG2_OTA",info.getName());
+        assertEquals(UUID.nameUUIDFromBytes(OTA_SERVICE_UUID),
+                ((BlueNRGAdvertiseFilter.BlueNRGAdvertiseInfo)info).getExportedService());
+    }
+
+    @Test
+    public void withoutTheNameTheDefaultIsUsed(){
+        BlueNRGAdvertiseFilter filter = new BlueNRGAdvertiseFilter();
+        BleAdvertiseInfo info = filter.filter(advertise(FLAGS,otaService()));
+        assertNotNull(info);
+        assertEquals("BlueNRG OTA",info.getName());
+    }
+
+    @Test
+    public void anotherServiceIsRejected(){
+        BlueNRGAdvertiseFilter filter = new BlueNRGAdvertiseFilter();
+        byte[] otherService = OTA_SERVICE_UUID.clone();
+        otherService[15]++;
+        assertNull(filter.filter(advertise(FLAGS,
+                field(AdvertiseParser.INCOMPLETE_LIST_OF_128_UUID,otherService),name("OTA"))));
+        assertNull(filter.filter(advertise(FLAGS,name("OTA"))));
+        assertNull(filter.filter(new byte[0]));
+    }
+
+    @Test
+    public void aTruncatedFieldIsIgnored(){
+        BlueNRGAdvertiseFilter filter = new BlueNRGAdvertiseFilter();
+        byte[] advertise = advertise(FLAGS,otaService(),name("BNRG2_OTA"));
+        byte[] truncated = new byte[advertise.length-2];
+        System.arraycopy(advertise,0,truncated,0,truncated.length);
+        BleAdvertiseInfo info = filter.filter(truncated);
+        assertNotNull(info);
+        assertEquals("BlueNRG OTA",info.getName());
+
+        truncated = new byte[FLAGS.length+10];
+        System.arraycopy(advertise,0,truncated,0,truncated.length);
+        assertNull(filter.filter(truncated));
+    }
+
+    @Test
+    public void theCapturedOtaAdvertiseAreAccepted() throws IOException {
+        BlueNRGAdvertiseFilter filter = new BlueNRGAdvertiseFilter();
+        Map<String,Integer> nAccepted = new HashMap<>();
+        Map<String,BleAdvertiseInfo> infos = new HashMap<>();
+        for(int round = 0 ; round<2 ; round++) {
+            for (byte[] advertise : loadCapture()) {
+                BleAdvertiseInfo info = filter.filter(advertise);
+                if (info == null)
+                    continue;
+                String name = info.getName();
+                Integer count = nAccepted.get(name);
+                nAccepted.put(name, count == null ? 1 : count + 1);
+                BleAdvertiseInfo firstInfo = infos.get(name);
+                if (firstInfo == null)
+                    infos.put(name, info);
+                else
+                    assertSame(firstInfo, info);
+            }
+        }
+        assertEquals(5,nAccepted.size());
+        assertEquals(Integer.valueOf(2*32),nAccepted.get("BNRG_OTA"));
+        assertEquals(Integer.valueOf(2*19),nAccepted.get("OTA_1"));
+        assertEquals(Integer.valueOf(2*22),nAccepted.get("OTA_2"));
+        assertEquals(Integer.valueOf(2*14),nAccepted.get("BNRG2"));
+        //names that doesn't fit in the advertise
+        assertEquals(Integer.valueOf(2*25),nAccepted.get("BlueNRG OTA"));
+    }
+
+    @Test
+    public void theScanFilterAcceptsTheOtaAdvertise(){
+        NodeScanFilter scanFilter = BlueNRGAdvertiseFilter.getScanFilter();
+        assertTrue(scanFilter.matches(advertise(FLAGS,otaService(),name("BNRG2_OTA"))));
+        assertFalse(scanFilter.matches(advertise(FLAGS,name("BNRG2_OTA"))));
+    }
+
+    @Test
+    public void theInfoIsReusedForTheSameName(){
+        BlueNRGAdvertiseFilter filter = new BlueNRGAdvertiseFilter();
+        BleAdvertiseInfo first = filter.filter(advertise(FLAGS,otaService(),name("BLE_OTA_1")));
+        BleAdvertiseInfo second = filter.filter(advertise(name("BLE_OTA_1"),otaService()));
+        BleAdvertiseInfo other = filter.filter(advertise(FLAGS,otaService(),name("BLE_OTA_2")));
+        assertSame(first,second);
+        assertNotSame(first,other);
+        assertEquals("BLE_OTA_2",other.getName());
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueNRG.fwUpgrade.feature;
+
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FwFileDescriptor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OtaFrameBuilderTest {
+
+    private static final int PACKET_SIZE = 16;
+
+    private static FirmwareImage createImage(byte[] content) throws IOException {
+        FwFileDescriptor file = mock(FwFileDescriptor.class);
+        when(file.getType()).thenReturn(FwFileDescriptor.BIN);
+        when(file.getLength()).thenReturn((long)content.length);
+        when(file.openFile()).thenReturn(new ByteArrayInputStream(content));
+        return FirmwareImage.open(file);
+    }
+
+    @Test
+    public void messageContainsChecksumPayloadAckAndSequence() throws IOException {
+        byte[] content = new byte[PACKET_SIZE*0x103];
+        new Random(0).nextBytes(content);
+        OtaFrameBuilder builder = new OtaFrameBuilder();
+        try(FirmwareImage image = createImage(content)) {
+            byte[] message = builder.build(image,PACKET_SIZE,(short)0x102,true,null).data;
+
+            assertEquals(PACKET_SIZE+OtaFrameBuilder.OTA_SUPPORT_INFO_SIZE,message.length);
+            byte[] payload = new byte[PACKET_SIZE];
+            System.arraycopy(message,1,payload,0,PACKET_SIZE);
+            byte[] expectedPayload = new byte[PACKET_SIZE];
+            System.arraycopy(content,0x102*PACKET_SIZE,expectedPayload,0,PACKET_SIZE);
+            assertArrayEquals(expectedPayload,payload);
+            assertEquals(1,message[PACKET_SIZE+1]);
+            assertEquals(0x02,message[PACKET_SIZE+2]);
+            assertEquals(0x01,message[PACKET_SIZE+3]);
+            byte checksum = 0;
+            for(int i=1;i<message.length;i++)
+                checksum ^= message[i];
+            assertEquals(checksum,message[0]);
+        }
+    }
+
+    @Test
+    public void lastPacketIsPaddedWithZero() throws IOException {
+        byte[] content = new byte[]{1,2,3};
+        OtaFrameBuilder builder = new OtaFrameBuilder();
+        try(FirmwareImage image = createImage(content)) {
+            byte[] message = builder.build(image,PACKET_SIZE,(short)0,false,null).data;
+            assertEquals(1,message[1]);
+            assertEquals(3,message[3]);
+            assertEquals(0,message[4]);
+            assertEquals(0,message[PACKET_SIZE]);
+        }
+    }
+
+    @Test
+    public void writtenMessageIsReused() throws IOException {
+        OtaFrameBuilder builder = new OtaFrameBuilder();
+        try(FirmwareImage image = createImage(new byte[PACKET_SIZE*4])) {
+            OtaFrameBuilder.Frame first = builder.build(image, PACKET_SIZE, (short) 0, false, null);
+            OtaFrameBuilder.Frame second = builder.build(image, PACKET_SIZE, (short) 1, false, null);
+            assertNotSame(first, second);
+            first.run();
+            assertSame(first, builder.build(image, PACKET_SIZE, (short) 2, false, null));
+        }
+    }
+
+    @Test
+    public void writeCallbackIsCalled() throws IOException {
+        OtaFrameBuilder builder = new OtaFrameBuilder();
+        Runnable onWritten = mock(Runnable.class);
+        try(FirmwareImage image = createImage(new byte[PACKET_SIZE])) {
+            builder.build(image, PACKET_SIZE, (short) 0, true, onWritten).run();
+            verify(onWritten).run();
+        }
+    }
+
+    /**
+     * upload 1MB with 8 message in flight, after the first block no message is allocated
+     */
+    @Test
+    public void noAllocationWhileUploading() throws IOException {
+        final int imageSize = 1024*1024;
+        final int inFlight = 8;
+        final int packetSize = 208;
+        OtaFrameBuilder builder = new OtaFrameBuilder();
+        OtaFrameBuilder.Frame[] sent = new OtaFrameBuilder.Frame[inFlight];
+        try(FirmwareImage image = createImage(new byte[imageSize])) {
+            int nPacket = (int) (image.getPaddedLength(packetSize) / packetSize);
+            for (int seq = 0; seq < nPacket; seq++) {
+                int slot = seq % inFlight;
+                if(sent[slot]!=null)
+                    sent[slot].run();
+                sent[slot] = builder.build(image, packetSize, (short) seq, slot == inFlight - 1, null);
+            }
+            assertEquals(inFlight, builder.getNAllocatedFrame());
+        }
+    }
+
+}
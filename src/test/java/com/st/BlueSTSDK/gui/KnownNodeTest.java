@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui;
+
+import com.st.BlueSTSDK.Node;
+import com.st.BlueSTSDK.Utils.advertise.BleAdvertiseInfo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KnownNodeTest {
+
+    private static final String TAG = "C0:01:02:03:04:05";
+
+    private static BleAdvertiseInfo advertise(String name){
+        return new BleAdvertiseInfo() {
+            @Override
+            public String getName() { return name; }
+
+            @Override
+            public byte getTxPower() { return -3; }
+
+            @Override
+            public String getAddress() { return TAG; }
+
+            @Override
+            public long getFeatureMap() { return 0xE0000000L; }
+
+            @Override
+            public long getOptionBytes() { return 0x12345678L; }
+
+            @Override
+            public byte getDeviceId() { return (byte)0x86; }
+
+            @Override
+            public short getProtocolVersion() { return 1; }
+
+            @Override
+            public Node.Type getBoardType() { return Node.Type.NUCLEO; }
+
+            @Override
+            public boolean isBoardSleeping() { return false; }
+
+            @Override
+            public boolean isHasGeneralPurpose() { return true; }
+        };
+    }
+
+    @Test
+    public void theRecordContainsAllTheAdvertiseData(){
+        KnownNode node = new KnownNode(TAG,1234L,-60,advertise("BM2V230"));
+        KnownNode restored = KnownNode.fromRecord(TAG,node.toRecord());
+        assertNotNull(restored);
+        assertEquals(TAG,restored.getTag());
+        assertEquals(TAG,restored.getAddress());
+        assertEquals(1234L,restored.getLastSeen());
+        assertEquals(-60,restored.getRssi());
+        assertEquals("BM2V230",restored.getName());
+        assertEquals(-3,restored.getTxPower());
+        assertEquals(0xE0000000L,restored.getFeatureMap());
+        assertEquals(0x12345678L,restored.getOptionBytes());
+        assertEquals((byte)0x86,restored.getDeviceId());
+        assertEquals(1,restored.getProtocolVersion());
+        assertEquals(Node.Type.NUCLEO,restored.getBoardType());
+        assertFalse(restored.isBoardSleeping());
+        assertTrue(restored.isHasGeneralPurpose());
+    }
+
+    @Test
+    public void theNameCanContainTheSeparator(){
+        KnownNode node = new KnownNode(TAG,1234L,-60,advertise("a,b,,c"));
+        KnownNode restored = KnownNode.fromRecord(TAG,node.toRecord());
+        assertNotNull(restored);
+        assertEquals("a,b,,c",restored.getName());
+    }
+
+    @Test
+    public void anInvalidRecordIsIgnored(){
+        assertNull(KnownNode.fromRecord(TAG,null));
+        assertNull(KnownNode.fromRecord(TAG,""));
+        assertNull(KnownNode.fromRecord(TAG,"1,1234,-60,NUCLEO,-122,1,-3"));
+        assertNull(KnownNode.fromRecord(TAG,"1,1234,-60,NOT_A_BOARD,-122,1,-3,0,0,0,1,name"));
+        assertNull(KnownNode.fromRecord(TAG,"2,1234,-60,NUCLEO,-122,1,-3,0,0,0,1,name"));
+        assertNull(KnownNode.fromRecord(TAG,"1,1234,-60,NUCLEO,-122,1,-3,x,0,0,1,name"));
+    }
+}
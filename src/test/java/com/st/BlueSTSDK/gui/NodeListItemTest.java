@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui;
+
+import com.st.BlueSTSDK.Node;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NodeListItemTest {
+
+    private static NodeListItem item(String tag, String name, long optionBytes, boolean isSleeping){
+        return new NodeListItem(null,tag,name,Node.Type.NUCLEO,2,optionBytes,isSleeping,false);
+    }
+
+    @Test
+    public void theNodesAreIdentifiedByTag(){
+        assertTrue(item("tag",null,0,false).isSameNode(item("tag","name",1,true)));
+        assertFalse(item("tag1","name",0,false).isSameNode(item("tag2","name",0,false)));
+    }
+
+    @Test
+    public void aNewSnapshotWithTheSameDataHasNoChanges(){
+        assertEquals(0,item("tag","name",0x01020304,false)
+                .getChanges(item("tag","name",0x01020304,false)));
+    }
+
+    @Test
+    public void onlyTheChangedDataAreReported(){
+        NodeListItem old = item("tag","name",0x01020304,false);
+
+        assertEquals(NodeListItem.CHANGE_ADVERTISE_OPTIONS,
+                old.getChanges(item("tag","name",0x01030304,false)));
+        assertEquals(NodeListItem.CHANGE_NAME | NodeListItem.CHANGE_STATUS,
+                old.getChanges(item("tag","newName",0x01020304,true)));
+    }
+
+    @Test
+    public void aMissingNameIsComparedSafely(){
+        assertEquals(0,item("tag",null,0,false).getChanges(item("tag",null,0,false)));
+        assertEquals(NodeListItem.CHANGE_NAME,
+                item("tag",null,0,false).getChanges(item("tag","name",0,false)));
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NodeScanFilterTest {
+
+    private static final byte[] FLAGS = {0x02,0x01,0x06};
+
+    private static final byte[] OTA_SERVICE_ADVERTISE_BYTES =
+            new byte[] {(byte)0x8a,(byte)0x97,(byte)0xf7,(byte)0xc0,(byte)0x85,(byte)0x06,(byte)0x11,
+                    (byte)0xe3,(byte)0xba,(byte)0xa7,(byte)0x08,(byte)0x00,(byte)0x20,(byte)0x0c,(byte)0x9a,
+                    (byte)0x66};
+
+    private static byte[] advertise(byte[] ... fields){
+        int length = 0;
+        for(byte[] field : fields)
+            length+=field.length;
+        byte[] advertise = new byte[length];
+        int offset = 0;
+        for(byte[] field : fields){
+            System.arraycopy(field,0,advertise,offset,field.length);
+            offset+=field.length;
+        }
+        return advertise;
+    }
+
+    private static byte[] field(int type, byte[] data){
+        byte[] field = new byte[data.length+2];
+        field[0] = (byte)(data.length+1);
+        field[1] = (byte)type;
+        System.arraycopy(data,0,field,2,data.length);
+        return field;
+    }
+
+    @Test
+    public void theUuidIsReadLittleEndian(){
+        assertEquals(UUID.fromString("669a0c20-0008-a7ba-e311-0685c0f7978a"),
+                NodeScanFilter.uuidFromAdvertise(OTA_SERVICE_ADVERTISE_BYTES));
+    }
+
+    @Test
+    public void theServiceUuidIsFoundInTheAdvertise(){
+        NodeScanFilter filter = new NodeScanFilter()
+                .withServiceUuid(NodeScanFilter.uuidFromAdvertise(OTA_SERVICE_ADVERTISE_BYTES));
+        assertTrue(filter.matches(advertise(FLAGS,field(0x06,OTA_SERVICE_ADVERTISE_BYTES))));
+        byte[] otherService = OTA_SERVICE_ADVERTISE_BYTES.clone();
+        otherService[0]++;
+        assertFalse(filter.matches(advertise(FLAGS,field(0x06,otherService))));
+        assertFalse(filter.matches(FLAGS));
+    }
+
+    @Test
+    public void aShortUuidIsExpandedWithTheBaseUuid(){
+        NodeScanFilter filter = new NodeScanFilter()
+                .withServiceUuid(UUID.fromString("0000fe40-0000-1000-8000-00805f9b34fb"));
+        assertTrue(filter.matches(advertise(FLAGS,field(0x03,new byte[]{0x0F,0x18,0x40,(byte)0xFE}))));
+        assertFalse(filter.matches(advertise(FLAGS,field(0x03,new byte[]{0x0F,0x18}))));
+    }
+
+    @Test
+    public void theDeviceIdMatchesBothTheBlueStVersions(){
+        NodeScanFilter filter = new NodeScanFilter().withDeviceId((byte)0x86);
+        byte[] v1 = advertise(FLAGS,field(0xFF,new byte[]{0x01,(byte)0x86,0,0,0,0}));
+        byte[] v2 = advertise(FLAGS,field(0xFF,new byte[]{0x30,0x00,0x02,(byte)0x86,0,0,0,0}));
+        byte[] otherDevice = advertise(FLAGS,field(0xFF,new byte[]{0x01,(byte)0x80,0,0,0,0}));
+        byte[] otherVersion = advertise(FLAGS,field(0xFF,new byte[]{0x30,0x00,0x03,(byte)0x86}));
+        assertTrue(filter.matches(v1));
+        assertTrue(filter.matches(v2));
+        assertFalse(filter.matches(otherDevice));
+        assertFalse(filter.matches(otherVersion));
+    }
+
+    @Test
+    public void theManufacturerDataShorterThanThePrefixIsRejected(){
+        NodeScanFilter filter = new NodeScanFilter()
+                .withManufacturerData(0x0030,new byte[]{0x02,(byte)0x86});
+        assertFalse(filter.matches(advertise(FLAGS,field(0xFF,new byte[]{0x30,0x00,0x02}))));
+    }
+
+    @Test
+    public void anEmptyFilterAcceptsEverything(){
+        NodeScanFilter filter = new NodeScanFilter();
+        assertTrue(filter.isEmpty());
+        assertTrue(filter.matches(FLAGS));
+    }
+}
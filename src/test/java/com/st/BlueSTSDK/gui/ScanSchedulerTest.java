@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanSchedulerTest {
+
+    private static final ScanPolicy POLICY = new ScanPolicy(3000,1500,1000,4000,12000,60000);
+
+    private static void assertStep(int action, long duration, ScanScheduler.Step step){
+        assertEquals(action,step.action);
+        assertEquals(duration,step.durationMs);
+    }
+
+    @Test
+    public void theFixedWindowScansOnce(){
+        ScanScheduler scheduler = new ScanScheduler(ScanPolicy.FIXED_WINDOW);
+        scheduler.start(0);
+        assertStep(ScanScheduler.Step.SCAN,10000,scheduler.next(0));
+        scheduler.onNewNode(5000);
+        assertStep(ScanScheduler.Step.STOP,0,scheduler.next(10000));
+        assertFalse(scheduler.isRunning());
+    }
+
+    @Test
+    public void theBurstContinuesWhileNewNodesAreFound(){
+        ScanScheduler scheduler = new ScanScheduler(POLICY);
+        scheduler.start(0);
+        assertStep(ScanScheduler.Step.SCAN,3000,scheduler.next(0));
+        scheduler.onNewNode(2500);
+        assertStep(ScanScheduler.Step.SCAN,1000,scheduler.next(3000));
+        assertStep(ScanScheduler.Step.IDLE,3000,scheduler.next(4000));
+    }
+
+    @Test
+    public void withoutNewNodesTheScanRunsOnlyInTheWindow(){
+        ScanScheduler scheduler = new ScanScheduler(POLICY);
+        scheduler.start(0);
+        assertStep(ScanScheduler.Step.SCAN,3000,scheduler.next(0));
+        assertStep(ScanScheduler.Step.IDLE,3000,scheduler.next(3000));
+        assertStep(ScanScheduler.Step.SCAN,1000,scheduler.next(6000));
+        assertStep(ScanScheduler.Step.IDLE,3000,scheduler.next(7000));
+        assertStep(ScanScheduler.Step.SCAN,1000,scheduler.next(10000));
+        //the idle time is cut by the quiet timeout
+        assertStep(ScanScheduler.Step.IDLE,1000,scheduler.next(11000));
+        assertStep(ScanScheduler.Step.STOP,0,scheduler.next(12000));
+    }
+
+    @Test
+    public void aNewNodeInTheWindowRestartsTheBurst(){
+        ScanScheduler scheduler = new ScanScheduler(POLICY);
+        scheduler.start(0);
+        scheduler.next(0);
+        scheduler.next(3000);
+        scheduler.next(6000);
+        scheduler.onNewNode(6800);
+        assertStep(ScanScheduler.Step.SCAN,1300,scheduler.next(7000));
+        assertStep(ScanScheduler.Step.IDLE,3000,scheduler.next(8300));
+    }
+
+    @Test
+    public void theDiscoveryStopsAfterTheMaxTime(){
+        ScanScheduler scheduler = new ScanScheduler(POLICY);
+        scheduler.start(0);
+        scheduler.onNewNode(59000);
+        assertStep(ScanScheduler.Step.SCAN,1000,scheduler.next(59000));
+        assertStep(ScanScheduler.Step.STOP,0,scheduler.next(60000));
+    }
+
+    @Test
+    public void theWindowsScanWithLessPowerThanTheBurst(){
+        ScanScheduler scheduler = new ScanScheduler(POLICY);
+        scheduler.start(0);
+        assertEquals(ScanScheduler.Step.MODE_LOW_LATENCY,scheduler.next(0).scanMode);
+        scheduler.next(3000);
+        assertEquals(ScanScheduler.Step.MODE_BALANCED,scheduler.next(6000).scanMode);
+    }
+
+    @Test
+    public void aWindowAsLongAsTheIntervalUsesTheLowPowerScan(){
+        ScanScheduler scheduler = new ScanScheduler(new ScanPolicy(3000,0,4000,4000,0,60000));
+        scheduler.start(0);
+        assertEquals(ScanScheduler.Step.MODE_LOW_LATENCY,scheduler.next(0).scanMode);
+        ScanScheduler.Step step = scheduler.next(3000);
+        assertStep(ScanScheduler.Step.SCAN,4000,step);
+        assertEquals(ScanScheduler.Step.MODE_LOW_POWER,step.scanMode);
+    }
+
+    @Test
+    public void theAdaptivePolicyStartsAtMostFourScansIn30s(){
+        ScanScheduler scheduler = new ScanScheduler(ScanPolicy.ADAPTIVE);
+        scheduler.start(0);
+        List<Long> scanStarts = new ArrayList<>();
+        boolean scanning = false;
+        long now = 0;
+        ScanScheduler.Step step = scheduler.next(now);
+        while (step.action!=ScanScheduler.Step.STOP){
+            if(step.action==ScanScheduler.Step.SCAN){
+                if(!scanning)
+                    scanStarts.add(now);
+                scanning = true;
+                //a new node in each window keeps the discovery running until the max time
+                scheduler.onNewNode(now);
+            }else{
+                scanning = false;
+            }
+            assertTrue(step.durationMs>0);
+            now+=step.durationMs;
+            step = scheduler.next(now);
+        }
+        assertTrue(scanStarts.size()>4);
+        for(int i=4;i<scanStarts.size();i++)
+            assertTrue(scanStarts.get(i)-scanStarts.get(i-4)>=30*1000);
+    }
+
+    @Test
+    public void aStoppedSchedulerDoesNotScan(){
+        ScanScheduler scheduler = new ScanScheduler(POLICY);
+        scheduler.start(0);
+        scheduler.stop();
+        assertStep(ScanScheduler.Step.STOP,0,scheduler.next(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void theWindowMustBeInsideTheInterval(){
+        new ScanPolicy(3000,1500,5000,4000,12000,60000);
+    }
+}
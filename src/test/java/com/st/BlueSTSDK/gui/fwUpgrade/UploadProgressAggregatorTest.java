@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UploadProgressAggregatorTest {
+
+    private static final long TOTAL = 100000;
+
+    @Test
+    public void theFirstUpdateIsReported(){
+        UploadProgressAggregator progress = new UploadProgressAggregator(250,0.01f);
+        assertTrue(progress.update(0,TOTAL,0));
+    }
+
+    @Test
+    public void closeUpdatesAreCoalesced(){
+        UploadProgressAggregator progress = new UploadProgressAggregator(250,0.01f);
+        progress.update(0,TOTAL,0);
+        assertFalse(progress.update(20,TOTAL,10));
+        assertFalse(progress.update(40,TOTAL,20));
+        assertTrue(progress.update(60,TOTAL,250));
+    }
+
+    @Test
+    public void aBigStepIsReported(){
+        UploadProgressAggregator progress = new UploadProgressAggregator(250,0.01f);
+        progress.update(0,TOTAL,0);
+        assertTrue(progress.update(TOTAL/100,TOTAL,10));
+    }
+
+    @Test
+    public void theLastUpdateIsReported(){
+        UploadProgressAggregator progress = new UploadProgressAggregator(250,0.01f);
+        progress.update(TOTAL-20,TOTAL,0);
+        assertTrue(progress.update(TOTAL,TOTAL,1));
+    }
+
+    @Test
+    public void rateAndEtaAreComputedOnTheReports(){
+        UploadProgressAggregator progress = new UploadProgressAggregator(1000,1.0f);
+        progress.update(0,TOTAL,0);
+        for(int i=1;i<=10;i++)
+            progress.update(i*1000,TOTAL,i*100);
+        assertEquals(10000.0f,progress.getInstantRate(),0.1f);
+        assertEquals(10000.0f,progress.getAverageRate(),0.1f);
+        assertEquals(9000,progress.getEtaMs());
+    }
+
+}
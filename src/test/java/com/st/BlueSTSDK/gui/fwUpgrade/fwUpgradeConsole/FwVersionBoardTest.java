@@ -64,6 +64,25 @@ public class FwVersionBoardTest {
 
     }
 
+    @Test
+    public void theFeaturesFollowTheVersion(){
+        FwVersionBoard version = new FwVersionBoard(VERSION_STRING+"+lz4,other");
+
+        assertEquals(FW_NAME,version.getName());
+        assertEquals(VERSION.getPatchVersion(),version.getPatchVersion());
+        assertTrue(version.hasFeature(FwVersionBoard.COMPRESSED_UPLOAD_FEATURE));
+        assertTrue(version.hasFeature("other"));
+        assertFalse(version.hasFeature("missing"));
+    }
+
+    @Test
+    public void aVersionWithoutFeaturesHasNoFeatures(){
+        FwVersionBoard version = new FwVersionBoard(VERSION_STRING);
+
+        assertFalse(version.hasFeature(FwVersionBoard.COMPRESSED_UPLOAD_FEATURE));
+        assertFalse(version.hasFeature(FwVersionBoard.LARGE_PACKAGE_FEATURE));
+    }
+
     @Test(expected = IllegalVersionFormatException.class)
     public void invalidFormatThrowException(){
         new FwVersionBoard("invalid_Format");
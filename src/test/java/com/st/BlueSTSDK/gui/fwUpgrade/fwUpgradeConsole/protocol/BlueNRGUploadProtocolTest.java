@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.FwUpgradeConsole.FwUpgradeCallback;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BlueNRGUploadProtocolTest {
+
+    private static final long MAX_UPLOAD_TIME_MS = 10*60*1000;
+    private static final long FLASH_LOWER_BOUND = 0x10000;
+    private static final int FLASH_SIZE = 64*1024;
+
+    private VirtualScheduler mScheduler;
+    private SimulatedBlueNRGNode mNode;
+    private NucleoUploadProtocolTest.UploadResult mResult;
+    private byte[] mFile;
+
+    @Before
+    public void setUp(){
+        mScheduler = new VirtualScheduler();
+        mNode = new SimulatedBlueNRGNode(mScheduler,0,FLASH_LOWER_BOUND,FLASH_SIZE);
+        mResult = new NucleoUploadProtocolTest.UploadResult();
+        mFile = NucleoUploadProtocolTest.randomFile(5000);
+    }
+
+    private BlueNRGUploadProtocol startUpload(int mtu){
+        BlueNRGUploadProtocol protocol = new BlueNRGUploadProtocol(mScheduler,mNode,mtu,mResult);
+        protocol.start();
+        return protocol;
+    }
+
+    private void upload(int mtu){
+        startUpload(mtu).setImage(FirmwareImage.wrap(mFile));
+        assertTrue(mScheduler.runUntilIdle(MAX_UPLOAD_TIME_MS));
+    }
+
+    private void assertImageIsWritten(){
+        assertTrue(mResult.completed);
+        assertArrayEquals(mFile,Arrays.copyOf(mNode.getFlash(),mFile.length));
+    }
+
+    @Test
+    public void theImageIsWrittenInTheFlash(){
+        upload(BlueNRGUploadProtocol.UNKNOWN_MTU);
+        assertImageIsWritten();
+    }
+
+    @Test
+    public void withABigMtuTheImageIsSentWithLessWrites(){
+        upload(BlueNRGUploadProtocol.UNKNOWN_MTU);
+        int nSmallWrites = mNode.getLink().getNWrites();
+
+        setUp();
+        mNode.getLink().setMtu(220);
+        upload(220);
+        assertImageIsWritten();
+        assertTrue(mNode.getLink().getNWrites()*4 < nSmallWrites);
+    }
+
+    @Test
+    public void theLostBlocksAreSentAgain(){
+        //the first writes are the handshake
+        mNode.getLink().loseWrites(20,35,36,100);
+        upload(BlueNRGUploadProtocol.UNKNOWN_MTU);
+        assertImageIsWritten();
+        assertTrue(mNode.getLink().getNLostWrites()>0);
+    }
+
+    @Test
+    public void theUploadWaitsForTheImage(){
+        BlueNRGUploadProtocol protocol = startUpload(BlueNRGUploadProtocol.UNKNOWN_MTU);
+        mScheduler.runUntilIdle(MAX_UPLOAD_TIME_MS);
+        assertFalse(mResult.completed);
+        assertEquals(0,mNode.getNWrittenBytes());
+
+        protocol.setImage(FirmwareImage.wrap(mFile));
+        assertTrue(mScheduler.runUntilIdle(MAX_UPLOAD_TIME_MS));
+        assertImageIsWritten();
+    }
+
+    @Test
+    public void anImageBiggerThanTheFlashIsRefused(){
+        mFile = NucleoUploadProtocolTest.randomFile(FLASH_SIZE+1);
+        upload(BlueNRGUploadProtocol.UNKNOWN_MTU);
+        assertFalse(mResult.completed);
+        assertEquals(FwUpgradeCallback.ERROR_TRANSMISSION,mResult.error);
+        assertEquals(0,mNode.getNWrittenBytes());
+    }
+
+    @Test
+    public void aCanceledUploadIsNotNotified(){
+        BlueNRGUploadProtocol protocol = startUpload(BlueNRGUploadProtocol.UNKNOWN_MTU);
+        protocol.setImage(FirmwareImage.wrap(mFile));
+        mScheduler.runUntilIdle(200);
+        protocol.cancel();
+        mScheduler.runUntilIdle(MAX_UPLOAD_TIME_MS);
+        assertFalse(mResult.completed);
+        assertEquals(-1,mResult.error);
+        assertTrue(mNode.getNWrittenBytes()<mFile.length);
+    }
+}
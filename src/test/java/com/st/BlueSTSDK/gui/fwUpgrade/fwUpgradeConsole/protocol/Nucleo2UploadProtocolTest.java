@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueSTSDK.Utils.NumberConversion;
+import com.st.BlueSTSDK.gui.fwUpgrade.FirmwareType;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.Lz4BlockCompressor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Nucleo2UploadProtocolTest {
+
+    private static final long MAX_UPLOAD_TIME_MS = 10*60*1000;
+
+    private VirtualScheduler mScheduler;
+    private SimulatedNucleoNode mNode;
+    private NucleoUploadProtocolTest.UploadResult mResult;
+    private byte[] mFile;
+
+    /**
+     * console that answers to the upload command, records the sent packages and reports the
+     * lost packages chosen by the test
+     */
+    private static class ScriptedConsole implements ConsoleTransport {
+        private final VirtualScheduler mScheduler;
+        private Listener mListener;
+        private boolean mCommandReceived;
+        final List<Integer> sentPackages = new ArrayList<>();
+
+        ScriptedConsole(VirtualScheduler scheduler){
+            mScheduler = scheduler;
+        }
+
+        @Override
+        public void setListener(@Nullable Listener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public int write(@NonNull byte[] data, int offset, int length) {
+            Listener listener = mListener;
+            if(!mCommandReceived){
+                mCommandReceived = true;
+                //answer with the crc, the last 4 bytes of the command
+                byte[] crc = Arrays.copyOfRange(data,offset+length-4,offset+length);
+                mScheduler.post(() -> listener.onStdOutReceived(crc));
+            }else{
+                sentPackages.add((int)NumberConversion.LittleEndian.bytesToUInt32(data,
+                        offset+length-Nucleo2UploadProtocol.PACKAGE_ID_SIZE));
+            }
+            mScheduler.post(() -> listener.onStdInSent(true));
+            return length;
+        }
+
+        void reportLost(long lastReceived){
+            byte[] message = new byte[1+Nucleo2UploadProtocol.PACKAGE_ID_SIZE];
+            message[0] = 0x01;
+            System.arraycopy(NumberConversion.LittleEndian.uint32ToBytes(lastReceived),0,
+                    message,1,Nucleo2UploadProtocol.PACKAGE_ID_SIZE);
+            mListener.onStdErrReceived(message);
+        }
+
+        List<Integer> sentAfter(int nPackage){
+            return sentPackages.subList(nPackage,sentPackages.size());
+        }
+    }
+
+    private ScriptedConsole startScriptedUpload(){
+        ScriptedConsole console = new ScriptedConsole(mScheduler);
+        new Nucleo2UploadProtocol(mScheduler,console,FirmwareImage.wrap(mFile),
+                FirmwareType.BOARD_FW,16,mResult).start();
+        mScheduler.runUntilIdle(100);
+        return console;
+    }
+
+    @Before
+    public void setUp(){
+        mScheduler = new VirtualScheduler();
+        mNode = new SimulatedNucleoNode(true);
+        mResult = new NucleoUploadProtocolTest.UploadResult();
+        mFile = NucleoUploadProtocolTest.randomFile(5000);
+    }
+
+    private void upload(SimulatedLink link){
+        new Nucleo2UploadProtocol(mScheduler,link,FirmwareImage.wrap(mFile), FirmwareType.BOARD_FW,
+                16,mResult).start();
+        assertTrue(mScheduler.runUntilIdle(MAX_UPLOAD_TIME_MS));
+    }
+
+    @Test
+    public void theFileIsUploadedOnAReliableLink(){
+        upload(new SimulatedLink(mScheduler,mNode,0));
+        assertTrue(mResult.completed);
+        assertArrayEquals(mFile,mNode.getReceivedData());
+    }
+
+    @Test
+    public void theLostPackagesAreSentAgain(){
+        upload(new SimulatedLink(mScheduler,mNode,0).loseWrites(10,11,100));
+        assertTrue(mNode.getNPackageRequest()>0);
+        assertTrue(mResult.completed);
+        assertArrayEquals(mFile,mNode.getReceivedData());
+    }
+
+    @Test
+    public void theCompressedFileIsDecodedByTheNode(){
+        Arrays.fill(mFile,1000,4000,(byte)0xFF);
+        FirmwareImage image = FirmwareImage.wrap(mFile);
+        FirmwareImage compressed = Lz4BlockCompressor.compress(image);
+        SimulatedLink link = new SimulatedLink(mScheduler,mNode,0).loseWrites(3,20);
+        new Nucleo2UploadProtocol(mScheduler,link,image,image.computeCrc32(),compressed,
+                FirmwareType.BOARD_FW,16,mResult).start();
+        assertTrue(mScheduler.runUntilIdle(MAX_UPLOAD_TIME_MS));
+        assertTrue(mNode.isCompressed());
+        assertTrue(mResult.completed);
+        assertArrayEquals(mFile,mNode.getReceivedData());
+    }
+
+    @Test
+    public void theUncompressedFileUsesTheOriginalCommand(){
+        upload(new SimulatedLink(mScheduler,mNode,0));
+        assertFalse(mNode.isCompressed());
+    }
+
+    @Test
+    public void theFirstPackageLostIsSentAlone(){
+        ScriptedConsole console = startScriptedUpload();
+        int nSent = console.sentPackages.size();
+        console.reportLost(0xFFFFFFFFL);
+        mScheduler.runUntilIdle(200);
+        List<Integer> resent = console.sentAfter(nSent);
+        assertEquals(0,(int)resent.get(0));
+        assertEquals(nSent,(int)resent.get(1));
+    }
+
+    @Test
+    public void twoRequestsInTheSameBurstAreSentAlone(){
+        ScriptedConsole console = startScriptedUpload();
+        int nSent = console.sentPackages.size();
+        console.reportLost(2);
+        console.reportLost(3);
+        mScheduler.runUntilIdle(200);
+        List<Integer> resent = console.sentAfter(nSent);
+        assertEquals(4,(int)resent.get(0));
+        assertEquals(nSent,(int)resent.get(1));
+    }
+
+    @Test
+    public void theNextRequestAfterAResendSendsAllTheFollowingPackages(){
+        ScriptedConsole console = startScriptedUpload();
+        int nSent = console.sentPackages.size();
+        console.reportLost(2);
+        mScheduler.runUntilIdle(120);
+        assertEquals(3,(int)console.sentPackages.get(nSent));
+        int nSentAfterResend = console.sentPackages.size();
+        console.reportLost(3);
+        mScheduler.runUntilIdle(300);
+        List<Integer> resent = console.sentAfter(nSentAfterResend);
+        for(int i = 0 ; i<nSent-4 ; i++)
+            assertEquals(4+i,(int)resent.get(i));
+    }
+
+    @Test
+    public void theReceivedPackagesAreNotSentAgain(){
+        ScriptedConsole console = startScriptedUpload();
+        int nSent = console.sentPackages.size();
+        console.reportLost(1);
+        mScheduler.runUntilIdle(120);
+        assertEquals(2,(int)console.sentPackages.get(nSent));
+        int nSentAfterResend = console.sentPackages.size();
+        //the node received the resent package and the next one, it lost the package 4
+        console.reportLost(3);
+        mScheduler.runUntilIdle(200);
+        List<Integer> resent = console.sentAfter(nSentAfterResend);
+        assertEquals(4,(int)resent.get(0));
+        //one of the sent packages was a resend
+        assertEquals(nSentAfterResend-1,(int)resent.get(1));
+        assertFalse(resent.contains(2));
+        assertFalse(resent.contains(3));
+    }
+
+    @Test
+    public void aPackageAskedTooManyTimesSendsAllTheFollowingPackages(){
+        ScriptedConsole console = startScriptedUpload();
+        console.reportLost(2);
+        mScheduler.runUntilIdle(120);
+        console.reportLost(2);
+        mScheduler.runUntilIdle(140);
+        int nSent = console.sentPackages.size();
+        //two of the sent packages were resends
+        int nNewPackages = nSent-2;
+        console.reportLost(2);
+        mScheduler.runUntilIdle(400);
+        List<Integer> resent = console.sentAfter(nSent);
+        for(int i = 0 ; i<nNewPackages-3 ; i++)
+            assertEquals(3+i,(int)resent.get(i));
+    }
+
+    @Test
+    public void theReorderedPackagesAreSentAgain(){
+        upload(new SimulatedLink(mScheduler,mNode,0).setLatency(5,30));
+        assertTrue(mResult.completed);
+        assertArrayEquals(mFile,mNode.getReceivedData());
+    }
+
+}
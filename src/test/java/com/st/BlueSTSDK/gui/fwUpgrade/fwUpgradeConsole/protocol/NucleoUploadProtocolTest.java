@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import com.st.BlueSTSDK.gui.fwUpgrade.FirmwareType;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.FwUpgradeConsole.FwUpgradeCallback;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NucleoUploadProtocolTest {
+
+    private static final long MAX_UPLOAD_TIME_MS = 10*60*1000;
+
+    static class UploadResult implements NucleoUploadProtocol.UploadListener {
+        boolean completed = false;
+        int error = -1;
+
+        @Override
+        public void onUploadProgress(long bytesToSend) { }
+
+        @Override
+        public void onUploadComplete() {
+            completed = true;
+        }
+
+        @Override
+        public void onUploadError(int errorCode) {
+            error = errorCode;
+        }
+    }
+
+    static byte[] randomFile(int size){
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private VirtualScheduler mScheduler;
+    private SimulatedNucleoNode mNode;
+    private UploadResult mResult;
+    private byte[] mFile;
+
+    @Before
+    public void setUp(){
+        mScheduler = new VirtualScheduler();
+        mNode = new SimulatedNucleoNode(false);
+        mResult = new UploadResult();
+        mFile = randomFile(5000);
+    }
+
+    private void upload(SimulatedLink link, int packageSize){
+        new NucleoUploadProtocol(mScheduler,link,FirmwareImage.wrap(mFile), FirmwareType.BOARD_FW,
+                packageSize,2,mResult).start();
+        assertTrue(mScheduler.runUntilIdle(MAX_UPLOAD_TIME_MS));
+    }
+
+    @Test
+    public void theFileIsUploadedOnAReliableLink(){
+        upload(new SimulatedLink(mScheduler,mNode,0),16);
+        assertTrue(mResult.completed);
+        assertArrayEquals(mFile,mNode.getReceivedData());
+    }
+
+    @Test
+    public void theFileIsUploadedWithPackagesAsBigAsTheMtu(){
+        SimulatedLink link = new SimulatedLink(mScheduler,mNode,0).setMtu(247);
+        upload(link,240);
+        assertTrue(mResult.completed);
+        assertEquals((mFile.length+239)/240,link.getNWrites()-1);
+    }
+
+    @Test
+    public void aPackageBiggerThanTheMtuIsAnError(){
+        upload(new SimulatedLink(mScheduler,mNode,0),32);
+        assertEquals(FwUpgradeCallback.ERROR_TRANSMISSION,mResult.error);
+    }
+
+    @Test
+    public void aLostPackageStopsTheUpload(){
+        upload(new SimulatedLink(mScheduler,mNode,0).setLossRate(0.01),16);
+        assertEquals(FwUpgradeCallback.ERROR_TRANSMISSION,mResult.error);
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import com.st.BlueSTSDK.gui.fwUpgrade.FirmwareType;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.FwUpgradeConsole.FwUpgradeCallback;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.UploadCheckpointStore;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class STM32WBUploadProtocolTest {
+
+    private static final long MAX_UPLOAD_TIME_MS = 10*60*1000;
+    private static final int FLASH_SIZE = 64*1024;
+    private static final int CHUNK_LENGTH = 20;
+    private static final int RESUME_FILE_SIZE = 20000;
+
+    private static class MemoryCheckpoint implements UploadCheckpointStore.Checkpoint {
+        long sentBytes;
+
+        @Override
+        public long getSentBytes() {
+            return sentBytes;
+        }
+
+        @Override
+        public void setSentBytes(long sentBytes) {
+            this.sentBytes = sentBytes;
+        }
+
+        @Override
+        public void clear() {
+            sentBytes = 0;
+        }
+    }
+
+    private VirtualScheduler mScheduler;
+    private SimulatedSTM32WBNode mNode;
+    private NucleoUploadProtocolTest.UploadResult mResult;
+    private byte[] mFile;
+    private FirmwareImage mImage;
+
+    @Before
+    public void setUp(){
+        mScheduler = new VirtualScheduler();
+        mFile = NucleoUploadProtocolTest.randomFile(5000);
+        mImage = FirmwareImage.wrap(mFile);
+        mNode = new SimulatedSTM32WBNode(mScheduler,0,FLASH_SIZE)
+                .expectImage(mFile.length,mImage.computeCrc32());
+        mResult = new NucleoUploadProtocolTest.UploadResult();
+    }
+
+    private STM32WBUploadProtocol startUpload(){
+        return startUpload(null);
+    }
+
+    private STM32WBUploadProtocol startUpload(UploadCheckpointStore.Checkpoint checkpoint){
+        STM32WBUploadProtocol protocol = new STM32WBUploadProtocol(mNode,mImage,
+                FirmwareType.BOARD_FW,0,CHUNK_LENGTH,checkpoint,mResult);
+        protocol.start();
+        return protocol;
+    }
+
+    /**
+     * start an upload of a bigger file and cancel it when at least 2 checkpoints are saved
+     * @return number of image chunks sent before the cancel
+     */
+    private int cancelUploadAfterTwoCheckpoints(MemoryCheckpoint checkpoint){
+        mFile = NucleoUploadProtocolTest.randomFile(RESUME_FILE_SIZE);
+        mImage = FirmwareImage.wrap(mFile);
+        mNode.expectImage(mFile.length,mImage.computeCrc32());
+        STM32WBUploadProtocol protocol = startUpload(checkpoint);
+        long time = 0;
+        while (checkpoint.sentBytes<2*STM32WBUploadProtocol.CHECKPOINT_PERIOD){
+            time+=10;
+            assertFalse(mScheduler.runUntilIdle(time));
+        }
+        protocol.cancel();
+        assertTrue(mScheduler.runUntilIdle(MAX_UPLOAD_TIME_MS));
+        return mNode.getNImageWrites();
+    }
+
+    @Test
+    public void theImageIsWrittenInTheFlash(){
+        startUpload();
+        assertTrue(mScheduler.runUntilIdle(MAX_UPLOAD_TIME_MS));
+        assertTrue(mResult.completed);
+        assertArrayEquals(mFile,Arrays.copyOf(mNode.getFlash(),mFile.length));
+    }
+
+    @Test
+    public void aLostChunkMakesTheNodeRefuseTheImage(){
+        mNode.getLink().loseWrites(10);
+        startUpload();
+        assertTrue(mScheduler.runUntilIdle(MAX_UPLOAD_TIME_MS));
+        assertFalse(mResult.completed);
+        assertEquals(FwUpgradeCallback.ERROR_TRANSMISSION,mResult.error);
+    }
+
+    @Test
+    public void aCanceledUploadIsNotNotified(){
+        STM32WBUploadProtocol protocol = startUpload();
+        mScheduler.runUntilIdle(100);
+        protocol.cancel();
+        assertTrue(mScheduler.runUntilIdle(MAX_UPLOAD_TIME_MS));
+        assertFalse(mResult.completed);
+        assertEquals(-1,mResult.error);
+    }
+
+    @Test
+    public void theUploadResumesOnlyFromTheLengthReportedByTheBoard(){
+        //nothing sent
+        assertEquals(0,STM32WBUploadProtocol.getResumeOffset(0,4096,20000));
+        //the board doesn't have the data
+        assertEquals(0,STM32WBUploadProtocol.getResumeOffset(8192,0,20000));
+        //the board has more data than what this phone sent: written by someone else
+        assertEquals(0,STM32WBUploadProtocol.getResumeOffset(4096,8192,20000));
+        //the board has all the image: upload it again to check the crc
+        assertEquals(0,STM32WBUploadProtocol.getResumeOffset(20000,20000,20000));
+        assertEquals(4096,STM32WBUploadProtocol.getResumeOffset(8192,4096,20000));
+        assertEquals(8192,STM32WBUploadProtocol.getResumeOffset(8192,8192,20000));
+    }
+
+    @Test
+    public void withoutBoardSupportTheCheckpointIsNotUsed(){
+        mFile = NucleoUploadProtocolTest.randomFile(RESUME_FILE_SIZE);
+        mImage = FirmwareImage.wrap(mFile);
+        mNode.expectImage(mFile.length,mImage.computeCrc32());
+        MemoryCheckpoint checkpoint = new MemoryCheckpoint();
+        checkpoint.sentBytes = 2*STM32WBUploadProtocol.CHECKPOINT_PERIOD;
+
+        startUpload(checkpoint);
+        assertTrue(mScheduler.runUntilIdle(MAX_UPLOAD_TIME_MS));
+        assertTrue(mResult.completed);
+        assertEquals(RESUME_FILE_SIZE/CHUNK_LENGTH,mNode.getNImageWrites());
+        assertEquals(2*STM32WBUploadProtocol.CHECKPOINT_PERIOD,checkpoint.sentBytes);
+    }
+
+    @Test
+    public void theUploadResumesFromTheDataInTheBoard(){
+        mNode.setResumeSupported(true);
+        MemoryCheckpoint checkpoint = new MemoryCheckpoint();
+        int firstWrites = cancelUploadAfterTwoCheckpoints(checkpoint);
+
+        startUpload(checkpoint);
+        assertTrue(mScheduler.runUntilIdle(MAX_UPLOAD_TIME_MS));
+        assertTrue(mResult.completed);
+        int secondWrites = mNode.getNImageWrites()-firstWrites;
+        assertTrue(secondWrites<RESUME_FILE_SIZE/CHUNK_LENGTH);
+        assertArrayEquals(mFile,Arrays.copyOf(mNode.getFlash(),mFile.length));
+    }
+
+    @Test
+    public void anErasedBoardIsUploadedFromTheStart(){
+        mNode.setResumeSupported(true);
+        MemoryCheckpoint checkpoint = new MemoryCheckpoint();
+        int firstWrites = cancelUploadAfterTwoCheckpoints(checkpoint);
+        mNode.eraseFlash();
+
+        startUpload(checkpoint);
+        assertTrue(mScheduler.runUntilIdle(MAX_UPLOAD_TIME_MS));
+        assertTrue(mResult.completed);
+        assertEquals(firstWrites+RESUME_FILE_SIZE/CHUNK_LENGTH,mNode.getNImageWrites());
+        assertArrayEquals(mFile,Arrays.copyOf(mNode.getFlash(),mFile.length));
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueNRG.fwUpgrade.feature.ExpectedImageTUSeqNumberFeature.ErrorCode;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * BlueNRG OTA service on a simulated link: the phone side implements the transport used by
+ * {@link BlueNRGUploadProtocol}, the node side writes the received blocks in its flash.
+ * <p>
+ * Each characteristic read or write is a write on the link that starts with the operation code,
+ * the node answers on its stdout. An image block contains the operation code, the sequence
+ * number, the ack request and the data, so it has the same size of the real one.
+ * The node writes only the block with the expected sequence number and when a block asks for the
+ * ack it notifies the next expected block, with a sequence error if some blocks are lost.
+ * As in the real transport, the block buffers are reused when they are written.
+ * </p>
+ * <p>
+ * As the real service, the node erases all the image area when it receives the upload
+ * parameters.
+ * </p>
+ */
+public class SimulatedBlueNRGNode implements BlueNRGOtaTransport, SimulatedLink.NodeConsole {
+
+    private static final byte READ_MEMORY_INFO = 1;
+    private static final byte READ_UPLOAD_PARAM = 2;
+    private static final byte READ_WRITE_LENGTH = 3;
+    private static final byte WRITE_UPLOAD_PARAM = 4;
+    private static final byte ENABLE_ACK = 5;
+    private static final byte DISABLE_ACK = 6;
+    private static final byte IMAGE_BLOCK = 7;
+    private static final byte ACK_NOTIFICATION = 8;
+
+    private static final int BLOCK_HEADER_SIZE = 4;
+    private static final byte DEFAULT_ACK_EVERY = 8;
+
+    private final SimulatedLink mLink;
+    private final long mFlashLowerBound;
+    private final byte[] mFlash;
+    private final VirtualScheduler mScheduler;
+    private final ArrayDeque<Runnable> mWriteCallbacks = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> mFreeBlocks = new ArrayDeque<>();
+    private @Nullable Listener mListener;
+
+    //phone state
+    private int mNAllocatedBlocks;
+    private int mNImageWrites;
+    private long mFirstImageWriteTime = -1;
+    private int mPacketSize;
+
+    //node state
+    private byte mAckEvery = DEFAULT_ACK_EVERY;
+    private long mImageSize;
+    private long mBaseAddress;
+    private boolean mAckEnabled;
+    private int mNextExpectedBlock;
+    private int mNWrittenBytes;
+
+    private final Runnable noCallback = () -> { };
+
+    private final ConsoleTransport.Listener mLinkListener = new ConsoleTransport.Listener() {
+        @Override
+        public void onStdOutReceived(@NonNull byte[] data) {
+            onNodeMessage(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN));
+        }
+
+        @Override
+        public void onStdErrReceived(@NonNull byte[] data) { }
+
+        @Override
+        public void onStdInSent(boolean writeResult) {
+            Runnable callback = mWriteCallbacks.poll();
+            if(callback!=null)
+                callback.run();
+        }
+    };
+
+    /**
+     * @param scheduler scheduler with the virtual time
+     * @param seed seed used for the link loss
+     * @param flashLowerBound first flash address where an image can be written
+     * @param flashSize number of bytes that can be written
+     */
+    public SimulatedBlueNRGNode(@NonNull VirtualScheduler scheduler, long seed,
+                                long flashLowerBound, int flashSize){
+        mScheduler = scheduler;
+        mLink = new SimulatedLink(scheduler,this,seed);
+        mLink.setListener(mLinkListener);
+        mFlashLowerBound = flashLowerBound;
+        mFlash = new byte[flashSize];
+        Arrays.fill(mFlash,(byte)0xFF);
+    }
+
+    /**
+     * @return link used by the node, to change its parameters
+     */
+    public SimulatedLink getLink(){
+        return mLink;
+    }
+
+    /**
+     * @return content of the node flash, from the flash lower bound
+     */
+    public byte[] getFlash(){
+        return mFlash;
+    }
+
+    /**
+     * @return number of image blocks sent by the phone
+     */
+    public int getNImageWrites(){
+        return mNImageWrites;
+    }
+
+    /**
+     * @return number of image bytes in the last block sent by the phone
+     */
+    public int getPacketSize(){
+        return mPacketSize;
+    }
+
+    /**
+     * @return number of block buffers allocated by the phone
+     */
+    public int getNAllocatedBlocks(){
+        return mNAllocatedBlocks;
+    }
+
+    /**
+     * @return time when the phone sent the first image block, -1 if it didn't send it
+     */
+    public long getFirstImageWriteTime(){
+        return mFirstImageWriteTime;
+    }
+
+    /**
+     * @return number of image bytes written in the flash
+     */
+    public int getNWrittenBytes(){
+        return mNWrittenBytes;
+    }
+
+    private void write(@NonNull byte[] data, @Nullable Runnable onWritten){
+        mWriteCallbacks.add(onWritten!=null ? onWritten : noCallback);
+        mLink.write(data,0,data.length);
+    }
+
+    private void write(byte operation){
+        write(new byte[]{operation},null);
+    }
+
+    private void onNodeMessage(ByteBuffer message){
+        Listener listener = mListener;
+        if(listener==null)
+            return;
+        switch (message.get()){
+            case READ_MEMORY_INFO:
+                listener.onMemoryInfoRead(message.getInt() & 0xFFFFFFFFL,
+                        message.getInt() & 0xFFFFFFFFL);
+                break;
+            case READ_UPLOAD_PARAM:
+                listener.onUploadParamRead(message.get(),message.getInt() & 0xFFFFFFFFL,
+                        message.getInt() & 0xFFFFFFFFL);
+                break;
+            case READ_WRITE_LENGTH:
+                listener.onExpectedWriteLengthRead(message.getShort());
+                break;
+            case ACK_NOTIFICATION:
+                listener.onAckReceived(message.getShort(),ErrorCode.values()[message.get()]);
+                break;
+        }
+    }
+
+    @Override
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void readMemoryInfo() {
+        write(READ_MEMORY_INFO);
+    }
+
+    @Override
+    public void readUploadParam() {
+        write(READ_UPLOAD_PARAM);
+    }
+
+    @Override
+    public void readExpectedWriteLength() {
+        write(READ_WRITE_LENGTH);
+    }
+
+    @Override
+    public void writeUploadParam(byte otaAckEvery, long imageSize, long baseAddress,
+                                 @NonNull Runnable onWritten) {
+        ByteBuffer message = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+        message.put(WRITE_UPLOAD_PARAM).put(otaAckEvery)
+                .putInt((int)imageSize).putInt((int)baseAddress);
+        write(message.array(),onWritten);
+    }
+
+    @Override
+    public void enableAckNotification() {
+        write(ENABLE_ACK);
+    }
+
+    @Override
+    public void disableAckNotification() {
+        write(DISABLE_ACK);
+    }
+
+    @Override
+    public void writeImageBlocks(@NonNull FirmwareImage image, byte ackEvery, byte lastAckEvery,
+                                 int packetSize, short seqNum, @NonNull Runnable onLastWritten) {
+        //same number of blocks sent by NewImageTUContentFeature
+        int end = (lastAckEvery-(seqNum+1)%ackEvery)%lastAckEvery+1;
+        if(mFirstImageWriteTime<0)
+            mFirstImageWriteTime = mScheduler.now();
+        mPacketSize = packetSize;
+        for (int i=0; i<end;i++){
+            final boolean needsAck = i==(end-1);
+            final byte[] block = takeBlock(BLOCK_HEADER_SIZE+packetSize);
+            ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN)
+                    .put(IMAGE_BLOCK).putShort(seqNum).put((byte)(needsAck ? 1 : 0));
+            long offset = (long)(seqNum & 0xFFFF)*packetSize;
+            int length = (int)Math.max(0,Math.min(packetSize,image.getLength()-offset));
+            if(length>0)
+                image.read(offset,block,BLOCK_HEADER_SIZE,length);
+            Arrays.fill(block,BLOCK_HEADER_SIZE+length,block.length,(byte)0);
+            mNImageWrites++;
+            write(block,() -> {
+                mFreeBlocks.add(block);
+                if(needsAck)
+                    onLastWritten.run();
+            });
+            if(!needsAck)
+                seqNum++;
+        }
+    }
+
+    private byte[] takeBlock(int length){
+        byte[] block = mFreeBlocks.poll();
+        while(block!=null && block.length!=length)
+            block = mFreeBlocks.poll();
+        if(block==null) {
+            block = new byte[length];
+            mNAllocatedBlocks++;
+        }
+        return block;
+    }
+
+    @Override
+    public void onStdInReceived(@NonNull SimulatedLink link, @NonNull byte[] data) {
+        ByteBuffer message = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        switch (message.get()){
+            case READ_MEMORY_INFO:
+                link.sendStdOut(ByteBuffer.allocate(9).order(ByteOrder.LITTLE_ENDIAN)
+                        .put(READ_MEMORY_INFO).putInt((int)mFlashLowerBound)
+                        .putInt((int)(mFlashLowerBound+mFlash.length)).array());
+                break;
+            case READ_UPLOAD_PARAM:
+                link.sendStdOut(ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN)
+                        .put(READ_UPLOAD_PARAM).put(mAckEvery).putInt((int)mImageSize)
+                        .putInt((int)mBaseAddress).array());
+                break;
+            case READ_WRITE_LENGTH:
+                link.sendStdOut(ByteBuffer.allocate(3).order(ByteOrder.LITTLE_ENDIAN)
+                        .put(READ_WRITE_LENGTH).putShort((short)link.getMaxWriteLength()).array());
+                break;
+            case WRITE_UPLOAD_PARAM:
+                mAckEvery = message.get();
+                mImageSize = message.getInt() & 0xFFFFFFFFL;
+                mBaseAddress = message.getInt() & 0xFFFFFFFFL;
+                mNextExpectedBlock = 0;
+                erase();
+                break;
+            case ENABLE_ACK:
+                mAckEnabled = true;
+                //the node notifies that it is ready
+                sendAck(link,ErrorCode.NO_ERROR);
+                break;
+            case DISABLE_ACK:
+                mAckEnabled = false;
+                break;
+            case IMAGE_BLOCK:
+                onImageBlock(link,message);
+                break;
+        }
+    }
+
+    private void erase(){
+        Arrays.fill(mFlash,(byte)0xFF);
+    }
+
+    private void onImageBlock(SimulatedLink link, ByteBuffer message){
+        int seqNum = message.getShort() & 0xFFFF;
+        boolean needsAck = message.get()!=0;
+        int packetSize = message.remaining();
+        if(seqNum==mNextExpectedBlock){
+            long offset = (long)seqNum*packetSize;
+            int length = (int)Math.max(0,Math.min(packetSize,mImageSize-offset));
+            message.get(mFlash,(int)(mBaseAddress-mFlashLowerBound+offset),length);
+            mNWrittenBytes+=length;
+            mNextExpectedBlock++;
+            if(needsAck)
+                sendAck(link,ErrorCode.NO_ERROR);
+        }else if(needsAck){
+            sendAck(link,ErrorCode.SEQUENCE_ERROR);
+        }
+    }
+
+    private void sendAck(SimulatedLink link, ErrorCode error){
+        if(!mAckEnabled)
+            return;
+        link.sendStdOut(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN)
+                .put(ACK_NOTIFICATION).putShort((short)mNextExpectedBlock)
+                .put((byte)error.ordinal()).array());
+    }
+}
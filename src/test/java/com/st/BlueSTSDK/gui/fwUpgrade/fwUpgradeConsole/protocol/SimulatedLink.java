@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * BLE link between the phone and a simulated node console.
+ * <p>
+ * The writes go on air one after the other, each write uses 1/packetsPerInterval of the
+ * connection interval, the write is confirmed when it is on air and it arrives to the node after
+ * the latency plus a random jitter: a jitter bigger than the air time reorders the writes.
+ * A write can be lost with the loss rate or by its index, it is confirmed to the phone but the node doesn't
+ * receive it, as when the node buffer is full. A write bigger than the MTU fails.
+ * The node messages are never lost.
+ * </p>
+ */
+public class SimulatedLink implements ConsoleTransport {
+
+    /**
+     * node side of the console
+     */
+    public interface NodeConsole {
+        /**
+         * @param link link where send the answers
+         * @param data data written by the phone
+         */
+        void onStdInReceived(@NonNull SimulatedLink link, @NonNull byte[] data);
+    }
+
+    private static final int ATT_MTU_SUPPORT_INFO_SIZE = 3;
+
+    private final VirtualScheduler mScheduler;
+    private final NodeConsole mNode;
+    private final Random mRandom;
+
+    private int mMtu = 23;
+    private double mConnectionIntervalMs = 7.5;
+    private int mPacketsPerInterval = 4;
+    private long mLatencyMs = 0;
+    private long mJitterMs = 0;
+    private double mLossRate = 0;
+    private final Set<Integer> mLostWrites = new HashSet<>();
+
+    private @Nullable Listener mListener;
+    private double mBusyUntil = 0;
+
+    private int mNWrites;
+    private int mNLostWrites;
+    private long mNBytes;
+    private final List<Long> mWriteTime = new ArrayList<>();
+    private final Set<byte[]> mWriteBuffers = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * @param scheduler scheduler with the virtual time
+     * @param node node that receives the writes
+     * @param seed seed used for the loss and the jitter
+     */
+    public SimulatedLink(@NonNull VirtualScheduler scheduler, @NonNull NodeConsole node, long seed){
+        mScheduler = scheduler;
+        mNode = node;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * @param mtu ATT MTU negotiated with the node
+     */
+    public SimulatedLink setMtu(int mtu){
+        mMtu = mtu;
+        return this;
+    }
+
+    /**
+     * @param intervalMs connection interval
+     * @param packetsPerInterval number of writes sent in each connection event
+     */
+    public SimulatedLink setConnectionInterval(double intervalMs, int packetsPerInterval){
+        mConnectionIntervalMs = intervalMs;
+        mPacketsPerInterval = packetsPerInterval;
+        return this;
+    }
+
+    /**
+     * @param latencyMs time needed by a write to reach the node after it is on air
+     * @param jitterMs max random delay added to each write
+     */
+    public SimulatedLink setLatency(long latencyMs, long jitterMs){
+        mLatencyMs = latencyMs;
+        mJitterMs = jitterMs;
+        return this;
+    }
+
+    /**
+     * @param lossRate probability that a write doesn't reach the node
+     */
+    public SimulatedLink setLossRate(double lossRate){
+        mLossRate = lossRate;
+        return this;
+    }
+
+    /**
+     * @param writeIndex index of the writes that don't reach the node, the first write is 0
+     */
+    public SimulatedLink loseWrites(int... writeIndex){
+        for(int index : writeIndex)
+            mLostWrites.add(index);
+        return this;
+    }
+
+    /**
+     * @return max number of bytes in a write
+     */
+    public int getMaxWriteLength(){
+        return mMtu - ATT_MTU_SUPPORT_INFO_SIZE;
+    }
+
+    /**
+     * @return number of writes sent by the phone
+     */
+    public int getNWrites(){
+        return mNWrites;
+    }
+
+    /**
+     * @return number of writes that didn't reach the node
+     */
+    public int getNLostWrites(){
+        return mNLostWrites;
+    }
+
+    /**
+     * @param writeIndex index of the write, the first write is 0
+     * @return time when the phone called write
+     */
+    public long getWriteTime(int writeIndex){
+        return mWriteTime.get(writeIndex);
+    }
+
+    /**
+     * @return number of different arrays passed to write, it is the number of packages allocated
+     * by the protocol
+     */
+    public int getNWriteBuffers(){
+        return mWriteBuffers.size();
+    }
+
+    /**
+     * @return number of bytes sent by the phone
+     */
+    public long getNBytes(){
+        return mNBytes;
+    }
+
+    @Override
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public int write(@NonNull byte[] data, int offset, int length) {
+        if(length>getMaxWriteLength()){
+            mScheduler.post(() -> notifyStdInSent(false));
+            return 0;
+        }
+        final byte[] copy = Arrays.copyOfRange(data,offset,offset+length);
+        boolean isLost = mLostWrites.contains(mNWrites) || mRandom.nextDouble()<mLossRate;
+        mNWrites++;
+        mWriteTime.add(mScheduler.now());
+        mWriteBuffers.add(data);
+        mNBytes+=length;
+
+        double airTime = mConnectionIntervalMs / mPacketsPerInterval;
+        mBusyUntil = Math.max(mScheduler.now(),mBusyUntil) + airTime;
+        long sentDelay = (long) Math.ceil(mBusyUntil) - mScheduler.now();
+        mScheduler.postDelayed(() -> notifyStdInSent(true),sentDelay);
+
+        if(isLost){
+            mNLostWrites++;
+        }else{
+            long jitter = mJitterMs>0 ? (long)(mRandom.nextDouble()*mJitterMs) : 0;
+            mScheduler.postDelayed(() -> mNode.onStdInReceived(this,copy),
+                    sentDelay + mLatencyMs + jitter);
+        }
+        return length;
+    }
+
+    /**
+     * send a message on the node stdout
+     * @param data message content
+     */
+    public void sendStdOut(@NonNull byte[] data){
+        mScheduler.postDelayed(() -> {
+            if(mListener!=null)
+                mListener.onStdOutReceived(data);
+        },nodeMessageDelay());
+    }
+
+    /**
+     * send a message on the node stderr
+     * @param data message content
+     */
+    public void sendStdErr(@NonNull byte[] data){
+        mScheduler.postDelayed(() -> {
+            if(mListener!=null)
+                mListener.onStdErrReceived(data);
+        },nodeMessageDelay());
+    }
+
+    private long nodeMessageDelay(){
+        return (long)Math.ceil(mConnectionIntervalMs) + mLatencyMs;
+    }
+
+    private void notifyStdInSent(boolean result){
+        if(mListener!=null)
+            mListener.onStdInSent(result);
+    }
+}
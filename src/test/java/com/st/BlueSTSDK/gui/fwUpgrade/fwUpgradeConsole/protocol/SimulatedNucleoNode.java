@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import androidx.annotation.NonNull;
+
+import com.st.BlueSTSDK.Utils.NumberConversion;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.Lz4StreamDecoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Node console running the BlueMs firmware upgrade: it answers to the upgrade command with the
+ * file crc, store the file and at the end answers 0x01 if the crc is correct.
+ * When the packages contain the package number, the packages after a lost one are discarded and
+ * for each of them the node asks the lost package on the stderr.
+ * If the command name ends with Lz the node receives the compressed stream and checks the crc of
+ * the decoded file.
+ */
+public class SimulatedNucleoNode implements SimulatedLink.NodeConsole {
+
+    private static final int COMMAND_ARGS_SIZE = 8;
+    private static final String COMPRESSED_COMMAND_SUFFIX = "Lz";
+    private static final int PACKAGE_ID_SIZE = 4;
+
+    private final boolean mPackageWithId;
+    private final ByteArrayOutputStream mReceived = new ByteArrayOutputStream();
+    private boolean mWaitingCommand = true;
+    private long mFileSize;
+    private long mFileCrc;
+    private boolean mIsCompressed;
+    private long mNextPackage;
+    private int mNPackageRequest;
+
+    /**
+     * @param packageWithId true if each package ends with the package number
+     */
+    public SimulatedNucleoNode(boolean packageWithId){
+        mPackageWithId = packageWithId;
+    }
+
+    /**
+     * @return file data received
+     */
+    public byte[] getReceivedData(){
+        return mReceived.toByteArray();
+    }
+
+    /**
+     * @return true if the last upload was compressed
+     */
+    public boolean isCompressed(){
+        return mIsCompressed;
+    }
+
+    /**
+     * @return number of times that the node asked a lost package
+     */
+    public int getNPackageRequest(){
+        return mNPackageRequest;
+    }
+
+    @Override
+    public void onStdInReceived(@NonNull SimulatedLink link, @NonNull byte[] data) {
+        if(mWaitingCommand){
+            if(data.length<COMMAND_ARGS_SIZE)
+                return;
+            int argsOffset = data.length-COMMAND_ARGS_SIZE;
+            String name = new String(data,0,argsOffset,Charset.forName("ISO-8859-1"));
+            mIsCompressed = name.endsWith(COMPRESSED_COMMAND_SUFFIX);
+            mFileSize = NumberConversion.LittleEndian.bytesToUInt32(data,argsOffset);
+            mFileCrc = NumberConversion.LittleEndian.bytesToUInt32(data,argsOffset+4);
+            mWaitingCommand = false;
+            mNextPackage = 0;
+            mReceived.reset();
+            link.sendStdOut(NumberConversion.LittleEndian.uint32ToBytes(mFileCrc));
+            return;
+        }
+
+        if(!mPackageWithId){
+            mReceived.write(data,0,data.length);
+        }else{
+            int dataLength = data.length-PACKAGE_ID_SIZE;
+            long packageId = NumberConversion.LittleEndian.bytesToUInt32(data,dataLength);
+            if(packageId==mNextPackage){
+                mReceived.write(data,0,dataLength);
+                mNextPackage++;
+            }else if(packageId>mNextPackage){
+                mNPackageRequest++;
+                byte[] request = new byte[1+PACKAGE_ID_SIZE];
+                request[0] = 0x01;
+                byte[] lastReceived = NumberConversion.LittleEndian.uint32ToBytes(mNextPackage-1);
+                System.arraycopy(lastReceived,0,request,1,PACKAGE_ID_SIZE);
+                link.sendStdErr(request);
+            }//else already received
+        }
+
+        byte[] file;
+        if(mIsCompressed){
+            try {
+                file = Lz4StreamDecoder.decode(mReceived.toByteArray());
+            } catch (IOException e) {
+                //the last block is not complete
+                return;
+            }
+        }else if(mReceived.size()>=mFileSize){
+            file = mReceived.toByteArray();
+        }else{
+            return;
+        }
+
+        if(file.length>=mFileSize){
+            mWaitingCommand = true;
+            mReceived.reset();
+            mReceived.write(file,0,file.length);
+            long crc = FirmwareImage.wrap(file).computeCrc32();
+            link.sendStdOut(new byte[]{crc==mFileCrc ? (byte)0x01 : (byte)0xFF});
+        }
+    }
+}
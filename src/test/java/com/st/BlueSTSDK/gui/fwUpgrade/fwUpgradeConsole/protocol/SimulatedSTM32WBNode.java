@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.st.BlueSTSDK.gui.fwUpgrade.FirmwareType;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * STM32WB OTA service on a simulated link: the phone side implements the transport used by
+ * {@link STM32WBUploadProtocol}, the node side writes the received chunks in its flash.
+ * <p>
+ * As in the real service a control command is a 4 bytes write with the action and the address,
+ * the image chunks are never 4 bytes long. The phone keeps up to 8 chunks in flight and reuses
+ * their buffers, the last chunk is padded to 8 bytes. When the upload is finished the node
+ * checks the image crc and notifies if it reboots with the new image.
+ * </p>
+ * <p>
+ * If the resume is enabled, the node reports the full flash sectors written since the start of
+ * the last upload, and an upload that restarts inside them continues the previous one.
+ * </p>
+ */
+public class SimulatedSTM32WBNode implements STM32WBOtaTransport, SimulatedLink.NodeConsole {
+
+    private static final byte STOP_ALL_UPLOAD = 0x00;
+    private static final byte START_BLE_UPLOAD = 0x01;
+    private static final byte START_M4_UPLOAD = 0x02;
+    private static final byte UPLOAD_FINISHED = 0x07;
+    private static final byte CANCEL_UPLOAD = 0x08;
+    private static final byte READ_UPLOADED_LENGTH = 0x09;
+
+    private static final int CONTROL_MESSAGE_SIZE = 4;
+    private static final int FLASH_WRITE_SIZE = 8;
+    private static final int MAX_CHUNK_IN_FLIGHT = 8;
+    private static final int FLASH_SECTOR_SIZE = 4096;
+    private static final int UPLOADED_LENGTH_MESSAGE_SIZE = 5;
+
+    private final VirtualScheduler mScheduler;
+    private final SimulatedLink mLink;
+    private final byte[] mFlash;
+    private final ArrayDeque<Runnable> mWriteCallbacks = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> mFreeChunks = new ArrayDeque<>();
+    private @Nullable Listener mListener;
+
+    //phone state
+    private @Nullable FirmwareImage mImage;
+    private long mNextOffset;
+    private long mSentBytes;
+    private int mChunkLength;
+    private int mNChunkInFlight;
+    private int mNAllocatedChunks;
+    private int mNImageWrites;
+    private long mFirstImageWriteTime = -1;
+
+    //node state
+    private boolean mResumeSupported;
+    private int mUploadStartAddress;
+    private boolean mIsReceiving;
+    private int mWriteAddress;
+    private long mExpectedLength;
+    private long mExpectedCrc;
+
+    private final ConsoleTransport.Listener mLinkListener = new ConsoleTransport.Listener() {
+        @Override
+        public void onStdOutReceived(@NonNull byte[] data) {
+            Listener listener = mListener;
+            if(listener==null)
+                return;
+            if(data.length==UPLOADED_LENGTH_MESSAGE_SIZE)
+                listener.onUploadedLengthRead(ByteBuffer.wrap(data,1,4)
+                        .order(ByteOrder.LITTLE_ENDIAN).getInt());
+            else
+                listener.onBoardWillReboot(data[0]!=0);
+        }
+
+        @Override
+        public void onStdErrReceived(@NonNull byte[] data) { }
+
+        @Override
+        public void onStdInSent(boolean writeResult) {
+            Runnable callback = mWriteCallbacks.poll();
+            if(callback!=null)
+                callback.run();
+        }
+    };
+
+    private final Runnable noCallback = () -> { };
+
+    /**
+     * @param scheduler scheduler with the virtual time
+     * @param seed seed used for the link loss
+     * @param flashSize number of bytes that can be written, from address 0
+     */
+    public SimulatedSTM32WBNode(@NonNull VirtualScheduler scheduler, long seed, int flashSize){
+        mScheduler = scheduler;
+        mLink = new SimulatedLink(scheduler,this,seed);
+        mLink.setListener(mLinkListener);
+        mFlash = new byte[flashSize];
+        Arrays.fill(mFlash,(byte)0xFF);
+    }
+
+    /**
+     * @param imageLength length of the image that the node will accept
+     * @param imageCrc crc of the image written from address 0, as computed by
+     *                 {@link FirmwareImage#computeCrc32()}
+     */
+    public SimulatedSTM32WBNode expectImage(long imageLength, long imageCrc){
+        mExpectedLength = imageLength;
+        mExpectedCrc = imageCrc;
+        return this;
+    }
+
+    /**
+     * @param supported true if the node reports the data of an interrupted upload
+     */
+    public SimulatedSTM32WBNode setResumeSupported(boolean supported){
+        mResumeSupported = supported;
+        return this;
+    }
+
+    /**
+     * erase all the flash, as if the board was written by someone else
+     */
+    public void eraseFlash(){
+        Arrays.fill(mFlash,(byte)0xFF);
+        mWriteAddress = 0;
+        mUploadStartAddress = 0;
+    }
+
+    /**
+     * @return link used by the node, to change its parameters
+     */
+    public SimulatedLink getLink(){
+        return mLink;
+    }
+
+    /**
+     * @return content of the node flash
+     */
+    public byte[] getFlash(){
+        return mFlash;
+    }
+
+    /**
+     * @return number of image chunks sent by the phone
+     */
+    public int getNImageWrites(){
+        return mNImageWrites;
+    }
+
+    /**
+     * @return number of chunk buffers allocated by the phone
+     */
+    public int getNAllocatedChunks(){
+        return mNAllocatedChunks;
+    }
+
+    /**
+     * @return time when the phone sent the first image chunk, -1 if it didn't send it
+     */
+    public long getFirstImageWriteTime(){
+        return mFirstImageWriteTime;
+    }
+
+    private void write(@NonNull byte[] data, @Nullable Runnable onWritten){
+        mWriteCallbacks.add(onWritten!=null ? onWritten : noCallback);
+        mLink.write(data,0,data.length);
+    }
+
+    private void writeControl(byte action, long address){
+        byte[] message = ByteBuffer.allocate(CONTROL_MESSAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt((int)(address<<8)).array();
+        message[0] = action;
+        write(message,null);
+    }
+
+    @Override
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public boolean isResumeSupported() {
+        return mResumeSupported;
+    }
+
+    @Override
+    public void readUploadedLength(@FirmwareType int type, long address) {
+        writeControl(READ_UPLOADED_LENGTH,address);
+    }
+
+    @Override
+    public void startUpload(@FirmwareType int type, long address) {
+        writeControl(type==FirmwareType.BLE_FW ? START_BLE_UPLOAD : START_M4_UPLOAD, address);
+    }
+
+    @Override
+    public void upload(@NonNull FirmwareImage image, long startOffset, int chunkLength) {
+        mImage = image;
+        mNextOffset = startOffset;
+        mSentBytes = 0;
+        mChunkLength = chunkLength;
+        mNChunkInFlight = 0;
+        if(startOffset>=image.getLength()){
+            mScheduler.post(this::notifyUploadComplete);
+            return;
+        }
+        sendChunks();
+    }
+
+    private void sendChunks(){
+        FirmwareImage image = mImage;
+        while(image!=null && mNChunkInFlight<MAX_CHUNK_IN_FLIGHT &&
+                mNextOffset<image.getLength()){
+            final int fileBytes = (int)Math.min(mChunkLength,image.getLength()-mNextOffset);
+            int length = fileBytes;
+            if(fileBytes<mChunkLength)
+                length = Math.min(mChunkLength,
+                        (fileBytes+FLASH_WRITE_SIZE-1)/FLASH_WRITE_SIZE*FLASH_WRITE_SIZE);
+            final byte[] chunk = takeChunk(length);
+            Arrays.fill(chunk,(byte)0xFF);
+            image.read(mNextOffset,chunk,0,fileBytes);
+            mNextOffset+=fileBytes;
+            mNChunkInFlight++;
+            mNImageWrites++;
+            if(mFirstImageWriteTime<0)
+                mFirstImageWriteTime = mScheduler.now();
+            write(chunk,() -> {
+                mFreeChunks.add(chunk);
+                onChunkWritten(fileBytes);
+            });
+        }
+    }
+
+    private byte[] takeChunk(int length){
+        byte[] chunk = mFreeChunks.poll();
+        while(chunk!=null && chunk.length!=length)
+            chunk = mFreeChunks.poll();
+        if(chunk==null) {
+            chunk = new byte[length];
+            mNAllocatedChunks++;
+        }
+        return chunk;
+    }
+
+    private void onChunkWritten(int fileBytes){
+        mNChunkInFlight--;
+        mSentBytes+=fileBytes;
+        Listener listener = mListener;
+        if(listener!=null)
+            listener.onUploadProgress(mSentBytes);
+        if(mImage!=null && mNextOffset>=mImage.getLength() && mNChunkInFlight==0)
+            notifyUploadComplete();
+        else
+            sendChunks();
+    }
+
+    private void notifyUploadComplete(){
+        mImage = null;
+        Listener listener = mListener;
+        if(listener!=null)
+            listener.onUploadComplete();
+    }
+
+    @Override
+    public void uploadFinished() {
+        writeControl(UPLOAD_FINISHED,0);
+    }
+
+    @Override
+    public void cancelUpload() {
+        mImage = null;
+        writeControl(CANCEL_UPLOAD,0);
+    }
+
+    @Override
+    public void onStdInReceived(@NonNull SimulatedLink link, @NonNull byte[] data) {
+        if(data.length!=CONTROL_MESSAGE_SIZE){
+            if(mIsReceiving && mWriteAddress+data.length<=mFlash.length) {
+                System.arraycopy(data, 0, mFlash, mWriteAddress, data.length);
+                mWriteAddress += data.length;
+            }
+            return;
+        }
+        int address = (int)(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getInt()>>>8);
+        switch (data[0]){
+            case START_BLE_UPLOAD:
+            case START_M4_UPLOAD:
+                //restarting inside the last upload continues it
+                boolean isResume = mResumeSupported && address>mUploadStartAddress &&
+                        address<=mWriteAddress;
+                if(!isResume)
+                    mUploadStartAddress = address;
+                //the node erases the flash from the start address
+                Arrays.fill(mFlash,address,mFlash.length,(byte)0xFF);
+                mWriteAddress = address;
+                mIsReceiving = true;
+                break;
+            case UPLOAD_FINISHED:
+                mIsReceiving = false;
+                link.sendStdOut(new byte[]{(byte)(isImageValid() ? 1 : 0)});
+                break;
+            case READ_UPLOADED_LENGTH:
+                int length = 0;
+                if(mResumeSupported && address==mUploadStartAddress)
+                    length = (mWriteAddress-address)/FLASH_SECTOR_SIZE*FLASH_SECTOR_SIZE;
+                link.sendStdOut(ByteBuffer.allocate(UPLOADED_LENGTH_MESSAGE_SIZE)
+                        .order(ByteOrder.LITTLE_ENDIAN).put(READ_UPLOADED_LENGTH)
+                        .putInt(length).array());
+                break;
+            case STOP_ALL_UPLOAD:
+            case CANCEL_UPLOAD:
+                mIsReceiving = false;
+                break;
+        }
+    }
+
+    private boolean isImageValid(){
+        if(mExpectedLength>mFlash.length)
+            return false;
+        byte[] image = Arrays.copyOf(mFlash,(int)mExpectedLength);
+        return FirmwareImage.wrap(image).computeCrc32()==mExpectedCrc;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import androidx.annotation.NonNull;
+
+import com.st.BlueSTSDK.gui.fwUpgrade.FirmwareType;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.LinkTuningPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Run an upload protocol against a simulated node on a simulated link and measure it.
+ * The time is virtual, so the same protocol on the same profile always gives the same result.
+ */
+public class UploadBenchmark {
+
+    public enum Protocol {
+        NUCLEO,
+        NUCLEO2,
+        BLUENRG,
+        STM32WB
+    }
+
+    /**
+     * link parameters used by a benchmark run
+     */
+    public static class LinkProfile {
+        public final int mtu;
+        public final double connectionIntervalMs;
+        public final double lossRate;
+
+        public LinkProfile(int mtu, double connectionIntervalMs, double lossRate) {
+            this.mtu = mtu;
+            this.connectionIntervalMs = connectionIntervalMs;
+            this.lossRate = lossRate;
+        }
+    }
+
+    public static class Result {
+
+        public static final String CSV_HEADER = "protocol,mtu,intervalMs,lossRate,completed," +
+                "bytesPerSecond,retries,packetsAllocated,timeToFirstByteMs";
+
+        public final Protocol protocol;
+        public final LinkProfile profile;
+        public final boolean completed;
+        public final double bytesPerSecond;
+        public final int retries;
+        public final int packetsAllocated;
+        public final long timeToFirstByteMs;
+
+        Result(Protocol protocol, LinkProfile profile, boolean completed, double bytesPerSecond,
+               int retries, int packetsAllocated, long timeToFirstByteMs) {
+            this.protocol = protocol;
+            this.profile = profile;
+            this.completed = completed;
+            this.bytesPerSecond = bytesPerSecond;
+            this.retries = retries;
+            this.packetsAllocated = packetsAllocated;
+            this.timeToFirstByteMs = timeToFirstByteMs;
+        }
+
+        /**
+         * @return protocol and profile, the first 4 columns of the csv line
+         */
+        public String getKey(){
+            return String.format(Locale.US,"%s,%d,%.1f,%.2f",protocol,profile.mtu,
+                    profile.connectionIntervalMs,profile.lossRate);
+        }
+
+        public String toCsv(){
+            return String.format(Locale.US,"%s,%b,%.1f,%d,%d,%d",getKey(),completed,
+                    bytesPerSecond,retries,packetsAllocated,timeToFirstByteMs);
+        }
+    }
+
+    private static final int[] MTU = {23, 185, 247};
+    private static final double[] CONNECTION_INTERVAL_MS = {7.5, 15, 30};
+    private static final double[] LOSS_RATE = {0, 0.01, 0.05};
+
+    private static final int PACKETS_PER_INTERVAL = 4;
+    private static final int DEFAULT_PACKAGE_SIZE = 16;
+    private static final int INITIAL_WINDOW_SIZE = 2;
+    private static final long SEED = 42;
+    private static final long MAX_UPLOAD_TIME_MS = 60*60*1000;
+
+    /**
+     * biggest ATT MTU requested by the BlueNRG console
+     */
+    private static final int BLUENRG_MAX_ATT_MTU = 220;
+    private static final long BLUENRG_FLASH_LOWER_BOUND = 0x10000;
+    private static final int FLASH_SIZE = 256*1024;
+    private static final int STM32WB_CHUNK_LENGTH = 20;
+
+    /**
+     * @return all the combination of MTU, connection interval and loss rate
+     */
+    public static List<LinkProfile> getProfiles(){
+        List<LinkProfile> profiles = new ArrayList<>();
+        for(int mtu : MTU)
+            for(double interval : CONNECTION_INTERVAL_MS)
+                for(double loss : LOSS_RATE)
+                    profiles.add(new LinkProfile(mtu,interval,loss));
+        return profiles;
+    }
+
+    /**
+     * upload the file and measure the upload
+     * @param protocol protocol to use
+     * @param profile link parameters
+     * @param file file to upload
+     * @return upload measures
+     */
+    public static Result run(@NonNull Protocol protocol, @NonNull LinkProfile profile,
+                             @NonNull byte[] file){
+        switch (protocol){
+            case BLUENRG:
+                return runBlueNRG(profile,file);
+            case STM32WB:
+                return runSTM32WB(profile,file);
+            default:
+                return runNucleo(protocol,profile,file);
+        }
+    }
+
+    /**
+     * listener that records when the upload completes
+     */
+    private static class CompleteTime implements NucleoUploadProtocol.UploadListener {
+        private final VirtualScheduler mScheduler;
+        long completeTime = -1;
+
+        CompleteTime(VirtualScheduler scheduler){
+            mScheduler = scheduler;
+        }
+
+        @Override
+        public void onUploadProgress(long bytesToSend) { }
+
+        @Override
+        public void onUploadComplete() {
+            completeTime = mScheduler.now();
+        }
+
+        @Override
+        public void onUploadError(int errorCode) { }
+
+        double bytesPerSecond(byte[] file){
+            return completeTime>0 ? file.length*1000.0/completeTime : 0;
+        }
+    }
+
+    private static SimulatedLink setUpLink(SimulatedLink link, int mtu, LinkProfile profile){
+        return link.setMtu(mtu)
+                .setConnectionInterval(profile.connectionIntervalMs,PACKETS_PER_INTERVAL)
+                .setLossRate(profile.lossRate);
+    }
+
+    private static Result runBlueNRG(LinkProfile profile, byte[] file){
+        VirtualScheduler scheduler = new VirtualScheduler();
+        SimulatedBlueNRGNode node = new SimulatedBlueNRGNode(scheduler,SEED,
+                BLUENRG_FLASH_LOWER_BOUND,FLASH_SIZE);
+        //the console asks for a smaller mtu
+        int mtu = Math.min(profile.mtu,BLUENRG_MAX_ATT_MTU);
+        setUpLink(node.getLink(),mtu,profile);
+        CompleteTime listener = new CompleteTime(scheduler);
+        BlueNRGUploadProtocol protocol = new BlueNRGUploadProtocol(scheduler,node,
+                mtu>LinkTuningPolicy.DEFAULT_ATT_MTU ? mtu : BlueNRGUploadProtocol.UNKNOWN_MTU,
+                listener);
+        protocol.start();
+        protocol.setImage(FirmwareImage.wrap(file));
+        scheduler.runUntilIdle(MAX_UPLOAD_TIME_MS);
+
+        int packetSize = node.getPacketSize();
+        int nBlocks = packetSize>0 ? (file.length + packetSize -1)/packetSize : 0;
+        return new Result(Protocol.BLUENRG,profile,listener.completeTime>0,
+                listener.bytesPerSecond(file),Math.max(0,node.getNImageWrites()-nBlocks),
+                node.getNAllocatedBlocks(),node.getFirstImageWriteTime());
+    }
+
+    private static Result runSTM32WB(LinkProfile profile, byte[] file){
+        VirtualScheduler scheduler = new VirtualScheduler();
+        FirmwareImage image = FirmwareImage.wrap(file);
+        SimulatedSTM32WBNode node = new SimulatedSTM32WBNode(scheduler,SEED,FLASH_SIZE)
+                .expectImage(file.length,image.computeCrc32());
+        setUpLink(node.getLink(),profile.mtu,profile);
+        int chunkLength = LinkTuningPolicy.packageSizeForMtu(profile.mtu,0,
+                STM32WB_CHUNK_LENGTH);
+        CompleteTime listener = new CompleteTime(scheduler);
+        new STM32WBUploadProtocol(node,image,FirmwareType.BOARD_FW,0,chunkLength,null,
+                listener).start();
+        scheduler.runUntilIdle(MAX_UPLOAD_TIME_MS);
+
+        int nChunks = (file.length + chunkLength -1)/chunkLength;
+        return new Result(Protocol.STM32WB,profile,listener.completeTime>0,
+                listener.bytesPerSecond(file),Math.max(0,node.getNImageWrites()-nChunks),
+                node.getNAllocatedChunks(),node.getFirstImageWriteTime());
+    }
+
+    private static Result runNucleo(Protocol protocol, LinkProfile profile, byte[] file){
+        VirtualScheduler scheduler = new VirtualScheduler();
+        boolean withPackageId = protocol == Protocol.NUCLEO2;
+        SimulatedNucleoNode node = new SimulatedNucleoNode(withPackageId);
+        SimulatedLink link = setUpLink(new SimulatedLink(scheduler,node,SEED),profile.mtu,profile);
+        int extraDataSize = withPackageId ? Nucleo2UploadProtocol.PACKAGE_ID_SIZE : 0;
+        int packageSize = LinkTuningPolicy.packageSizeForMtu(profile.mtu,extraDataSize,
+                DEFAULT_PACKAGE_SIZE);
+
+        CompleteTime listener = new CompleteTime(scheduler);
+        FirmwareImage image = FirmwareImage.wrap(file);
+        if(protocol==Protocol.NUCLEO2)
+            new Nucleo2UploadProtocol(scheduler,link,image,FirmwareType.BOARD_FW,packageSize,
+                    listener).start();
+        else
+            new NucleoUploadProtocol(scheduler,link,image,FirmwareType.BOARD_FW,packageSize,
+                    INITIAL_WINDOW_SIZE,listener).start();
+        scheduler.runUntilIdle(MAX_UPLOAD_TIME_MS);
+
+        int nPackages = (file.length + packageSize -1)/packageSize;
+        //the first write is the upload command
+        int retries = Math.max(0,link.getNWrites() - 1 - nPackages);
+        long timeToFirstByte = link.getNWrites()>1 ? link.getWriteTime(1) : -1;
+        return new Result(protocol,profile,listener.completeTime>0,listener.bytesPerSecond(file),
+                retries,
+                link.getNWriteBuffers(),timeToFirstByte);
+    }
+}
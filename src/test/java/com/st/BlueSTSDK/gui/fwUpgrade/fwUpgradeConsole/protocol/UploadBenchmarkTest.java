@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Run all the upload protocols on all the link profiles and check that the throughput is not
+ * lower than the one stored in ota-benchmark-baseline.csv.
+ * If the system property otaBenchmark.output is set, the results are written in that file.
+ */
+public class UploadBenchmarkTest {
+
+    private static final String BASELINE_FILE = "/ota-benchmark-baseline.csv";
+    private static final String OUTPUT_PROPERTY = "otaBenchmark.output";
+
+    /**
+     * the simulation is deterministic, the tolerance covers only the float rounding
+     */
+    private static final double TOLERANCE = 0.01;
+
+    private static final int FILE_SIZE = 32*1024;
+
+    /**
+     * @return bytes per second for each protocol and profile
+     */
+    private static Map<String,Double> loadBaseline() throws IOException {
+        Map<String,Double> baseline = new HashMap<>();
+        InputStream in = UploadBenchmarkTest.class.getResourceAsStream(BASELINE_FILE);
+        assertNotNull(in);
+        try(BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in,Charset.forName("UTF-8")))){
+            reader.readLine(); //header
+            String line;
+            while ((line = reader.readLine())!=null){
+                String[] columns = line.split(",");
+                if(columns.length<6)
+                    continue;
+                String key = columns[0]+","+columns[1]+","+columns[2]+","+columns[3];
+                baseline.put(key,Double.parseDouble(columns[5]));
+            }
+        }
+        return baseline;
+    }
+
+    @Test
+    public void theThroughputIsNotLowerThanTheBaseline() throws IOException {
+        Map<String,Double> baseline = loadBaseline();
+        byte[] file = NucleoUploadProtocolTest.randomFile(FILE_SIZE);
+        StringBuilder results = new StringBuilder(UploadBenchmark.Result.CSV_HEADER).append('\n');
+        StringBuilder regressions = new StringBuilder();
+        for(UploadBenchmark.Protocol protocol : UploadBenchmark.Protocol.values()){
+            for(UploadBenchmark.LinkProfile profile : UploadBenchmark.getProfiles()){
+                UploadBenchmark.Result result = UploadBenchmark.run(protocol,profile,file);
+                results.append(result.toCsv()).append('\n');
+                Double expected = baseline.get(result.getKey());
+                if(expected!=null && result.bytesPerSecond < expected*(1-TOLERANCE))
+                    regressions.append(result.toCsv()).append(" expected: ").append(expected)
+                            .append('\n');
+            }
+        }
+
+        String output = System.getProperty(OUTPUT_PROPERTY);
+        if(output!=null){
+            try(Writer out = new FileWriter(output)){
+                out.write(results.toString());
+            }
+        }
+
+        assertTrue(regressions.toString(),regressions.length()==0);
+    }
+}
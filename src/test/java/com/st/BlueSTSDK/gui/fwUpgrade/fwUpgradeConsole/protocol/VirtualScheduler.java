@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.protocol;
+
+import androidx.annotation.NonNull;
+
+import java.util.PriorityQueue;
+
+/**
+ * Scheduler with a virtual clock: the time advances only when a task runs, so a long upload is
+ * simulated in few milliseconds
+ */
+public class VirtualScheduler implements Scheduler {
+
+    private static class Task implements Comparable<Task>{
+        final long time;
+        final long seq;
+        final Runnable task;
+
+        Task(long time, long seq, Runnable task) {
+            this.time = time;
+            this.seq = seq;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(@NonNull Task o) {
+            if(time!=o.time)
+                return Long.compare(time,o.time);
+            return Long.compare(seq,o.seq);
+        }
+    }
+
+    private final PriorityQueue<Task> mQueue = new PriorityQueue<>();
+    private long mNow = 0;
+    private long mNextSeq = 0;
+
+    @Override
+    public long now() {
+        return mNow;
+    }
+
+    @Override
+    public void post(@NonNull Runnable task) {
+        postDelayed(task,0);
+    }
+
+    @Override
+    public void postDelayed(@NonNull Runnable task, long delayMs) {
+        mQueue.add(new Task(mNow+Math.max(0,delayMs),mNextSeq++,task));
+    }
+
+    @Override
+    public void cancel(@NonNull Runnable task) {
+        mQueue.removeIf(t -> t.task == task);
+    }
+
+    /**
+     * run the tasks in time order
+     * @param maxTimeMs the tasks after this time are not run
+     * @return true if all the tasks are run
+     */
+    public boolean runUntilIdle(long maxTimeMs){
+        while (!mQueue.isEmpty()){
+            Task next = mQueue.peek();
+            if(next.time>maxTimeMs)
+                return false;
+            mQueue.poll();
+            mNow = next.time;
+            next.task.run();
+        }
+        return true;
+    }
+}
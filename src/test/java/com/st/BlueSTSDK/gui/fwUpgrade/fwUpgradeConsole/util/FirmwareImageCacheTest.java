@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class FirmwareImageCacheTest {
+
+    private static final byte[] FILE_CONTENT = {1,2,3,4,5,6,7,8,9,10};
+
+    @Test
+    public void theCachedImageIsValidAfterTheOriginalIsClosed(){
+        FirmwareImageCache cache = new FirmwareImageCache(100);
+        FirmwareImage image = FirmwareImage.wrap(FILE_CONTENT);
+        cache.put("file",image,42);
+        image.close();
+
+        FirmwareImageCache.CachedImage cached = cache.get("file");
+        assertNotNull(cached);
+        assertEquals(42,cached.crc);
+        assertEquals(FILE_CONTENT.length,cached.image.getLength());
+        cached.image.close();
+    }
+
+    @Test
+    public void aDifferentKeyIsNotFound(){
+        FirmwareImageCache cache = new FirmwareImageCache(100);
+        cache.put("file|10|1",FirmwareImage.wrap(FILE_CONTENT),42);
+        assertNull(cache.get("file|10|2"));
+    }
+
+    @Test
+    public void theLeastRecentlyUsedImageIsRemoved(){
+        FirmwareImageCache cache = new FirmwareImageCache(2*FILE_CONTENT.length);
+        cache.put("a",FirmwareImage.wrap(FILE_CONTENT),1);
+        cache.put("b",FirmwareImage.wrap(FILE_CONTENT),2);
+        cache.get("a").image.close();
+        cache.put("c",FirmwareImage.wrap(FILE_CONTENT),3);
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void theCompressedStreamIsKeptWithTheImage(){
+        FirmwareImageCache cache = new FirmwareImageCache(100);
+        cache.put("file",FirmwareImage.wrap(FILE_CONTENT),42);
+        assertNull(cache.get("file").compressedImage);
+        FirmwareImage compressed = FirmwareImage.wrap(new byte[]{1,2,3});
+        cache.putCompressed("file",compressed);
+        compressed.close();
+
+        FirmwareImageCache.CachedImage cached = cache.get("file");
+        assertNotNull(cached.compressedImage);
+        assertEquals(3,cached.compressedImage.getLength());
+        cached.image.close();
+        cached.compressedImage.close();
+    }
+
+    @Test
+    public void theCompressedStreamCountsInTheCacheSize(){
+        FirmwareImageCache cache = new FirmwareImageCache(2*FILE_CONTENT.length);
+        cache.put("a",FirmwareImage.wrap(FILE_CONTENT),1);
+        cache.put("b",FirmwareImage.wrap(FILE_CONTENT),2);
+        cache.putCompressed("b",FirmwareImage.wrap(new byte[]{1,2,3}));
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b").compressedImage);
+    }
+
+    @Test
+    public void anImageBiggerThanTheCacheIsNotStored(){
+        FirmwareImageCache cache = new FirmwareImageCache(FILE_CONTENT.length-1);
+        cache.put("file",FirmwareImage.wrap(FILE_CONTENT),42);
+        assertNull(cache.get("file"));
+    }
+
+    @Test
+    public void hidingTheUiKeepsTheImages(){
+        FirmwareImageCache cache = new FirmwareImageCache(100);
+        cache.put("file",FirmwareImage.wrap(FILE_CONTENT),42);
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertNotNull(cache.get("file"));
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertNull(cache.get("file"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void trimMemoryReleasesTheImages(){
+        FirmwareImageCache cache = new FirmwareImageCache(100);
+        FirmwareImage image = FirmwareImage.wrap(FILE_CONTENT);
+        cache.put("file",image,42);
+        image.close();
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertNull(cache.get("file"));
+        //all the shares are closed
+        image.share();
+    }
+
+    @Test
+    public void trimMemoryReleasesTheBufferPool(){
+        FirmwareImageCache cache = new FirmwareImageCache(100);
+        FirmwareImage.releaseBufferPool();
+        FirmwareImage.releaseBuffer(ByteBuffer.allocateDirect(FILE_CONTENT.length));
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(1, FirmwareImage.getNPooledBuffer());
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+        assertEquals(0, FirmwareImage.getNPooledBuffer());
+    }
+}
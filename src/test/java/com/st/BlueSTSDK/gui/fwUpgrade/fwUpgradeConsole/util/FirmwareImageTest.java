@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FirmwareImageTest {
+
+    private static final byte[] FILE_CONTENT = {1,2,3,4,5,6,7,8,9,10};
+
+    private FwFileDescriptor mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = mock(FwFileDescriptor.class);
+        when(mFile.getType()).thenReturn(FwFileDescriptor.BIN);
+        when(mFile.getLength()).thenReturn((long)FILE_CONTENT.length);
+        when(mFile.openFileDescriptor()).thenReturn(null);
+        when(mFile.openFile()).thenReturn(new ByteArrayInputStream(FILE_CONTENT));
+    }
+
+    @Test
+    public void streamFileIsReadInMemory() throws IOException {
+        try(FirmwareImage image = FirmwareImage.open(mFile)) {
+            assertEquals(FILE_CONTENT.length, image.getLength());
+            byte[] data = new byte[FILE_CONTENT.length];
+            image.read(0, data, 0, data.length);
+            assertArrayEquals(FILE_CONTENT, data);
+        }
+    }
+
+    @Test
+    public void readAfterTheEndReturnZero() throws IOException {
+        try(FirmwareImage image = FirmwareImage.open(mFile)) {
+            byte[] data = new byte[]{-1,-1,-1,-1,-1,-1};
+            image.read(8, data, 1, 4);
+            assertArrayEquals(new byte[]{-1,9,10,0,0,-1}, data);
+        }
+    }
+
+    @Test
+    public void paddedLengthIsMultipleOfTheBlock() throws IOException {
+        try(FirmwareImage image = FirmwareImage.open(mFile)) {
+            assertEquals(16, image.getPaddedLength(16));
+            assertEquals(10, image.getPaddedLength(5));
+        }
+    }
+
+    @Test
+    public void sliceIsReadOnlyView() throws IOException {
+        try(FirmwareImage image = FirmwareImage.open(mFile)) {
+            ByteBuffer slice = image.slice(2, 4);
+            assertEquals(4, slice.remaining());
+            assertEquals(3, slice.get(0));
+            assertEquals(true, slice.isReadOnly());
+        }
+    }
+
+    @Test
+    public void crcIsComputedOnTheWords() throws IOException {
+        STM32Crc32 crc = new STM32Crc32();
+        crc.update(FILE_CONTENT,0,8);
+        try(FirmwareImage image = FirmwareImage.open(mFile)) {
+            assertEquals(crc.getValue(), image.computeCrc32());
+        }
+    }
+
+    @Test
+    public void sharedImageIsValidAfterTheOwnerIsClosed() throws IOException {
+        FirmwareImage image = FirmwareImage.open(mFile);
+        FirmwareImage shared = image.share();
+        image.close();
+        image.close();
+        byte[] data = new byte[FILE_CONTENT.length];
+        shared.read(0, data, 0, data.length);
+        assertArrayEquals(FILE_CONTENT, data);
+        shared.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void aClosedImageCanNotBeShared() throws IOException {
+        FirmwareImage image = FirmwareImage.open(mFile);
+        image.close();
+        image.share();
+    }
+
+    @Test
+    public void aClosedImageCanNotBeRead() throws IOException {
+        FirmwareImage image = FirmwareImage.open(mFile);
+        FirmwareImage shared = image.share();
+        image.close();
+        byte[] data = new byte[FILE_CONTENT.length];
+        try {
+            image.read(0, data, 0, data.length);
+            fail("a closed image can not be read");
+        }catch (IllegalStateException e){ }
+        try {
+            image.readWithXor(0, data, 0, data.length);
+            fail("a closed image can not be read");
+        }catch (IllegalStateException e){ }
+        try {
+            image.slice(0, data.length);
+            fail("a closed image can not be read");
+        }catch (IllegalStateException e){ }
+        shared.close();
+    }
+
+    @Test
+    public void theBufferIsReleasedInThePool() throws IOException {
+        FirmwareImage.releaseBufferPool();
+        FirmwareImage.open(mFile).close();
+        assertEquals(1, FirmwareImage.getNPooledBuffer());
+        FirmwareImage.releaseBufferPool();
+        assertEquals(0, FirmwareImage.getNPooledBuffer());
+    }
+
+}
@@ -102,5 +102,26 @@ public class FwFileDescriptorTest {
 
     }
 
+    /** same size used by FwFileDescriptor to count the stream bytes */
+    private static final int COUNT_BUFFER_SIZE = 8*1024;
+
+    private static void assertStreamLength(int length){
+        InputStream stream = new ByteArrayInputStream(new byte[length]);
+        assertEquals(length,FwFileDescriptor.getFileLength(stream));
+    }
+
+    @Test
+    public void countStreamLength(){
+        assertStreamLength(1);
+        assertStreamLength(COUNT_BUFFER_SIZE-1);
+        assertStreamLength(COUNT_BUFFER_SIZE);
+        assertStreamLength(COUNT_BUFFER_SIZE+1);
+        assertStreamLength(3*COUNT_BUFFER_SIZE+1);
+    }
+
+    @Test
+    public void countNullStreamIsZero(){
+        assertEquals(0,FwFileDescriptor.getFileLength(null));
+    }
 
 }
\ No newline at end of file
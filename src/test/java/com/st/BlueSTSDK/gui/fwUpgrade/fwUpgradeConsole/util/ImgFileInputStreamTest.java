@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ImgFileInputStreamTest {
+
+    private static ImgFileInputStream open(String content){
+        byte[] data = content.getBytes(Charset.forName("US-ASCII"));
+        return new ImgFileInputStream(new ByteArrayInputStream(data),data.length);
+    }
+
+    /**
+     * encode the data as img file: a word for each line, with the inverted byte order
+     */
+    private static String encode(byte[] data){
+        StringBuilder file = new StringBuilder();
+        for(int i=0;i<data.length;i+=4){
+            for(int j=3;j>=0;j--)
+                file.append(String.format("%02X",data[i+j]));
+            file.append("\r\n");
+        }
+        return file.toString();
+    }
+
+    private static byte[] readAll(InputStream in, int blockSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[blockSize];
+        int nRead;
+        while ((nRead = in.read(buffer,0,buffer.length))>=0)
+            out.write(buffer,0,nRead);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void theByteOrderIsInverted() throws IOException {
+        ImgFileInputStream in = open("01020304\r\n0A0b0C0d\r\n");
+        assertEquals(0x04, in.read());
+        assertEquals(0x03, in.read());
+        assertEquals(0x02, in.read());
+        assertEquals(0x01, in.read());
+        assertEquals(0x0D, in.read());
+        assertEquals(0x0C, in.read());
+        assertEquals(0x0B, in.read());
+        assertEquals(0x0A, in.read());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void theLengthIsComputedFromTheFileSize(){
+        assertEquals(8, open("01020304\r\n0A0B0C0D\r\n").length());
+    }
+
+    @Test
+    public void theBulkReadIsEqualToTheSingleByteRead() throws IOException {
+        byte[] data = new byte[4*1000];
+        new Random(data.length).nextBytes(data);
+        String file = encode(data);
+        assertArrayEquals(data, readAll(open(file),8*1024));
+        assertArrayEquals(data, readAll(open(file),7));
+        assertArrayEquals(data, readAll(open(file),1));
+    }
+
+    @Test
+    public void theLastLineCanBeWithoutNewLine() throws IOException {
+        assertArrayEquals(new byte[]{4,3,2,1,8,7,6,5},
+                readAll(open("01020304\n05060708"),16));
+    }
+
+    @Test(expected = IOException.class)
+    public void aNotHexCharIsAnError() throws IOException {
+        readAll(open("0102030G\r\n"),16);
+    }
+
+    @Test(expected = IOException.class)
+    public void aTruncatedLineIsAnError() throws IOException {
+        readAll(open("010203\r\n"),16);
+    }
+
+    @Test
+    public void closeReleasesTheFile() throws IOException {
+        final boolean[] closed = {false};
+        InputStream file = new ByteArrayInputStream(new byte[0]){
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        new ImgFileInputStream(file,0).close();
+        assertTrue(closed[0]);
+    }
+
+}
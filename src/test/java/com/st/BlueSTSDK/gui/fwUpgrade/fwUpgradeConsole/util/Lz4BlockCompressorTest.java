@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Lz4BlockCompressorTest {
+
+    private static byte[] compressAndDecode(byte[] data) throws IOException {
+        FirmwareImage compressed = Lz4BlockCompressor.compress(FirmwareImage.wrap(data));
+        byte[] stream = new byte[(int)compressed.getLength()];
+        compressed.read(0,stream,0,stream.length);
+        return Lz4StreamDecoder.decode(stream);
+    }
+
+    /**
+     * data similar to a firmware: repeated instruction patterns with some noise and padding
+     */
+    private static byte[] firmwareLikeData(int length){
+        Random random = new Random(42);
+        byte[] pattern = new byte[64];
+        random.nextBytes(pattern);
+        byte[] data = new byte[length];
+        for(int i = 0 ; i<length ; i++){
+            data[i] = random.nextInt(8)==0 ? (byte)random.nextInt() : pattern[i % pattern.length];
+        }
+        Arrays.fill(data,length-length/4,length,(byte)0xFF);
+        return data;
+    }
+
+    @Test
+    public void anEmptyImageIsAnEmptyStream(){
+        FirmwareImage compressed = Lz4BlockCompressor.compress(FirmwareImage.wrap(new byte[0]));
+        assertEquals(0,compressed.getLength());
+    }
+
+    @Test
+    public void aShortImageIsDecodedCorrectly() throws IOException {
+        byte[] data = {1,2,3,4,5,6,7,8,9,10};
+        assertArrayEquals(data,compressAndDecode(data));
+    }
+
+    @Test
+    public void repetitiveDataIsCompressed() throws IOException {
+        byte[] data = firmwareLikeData(5*Lz4BlockCompressor.BLOCK_SIZE+123);
+        FirmwareImage compressed = Lz4BlockCompressor.compress(FirmwareImage.wrap(data));
+        assertTrue(compressed.getLength()<data.length/2);
+        assertArrayEquals(data,compressAndDecode(data));
+    }
+
+    @Test
+    public void longRunsAreDecodedCorrectly() throws IOException {
+        byte[] data = new byte[3*Lz4BlockCompressor.BLOCK_SIZE];
+        Arrays.fill(data,(byte)0xFF);
+        data[1000] = 0;
+        assertArrayEquals(data,compressAndDecode(data));
+    }
+
+    @Test
+    public void randomDataIsStoredUncompressed() throws IOException {
+        byte[] data = new byte[2*Lz4BlockCompressor.BLOCK_SIZE];
+        new Random(1).nextBytes(data);
+        FirmwareImage compressed = Lz4BlockCompressor.compress(FirmwareImage.wrap(data));
+        assertEquals(data.length+2*Lz4BlockCompressor.BLOCK_HEADER_SIZE,compressed.getLength());
+        assertArrayEquals(data,compressAndDecode(data));
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
+
+import com.st.BlueSTSDK.Utils.NumberConversion;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Decode the stream created by {@link Lz4BlockCompressor}, as the node does.
+ */
+public class Lz4StreamDecoder {
+
+    private static int readLength(byte[] data, int[] offset, int length){
+        if(length!=0x0F)
+            return length;
+        int value;
+        do{
+            value = data[offset[0]++] & 0xFF;
+            length += value;
+        }while (value==0xFF);
+        return length;
+    }
+
+    private static void decodeBlock(byte[] data, int offset, int length,
+                                    ByteArrayOutputStream out) throws IOException {
+        byte[] block = new byte[Lz4BlockCompressor.BLOCK_SIZE];
+        int blockLength = 0;
+        int end = offset+length;
+        int[] in = {offset};
+        while (in[0]<end){
+            int token = data[in[0]++] & 0xFF;
+            int literalLength = readLength(data,in,token>>>4);
+            System.arraycopy(data,in[0],block,blockLength,literalLength);
+            in[0]+=literalLength;
+            blockLength+=literalLength;
+            if(in[0]==end)
+                break;
+            int distance = NumberConversion.LittleEndian.bytesToUInt16(data,in[0]);
+            in[0]+=2;
+            if(distance==0 || distance>blockLength)
+                throw new IOException("Invalid match distance");
+            int matchLength = readLength(data,in,token & 0x0F)+4;
+            for(int i = 0 ; i<matchLength ; i++, blockLength++)
+                block[blockLength] = block[blockLength-distance];
+        }
+        out.write(block,0,blockLength);
+    }
+
+    /**
+     * @param stream compressed stream
+     * @return uncompressed data
+     * @throws IOException if the stream is not valid or the last block is not complete
+     */
+    public static byte[] decode(byte[] stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int offset = 0;
+        while (offset<stream.length){
+            if(offset+Lz4BlockCompressor.BLOCK_HEADER_SIZE>stream.length)
+                throw new EOFException("Truncated block header");
+            long header = NumberConversion.LittleEndian.bytesToUInt32(stream,offset);
+            offset+=Lz4BlockCompressor.BLOCK_HEADER_SIZE;
+            int length = (int)(header & ~Lz4BlockCompressor.UNCOMPRESSED_BLOCK_FLAG);
+            if(offset+length>stream.length)
+                throw new EOFException("Truncated block");
+            if((header & Lz4BlockCompressor.UNCOMPRESSED_BLOCK_FLAG)!=0)
+                out.write(stream,offset,length);
+            else
+                decodeBlock(stream,offset,length,out);
+            offset+=length;
+        }
+        return out.toByteArray();
+    }
+
+    private Lz4StreamDecoder(){ }
+}
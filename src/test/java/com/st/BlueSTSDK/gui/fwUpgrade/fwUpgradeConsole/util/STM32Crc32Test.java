@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class STM32Crc32Test {
+
+    private static final int[] IMAGE_SIZES = {4, 8, 1024, 256*1024, 1024*1024, 2*1024*1024};
+
+    private static byte[] createImage(int size){
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static int nibbleCrc(byte[] data, int length){
+        int crc = 0xffffffff;
+        for(int i=0;i<length;i+=4){
+            int word = (data[i] & 0xFF) | (data[i+1] & 0xFF) << 8 |
+                    (data[i+2] & 0xFF) << 16 | (data[i+3] & 0xFF) << 24;
+            crc = STM32Crc32.Crc32Fast(crc,word);
+        }
+        return crc;
+    }
+
+    @Test
+    public void emptyBufferReturnInitialValue(){
+        STM32Crc32 crc = new STM32Crc32();
+        crc.update(new byte[0],0,0);
+        assertEquals(0xffffffff,(int)crc.getValue());
+    }
+
+    @Test
+    public void tableCrcIsEqualToNibbleCrc(){
+        for(int size : IMAGE_SIZES){
+            byte[] data = createImage(size);
+            STM32Crc32 crc = new STM32Crc32();
+            crc.update(data,0,data.length);
+            assertEquals(nibbleCrc(data,data.length),(int)crc.getValue());
+        }
+    }
+
+    @Test
+    public void oddNumberOfWordsIsEqualToNibbleCrc(){
+        byte[] data = createImage(12);
+        STM32Crc32 crc = new STM32Crc32();
+        crc.update(data,0,data.length);
+        assertEquals(nibbleCrc(data,data.length),(int)crc.getValue());
+    }
+
+    @Test
+    public void updateWithOffsetUseTheRightData(){
+        byte[] data = createImage(1024);
+        STM32Crc32 crc = new STM32Crc32();
+        crc.update(data,0,512);
+        crc.update(data,512,512);
+        assertEquals(nibbleCrc(data,data.length),(int)crc.getValue());
+    }
+
+    @Test
+    public void byteBufferCrcIsEqualToArrayCrc(){
+        byte[] data = createImage(1024);
+        STM32Crc32 arrayCrc = new STM32Crc32();
+        arrayCrc.update(data,0,data.length);
+
+        STM32Crc32 heapCrc = new STM32Crc32();
+        heapCrc.update(ByteBuffer.wrap(data));
+        assertEquals(arrayCrc.getValue(),heapCrc.getValue());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        STM32Crc32 directCrc = new STM32Crc32();
+        directCrc.update(direct);
+        assertEquals(arrayCrc.getValue(),directCrc.getValue());
+        assertEquals(direct.limit(),direct.position());
+    }
+
+    @Test
+    public void intBufferCrcIsEqualToArrayCrc(){
+        byte[] data = createImage(1024);
+        STM32Crc32 arrayCrc = new STM32Crc32();
+        arrayCrc.update(data,0,data.length);
+
+        STM32Crc32 intCrc = new STM32Crc32();
+        intCrc.update(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer());
+        assertEquals(arrayCrc.getValue(),intCrc.getValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lengthNotMultipleOf4ThrowException(){
+        new STM32Crc32().update(new byte[3],0,3);
+    }
+
+    /**
+     * compare the table crc with the nibble crc, run it manually: the timing depends on the
+     * machine and it is too slow for the normal test run
+     */
+    @Test
+    @Ignore
+    public void benchmarkTableVsNibbleCrc(){
+        final int warmUp = 5;
+        final int nRun = 20;
+        for(int size : IMAGE_SIZES){
+            byte[] data = createImage(size);
+            int sink = 0;
+            for(int i=0;i<warmUp;i++){
+                sink ^= nibbleCrc(data,data.length);
+                STM32Crc32 crc = new STM32Crc32();
+                crc.update(data,0,data.length);
+                sink ^= (int)crc.getValue();
+            }
+            long start = System.nanoTime();
+            for(int i=0;i<nRun;i++){
+                sink ^= nibbleCrc(data,data.length);
+            }
+            long nibbleNs = (System.nanoTime()-start)/nRun;
+            start = System.nanoTime();
+            for(int i=0;i<nRun;i++){
+                STM32Crc32 crc = new STM32Crc32();
+                crc.update(data,0,data.length);
+                sink ^= (int)crc.getValue();
+            }
+            long tableNs = (System.nanoTime()-start)/nRun;
+            //each crc is computed an even number of times by both the implementations
+            assertEquals(0,sink);
+            //the small images are too fast to be timed
+            if(size>=256*1024)
+                assertTrue("size: "+size,tableNs<nibbleNs);
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+package com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WriteWindowTest {
+
+    private static void sendAndConfirm(WriteWindow window, long now, long latency){
+        while (window.canSend())
+            window.onSent(now);
+        while (window.getInFlight()>0)
+            window.onConfirmed(now+latency);
+    }
+
+    @Test
+    public void theWindowLimitsTheWritesInFlight(){
+        WriteWindow window = new WriteWindow(2,8);
+        window.onSent(0);
+        window.onSent(0);
+        assertFalse(window.canSend());
+        window.onConfirmed(10);
+        assertTrue(window.canSend());
+        assertEquals(1,window.getInFlight());
+    }
+
+    @Test
+    public void theWindowGrowsUpToTheMaxSizeIfTheLatencyIsStable(){
+        WriteWindow window = new WriteWindow(1,4);
+        for(int i=0;i<100;i++)
+            sendAndConfirm(window,i*100,10);
+        assertEquals(4,window.getSize());
+    }
+
+    @Test
+    public void theWindowIsHalvedWhenTheLatencyGrows(){
+        WriteWindow window = new WriteWindow(8,8);
+        sendAndConfirm(window,0,10);
+        window.onSent(100);
+        window.onConfirmed(200);
+        assertEquals(4,window.getSize());
+    }
+
+    @Test
+    public void theWindowIsHalvedOnceForEachRoundTrip(){
+        WriteWindow window = new WriteWindow(8,8);
+        sendAndConfirm(window,0,10);
+        window.onFailure(100);
+        window.onFailure(101);
+        assertEquals(4,window.getSize());
+        window.onFailure(200);
+        assertEquals(2,window.getSize());
+    }
+
+    @Test
+    public void theWindowIsNeverEmpty(){
+        WriteWindow window = new WriteWindow(1,8);
+        window.onFailure(0);
+        assertEquals(1,window.getSize());
+        assertTrue(window.canSend());
+    }
+
+}
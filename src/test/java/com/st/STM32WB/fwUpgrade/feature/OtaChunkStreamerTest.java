@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2017  STMicroelectronics – All rights reserved
+ * The STMicroelectronics corporate logo is a trademark of STMicroelectronics
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name nor trademarks of STMicroelectronics International N.V. nor any other
+ *   STMicroelectronics company nor the names of its contributors may be used to endorse or
+ *   promote products derived from this software without specific prior written permission.
+ *
+ * - All of the icons, pictures, logos and other images that are provided with the source code
+ *   in a directory whose title begins with st_images may only be used for internal purposes and
+ *   shall not be redistributed to any third party or modified in any way.
+ *
+ * - Any redistributions in binary form shall not include the capability to display any of the
+ *   icons, pictures, logos and other images that are provided with the source code in a directory
+ *   whose title begins with st_images.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.st.STM32WB.fwUpgrade.feature;
+
+import com.st.BlueSTSDK.gui.fwUpgrade.fwUpgradeConsole.util.FirmwareImage;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OtaChunkStreamerTest {
+
+    private static final int CHUNK_LENGTH = 20;
+
+    /**
+     * keep the written chunks until the test says that they are written
+     */
+    private static class PendingWriter implements OtaChunkStreamer.ChunkWriter{
+        final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+        final List<byte[]> sent = new ArrayList<>();
+        final IdentityHashMap<byte[],Boolean> buffers = new IdentityHashMap<>();
+        int maxInFlight;
+
+        @Override
+        public void writeChunk(byte[] data, Runnable onWritten) {
+            sent.add(data.clone());
+            buffers.put(data,true);
+            pending.add(onWritten);
+            maxInFlight = Math.max(maxInFlight,pending.size());
+        }
+
+        void writeAll(){
+            while (!pending.isEmpty())
+                pending.poll().run();
+        }
+    }
+
+    private static class Progress implements OTAFileUpload.UploadListener{
+        long sentBytes;
+        int nComplete;
+
+        @Override
+        public void onUploadProgress(long sentBytes) {
+            this.sentBytes = sentBytes;
+        }
+
+        @Override
+        public void onUploadComplete() {
+            nComplete++;
+        }
+    }
+
+    private static byte[] randomContent(int length){
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+
+    @Test
+    public void onlyEightChunksAreInFlight(){
+        PendingWriter writer = new PendingWriter();
+        Progress progress = new Progress();
+        new OtaChunkStreamer(FirmwareImage.wrap(randomContent(50*CHUNK_LENGTH)),0,CHUNK_LENGTH,
+                writer,progress).start();
+        assertEquals(OtaChunkStreamer.MAX_CHUNK_IN_FLIGHT,writer.pending.size());
+
+        writer.pending.poll().run();
+        assertEquals(OtaChunkStreamer.MAX_CHUNK_IN_FLIGHT,writer.pending.size());
+        assertEquals(OtaChunkStreamer.MAX_CHUNK_IN_FLIGHT+1,writer.sent.size());
+        assertEquals(CHUNK_LENGTH,progress.sentBytes);
+
+        writer.writeAll();
+        assertEquals(OtaChunkStreamer.MAX_CHUNK_IN_FLIGHT,writer.maxInFlight);
+        assertEquals(50,writer.sent.size());
+        assertEquals(1,progress.nComplete);
+    }
+
+    @Test
+    public void theBuffersAreReused(){
+        PendingWriter writer = new PendingWriter();
+        OtaChunkStreamer streamer = new OtaChunkStreamer(
+                FirmwareImage.wrap(randomContent(1000*CHUNK_LENGTH)),0,CHUNK_LENGTH,
+                writer,new Progress());
+        streamer.start();
+        writer.writeAll();
+        assertEquals(1000,writer.sent.size());
+        assertEquals(OtaChunkStreamer.MAX_CHUNK_IN_FLIGHT,writer.buffers.size());
+        assertEquals(OtaChunkStreamer.MAX_CHUNK_IN_FLIGHT,streamer.getNAllocatedChunk());
+    }
+
+    @Test
+    public void theLastChunkIsPaddedToTheFlashWriteSize(){
+        byte[] content = randomContent(2*CHUNK_LENGTH+3);
+        PendingWriter writer = new PendingWriter();
+        Progress progress = new Progress();
+        new OtaChunkStreamer(FirmwareImage.wrap(content),0,CHUNK_LENGTH,writer,progress).start();
+        writer.writeAll();
+
+        assertEquals(3,writer.sent.size());
+        byte[] last = writer.sent.get(2);
+        assertEquals(0,(2*CHUNK_LENGTH+last.length)%OtaChunkStreamer.FLASH_WRITE_SIZE);
+        assertEquals(OtaChunkStreamer.FLASH_WRITE_SIZE,last.length);
+        assertArrayEquals(Arrays.copyOfRange(content,2*CHUNK_LENGTH,content.length),
+                Arrays.copyOf(last,3));
+        for(int i = 3 ; i<last.length ; i++)
+            assertEquals(OtaChunkStreamer.ERASED_FLASH_VALUE,last[i]);
+        //the padding is not part of the file
+        assertEquals(content.length,progress.sentBytes);
+        assertEquals(1,progress.nComplete);
+    }
+
+    @Test
+    public void thePaddingFromAnOffsetEndsAtTheFlashWriteSize(){
+        final int startOffset = 8;
+        byte[] content = randomContent(CHUNK_LENGTH+startOffset+5);
+        PendingWriter writer = new PendingWriter();
+        Progress progress = new Progress();
+        new OtaChunkStreamer(FirmwareImage.wrap(content),startOffset,CHUNK_LENGTH,writer,progress)
+                .start();
+        writer.writeAll();
+
+        assertEquals(2,writer.sent.size());
+        assertArrayEquals(Arrays.copyOfRange(content,startOffset,startOffset+CHUNK_LENGTH),
+                writer.sent.get(0));
+        byte[] last = writer.sent.get(1);
+        assertEquals(0,(startOffset+CHUNK_LENGTH+last.length)%OtaChunkStreamer.FLASH_WRITE_SIZE);
+        assertTrue(last.length<=CHUNK_LENGTH);
+        for(int i = 5 ; i<last.length ; i++)
+            assertEquals(OtaChunkStreamer.ERASED_FLASH_VALUE,last[i]);
+        assertEquals(content.length-startOffset,progress.sentBytes);
+    }
+
+    @Test
+    public void nothingIsSentAfterTheEnd(){
+        PendingWriter writer = new PendingWriter();
+        Progress progress = new Progress();
+        new OtaChunkStreamer(FirmwareImage.wrap(randomContent(64)),64,CHUNK_LENGTH,writer,progress)
+                .start();
+        assertTrue(writer.sent.isEmpty());
+        assertEquals(1,progress.nComplete);
+    }
+}